@@ -1,30 +1,114 @@
 package io.provenance;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import io.provenance.config.ConfigWatcher;
+import io.provenance.config.ContextConfig;
 import io.provenance.config.ProvenanceConfig;
 import io.provenance.exception.ConfigParseException;
+import io.provenance.executor.ExecutionPolicy;
+import io.provenance.executor.FairExecutor;
+import io.provenance.lineage.Lineage;
+import io.provenance.lineage.LineageTracer;
+import io.provenance.metrics.Metrics;
+import io.provenance.metrics.MetricsSnapshot;
+import io.provenance.metrics.SinkMetrics;
+import io.provenance.sampling.SamplingPolicy;
+import io.provenance.sink.Sink;
 import io.provenance.types.Context;
 import io.provenance.types.Datapoint;
+import io.provenance.types.DatapointBatch;
 import io.provenance.types.InputDatapoint;
+import io.provenance.types.InputSet;
+import io.provenance.types.Recycler;
 
 public class ProvenanceContext {
 	
-	private static ProvenanceContext pc;
+	private static final Logger LOGGER = Logger.getLogger(ProvenanceContext.class.getName());
+	
+	private static volatile ProvenanceContext pc;
+	
+	/**
+	 * Maximum time a reload waits for the new sink to become ready before it keeps the current configuration.
+	 */
+	
+	private static final long RELOAD_READY_TIMEOUT_MS = 60000;
+	private static final long RETIRE_TIMEOUT_MS = 60000;
+	
+	private final SinkMetrics metrics;
+	private final AtomicReference<Generation> generation;
+	private ConfigWatcher watcher;
 
-	private ProvenanceContext() throws ConfigParseException {
-		ProvenanceConfig.configure();
+	private ProvenanceContext(ContextConfig config) {
+		this.metrics = Metrics.register("context-" + config.getName());
+		this.generation = new AtomicReference<Generation>(new Generation(config));
+		ProvenanceConfig.setDefaultIfAbsent(config);
+	}
+	
+	/**
+	 * Creates the context and starts watching its config file if 'config.watch' is set.
+	 */
+	
+	private static ProvenanceContext start(ContextConfig config) {
+		ProvenanceContext context = new ProvenanceContext(config);
+		if(config.isWatch() && config.getSource() != null) {
+			try {
+				context.watch(config.getSource());
+			} catch (IOException ioe) {
+				LOGGER.log(Level.WARNING, "Could not watch the config file " + config.getSource() + ", changes are applied at the next start.", ioe);
+			}
+		}
+		return context;
 	}
 
 	/**
 	 * If ProvenanceContext already exits it will simply return otherwise it will first create the ProvenanceContext object.
-	 * There can be only one ProvenanceContext object per node. 
+	 * The node's ProvenanceContext is configured from the config file 'provenance_properties' points to and it is created
+	 * exactly once, even if several threads ask for it at the same time.
 	 *
 	 * @return      ProvenanceContext object.
 	 */
 	
 	public static ProvenanceContext getOrCreate() throws ConfigParseException {
-		if(pc == null) 
-			pc = new ProvenanceContext();
-		return pc;
+		ProvenanceContext context = pc;
+		if(context == null) {
+			synchronized (ProvenanceContext.class) {
+				context = pc;
+				if(context == null)
+					pc = context = start(ProvenanceConfig.load());
+			}
+		}
+		return context;
+	}
+	
+	/**
+	 * Creates an independent ProvenanceContext, i.e. one per tenant or one per sink. Datapoint IDs are generated from the
+	 * configuration of the first context created on the node.
+	 *
+	 * Example Usage:
+	 *				ProvenanceContext pc = ProvenanceContext.create(ProvenanceConfig.load("/etc/provenance/tenant1.properties"));
+	 *
+	 * @param  config  Configuration of the new context.
+	 * @return      ProvenanceContext object.
+	 * @see         ProvenanceConfig
+	 */
+	
+	public static ProvenanceContext create(ContextConfig config) {
+		return start(config);
 	}
 	
 	/**
@@ -34,13 +118,187 @@ public class ProvenanceContext {
 	 *				ProvenanceContext pc = ProvenanceContext.getOrCreate();
 	 *				pc.save(new Datapoint());
 	 *
+	 * In recycling mode ('recycle.enabled') the datapoints, their contexts and input data points are returned to the
+	 * thread's Recycler pools once the sink has stored them, they must not be used afterwards.
+	 *
+	 * With sampling enabled ('sampling.policy') raw datapoints the sampler rejects are not pushed and are counted as
+	 * dropped, their IDs are still returned so they can be used as inputs, see SamplingPolicy.
+	 *
 	 * @param  Datapoint...  Datapoints to be pushed.
 	 * @return      An array of the IDs of the Datapoint that are successfully pushed to storage.
 	 * @see         Datapoint
 	 */
 	
 	public String[] save(Datapoint... dps) {
-		return ProvenanceConfig.getSink().ingest(dps);
+		Generation current = enter();
+		try {
+			return save(current, dps, current.recycling);
+		} finally {
+			current.exit();
+		}
+	}
+	
+	/**
+	 * Saves the datapoints. 'recycle' is only set on the thread that created them, the Recycler pools are
+	 * thread-local, so datapoints released on another thread would never get back to the producer.
+	 */
+	
+	private String[] save(Generation current, Datapoint[] dps, boolean recycle) {
+		if(current.sampling != null)
+			return saveSampled(current, dps, recycle);
+		long start = metrics.start();
+		try {
+			String[] ids = current.sink.ingest(dps);
+			metrics.success(start, dps.length);
+			if(recycle)
+				Recycler.release(dps);
+			return ids;
+		} catch (RuntimeException re) {
+			metrics.failure(start);
+			throw re;
+		}
+	}
+	
+	private String[] saveSampled(Generation current, Datapoint[] dps, boolean recycle) {
+		SamplingPolicy sampling = current.sampling;
+		Datapoint[] kept = sampling.apply(dps, current.config.getIdGenerator());
+		String[] ids = sampledIds(dps, kept);
+		long start = metrics.start();
+		try {
+			String[] stored = kept.length == 0 ? new String[0] : current.sink.ingest(kept);
+			metrics.success(start, kept.length);
+			sampling.record(System.nanoTime() - start, kept.length);
+			if(recycle)
+				Recycler.release(dps);
+			return ids != null ? ids : stored;
+		} catch (RuntimeException re) {
+			metrics.failure(start);
+			sampling.record(System.nanoTime() - start, 0);
+			throw re;
+		}
+	}
+	
+	/**
+	 * Returns the IDs of all datapoints and counts the sampled out ones as dropped, null if none was sampled out.
+	 */
+	
+	private String[] sampledIds(Datapoint[] dps, Datapoint[] kept) {
+		if(kept == dps)
+			return null;
+		String[] ids = new String[dps.length];
+		for(int i=0; i<dps.length; i++)
+			ids[i] = dps[i] == null ? null : dps[i].getId();
+		metrics.dropped(SamplingPolicy.dropped(dps, kept));
+		return ids;
+	}
+	
+	/**
+	 * Bulk variant of save for rows held in a columnar DatapointBatch, i.e. readings collected without creating a
+	 * Datapoint per reading. The batch can be cleared and reused once the call returns.
+	 * 
+	 * Example Usage:
+	 *				ProvenanceContext pc = ProvenanceContext.getOrCreate();
+	 *				DatapointBatch batch = new DatapointBatch(1024);
+	 *				batch.addRow("meter-1", "kWh", System.currentTimeMillis());
+	 *				pc.save(batch);
+	 *
+	 * With sampling enabled the rows are materialized as Datapoints and sampled like save(Datapoint...).
+	 *
+	 * @param  batch  Rows to be pushed.
+	 * @return      An array of the IDs of the rows, in row order.
+	 * @see         DatapointBatch
+	 */
+	
+	public String[] save(DatapointBatch batch) {
+		Generation current = enter();
+		try {
+			if(current.sampling != null)
+				return saveSampled(current, batch.toDatapoints(), current.recycling);
+			long start = metrics.start();
+			try {
+				String[] ids = current.sink.ingest(batch);
+				metrics.success(start, batch.size());
+				return ids;
+			} catch (RuntimeException re) {
+				metrics.failure(start);
+				throw re;
+			}
+		} finally {
+			current.exit();
+		}
+	}
+	
+	/**
+	 * Asynchronous variant of save. The writes are pipelined to the sink and the calling thread only blocks
+	 * when the sink's in-flight limit ('cassandra.max.requests.per.host') has been reached.
+	 * 
+	 * Example Usage:
+	 *				ProvenanceContext pc = ProvenanceContext.getOrCreate();
+	 *				pc.saveAsync(new Datapoint()).thenAccept(ids -> ...);
+	 *
+	 * Sampling applies as in save(), the sampler sees the time until the sink acknowledged the write.
+	 *
+	 * With 'execution.mode' 'pool' or 'virtual' the save runs on the context's workers instead, like save() including
+	 * sampling, and the calling thread only blocks while 'execution.queue.capacity' saves are pending. The datapoints
+	 * are not recycled there, the Recycler pools are thread-local and a worker's pool would never reach the producer.
+	 * Saves are scheduled fairly by the meter of their first datapoint and run in order per meter, see FairExecutor.
+	 * A save queued from a worker, i.e. in the completion callback of another save, does not wait for a free slot and
+	 * fails with a RejectedExecutionException when the queue is full.
+	 *
+	 * @param  Datapoint...  Datapoints to be pushed.
+	 * @return      A future completed with the IDs of the Datapoint once all of them are pushed to storage.
+	 * @see         Datapoint
+	 */
+	
+	public CompletableFuture<String[]> saveAsync(Datapoint... dps) {
+		Generation current = enter();
+		if(current.executor != null)
+			return saveOnExecutor(current, dps);
+		SamplingPolicy sampling = current.sampling;
+		long start = metrics.start();
+		CompletableFuture<String[]> ids;
+		try {
+			Datapoint[] kept = sampling == null ? dps : sampling.apply(dps, current.config.getIdGenerator());
+			String[] all = sampledIds(dps, kept);
+			ids = kept.length == 0 ? CompletableFuture.completedFuture(all != null ? all : new String[0]) : current.sink.ingestAsync(kept);
+			int count = kept.length;
+			ids.whenComplete((done, t) -> {
+				if(t == null)
+					metrics.success(start, count);
+				else
+					metrics.failure(start);
+				if(sampling != null)
+					sampling.record(System.nanoTime() - start, t == null ? count : 0);
+			});
+			if(all != null)
+				ids = ids.thenApply(stored -> all);
+		} catch (RuntimeException re) {
+			metrics.failure(start);
+			current.exit();
+			throw re;
+		}
+		ids.whenComplete((done, t) -> current.exit());
+		return ids;
+	}
+	
+	private CompletableFuture<String[]> saveOnExecutor(Generation current, Datapoint[] dps) {
+		CompletableFuture<String[]> ids = new CompletableFuture<String[]>();
+		String meter = dps.length == 0 || dps[0] == null || dps[0].getContext() == null ? null : dps[0].getContext().getMeterId();
+		try {
+			current.executor.execute(meter, () -> {
+				try {
+					ids.complete(save(current, dps, false));
+				} catch (RuntimeException re) {
+					ids.completeExceptionally(re);
+				} finally {
+					current.exit();
+				}
+			});
+		} catch (RuntimeException re) {
+			current.exit();
+			throw re;
+		}
+		return ids;
 	}
 	
 	/**
@@ -58,7 +316,7 @@ public class ProvenanceContext {
 	 */
 	
 	public String[] getContextParams() {
-		return ProvenanceConfig.getMetrics();
+		return generation.get().config.getMetricNames();
 	}
 	
 	/**
@@ -70,10 +328,7 @@ public class ProvenanceContext {
 	 */
 	
 	public InputDatapoint[] getInputDatapoints(String[] inputDatapointsIDs) {
-		InputDatapoint[] inputDatapoints = new InputDatapoint[inputDatapointsIDs.length];
-		for(int i=0; i<inputDatapointsIDs.length; i++)
-			inputDatapoints[i] = new InputDatapoint(inputDatapointsIDs[i], "simple");
-		return inputDatapoints;
+		return getInputDatapoints(inputDatapointsIDs, "simple");
 	}
 	
 	/**
@@ -86,13 +341,314 @@ public class ProvenanceContext {
 	 */
 	
 	public InputDatapoint[] getInputDatapoints(String[] inputDatapointsIDs, String contrIbution) {
+		if(generation.get().recycling)
+			return Recycler.inputs(inputDatapointsIDs, contrIbution);
+		contrIbution = Recycler.intern(contrIbution);
 		InputDatapoint[] inputDatapoints = new InputDatapoint[inputDatapointsIDs.length];
 		for(int i=0; i<inputDatapointsIDs.length; i++)
 			inputDatapoints[i] = new InputDatapoint(inputDatapointsIDs[i], contrIbution);
 		return inputDatapoints;
 	}
 	
+	/**
+	 * Returns the inputs of a derived Datapoint in compact form, for aggregates with many inputs that all contribute
+	 * the same way. The IDs are stored as ranges and bitmaps of ID bits instead of one entry per input.
+	 * 
+	 * Example Usage:
+	 *				ProvenanceContext pc = ProvenanceContext.getOrCreate();
+	 *				pc.save(new Datapoint(pc.getInputSet(readingIds, "Avg"), context));
+	 *
+	 * @param  inputDatapointsIDs  An array of the IDs of the Datapoint containing all the data points that will contribute to the new Datapoint.
+	 * @param  contrIbution        Type of contribution for the input data points to the new data point. i.e. ("Avg", "Min")
+	 * @return      The compact set of the input data points.
+	 * @see         InputSet
+	 */
+	
+	public InputSet getInputSet(String[] inputDatapointsIDs, String contrIbution) {
+		return InputSet.of(inputDatapointsIDs, contrIbution, generation.get().config.getIdGenerator());
+	}
+	
+	/**
+	 * Traces the datapoints a datapoint was derived from, following its input datapoints hop by hop. Each hop is
+	 * fetched from the sink in one batch and resolved datapoints are cached ('lineage.cache.size'), so repeated
+	 * traces over the same lineage are served from memory.
+	 * 
+	 * Example Usage:
+	 *				ProvenanceContext pc = ProvenanceContext.getOrCreate();
+	 *				for(Datapoint dp : pc.traceBackward(aggregateId, 3).getDatapoints())
+	 *					...
+	 *
+	 * @param  id  ID of the traced Datapoint.
+	 * @param  depth  Maximum number of hops, 0 only fetches the traced Datapoint.
+	 * @return      The Datapoints reached, nearest first.
+	 * @see         Lineage
+	 */
+	
+	public Lineage traceBackward(String id, int depth) {
+		Generation current = enter();
+		try {
+			return current.lineage.traceBackward(id, depth);
+		} finally {
+			current.exit();
+		}
+	}
+	
+	/**
+	 * Traces the datapoints derived from a datapoint, hop by hop. Requires a sink that indexes derived datapoints,
+	 * otherwise UnsupportedOperationException is thrown.
+	 *
+	 * @param  id  ID of the traced Datapoint.
+	 * @param  depth  Maximum number of hops, 0 only fetches the traced Datapoint.
+	 * @return      The Datapoints reached, nearest first.
+	 * @see         Lineage
+	 */
+	
+	public Lineage traceForward(String id, int depth) {
+		Generation current = enter();
+		try {
+			return current.lineage.traceForward(id, depth);
+		} finally {
+			current.exit();
+		}
+	}
+	
+	/**
+	 * Returns all datapoints of a meter created in [from, to), ordered by creation time. Results are paged from the
+	 * sink as the stream is consumed. Requires a sink with a time ordered layout ('cassandra.time.table: true'),
+	 * otherwise UnsupportedOperationException is thrown.
+	 * 
+	 * Example Usage:
+	 *				ProvenanceContext pc = ProvenanceContext.getOrCreate();
+	 *				try(Stream<Datapoint> datapoints = pc.query("meter-7", from, to)) {
+	 *					datapoints.forEach(dp -> ...);
+	 *				}
+	 *
+	 * The stream counts as a call in flight until it is closed: a stream still open when the configuration is reloaded
+	 * keeps reading from the previous sink, which is closed once the stream and the saves in flight on it are done, or
+	 * a minute after the reload at the latest. A stream still open then fails, and until then it delays close() and
+	 * reload(). Streams should therefore always be closed, i.e. in a try-with-resources block.
+	 *
+	 * @param  meterId  Meter ID, or application name if METER is not a configured metric.
+	 * @param  from  Start of the creation time range, inclusive.
+	 * @param  to  End of the creation time range, exclusive.
+	 * @return      A lazily paged stream of the Datapoints.
+	 */
+	
+	public Stream<Datapoint> query(String meterId, Date from, Date to) {
+		Generation current = enter();
+		try {
+			return current.sink.query(meterId, from, to).onClose(current::exit);
+		} catch (RuntimeException re) {
+			current.exit();
+			throw re;
+		}
+	}
+	
+	/**
+	 * Returns a future completed once the sink is connected and its schema is in place. With asynchronous startup
+	 * ('cassandra.startup.async') getOrCreate returns before that, and datapoints saved earlier are buffered and
+	 * written once the sink is ready.
+	 *
+	 * Example Usage:
+	 *				ProvenanceContext pc = ProvenanceContext.getOrCreate();
+	 *				pc.ready().get(30, TimeUnit.SECONDS);
+	 *
+	 * @return      A future completed when the sink is ready, or completed exceptionally if it was closed before.
+	 */
+	
+	public CompletableFuture<Void> ready() {
+		Generation current = enter();
+		try {
+			return current.sink.ready();
+		} finally {
+			current.exit();
+		}
+	}
+	
+	/**
+	 * Returns whether the sink is ready and accepts writes, i.e. for a health check endpoint. A Cassandra sink is not
+	 * healthy while it is starting or while its circuit breaker is open.
+	 */
+	
+	public boolean isHealthy() {
+		Generation current = enter();
+		try {
+			return current.sink.isHealthy();
+		} finally {
+			current.exit();
+		}
+	}
+	
+	/**
+	 * Returns the configuration the context currently runs with.
+	 */
+	
+	public ContextConfig getConfig() {
+		return generation.get().config;
+	}
+	
+	/**
+	 * Reloads the config file whenever it changes, see reload. Set 'config.watch: true' to watch the file a context
+	 * was loaded from.
+	 *
+	 * @param  path  Location of the config file.
+	 */
+	
+	public synchronized void watch(String path) throws IOException {
+		if(watcher != null)
+			watcher.close();
+		watcher = new ConfigWatcher(Paths.get(path), this::reload);
+	}
+	
+	private void reload(Path file) {
+		try {
+			reload(ProvenanceConfig.reload(file.toString(), getConfig()));
+			LOGGER.info("Reloaded the configuration of context " + getConfig().getName() + " from " + file + ".");
+		} catch (ConfigParseException cpe) {
+			LOGGER.warning("Keeping the configuration of context " + getConfig().getName() + ", the changed config file " + file + " is invalid: " + cpe.getMessage());
+		}
+	}
+	
+	/**
+	 * Switches the context to a new configuration without stopping saves. The new sink is used once it is ready,
+	 * until then saves keep going to the current sink. After the switch the current sink is closed as soon as the
+	 * saves in flight on it are done, closing flushes buffered and spooled datapoints. If the new sink does not
+	 * become ready within a minute it is closed and the context keeps its configuration.
+	 *
+	 * Example Usage:
+	 *				ProvenanceContext pc = ProvenanceContext.getOrCreate();
+	 *				pc.reload(ProvenanceConfig.reload(path, pc.getConfig()));
+	 *
+	 * @param  config  New configuration, with its own sink.
+	 * @return      true if the context switched to the new configuration.
+	 */
+	
+	public synchronized boolean reload(ContextConfig config) {
+		try {
+			config.getSink().ready().get(RELOAD_READY_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+		} catch (ExecutionException | TimeoutException e) {
+			LOGGER.log(Level.WARNING, "Keeping the configuration of context " + getConfig().getName() + ", the new sink did not become ready.", e);
+			config.getSink().close();
+			return false;
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			config.getSink().close();
+			return false;
+		}
+		Generation previous = generation.getAndSet(new Generation(config));
+		ProvenanceConfig.replaceDefault(previous.config, config);
+		previous.retire();
+		return true;
+	}
+	
+	/**
+	 * Returns a snapshot of the metrics of every context and sink of this node, the same values are exposed through JMX
+	 * as io.provenance:type=SinkMetrics beans.
+	 *
+	 * Example Usage:
+	 *				ProvenanceContext pc = ProvenanceContext.getOrCreate();
+	 *				for(MetricsSnapshot snapshot : pc.getMetrics())
+	 *					System.out.println(snapshot);
+	 *
+	 * @return      A list of metrics snapshots, one per context and sink.
+	 * @see         MetricsSnapshot
+	 */
+	
+	public List<MetricsSnapshot> getMetrics() {
+		return Metrics.snapshot();
+	}
+	
+	/**
+	 * Closes the sink. When buffering is enabled all buffered datapoints are flushed before the sink is closed.
+	 */
+	
 	public void close() {
-		ProvenanceConfig.getSink().close();
+		ConfigWatcher closing;
+		synchronized (this) {
+			closing = watcher;
+			watcher = null;
+		}
+		if(closing != null)
+			closing.close();
+		Metrics.unregister(metrics);
+		synchronized (this) {
+			generation.get().retire();
+		}
+	}
+	
+	/**
+	 * Returns the current generation after registering a call on it. A generation retired in the meantime is
+	 * skipped, the caller has to exit() the returned one.
+	 */
+	
+	private Generation enter() {
+		while(true) {
+			Generation current = generation.get();
+			if(current.enter())
+				return current;
+			if(generation.get() == current)
+				throw new IllegalStateException("ProvenanceContext " + current.config.getName() + " is closed.");
+		}
+	}
+	
+	/**
+	 * The sink of one configuration and what is derived from it. Calls register with enter() and exit(), once the
+	 * generation is retired no new calls enter and its workers and sink are closed when the last one exited.
+	 */
+	
+	private static final class Generation {
+		
+		private final ContextConfig config;
+		private final Sink sink;
+		private final LineageTracer lineage;
+		private final boolean recycling;
+		private final SamplingPolicy sampling;
+		private final FairExecutor executor;
+		private final AtomicLong calls = new AtomicLong();
+		private volatile boolean retired;
+		
+		Generation(ContextConfig config) {
+			this.config = config;
+			this.sink = config.getSink();
+			this.lineage = new LineageTracer(sink, config.getLineageCacheSize());
+			this.recycling = config.isRecycling() && !sink.retainsDatapoints();
+			if(config.isRecycling() && !recycling)
+				LOGGER.warning("Recycling is disabled for context " + config.getName() + ", its sink keeps references to the saved datapoints.");
+			this.sampling = config.getSampling();
+			ExecutionPolicy execution = config.getExecution();
+			this.executor = execution == null ? null : execution.createExecutor(config.getName());
+		}
+		
+		boolean enter() {
+			calls.incrementAndGet();
+			if(!retired)
+				return true;
+			calls.decrementAndGet();
+			return false;
+		}
+		
+		void exit() {
+			calls.decrementAndGet();
+		}
+		
+		/**
+		 * Waits up to RETIRE_TIMEOUT_MS for the calls in flight, then closes the workers and the sink. A query stream
+		 * that is never closed counts as a call until the timeout, it fails once the sink is closed.
+		 */
+		
+		void retire() {
+			retired = true;
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RETIRE_TIMEOUT_MS);
+			while(calls.get() != 0) {
+				if(System.nanoTime() - deadline > 0) {
+					LOGGER.warning("Closing the sink of context " + config.getName() + " with " + calls.get() + " calls or query streams still open.");
+					break;
+				}
+				LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+			}
+			if(executor != null)
+				executor.close();
+			sink.close();
+		}
 	}
 }
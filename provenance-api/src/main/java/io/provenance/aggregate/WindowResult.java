@@ -0,0 +1,108 @@
+package io.provenance.aggregate;
+
+/**
+ * Aggregates of one closed window of one meter and metric, together with the IDs of the derived datapoints the
+ * WindowedAggregator saved for them.
+ */
+
+public class WindowResult {
+
+	private final String meterId;
+	private final String metricId;
+	private final long start;
+	private final long end;
+	private final int count;
+	private final double min;
+	private final double max;
+	private final double sum;
+	private final String avgId;
+	private final String minId;
+	private final String maxId;
+
+	WindowResult(String meterId, String metricId, long start, long end, int count, double min, double max, double sum, String avgId, String minId, String maxId) {
+		this.meterId = meterId;
+		this.metricId = metricId;
+		this.start = start;
+		this.end = end;
+		this.count = count;
+		this.min = min;
+		this.max = max;
+		this.sum = sum;
+		this.avgId = avgId;
+		this.minId = minId;
+		this.maxId = maxId;
+	}
+
+	public String getMeterId() {
+		return meterId;
+	}
+
+	public String getMetricId() {
+		return metricId;
+	}
+
+	/**
+	 * Returns the start of the window in milliseconds since the epoch, inclusive.
+	 */
+
+	public long getStart() {
+		return start;
+	}
+
+	/**
+	 * Returns the end of the window in milliseconds since the epoch, exclusive.
+	 */
+
+	public long getEnd() {
+		return end;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public double getMin() {
+		return min;
+	}
+
+	public double getMax() {
+		return max;
+	}
+
+	public double getSum() {
+		return sum;
+	}
+
+	public double getAvg() {
+		return sum / count;
+	}
+
+	/**
+	 * Returns the ID of the derived "Avg" datapoint, whose inputs are all readings of the window.
+	 */
+
+	public String getAvgId() {
+		return avgId;
+	}
+
+	/**
+	 * Returns the ID of the derived "Min" datapoint, whose input is the reading with the smallest value.
+	 */
+
+	public String getMinId() {
+		return minId;
+	}
+
+	/**
+	 * Returns the ID of the derived "Max" datapoint, whose input is the reading with the largest value.
+	 */
+
+	public String getMaxId() {
+		return maxId;
+	}
+
+	@Override
+	public String toString() {
+		return meterId + "/" + metricId + " [" + start + ", " + end + ") count=" + count + " min=" + min + " max=" + max + " avg=" + getAvg();
+	}
+}
@@ -0,0 +1,299 @@
+package io.provenance.aggregate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import io.provenance.ProvenanceContext;
+import io.provenance.id.IdGenerator;
+import io.provenance.types.Context;
+import io.provenance.types.Datapoint;
+import io.provenance.types.InputDatapoint;
+import io.provenance.types.InputSet;
+
+/**
+ * Streaming min, max and average over time windows of meter readings, keyed by meter ID and metric ID. Windows are
+ * 'sizeMs' long and start every 'slideMs', i.e. tumbling windows for slideMs == sizeMs and overlapping sliding windows
+ * for a smaller slideMs. The aggregates are updated incrementally as readings are added, a window only keeps its
+ * running count, sum, min and max and the ID bits of its readings. Readings whose IDs were handed out by another
+ * IdGenerator than the context's, i.e. saved to another context or restored from a sink, keep their ID string.
+ *
+ * Windows are closed by event time: the watermark is the latest creation time seen minus 'latenessMs', and every window
+ * ending at or before it is closed. A reading that only falls into closed windows is dropped and counted. When a window
+ * closes, three derived datapoints are saved in one call: "Avg" with all readings of the window as a compact InputSet,
+ * and "Min" and "Max" with only the reading that holds the extreme value. The WindowResult is passed to the listener.
+ *
+ * Example Usage:
+ *				WindowedAggregator hourly = new WindowedAggregator(pc, 3600000, 3600000, 60000, result -> ...);
+ *				Datapoint dp = new Datapoint(context);
+ *				pc.save(dp);
+ *				hourly.add(dp, reading);
+ */
+
+public class WindowedAggregator implements AutoCloseable {
+
+	private static final Logger LOGGER = Logger.getLogger(WindowedAggregator.class.getName());
+
+	private final ProvenanceContext pc;
+	private final long sizeMs;
+	private final long slideMs;
+	private final long latenessMs;
+	private final Consumer<WindowResult> listener;
+	private final HashMap<String, HashMap<String, List<Window>>> open = new HashMap<String, HashMap<String, List<Window>>>();
+	private final PriorityQueue<Window> closing = new PriorityQueue<Window>((a, b) -> Long.compare(a.end, b.end));
+	private long watermark = Long.MIN_VALUE;
+	private long dropped;
+
+	/**
+	 * Creates a new aggregator.
+	 *
+	 * @param  pc  Context the derived datapoints are saved to.
+	 * @param  sizeMs  Length of a window in milliseconds.
+	 * @param  slideMs  Distance between the starts of two windows in milliseconds, sizeMs for tumbling windows.
+	 * @param  latenessMs  How long a window stays open after later readings arrived, in milliseconds.
+	 * @param  listener  Receives the result of every closed window, may be null.
+	 */
+
+	public WindowedAggregator(ProvenanceContext pc, long sizeMs, long slideMs, long latenessMs, Consumer<WindowResult> listener) {
+		if(sizeMs <= 0 || slideMs <= 0 || slideMs > sizeMs || latenessMs < 0)
+			throw new IllegalArgumentException("Invalid window: sizeMs and slideMs should be positive, slideMs should not be larger than sizeMs and latenessMs should not be negative.");
+		this.pc = pc;
+		this.sizeMs = sizeMs;
+		this.slideMs = slideMs;
+		this.latenessMs = latenessMs;
+		this.listener = listener;
+	}
+
+	/**
+	 * Adds a reading to every window of its meter and metric that covers its creation time, and closes the windows
+	 * the reading moves the watermark past.
+	 *
+	 * @param  dp  Datapoint of the reading, its context has to carry a creation time.
+	 * @param  value  Value of the reading.
+	 */
+
+	public void add(Datapoint dp, double value) {
+		Context context = dp.getContext();
+		if(context == null || context.getTimestamp() == null)
+			throw new IllegalArgumentException("Datapoint " + dp.getId() + " has no creation time.");
+		long time = context.getTimestamp().getTime();
+		long idBits = dp.getIdBits(pc.getConfig().getIdGenerator());
+		String id = idBits == -1 ? dp.getId() : null;
+		List<Window> closed;
+		synchronized (this) {
+			List<Window> windows = windows(context.getMeterId(), context.getMetricId());
+			boolean added = false;
+			for(long start = Math.floorDiv(time, slideMs) * slideMs; start > time - sizeMs; start -= slideMs) {
+				if(start + sizeMs <= watermark)
+					break;
+				window(windows, context, start).add(idBits, id, value);
+				added = true;
+			}
+			if(!added)
+				dropped++;
+			closed = advance(time - latenessMs);
+		}
+		emit(closed);
+	}
+
+	/**
+	 * Moves the watermark forward without a reading, i.e. by wall clock time while meters are quiet.
+	 *
+	 * @param  time  New watermark in milliseconds since the epoch, ignored if it is behind the current one.
+	 */
+
+	public void advanceTo(long time) {
+		List<Window> closed;
+		synchronized (this) {
+			closed = advance(time);
+		}
+		emit(closed);
+	}
+
+	/**
+	 * Closes all open windows, whether they have ended or not.
+	 */
+
+	public void flush() {
+		List<Window> closed;
+		synchronized (this) {
+			closed = advance(Long.MAX_VALUE);
+		}
+		emit(closed);
+	}
+
+	/**
+	 * Returns the number of readings dropped because all their windows were already closed.
+	 */
+
+	public synchronized long getDropped() {
+		return dropped;
+	}
+
+	public synchronized int getOpenWindows() {
+		return closing.size();
+	}
+
+	/**
+	 * Closes all open windows.
+	 */
+
+	public void close() {
+		flush();
+	}
+
+	private List<Window> windows(String meterId, String metricId) {
+		HashMap<String, List<Window>> metrics = open.get(meterId);
+		if(metrics == null)
+			open.put(meterId, metrics = new HashMap<String, List<Window>>());
+		List<Window> windows = metrics.get(metricId);
+		if(windows == null)
+			metrics.put(metricId, windows = new ArrayList<Window>(2));
+		return windows;
+	}
+
+	/**
+	 * Returns the open window starting at 'start', creating it if needed. The windows of a key are sorted by start.
+	 */
+
+	private Window window(List<Window> windows, Context context, long start) {
+		int i = windows.size();
+		while(i > 0 && windows.get(i - 1).start >= start) {
+			if(windows.get(i - 1).start == start)
+				return windows.get(i - 1);
+			i--;
+		}
+		Window window = new Window(context.getMeterId(), context.getMetricId(), start, start + sizeMs);
+		windows.add(i, window);
+		closing.add(window);
+		return window;
+	}
+
+	private List<Window> advance(long time) {
+		if(time <= watermark)
+			return null;
+		watermark = time;
+		List<Window> closed = null;
+		while(!closing.isEmpty() && closing.peek().end <= watermark) {
+			Window window = closing.poll();
+			HashMap<String, List<Window>> metrics = open.get(window.meterId);
+			List<Window> windows = metrics.get(window.metricId);
+			windows.remove(window);
+			if(windows.isEmpty()) {
+				metrics.remove(window.metricId);
+				if(metrics.isEmpty())
+					open.remove(window.meterId);
+			}
+			if(closed == null)
+				closed = new ArrayList<Window>();
+			closed.add(window);
+		}
+		return closed;
+	}
+
+	/**
+	 * Saves the derived datapoints of closed windows and notifies the listener, outside the aggregator's lock.
+	 */
+
+	private void emit(List<Window> closed) {
+		if(closed == null)
+			return;
+		IdGenerator idGenerator = pc.getConfig().getIdGenerator();
+		for(Window window : closed) {
+			Datapoint avg = new Datapoint(idGenerator, window.inputs(idGenerator, "Avg"), window.context());
+			Datapoint min = new Datapoint(idGenerator, new InputDatapoint[] {new InputDatapoint(window.id(idGenerator, window.minIndex), "Min")}, window.context());
+			Datapoint max = new Datapoint(idGenerator, new InputDatapoint[] {new InputDatapoint(window.id(idGenerator, window.maxIndex), "Max")}, window.context());
+			String avgId = avg.getId();
+			String minId = min.getId();
+			String maxId = max.getId();
+			try {
+				pc.save(avg, min, max);
+			} catch (RuntimeException re) {
+				LOGGER.log(Level.WARNING, "Failed to save the aggregates of " + window.meterId + "/" + window.metricId + " [" + window.start + ", " + window.end + ").", re);
+				continue;
+			}
+			if(listener != null)
+				listener.accept(new WindowResult(window.meterId, window.metricId, window.start, window.end, window.count, window.min, window.max, window.sum, avgId, minId, maxId));
+		}
+	}
+
+	/**
+	 * Running aggregates of one window. Readings are kept as the ID bits of the context's IdGenerator, a reading with
+	 * an ID of another generator or restored from a stored ID (ID bits -1) keeps its ID string instead.
+	 */
+
+	private static final class Window {
+
+		private final String meterId;
+		private final String metricId;
+		private final long start;
+		private final long end;
+		private int count;
+		private double sum;
+		private double min = Double.POSITIVE_INFINITY;
+		private double max = Double.NEGATIVE_INFINITY;
+		private int minIndex;
+		private int maxIndex;
+		private long[] idBits = new long[8];
+		private String[] ids;
+
+		Window(String meterId, String metricId, long start, long end) {
+			this.meterId = meterId;
+			this.metricId = metricId;
+			this.start = start;
+			this.end = end;
+		}
+
+		void add(long bits, String id, double value) {
+			if(count == idBits.length)
+				idBits = Arrays.copyOf(idBits, count * 2);
+			if(id != null) {
+				if(ids == null)
+					ids = new String[idBits.length];
+				else if(ids.length < idBits.length)
+					ids = Arrays.copyOf(ids, idBits.length);
+				ids[count] = id;
+			}
+			idBits[count] = bits;
+			if(value < min) {
+				min = value;
+				minIndex = count;
+			}
+			if(value > max) {
+				max = value;
+				maxIndex = count;
+			}
+			sum += value;
+			count++;
+		}
+
+		String id(IdGenerator idGenerator, int index) {
+			return idBits[index] == -1 ? ids[index] : idGenerator.toString(idBits[index]);
+		}
+
+		InputSet inputs(IdGenerator idGenerator, String contrIbution) {
+			InputSet.Builder inputs = InputSet.builder(contrIbution, idGenerator);
+			for(int i=0; i<count; i++) {
+				if(idBits[i] == -1)
+					inputs.add(ids[i]);
+				else
+					inputs.add(idBits[i]);
+			}
+			return inputs.build();
+		}
+
+		Context context() {
+			Context context = new Context();
+			context.setMeterId(meterId);
+			context.setMetricId(metricId);
+			context.setTimestamp(new Date(end));
+			return context;
+		}
+	}
+}
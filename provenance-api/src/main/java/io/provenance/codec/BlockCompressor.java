@@ -0,0 +1,184 @@
+package io.provenance.codec;
+
+import java.util.Arrays;
+
+/**
+ * Block compressor producing the LZ4 block format, i.e. sequences of literals and back references of at most 64 KB,
+ * found through a hash table of 4 byte sequences. It is meant for blocks of encoded datapoints, which the
+ * DatapointCodec already strips of repeated labels but which still repeat their flags, context bitmaps and the
+ * bytes of near identical timestamps and ids from record to record.
+ *
+ * A compressor keeps its hash table between calls and must not be shared between threads, decompress() is stateless.
+ */
+
+public final class BlockCompressor {
+
+	private static final int MIN_MATCH = 4;
+	private static final int LAST_LITERALS = 5;
+	private static final int MF_LIMIT = 12;
+	private static final int MAX_OFFSET = 65535;
+	private static final int HASH_BITS = 14;
+	private static final int SKIP_TRIGGER = 6;
+
+	private final int[] table = new int[1 << HASH_BITS];
+
+	/**
+	 * Returns the size of the largest output compress() can produce for 'length' bytes, i.e. for incompressible input.
+	 */
+
+	public static int maxCompressedLength(int length) {
+		return length + length / 255 + 16;
+	}
+
+	/**
+	 * Compresses a block.
+	 *
+	 * @param  src  Array holding the block.
+	 * @param  srcOff  Start of the block.
+	 * @param  srcLen  Length of the block.
+	 * @param  dst  Array receiving the compressed block, with at least maxCompressedLength(srcLen) bytes after 'dstOff'.
+	 * @param  dstOff  Start of the compressed block.
+	 * @return      Length of the compressed block.
+	 */
+
+	public int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff) {
+		Arrays.fill(table, 0);
+		int end = srcOff + srcLen;
+		int matchLimit = end - LAST_LITERALS;
+		int mfLimit = end - MF_LIMIT;
+		int anchor = srcOff;
+		int op = dstOff;
+		int ip = srcOff + 1;
+		while(ip < mfLimit) {
+			int sequence = readInt(src, ip);
+			int hash = hash(sequence);
+			int ref = table[hash] - 1 + srcOff;
+			table[hash] = ip - srcOff + 1;
+			if(ref < srcOff || ip - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+				// incompressible data is skipped faster and faster
+				ip += 1 + ((ip - anchor) >>> SKIP_TRIGGER);
+				continue;
+			}
+			while(ip > anchor && ref > srcOff && src[ip - 1] == src[ref - 1]) {
+				ip--;
+				ref--;
+			}
+			int length = MIN_MATCH;
+			while(ip + length < matchLimit && src[ip + length] == src[ref + length])
+				length++;
+			op = writeSequence(src, anchor, ip - anchor, dst, op, ip - ref, length);
+			ip += length;
+			anchor = ip;
+			if(ip - 2 < mfLimit)
+				table[hash(readInt(src, ip - 2))] = ip - 2 - srcOff + 1;
+		}
+		int literals = end - anchor;
+		int token = op++;
+		dst[token] = (byte) (Math.min(literals, 15) << 4);
+		if(literals >= 15)
+			op = writeLength(dst, op, literals - 15);
+		System.arraycopy(src, anchor, dst, op, literals);
+		return op + literals - dstOff;
+	}
+
+	/**
+	 * Decompresses a block.
+	 *
+	 * @param  src  Array holding the compressed block.
+	 * @param  srcOff  Start of the compressed block.
+	 * @param  srcLen  Length of the compressed block.
+	 * @param  dst  Array receiving the block.
+	 * @param  dstOff  Start of the block.
+	 * @param  dstLen  Length of the block, as passed to compress().
+	 * @throws IllegalArgumentException if the compressed block is corrupt.
+	 */
+
+	public static void decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int dstLen) {
+		int ip = srcOff;
+		int end = srcOff + srcLen;
+		int op = dstOff;
+		int dstEnd = dstOff + dstLen;
+		try {
+			while(ip < end) {
+				int token = src[ip++] & 0xFF;
+				int literals = token >>> 4;
+				if(literals == 15) {
+					int b;
+					do {
+						if(ip >= end)
+							throw new IllegalArgumentException("Corrupt compressed block, truncated literal length.");
+						b = src[ip++] & 0xFF;
+						literals += b;
+					} while(b == 255);
+				}
+				if(literals > end - ip || literals > dstEnd - op)
+					throw new IllegalArgumentException("Corrupt compressed block, literals exceed the block.");
+				System.arraycopy(src, ip, dst, op, literals);
+				ip += literals;
+				op += literals;
+				if(ip == end)
+					break;
+				if(ip + 2 > end)
+					throw new IllegalArgumentException("Corrupt compressed block, truncated sequence.");
+				int offset = (src[ip++] & 0xFF) | (src[ip++] & 0xFF) << 8;
+				int length = token & 15;
+				if(length == 15) {
+					int b;
+					do {
+						if(ip >= end)
+							throw new IllegalArgumentException("Corrupt compressed block, truncated match length.");
+						b = src[ip++] & 0xFF;
+						length += b;
+					} while(b == 255);
+				}
+				length += MIN_MATCH;
+				int ref = op - offset;
+				if(offset == 0 || ref < dstOff || length > dstEnd - op)
+					throw new IllegalArgumentException("Corrupt compressed block, invalid match.");
+				if(offset >= length) {
+					System.arraycopy(dst, ref, dst, op, length);
+					op += length;
+				} else {
+					for(int i=0; i<length; i++)
+						dst[op++] = dst[ref++];
+				}
+			}
+		} catch (ArrayIndexOutOfBoundsException aioobe) {
+			throw new IllegalArgumentException("Corrupt compressed block, truncated sequence.");
+		}
+		if(op != dstEnd)
+			throw new IllegalArgumentException("Corrupt compressed block, expected " + dstLen + " bytes but got " + (op - dstOff) + ".");
+	}
+
+	private static int writeSequence(byte[] src, int anchor, int literals, byte[] dst, int op, int offset, int length) {
+		int token = op++;
+		int matchLength = length - MIN_MATCH;
+		dst[token] = (byte) (Math.min(literals, 15) << 4 | Math.min(matchLength, 15));
+		if(literals >= 15)
+			op = writeLength(dst, op, literals - 15);
+		System.arraycopy(src, anchor, dst, op, literals);
+		op += literals;
+		dst[op++] = (byte) offset;
+		dst[op++] = (byte) (offset >>> 8);
+		if(matchLength >= 15)
+			op = writeLength(dst, op, matchLength - 15);
+		return op;
+	}
+
+	private static int writeLength(byte[] dst, int op, int length) {
+		while(length >= 255) {
+			dst[op++] = (byte) 255;
+			length -= 255;
+		}
+		dst[op++] = (byte) length;
+		return op;
+	}
+
+	private static int readInt(byte[] b, int i) {
+		return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+	}
+
+	private static int hash(int sequence) {
+		return (sequence * -1640531535) >>> (32 - HASH_BITS);
+	}
+}
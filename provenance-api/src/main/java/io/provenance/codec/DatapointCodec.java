@@ -0,0 +1,389 @@
+package io.provenance.codec;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.provenance.types.Context;
+import io.provenance.types.Datapoint;
+import io.provenance.types.InputDatapoint;
+import io.provenance.types.InputSet;
+import io.provenance.types.Location;
+import io.provenance.types.Metric;
+
+/**
+ * Compact binary codec for Datapoint, Context, Location and InputDatapoint.
+ *
+ * Every record starts with a varint of flags, the context fields present are marked in a bitmap indexed by
+ * Metric ordinal. Integers are written as (zigzag) varints, the creation time as a delta to the creation time of the
+ * previous record and the send and receive times as deltas to the creation time. Labels that repeat across records
+ * (contribution, location, class, application, meter and metric ids) are written once and then referenced through a
+ * dictionary.
+ *
+ * A codec is stateful: records must be decoded in the order they were encoded, by a codec that started from the same
+ * state. Call clear() on both sides at the start of a stream (i.e. a spool segment) and record the stream's VERSION
+ * alongside it. Compact input sets are embedded in their own binary form, see InputSet, prefixed with their length as a
+ * 4 byte int. Encoding writes straight into the target buffer and only allocates when a label enters the dictionary.
+ */
+
+public class DatapointCodec {
+
+	public static final int VERSION = 3;
+
+	/**
+	 * Oldest stream version decode() reads. Version 3 added compact input sets, version 2 streams hold none.
+	 */
+
+	public static final int MIN_VERSION = 2;
+
+	private static final int HAS_INPUTS = 1;
+	private static final int HAS_CONTEXT = 1 << 1;
+	private static final int HAS_INPUT_SET = 1 << 2;
+
+	private static final int COORDINATES = 1 << Metric.values().length;
+
+	private static final int NULL = 0;
+	private static final int LITERAL = 1;
+	private static final int MAX_DICTIONARY_SIZE = 4096;
+
+	private Map<String, Integer> encodeDictionary = new HashMap<String, Integer>();
+	private String[] dictionary = new String[64];
+	private int dictionarySize;
+	private long lastTimestamp;
+	private char[] chars = new char[64];
+
+	private int markedDictionarySize;
+	private long markedTimestamp;
+
+	/**
+	 * Resets the codec to the state of a new stream.
+	 */
+
+	public void clear() {
+		encodeDictionary.clear();
+		Arrays.fill(dictionary, 0, dictionarySize, null);
+		dictionarySize = 0;
+		lastTimestamp = 0;
+		markedDictionarySize = 0;
+		markedTimestamp = 0;
+	}
+
+	/**
+	 * Remembers the current state so that the records following it can be encoded or decoded again after rewind().
+	 */
+
+	public void mark() {
+		markedDictionarySize = dictionarySize;
+		markedTimestamp = lastTimestamp;
+	}
+
+	/**
+	 * Returns to the state of the last mark().
+	 */
+
+	public void rewind() {
+		for(int i=markedDictionarySize; i<dictionarySize; i++) {
+			encodeDictionary.remove(dictionary[i]);
+			dictionary[i] = null;
+		}
+		dictionarySize = markedDictionarySize;
+		lastTimestamp = markedTimestamp;
+	}
+
+	/**
+	 * Writes the datapoint at the buffer's position. If the record does not fit the codec is left as it was before
+	 * the call, the buffer's content past its original position is undefined.
+	 *
+	 * @param  dp  Datapoint to be encoded.
+	 * @param  buffer  Target buffer.
+	 * @throws BufferOverflowException if the record does not fit into the remaining buffer.
+	 */
+
+	public void encode(Datapoint dp, ByteBuffer buffer) {
+		int dictionaryMark = markedDictionarySize;
+		long timestampMark = markedTimestamp;
+		mark();
+		try {
+			encodeRecord(dp, buffer);
+		} catch (BufferOverflowException boe) {
+			rewind();
+			throw boe;
+		} finally {
+			markedDictionarySize = dictionaryMark;
+			markedTimestamp = timestampMark;
+		}
+	}
+
+	/**
+	 * Reads a datapoint from the buffer's position.
+	 *
+	 * @param  buffer  Source buffer.
+	 * @return      The decoded Datapoint with its original ID.
+	 * @throws BufferUnderflowException if the buffer does not hold a complete record.
+	 */
+
+	public Datapoint decode(ByteBuffer buffer) {
+		int flags = getVarInt(buffer);
+		String id = getLiteral(buffer);
+		InputDatapoint[] inputs = null;
+		InputSet inputSet = null;
+		Context context = null;
+		if((flags & HAS_INPUT_SET) != 0) {
+			int length = buffer.getInt();
+			if(length < 0 || length > buffer.remaining())
+				throw new BufferUnderflowException();
+			ByteBuffer slice = buffer.slice();
+			slice.limit(length);
+			inputSet = InputSet.decode(slice);
+			buffer.position(buffer.position() + length);
+		} else if((flags & HAS_INPUTS) != 0) {
+			inputs = new InputDatapoint[getVarInt(buffer)];
+			for(int i=0; i<inputs.length; i++)
+				inputs[i] = new InputDatapoint(getLiteral(buffer), getLabel(buffer));
+		}
+		if((flags & HAS_CONTEXT) != 0) {
+			context = new Context();
+			int fields = getVarInt(buffer);
+			if(has(fields, Metric.METER))
+				context.setMeterId(getLabel(buffer));
+			if(has(fields, Metric.METRIC))
+				context.setMetricId(getLabel(buffer));
+			if(has(fields, Metric.LOCATION)) {
+				String label = getLabel(buffer);
+				if((fields & COORDINATES) != 0)
+					context.setLoc(new Location(label, buffer.getDouble(), buffer.getDouble()));
+				else
+					context.setLoc(new Location(label));
+			}
+			if(has(fields, Metric.LINE))
+				context.setLineNo(getVarLong(buffer));
+			if(has(fields, Metric.CLASS))
+				context.setClassName(getLabel(buffer));
+			if(has(fields, Metric.APPLICATION))
+				context.setAppName(getLabel(buffer));
+			long base = lastTimestamp;
+			if(has(fields, Metric.CREATE_TIME)) {
+				base = lastTimestamp + getVarLong(buffer);
+				lastTimestamp = base;
+				context.setTimestamp(new Date(base));
+			}
+			if(has(fields, Metric.SEND_TIME))
+				context.setSendTime(new Date(base + getVarLong(buffer)));
+			if(has(fields, Metric.RECEIVE_TIME))
+				context.setReceiveTime(new Date(base + getVarLong(buffer)));
+		}
+		return inputSet != null ? new Datapoint(id, inputSet, context) : new Datapoint(id, inputs, context);
+	}
+
+	private void encodeRecord(Datapoint dp, ByteBuffer buffer) {
+		InputSet inputSet = dp.getInputSet();
+		InputDatapoint[] inputs = inputSet == null ? dp.getInputDatapoints() : null;
+		Context context = dp.getContext();
+		putVarInt(buffer, (inputs != null ? HAS_INPUTS : 0) | (inputSet != null ? HAS_INPUT_SET : 0) | (context != null ? HAS_CONTEXT : 0));
+		putLiteral(buffer, dp.getId());
+		if(inputSet != null) {
+			int start = buffer.position();
+			buffer.putInt(0);
+			inputSet.encode(buffer);
+			buffer.putInt(start, buffer.position() - start - 4);
+		} else if(inputs != null) {
+			putVarInt(buffer, inputs.length);
+			for(InputDatapoint idp : inputs) {
+				putLiteral(buffer, idp.getId());
+				putLabel(buffer, idp.getContrIbution());
+			}
+		}
+		if(context == null)
+			return;
+		Location loc = context.getLoc();
+		int fields = bit(context.getMeterId(), Metric.METER) | bit(context.getMetricId(), Metric.METRIC)
+				| bit(loc, Metric.LOCATION) | bit(context.getLineNo(), Metric.LINE) | bit(context.getClassName(), Metric.CLASS)
+				| bit(context.getAppName(), Metric.APPLICATION) | bit(context.getTimestamp(), Metric.CREATE_TIME)
+				| bit(context.getSendTime(), Metric.SEND_TIME) | bit(context.getReceiveTime(), Metric.RECEIVE_TIME)
+				| (loc != null && loc.isCoordinatesSet() ? COORDINATES : 0);
+		putVarInt(buffer, fields);
+		if(has(fields, Metric.METER))
+			putLabel(buffer, context.getMeterId());
+		if(has(fields, Metric.METRIC))
+			putLabel(buffer, context.getMetricId());
+		if(has(fields, Metric.LOCATION)) {
+			putLabel(buffer, loc.getLable());
+			if((fields & COORDINATES) != 0)
+				buffer.putDouble(loc.getLatitude()).putDouble(loc.getLongitude());
+		}
+		if(has(fields, Metric.LINE))
+			putVarLong(buffer, context.getLineNo());
+		if(has(fields, Metric.CLASS))
+			putLabel(buffer, context.getClassName());
+		if(has(fields, Metric.APPLICATION))
+			putLabel(buffer, context.getAppName());
+		long base = lastTimestamp;
+		if(has(fields, Metric.CREATE_TIME)) {
+			base = context.getTimestamp().getTime();
+			putVarLong(buffer, base - lastTimestamp);
+			lastTimestamp = base;
+		}
+		if(has(fields, Metric.SEND_TIME))
+			putVarLong(buffer, context.getSendTime().getTime() - base);
+		if(has(fields, Metric.RECEIVE_TIME))
+			putVarLong(buffer, context.getReceiveTime().getTime() - base);
+	}
+
+	private static int bit(Object value, Metric metric) {
+		return value != null ? 1 << metric.ordinal() : 0;
+	}
+
+	private static boolean has(int fields, Metric metric) {
+		return (fields & (1 << metric.ordinal())) != 0;
+	}
+
+	/*
+	 * Labels are written as a varint tag followed by the label's bytes when it is not yet known to the reader.
+	 * Tag 0 is null, 1 a literal outside the dictionary, 2+2i a reference to entry i and 3+2i the definition of entry i.
+	 */
+
+	private void putLabel(ByteBuffer buffer, String label) {
+		if(label == null) {
+			putVarInt(buffer, NULL);
+			return;
+		}
+		Integer index = encodeDictionary.get(label);
+		if(index != null) {
+			putVarInt(buffer, 2 + (index << 1));
+		} else if(dictionarySize < MAX_DICTIONARY_SIZE) {
+			int entry = dictionarySize;
+			putVarInt(buffer, 3 + (entry << 1));
+			putString(buffer, label);
+			define(entry, label);
+			encodeDictionary.put(label, entry);
+		} else {
+			putVarInt(buffer, LITERAL);
+			putString(buffer, label);
+		}
+	}
+
+	private String getLabel(ByteBuffer buffer) {
+		int tag = getVarInt(buffer);
+		if(tag == NULL)
+			return null;
+		if(tag == LITERAL)
+			return getString(buffer);
+		int index = (tag - 2) >> 1;
+		if((tag & 1) != 0) {
+			String label = getString(buffer);
+			define(index, label);
+			return label;
+		}
+		if(index >= dictionarySize || dictionary[index] == null)
+			throw new IllegalStateException("Unknown dictionary entry " + index + ", records are decoded out of order.");
+		return dictionary[index];
+	}
+
+	private void define(int index, String label) {
+		if(index >= dictionary.length)
+			dictionary = Arrays.copyOf(dictionary, Math.max(index + 1, dictionary.length * 2));
+		dictionary[index] = label;
+		dictionarySize = Math.max(dictionarySize, index + 1);
+	}
+
+	private void putLiteral(ByteBuffer buffer, String str) {
+		if(str == null) {
+			putVarInt(buffer, NULL);
+			return;
+		}
+		putVarInt(buffer, LITERAL);
+		putString(buffer, str);
+	}
+
+	private String getLiteral(ByteBuffer buffer) {
+		return getVarInt(buffer) == NULL ? null : getString(buffer);
+	}
+
+	/*
+	 * Strings are written like DataOutput.writeUTF does (modified UTF-8, every char in one to three bytes), prefixed
+	 * with their length in bytes.
+	 */
+
+	private void putString(ByteBuffer buffer, String str) {
+		int len = str.length();
+		int bytes = 0;
+		for(int i=0; i<len; i++) {
+			char c = str.charAt(i);
+			bytes += c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+		}
+		putVarInt(buffer, bytes);
+		if(buffer.remaining() < bytes)
+			throw new BufferOverflowException();
+		for(int i=0; i<len; i++) {
+			char c = str.charAt(i);
+			if(c < 0x80)
+				buffer.put((byte) c);
+			else if(c < 0x800)
+				buffer.put((byte) (0xC0 | (c >> 6))).put((byte) (0x80 | (c & 0x3F)));
+			else
+				buffer.put((byte) (0xE0 | (c >> 12))).put((byte) (0x80 | ((c >> 6) & 0x3F))).put((byte) (0x80 | (c & 0x3F)));
+		}
+	}
+
+	private String getString(ByteBuffer buffer) {
+		int bytes = getVarInt(buffer);
+		if(bytes > buffer.remaining())
+			throw new BufferUnderflowException();
+		if(chars.length < bytes)
+			chars = new char[Math.max(bytes, chars.length * 2)];
+		int len = 0;
+		for(int end = buffer.position() + bytes; buffer.position() < end; ) {
+			int b = buffer.get() & 0xFF;
+			if(b < 0x80)
+				chars[len++] = (char) b;
+			else if(b < 0xE0)
+				chars[len++] = (char) (((b & 0x1F) << 6) | (buffer.get() & 0x3F));
+			else
+				chars[len++] = (char) (((b & 0x0F) << 12) | ((buffer.get() & 0x3F) << 6) | (buffer.get() & 0x3F));
+		}
+		return new String(chars, 0, len);
+	}
+
+	private static void putVarInt(ByteBuffer buffer, int value) {
+		while((value & ~0x7F) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	private static int getVarInt(ByteBuffer buffer) {
+		int value = 0;
+		for(int shift = 0; shift < 32; shift += 7) {
+			byte b = buffer.get();
+			value |= (b & 0x7F) << shift;
+			if(b >= 0)
+				return value;
+		}
+		throw new IllegalStateException("Malformed varint.");
+	}
+
+	private static void putVarLong(ByteBuffer buffer, long value) {
+		value = (value << 1) ^ (value >> 63);
+		while((value & ~0x7FL) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	private static long getVarLong(ByteBuffer buffer) {
+		long value = 0;
+		for(int shift = 0; shift < 64; shift += 7) {
+			byte b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			if(b >= 0)
+				return (value >>> 1) ^ -(value & 1);
+		}
+		throw new IllegalStateException("Malformed varint.");
+	}
+}
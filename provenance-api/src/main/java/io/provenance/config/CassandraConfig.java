@@ -8,6 +8,31 @@ public class CassandraConfig {
     private String replicationStrategy = "SimpleStrategy";
     private String tableName = "provenanceTable";
     private int replicationFactor = 1;
+    private int maxRequestsPerHost = 1024;
+    private boolean derivedIndex = true;
+    private boolean timeTable = false;
+    private long timeBucketMs = 86400000;
+    private int coreConnectionsPerHost = 1;
+    private int maxConnectionsPerHost = 1;
+    private int maxRequestsPerConnection = 1024;
+    private String localDc;
+    private boolean tokenAware = true;
+    private boolean latencyAware = false;
+    private double latencyAwareExclusionThreshold = 2.0;
+    private long speculativeDelayMs = 0;
+    private int speculativeMaxExecutions = 1;
+    private int readTimeoutMs = 12000;
+    private int connectTimeoutMs = 5000;
+    private int retries = 0;
+    private int breakerFailureThreshold = 0;
+    private long breakerSlowCallMs = 0;
+    private long breakerOpenMs = 5000;
+    private boolean asyncStartup = true;
+    private int startupBufferBytes = 16777216;
+    private long startupRetryMs = 5000;
+    private String tableCompression;
+    private int compressionChunkKb = 16;
+    private String protocolCompression = "none";
 
     /**
 	 * Creates a new cassandra config using cassandra IP address. 
@@ -31,6 +56,10 @@ public class CassandraConfig {
 		this.port = port;
 	}
 
+	/**
+	 * IP address of cassandra, or a comma separated list of contact points.
+	 */
+	
 	public String getIP() {
 		return IP;
 	}
@@ -66,6 +95,51 @@ public class CassandraConfig {
 		this.replicationFactor = replicationFactor;
 	}
 
+	/**
+	 * Maximum number of requests the sink keeps in flight per host, callers block once it is reached.
+	 */
+	
+	public int getMaxRequestsPerHost() {
+		return maxRequestsPerHost;
+	}
+	public void setMaxRequestsPerHost(int maxRequestsPerHost) {
+		this.maxRequestsPerHost = maxRequestsPerHost;
+	}
+
+	/**
+	 * Whether the sink maintains the '<table>_derived' index mapping input datapoint IDs to the IDs derived from them.
+	 */
+	
+	public boolean isDerivedIndex() {
+		return derivedIndex;
+	}
+	public void setDerivedIndex(boolean derivedIndex) {
+		this.derivedIndex = derivedIndex;
+	}
+
+	/**
+	 * Whether the sink also stores the datapoints in the '<table>_by_time' table, partitioned by meter and time
+	 * bucket, so they can be queried by creation time range.
+	 */
+	
+	public boolean isTimeTable() {
+		return timeTable;
+	}
+	public void setTimeTable(boolean timeTable) {
+		this.timeTable = timeTable;
+	}
+
+	/**
+	 * Time span of a '<table>_by_time' partition in milliseconds.
+	 */
+	
+	public long getTimeBucketMs() {
+		return timeBucketMs;
+	}
+	public void setTimeBucketMs(long timeBucketMs) {
+		this.timeBucketMs = timeBucketMs;
+	}
+
 	public String getTableName() {
 		return tableName;
 	}
@@ -73,4 +147,235 @@ public class CassandraConfig {
 		this.tableName = tableName;
 	}
 
+	/**
+	 * Number of connections the driver keeps open to each host of the local datacenter.
+	 */
+	
+	public int getCoreConnectionsPerHost() {
+		return coreConnectionsPerHost;
+	}
+	public void setCoreConnectionsPerHost(int coreConnectionsPerHost) {
+		this.coreConnectionsPerHost = coreConnectionsPerHost;
+	}
+
+	/**
+	 * Number of connections the driver opens at most to each host of the local datacenter, under load.
+	 */
+	
+	public int getMaxConnectionsPerHost() {
+		return maxConnectionsPerHost;
+	}
+	public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+		this.maxConnectionsPerHost = maxConnectionsPerHost;
+	}
+
+	/**
+	 * Number of requests the driver multiplexes on one connection before it opens another one.
+	 */
+	
+	public int getMaxRequestsPerConnection() {
+		return maxRequestsPerConnection;
+	}
+	public void setMaxRequestsPerConnection(int maxRequestsPerConnection) {
+		this.maxRequestsPerConnection = maxRequestsPerConnection;
+	}
+
+	/**
+	 * Datacenter requests are routed to, null to use the datacenter of the first contact point.
+	 */
+	
+	public String getLocalDc() {
+		return localDc;
+	}
+	public void setLocalDc(String localDc) {
+		this.localDc = localDc;
+	}
+
+	/**
+	 * Whether requests are routed to a replica of the datapoint's partition.
+	 */
+	
+	public boolean isTokenAware() {
+		return tokenAware;
+	}
+	public void setTokenAware(boolean tokenAware) {
+		this.tokenAware = tokenAware;
+	}
+
+	/**
+	 * Whether hosts that respond much slower than the fastest host are avoided.
+	 */
+	
+	public boolean isLatencyAware() {
+		return latencyAware;
+	}
+	public void setLatencyAware(boolean latencyAware) {
+		this.latencyAware = latencyAware;
+	}
+
+	/**
+	 * How many times slower than the fastest host a host has to be to be avoided by latency aware routing.
+	 */
+	
+	public double getLatencyAwareExclusionThreshold() {
+		return latencyAwareExclusionThreshold;
+	}
+	public void setLatencyAwareExclusionThreshold(double latencyAwareExclusionThreshold) {
+		this.latencyAwareExclusionThreshold = latencyAwareExclusionThreshold;
+	}
+
+	/**
+	 * Time in milliseconds after which a request without response is also sent to the next host, 0 to disable
+	 * speculative execution.
+	 */
+	
+	public long getSpeculativeDelayMs() {
+		return speculativeDelayMs;
+	}
+	public void setSpeculativeDelayMs(long speculativeDelayMs) {
+		this.speculativeDelayMs = speculativeDelayMs;
+	}
+
+	/**
+	 * Maximum number of speculative executions per request.
+	 */
+	
+	public int getSpeculativeMaxExecutions() {
+		return speculativeMaxExecutions;
+	}
+	public void setSpeculativeMaxExecutions(int speculativeMaxExecutions) {
+		this.speculativeMaxExecutions = speculativeMaxExecutions;
+	}
+
+	/**
+	 * Time in milliseconds the driver waits for a response from a host.
+	 */
+	
+	public int getReadTimeoutMs() {
+		return readTimeoutMs;
+	}
+	public void setReadTimeoutMs(int readTimeoutMs) {
+		this.readTimeoutMs = readTimeoutMs;
+	}
+
+	public int getConnectTimeoutMs() {
+		return connectTimeoutMs;
+	}
+	public void setConnectTimeoutMs(int connectTimeoutMs) {
+		this.connectTimeoutMs = connectTimeoutMs;
+	}
+
+	/**
+	 * Number of times a timed out or failed request is retried on the next host, 0 to keep the driver's default
+	 * retry policy.
+	 */
+	
+	public int getRetries() {
+		return retries;
+	}
+	public void setRetries(int retries) {
+		this.retries = retries;
+	}
+
+	/**
+	 * Number of consecutive failed saves that opens the circuit breaker, 0 to disable it.
+	 */
+	
+	public int getBreakerFailureThreshold() {
+		return breakerFailureThreshold;
+	}
+	public void setBreakerFailureThreshold(int breakerFailureThreshold) {
+		this.breakerFailureThreshold = breakerFailureThreshold;
+	}
+
+	/**
+	 * Duration in milliseconds above which a save counts as failed for the circuit breaker, 0 to only count errors.
+	 */
+	
+	public long getBreakerSlowCallMs() {
+		return breakerSlowCallMs;
+	}
+	public void setBreakerSlowCallMs(long breakerSlowCallMs) {
+		this.breakerSlowCallMs = breakerSlowCallMs;
+	}
+
+	/**
+	 * Time in milliseconds the circuit breaker stays open before a probe save is let through.
+	 */
+	
+	public long getBreakerOpenMs() {
+		return breakerOpenMs;
+	}
+	public void setBreakerOpenMs(long breakerOpenMs) {
+		this.breakerOpenMs = breakerOpenMs;
+	}
+
+	/**
+	 * Whether the sink connects and checks the schema in the background, so creating it does not block. Datapoints
+	 * saved before it is ready are buffered.
+	 */
+	
+	public boolean isAsyncStartup() {
+		return asyncStartup;
+	}
+	public void setAsyncStartup(boolean asyncStartup) {
+		this.asyncStartup = asyncStartup;
+	}
+
+	/**
+	 * Maximum size in bytes of the encoded datapoints buffered while the sink is starting.
+	 */
+	
+	public int getStartupBufferBytes() {
+		return startupBufferBytes;
+	}
+	public void setStartupBufferBytes(int startupBufferBytes) {
+		this.startupBufferBytes = startupBufferBytes;
+	}
+
+	/**
+	 * Time in milliseconds between two connection attempts of a starting sink.
+	 */
+	
+	public long getStartupRetryMs() {
+		return startupRetryMs;
+	}
+	public void setStartupRetryMs(long startupRetryMs) {
+		this.startupRetryMs = startupRetryMs;
+	}
+
+	/**
+	 * Compressor class of the tables, i.e. 'LZ4Compressor', 'none' to store them uncompressed, null to keep the table's
+	 * compression options.
+	 */
+	
+	public String getTableCompression() {
+		return tableCompression;
+	}
+	public void setTableCompression(String tableCompression) {
+		this.tableCompression = tableCompression;
+	}
+
+	/**
+	 * Size in KB of the chunks the tables are compressed in, smaller chunks make reading a single datapoint cheaper.
+	 */
+	
+	public int getCompressionChunkKb() {
+		return compressionChunkKb;
+	}
+	public void setCompressionChunkKb(int compressionChunkKb) {
+		this.compressionChunkKb = compressionChunkKb;
+	}
+
+	/**
+	 * Compression of the native protocol frames, 'none', 'lz4' or 'snappy'.
+	 */
+	
+	public String getProtocolCompression() {
+		return protocolCompression;
+	}
+	public void setProtocolCompression(String protocolCompression) {
+		this.protocolCompression = protocolCompression;
+	}
+
 }
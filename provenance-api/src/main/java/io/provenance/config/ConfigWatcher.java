@@ -0,0 +1,123 @@
+package io.provenance.config;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches a config file with a WatchService and calls the listener on a background thread when its content changed.
+ * The file's directory is watched, so files replaced by a rename, as editors and configuration management tools do,
+ * are picked up as well. Events are collected for DEBOUNCE_MS after the first one, so a file written in several steps
+ * is reported once, and changes that leave the content as it was are not reported.
+ */
+
+public class ConfigWatcher implements AutoCloseable {
+
+	private static final Logger LOGGER = Logger.getLogger(ConfigWatcher.class.getName());
+	public static final long DEBOUNCE_MS = 500;
+
+	private final Path file;
+	private final Consumer<Path> listener;
+	private final WatchService watchService;
+	private final Thread watcher;
+	private byte[] content;
+
+	/**
+	 * Starts watching a config file.
+	 *
+	 * @param  file  Config file to be watched.
+	 * @param  listener  Called with the file after its content changed.
+	 */
+
+	public ConfigWatcher(Path file, Consumer<Path> listener) throws IOException {
+		this.file = file.toAbsolutePath();
+		this.listener = listener;
+		this.content = read();
+		this.watchService = this.file.getFileSystem().newWatchService();
+		try {
+			this.file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+		} catch (IOException ioe) {
+			watchService.close();
+			throw ioe;
+		}
+		watcher = new Thread(this::watch, "provenance-config-watcher");
+		watcher.setDaemon(true);
+		watcher.start();
+	}
+
+	private void watch() {
+		try {
+			while(true) {
+				if(!isChanged(watchService.take()))
+					continue;
+				Thread.sleep(DEBOUNCE_MS);
+				WatchKey more;
+				while((more = watchService.poll()) != null) {
+					more.pollEvents();
+					more.reset();
+				}
+				byte[] current = read();
+				if(current == null || Arrays.equals(current, content))
+					continue;
+				content = current;
+				try {
+					listener.accept(file);
+				} catch (RuntimeException re) {
+					LOGGER.log(Level.WARNING, "Failed to apply the changed config file " + file + ".", re);
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			// closed
+		}
+	}
+
+	private boolean isChanged(WatchKey key) {
+		boolean changed = false;
+		for(WatchEvent<?> event : key.pollEvents())
+			if(event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context()))
+				changed = true;
+		key.reset();
+		return changed;
+	}
+
+	/**
+	 * Returns the content of the file, null while it can not be read, i.e. between deleting and recreating it.
+	 */
+
+	private byte[] read() {
+		try {
+			return Files.readAllBytes(file);
+		} catch (IOException ioe) {
+			return null;
+		}
+	}
+
+	/**
+	 * Stops watching, waiting for a change that is being applied.
+	 */
+
+	public void close() {
+		try {
+			watchService.close();
+		} catch (IOException ioe) {
+			LOGGER.log(Level.FINE, "Could not close the watch service of " + file + ".", ioe);
+		}
+		if(Thread.currentThread() != watcher) {
+			try {
+				watcher.join(TimeUnit.SECONDS.toMillis(10));
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
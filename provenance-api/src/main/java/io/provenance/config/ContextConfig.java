@@ -0,0 +1,212 @@
+package io.provenance.config;
+
+import java.util.EnumSet;
+
+import io.provenance.executor.ExecutionPolicy;
+import io.provenance.id.IdGenerator;
+import io.provenance.sampling.SamplingPolicy;
+import io.provenance.sink.Sink;
+import io.provenance.types.Metric;
+
+/**
+ * Immutable configuration of one ProvenanceContext. It is built once, either parsed by ProvenanceConfig.load or
+ * assembled directly, and can be shared freely between threads.
+ */
+
+public final class ContextConfig {
+
+	private final String name;
+	private final IdGenerator idGenerator;
+	private final Metric[] metrics;
+	private final EnumSet<Metric> metricSet;
+	private final String[] metricNames;
+	private final Sink sink;
+	private final int lineageCacheSize;
+	private final boolean recycling;
+	private final SamplingPolicy sampling;
+	private final ExecutionPolicy execution;
+	private final String source;
+	private final boolean watch;
+
+	/**
+	 * Creates a new context config with the defaults of the optional settings, see Builder for the others.
+	 *
+	 * @param  name  Node identifier.
+	 * @param  idGenerator  Generator of the Datapoint IDs of this node.
+	 * @param  metrics  Context metrics stored with each Datapoint, in column order.
+	 * @param  sink  Sink the Datapoints are pushed to.
+	 */
+
+	public ContextConfig(String name, IdGenerator idGenerator, Metric[] metrics, Sink sink) {
+		this(builder(name, idGenerator, metrics, sink));
+	}
+
+	private ContextConfig(Builder builder) {
+		this.name = builder.name;
+		this.idGenerator = builder.idGenerator;
+		this.metrics = builder.metrics.clone();
+		this.metricSet = metrics.length == 0 ? EnumSet.noneOf(Metric.class) : EnumSet.of(metrics[0], metrics);
+		this.metricNames = new String[metrics.length];
+		for(int i=0; i<metrics.length; i++)
+			metricNames[i] = metrics[i].name();
+		this.sink = builder.sink;
+		this.lineageCacheSize = builder.lineageCacheSize;
+		this.recycling = builder.recycling;
+		this.sampling = builder.sampling;
+		this.execution = builder.execution;
+		this.source = builder.source;
+		this.watch = builder.watch;
+	}
+
+	/**
+	 * Returns a builder for a context config with the given required settings.
+	 *
+	 * @param  name  Node identifier.
+	 * @param  idGenerator  Generator of the Datapoint IDs of this node.
+	 * @param  metrics  Context metrics stored with each Datapoint, in column order.
+	 * @param  sink  Sink the Datapoints are pushed to.
+	 */
+
+	public static Builder builder(String name, IdGenerator idGenerator, Metric[] metrics, Sink sink) {
+		return new Builder(name, idGenerator, metrics, sink);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public IdGenerator getIdGenerator() {
+		return idGenerator;
+	}
+
+	public Metric[] getMetrics() {
+		return metrics.clone();
+	}
+
+	public boolean hasMetric(Metric metric) {
+		return metricSet.contains(metric);
+	}
+
+	public String[] getMetricNames() {
+		return metricNames.clone();
+	}
+
+	public Sink getSink() {
+		return sink;
+	}
+
+	public int getLineageCacheSize() {
+		return lineageCacheSize;
+	}
+
+	public boolean isRecycling() {
+		return recycling;
+	}
+
+	/**
+	 * Returns the sampling of the raw datapoints, null if all of them are stored.
+	 */
+
+	public SamplingPolicy getSampling() {
+		return sampling;
+	}
+
+	/**
+	 * Returns where saveAsync() runs the saves ('execution.mode').
+	 */
+
+	public ExecutionPolicy getExecution() {
+		return execution;
+	}
+
+	/**
+	 * Returns the location of the config file this config was loaded from, null if it was assembled directly.
+	 */
+
+	public String getSource() {
+		return source;
+	}
+
+	/**
+	 * Returns whether the context reloads its config file when it changes ('config.watch').
+	 */
+
+	public boolean isWatch() {
+		return watch;
+	}
+
+	/**
+	 * Collects the optional settings of a context config, the ones not set keep their defaults.
+	 */
+
+	public static final class Builder {
+
+		private final String name;
+		private final IdGenerator idGenerator;
+		private final Metric[] metrics;
+		private final Sink sink;
+		private int lineageCacheSize = 100000;
+		private boolean recycling;
+		private SamplingPolicy sampling;
+		private ExecutionPolicy execution = ExecutionPolicy.CALLER;
+		private String source;
+		private boolean watch;
+
+		private Builder(String name, IdGenerator idGenerator, Metric[] metrics, Sink sink) {
+			this.name = name;
+			this.idGenerator = idGenerator;
+			this.metrics = metrics;
+			this.sink = sink;
+		}
+
+		/**
+		 * Sets the maximum number of datapoints cached by lineage traces, default 100000.
+		 */
+
+		public Builder setLineageCacheSize(int lineageCacheSize) {
+			this.lineageCacheSize = lineageCacheSize;
+			return this;
+		}
+
+		/**
+		 * Sets whether saved datapoints are recycled once the sink acknowledged them, see Recycler. Default false.
+		 */
+
+		public Builder setRecycling(boolean recycling) {
+			this.recycling = recycling;
+			return this;
+		}
+
+		/**
+		 * Sets the sampling of the raw datapoints, null (the default) to store all of them.
+		 */
+
+		public Builder setSampling(SamplingPolicy sampling) {
+			this.sampling = sampling;
+			return this;
+		}
+
+		/**
+		 * Sets where saveAsync() runs the saves, see ExecutionPolicy. Default CALLER.
+		 */
+
+		public Builder setExecution(ExecutionPolicy execution) {
+			this.execution = execution;
+			return this;
+		}
+
+		/**
+		 * Sets the config file the config is loaded from and whether the context reloads it when it changes.
+		 */
+
+		Builder setSource(String source, boolean watch) {
+			this.source = source;
+			this.watch = watch;
+			return this;
+		}
+
+		public ContextConfig build() {
+			return new ContextConfig(this);
+		}
+	}
+}
@@ -1,76 +1,283 @@
 package io.provenance.config;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
 
 import io.provenance.exception.ConfigParseException;
-import io.provenance.sink.CassandraSink;
+import io.provenance.executor.ExecutionMode;
+import io.provenance.executor.ExecutionPolicy;
+import io.provenance.id.IdGenerator;
+import io.provenance.id.SequenceIdGenerator;
+import io.provenance.sampling.AdaptiveSampler;
+import io.provenance.sampling.FixedRateSampler;
+import io.provenance.sampling.ReservoirSampler;
+import io.provenance.sampling.Sampler;
+import io.provenance.sampling.SamplingPolicy;
+import io.provenance.sink.BufferedSink;
 import io.provenance.sink.Sink;
+import io.provenance.sink.SpoolSink;
+import io.provenance.spool.Spool;
 import io.provenance.types.Metric;
 
 public class ProvenanceConfig {
 
-	private static String name;
-	private static Sink sink;
-	private static String[] metrics;
+	private static final Logger LOGGER = Logger.getLogger(ProvenanceConfig.class.getName());
+	private static final AtomicReference<ContextConfig> defaults = new AtomicReference<ContextConfig>();
+	private static final ConcurrentHashMap<String, IdGenerator> generators = new ConcurrentHashMap<String, IdGenerator>();
+	
+	/**
+	 * Loads the config file 'provenance_properties' points to and makes it the node's default configuration.
+	 */
 	
 	public static void configure() throws ConfigParseException {
+		defaults.set(load());
+	}
+	
+	/**
+	 * Loads the config file 'provenance_properties' points to.
+	 *
+	 * @return      The parsed configuration.
+	 */
+	
+	public static ContextConfig load() throws ConfigParseException {
+		String path = System.getenv("provenance_properties");
+		if(path == null)
+			throw new ConfigParseException("Config file not found. (Make sure 'provenance_properties' points to the config file location.)");
+		return load(path);
+	}
+	
+	/**
+	 * Loads a config file.
+	 *
+	 * @param  path  Location of the config file.
+	 * @return      The parsed configuration.
+	 */
+	
+	public static ContextConfig load(String path) throws ConfigParseException {
+		return load(read(path), path, null);
+	}
+	
+	/**
+	 * Loads a changed config file for a running context. The node identity ('name' and 'id.generator') can not change
+	 * while the node runs, the current one is kept and changes to it are ignored until the next start.
+	 *
+	 * @param  path  Location of the config file.
+	 * @param  current  Configuration the context is running with.
+	 * @return      The parsed configuration, with a new sink.
+	 */
+	
+	public static ContextConfig reload(String path, ContextConfig current) throws ConfigParseException {
+		return load(read(path), path, current);
+	}
+	
+	private static Properties read(String path) throws ConfigParseException {
 		Properties prop = new Properties();
-		InputStream input = null;
-		try {
-			input = new FileInputStream(System.getenv("provenance_properties"));
+		try (InputStream input = new FileInputStream(path)) {
 			prop.load(input);
+		} catch (FileNotFoundException fnfe) {
+			throw new ConfigParseException("Config file not found. (Make sure 'provenance_properties' points to the config file location.)");
+		} catch (IOException ioe) {
+			throw new ConfigParseException("Problem loading config file. (Make sure 'provenance_properties' points to the config file location and config has proper read permissions.)");
+		}
+		return prop;
+	}
+	
+	/**
+	 * Parses a configuration and creates its sink.
+	 *
+	 * @param  prop  Config parameters, as found in the config file.
+	 * @return      The parsed configuration.
+	 */
+	
+	public static ContextConfig load(Properties prop) throws ConfigParseException {
+		return load(prop, null, null);
+	}
+	
+	private static ContextConfig load(Properties prop, String source, ContextConfig current) throws ConfigParseException {
+		try {
 			if(prop.containsKey("name") && prop.containsKey("sink") && prop.containsKey("metrics")) {
-				name = prop.getProperty("name");
+				String name = prop.getProperty("name");
+				IdGenerator idGenerator;
+				if(current == null) {
+					idGenerator = createIdGenerator(prop.getProperty("id.generator", "sequence").trim(), name);
+				} else {
+					if(!name.equals(current.getName()))
+						LOGGER.warning("The node name changed from " + current.getName() + " to " + name + ", it is applied at the next start.");
+					name = current.getName();
+					idGenerator = current.getIdGenerator();
+				}
 				String[] metricNames = prop.getProperty("metrics").split(",");
-				metrics = new String[metricNames.length];
+				Metric[] metrics = new Metric[metricNames.length];
 				for(int i =0; i< metricNames.length; i++) {
 					Metric metricObj = Metric.fromValue(metricNames[i].trim());
 					if(metricObj == null)
 						throw new ConfigParseException("Invalid metrics specified in the config file. (Currently supported metrics 'meterid','metricid','loc','line','class','app','ctime','stime','rtime')");
-					metrics[i] = metricObj.name();
+					metrics[i] = metricObj;
+				}
+				ExecutionPolicy execution = createExecution(prop);
+				// everything is parsed and validated before the sink is created, a sink opened for an invalid config
+				// would leak its connections and threads
+				boolean spooling = Boolean.parseBoolean(prop.getProperty("spool.enabled", "false"));
+				File spoolDir = new File(prop.getProperty("spool.dir", "provenance-spool"));
+				int segmentBytes = Integer.parseInt(prop.getProperty("spool.segment.bytes", "16777216"));
+				int replayBatchSize = Integer.parseInt(prop.getProperty("spool.replay.batch.size", "500"));
+				long retryMs = Long.parseLong(prop.getProperty("spool.retry.ms", "1000"));
+				boolean compress = Boolean.parseBoolean(prop.getProperty("spool.compress", "false"));
+				boolean buffering = Boolean.parseBoolean(prop.getProperty("buffer.enabled", "false"));
+				int batchSize = Integer.parseInt(prop.getProperty("buffer.batch.size", "500"));
+				long lingerMs = Long.parseLong(prop.getProperty("buffer.linger.ms", "50"));
+				int capacity = Integer.parseInt(prop.getProperty("buffer.queue.capacity", "10000"));
+				if(buffering && (batchSize <= 0 || lingerMs < 0 || capacity < batchSize))
+					throw new ConfigParseException("Invalid buffer config. ('buffer.batch.size' should be positive and not larger than 'buffer.queue.capacity', 'buffer.linger.ms' should not be negative.)");
+				int lineageCacheSize = Integer.parseInt(prop.getProperty("lineage.cache.size", "100000"));
+				if(lineageCacheSize < 0)
+					throw new ConfigParseException("Invalid lineage config. ('lineage.cache.size' should not be negative.)");
+				boolean recycling = Boolean.parseBoolean(prop.getProperty("recycle.enabled", "false"));
+				boolean watch = Boolean.parseBoolean(prop.getProperty("config.watch", "false"));
+				createSampling(prop, null);
+				Sink sink = new SinkConfig(prop.getProperty("sink").trim(), prop, metrics).create();
+				SamplingPolicy sampling;
+				try {
+					if(spooling) {
+						try {
+							sink = new SpoolSink(sink, Spool.open(spoolDir, segmentBytes, compress), replayBatchSize, retryMs);
+						} catch (IOException ioe) {
+							throw new ConfigParseException("Problem opening spool. (Make sure 'spool.dir' points to a writable directory that no other process spools to.)");
+						}
+					}
+					if(buffering)
+						sink = new BufferedSink(sink, batchSize, lingerMs, capacity);
+					sampling = createSampling(prop, sink);
+				} catch (ConfigParseException | RuntimeException e) {
+					sink.close();
+					throw e;
 				}
-				if(prop.getProperty("sink").toLowerCase().equals("cassandra")) {
-					int port = prop.containsKey("cassandra.port") ? Integer.parseInt(prop.getProperty("cassandra.port")) : 9042;
-					CassandraConfig cassandraConfig;
-					if(prop.containsKey("cassandra.ip")) 
-						cassandraConfig = new CassandraConfig(prop.getProperty("cassandra.ip"), port);
-					else
-						cassandraConfig = new CassandraConfig("127.0.0.1", port);
-					if(prop.containsKey("cassandra.keyspace.name"))
-						cassandraConfig.setKeyspaceName(prop.getProperty("cassandra.keyspace.name"));
-					if(prop.containsKey("cassandra.table.name"))
-						cassandraConfig.setTableName(prop.getProperty("cassandra.table.name"));
-					if(prop.containsKey("cassandra.replication.strategy"))
-						cassandraConfig.setReplicationStrategy(prop.getProperty("cassandra.replication.strategy"));
-					if(prop.containsKey("cassandra.replication.factor"))
-						cassandraConfig.setReplicationFactor(Integer.parseInt(prop.getProperty("cassandra.replication.factor")));
-					sink = new CassandraSink(cassandraConfig);
-				} else
-					throw new ConfigParseException("No Sink found.");
+				return ContextConfig.builder(name, idGenerator, metrics, sink).setLineageCacheSize(lineageCacheSize).setRecycling(recycling)
+						.setSampling(sampling).setExecution(execution).setSource(source, watch).build();
 			} else 
 				throw new ConfigParseException("Problem parsing config file. ('name', 'sink' and 'metrics' are the required config parameters.)");
-		} catch (NullPointerException npe) {
-			throw new ConfigParseException("Config file not found. (Make sure 'provenance_properties' points to the config file location.)");
-		} catch (FileNotFoundException fnfe) {
-			throw new ConfigParseException("Config file not found. (Make sure 'provenance_properties' points to the config file location.)");
-		} catch (IOException ioe) {
-			throw new ConfigParseException("Problem loading config file. (Make sure 'provenance_properties' points to the config file location and config has proper read permissions.)");
+		} catch (NumberFormatException nfe) {
+			throw new ConfigParseException("Problem parsing config file. (Numeric config parameters should be valid numbers.)");
+		}
+	}
+	
+	/**
+	 * Makes the configuration the node's default configuration unless there already is one.
+	 */
+	
+	public static void setDefaultIfAbsent(ContextConfig config) {
+		defaults.compareAndSet(null, config);
+	}
+	
+	/**
+	 * Replaces the node's default configuration after its context reloaded it, unless another configuration is the
+	 * default.
+	 */
+	
+	public static void replaceDefault(ContextConfig current, ContextConfig next) {
+		defaults.compareAndSet(current, next);
+	}
+	
+	/**
+	 * Creates the sampling policy, or only validates its parameters if 'sink' is null.
+	 */
+	
+	private static SamplingPolicy createSampling(Properties prop, Sink sink) throws ConfigParseException {
+		String policy = prop.getProperty("sampling.policy", "none").trim();
+		long intervalMs = Long.parseLong(prop.getProperty("sampling.interval.ms", "1000"));
+		if(intervalMs <= 0)
+			throw new ConfigParseException("Invalid sampling config. ('sampling.interval.ms' should be positive.)");
+		Sampler sampler;
+		if(policy.equals("none")) {
+			return null;
+		} else if(policy.equals("fixed")) {
+			double rate = Double.parseDouble(prop.getProperty("sampling.rate", "1.0"));
+			if(!(rate > 0 && rate <= 1))
+				throw new ConfigParseException("Invalid sampling config. ('sampling.rate' should be larger than 0 and at most 1.)");
+			sampler = sink == null ? null : new FixedRateSampler(rate);
+		} else if(policy.equals("reservoir")) {
+			int size = Integer.parseInt(prop.getProperty("sampling.reservoir.size", "100"));
+			if(size <= 0)
+				throw new ConfigParseException("Invalid sampling config. ('sampling.reservoir.size' should be positive.)");
+			sampler = sink == null ? null : new ReservoirSampler(size, intervalMs);
+		} else if(policy.equals("adaptive")) {
+			long maxQueueDepth = Long.parseLong(prop.getProperty("sampling.adaptive.max.queue.depth", "5000"));
+			long maxLatencyMs = Long.parseLong(prop.getProperty("sampling.adaptive.max.latency.ms", "50"));
+			double cpuBudget = Double.parseDouble(prop.getProperty("sampling.adaptive.cpu.budget", "0.1"));
+			double minRate = Double.parseDouble(prop.getProperty("sampling.adaptive.min.rate", "0.01"));
+			if(maxQueueDepth <= 0 || maxLatencyMs <= 0 || !(cpuBudget > 0) || !(minRate > 0 && minRate <= 1))
+				throw new ConfigParseException("Invalid sampling config. ('sampling.adaptive.max.queue.depth', 'sampling.adaptive.max.latency.ms' and 'sampling.adaptive.cpu.budget' should be positive, 'sampling.adaptive.min.rate' should be larger than 0 and at most 1.)");
+			sampler = sink == null ? null : new AdaptiveSampler(sink, maxQueueDepth, maxLatencyMs, cpuBudget, minRate, intervalMs);
+		} else
+			throw new ConfigParseException("Invalid sampling policy specified in the config file. ('sampling.policy' should be 'none', 'fixed', 'reservoir' or 'adaptive'.)");
+		long maxAgeMs = Long.parseLong(prop.getProperty("sampling.summarize.max.age.ms", String.valueOf(SamplingPolicy.DEFAULT_MAX_PENDING_AGE_MS)));
+		if(maxAgeMs <= 0)
+			throw new ConfigParseException("Invalid sampling config. ('sampling.summarize.max.age.ms' should be positive.)");
+		return sampler == null ? null : new SamplingPolicy(sampler, Boolean.parseBoolean(prop.getProperty("sampling.summarize", "true")), maxAgeMs);
+	}
+	
+	private static ExecutionPolicy createExecution(Properties prop) throws ConfigParseException {
+		ExecutionMode mode = ExecutionMode.fromValue(prop.getProperty("execution.mode", "caller").trim());
+		if(mode == null)
+			throw new ConfigParseException("Invalid execution mode specified in the config file. ('execution.mode' should be 'caller', 'pool' or 'virtual'.)");
+		if(mode == ExecutionMode.CALLER)
+			return ExecutionPolicy.CALLER;
+		int threads = Integer.parseInt(prop.getProperty("execution.threads", "0"));
+		int queueCapacity = Integer.parseInt(prop.getProperty("execution.queue.capacity", "10000"));
+		if(threads < 0 || queueCapacity <= 0)
+			throw new ConfigParseException("Invalid execution config. ('execution.threads' should not be negative and 'execution.queue.capacity' should be positive.)");
+		return new ExecutionPolicy(mode, threads, queueCapacity);
+	}
+	
+	/**
+	 * Returns the IdGenerator of a node name, contexts loaded with the same name and generator share it so they do not
+	 * hand out the same IDs.
+	 */
+	
+	private static IdGenerator createIdGenerator(String generator, String name) throws ConfigParseException {
+		if(generator.equals("sequence"))
+			return SequenceIdGenerator.forNode(name);
+		String key = generator + "/" + name;
+		IdGenerator idGenerator = generators.get(key);
+		if(idGenerator != null)
+			return idGenerator;
+		try {
+			idGenerator = (IdGenerator) Class.forName(generator).getConstructor(String.class).newInstance(name);
+		} catch (ReflectiveOperationException | ClassCastException e) {
+			throw new ConfigParseException("Invalid id generator specified in the config file. ('id.generator' should be 'sequence' or the name of an IdGenerator class with a constructor taking the node name.)");
 		}
+		IdGenerator shared = generators.putIfAbsent(key, idGenerator);
+		return shared != null ? shared : idGenerator;
+	}
+	
+	/**
+	 * Returns the node's default configuration, null if no context has been configured yet.
+	 */
+	
+	public static ContextConfig getDefault() {
+		return defaults.get();
 	}
 	
 	public static String getName() {
-		return name;
+		return defaults.get().getName();
 	}
 	
 	public static Sink getSink() {
-		return sink;
+		return defaults.get().getSink();
+	}
+	
+	public static IdGenerator getIdGenerator() {
+		return defaults.get().getIdGenerator();
 	}
 	
 	public static String[] getMetrics() {
-		return metrics;
+		return defaults.get().getMetricNames();
 	}
 }
\ No newline at end of file
@@ -0,0 +1,96 @@
+package io.provenance.config;
+
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.ServiceLoader;
+import java.util.Set;
+
+import io.provenance.exception.ConfigParseException;
+import io.provenance.sink.Sink;
+import io.provenance.sink.SinkFactory;
+import io.provenance.types.Metric;
+
+/**
+ * Config parameters of one named sink. A sink named 'archive' reads its parameters from the 'archive.*' keys of the
+ * config file and its type from 'archive.type', which defaults to the name, so 'sink: cassandra' reads 'cassandra.*'.
+ */
+
+public class SinkConfig {
+
+	private final String name;
+	private final Properties prop;
+	private final Metric[] metrics;
+	private final Set<String> creating;
+
+	SinkConfig(String name, Properties prop, Metric[] metrics) {
+		this(name, prop, metrics, new HashSet<String>());
+	}
+
+	private SinkConfig(String name, Properties prop, Metric[] metrics, Set<String> creating) {
+		this.name = name;
+		this.prop = prop;
+		this.metrics = metrics;
+		this.creating = creating;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getType() {
+		return prop.getProperty(name + ".type", name).trim().toLowerCase();
+	}
+
+	/**
+	 * Returns true if the parameter '&lt;name&gt;.&lt;key&gt;' is set.
+	 */
+
+	public boolean containsKey(String key) {
+		return prop.containsKey(name + "." + key);
+	}
+
+	/**
+	 * Returns the parameter '&lt;name&gt;.&lt;key&gt;', or the default value if it is not set.
+	 */
+
+	public String getProperty(String key, String defaultValue) {
+		return prop.getProperty(name + "." + key, defaultValue);
+	}
+
+	/**
+	 * Returns the context metrics stored with each Datapoint, in column order.
+	 */
+
+	public Metric[] getMetrics() {
+		return metrics.clone();
+	}
+
+	/**
+	 * Creates another named sink of the same config, i.e. the parts of a composite sink.
+	 *
+	 * @param  name  Name of the sink.
+	 * @return      The new sink.
+	 */
+
+	public Sink createSink(String name) throws ConfigParseException {
+		return new SinkConfig(name.trim(), prop, metrics, creating).create();
+	}
+
+	/**
+	 * Looks up the factory of the sink's type and creates the sink.
+	 */
+
+	Sink create() throws ConfigParseException {
+		if(!creating.add(name))
+			throw new ConfigParseException("Sink '" + name + "' refers to itself.");
+		try {
+			String type = getType();
+			for(SinkFactory factory : ServiceLoader.load(SinkFactory.class))
+				if(factory.getType().equals(type))
+					return factory.create(this);
+			throw new ConfigParseException("No Sink found for '" + name + "'. (Currently supported sinks 'cassandra', 'memory', 'file', 'tee' and those of SinkFactory implementations on the classpath)");
+		} finally {
+			creating.remove(name);
+		}
+	}
+}
@@ -0,0 +1,17 @@
+package io.provenance.exception;
+
+/**
+ * Thrown when a sink rejects a call without trying it, i.e. while the circuit breaker of the Cassandra sink is open.
+ */
+
+public class SinkUnavailableException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public SinkUnavailableException() {
+    }
+
+    public SinkUnavailableException(String message) {
+       super(message);
+    }
+}
@@ -0,0 +1,28 @@
+package io.provenance.executor;
+
+/**
+ * Where saveAsync() runs the save, see ExecutionPolicy.
+ */
+
+public enum ExecutionMode {
+	CALLER("caller"), POOL("pool"), VIRTUAL("virtual");
+
+	private final String value;
+
+	ExecutionMode(String value) {
+		this.value = value;
+	}
+
+	public String getValue() {
+		return value;
+	}
+
+	public static ExecutionMode fromValue(String text) {
+		for (ExecutionMode mode : ExecutionMode.values()) {
+			if (mode.value.equals(text)) {
+				return mode;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,75 @@
+package io.provenance.executor;
+
+/**
+ * Concurrency model of the saves of one context. With CALLER every save runs on the thread calling it and saveAsync()
+ * pipelines to the sink as before. With POOL and VIRTUAL saveAsync() hands the save to a FairExecutor of the context,
+ * backed by platform threads or, on JDK 21 and later, by virtual threads. Each context, i.e. each tenant with its own
+ * sink, gets its own workers, so a slow sink only holds up the saves of its own context.
+ */
+
+public class ExecutionPolicy {
+
+	public static final ExecutionPolicy CALLER = new ExecutionPolicy(ExecutionMode.CALLER, 0, 0);
+
+	/**
+	 * Number of concurrent saves per core with virtual threads when 'threads' is 0. Saves mostly wait for the sink,
+	 * so virtual threads run many more of them than there are cores.
+	 */
+
+	public static final int VIRTUAL_THREADS_PER_CORE = 16;
+
+	private final ExecutionMode mode;
+	private final int threads;
+	private final int queueCapacity;
+
+	/**
+	 * Creates a new execution policy.
+	 *
+	 * @param  mode  Where saveAsync() runs the save.
+	 * @param  threads  Maximum number of concurrent saves, 0 for the number of cores with POOL and VIRTUAL_THREADS_PER_CORE per core with VIRTUAL.
+	 * @param  queueCapacity  Maximum number of pending saves, saveAsync() blocks while it is reached.
+	 */
+
+	public ExecutionPolicy(ExecutionMode mode, int threads, int queueCapacity) {
+		if(mode != ExecutionMode.CALLER && (threads < 0 || queueCapacity <= 0))
+			throw new IllegalArgumentException("Invalid execution policy: threads should not be negative and queueCapacity should be positive.");
+		this.mode = mode;
+		this.threads = threads;
+		this.queueCapacity = queueCapacity;
+	}
+
+	public ExecutionMode getMode() {
+		return mode;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	/**
+	 * Returns the number of concurrent saves, with 0 threads resolved against the cores of this machine.
+	 */
+
+	public int getParallelism() {
+		if(threads > 0)
+			return threads;
+		int cores = Runtime.getRuntime().availableProcessors();
+		return mode == ExecutionMode.VIRTUAL ? cores * VIRTUAL_THREADS_PER_CORE : cores;
+	}
+
+	/**
+	 * Creates the executor of a context, null with CALLER.
+	 *
+	 * @param  name  Name of the context, used for the worker threads.
+	 */
+
+	public FairExecutor createExecutor(String name) {
+		if(mode == ExecutionMode.CALLER)
+			return null;
+		return new FairExecutor(name, mode, getParallelism(), queueCapacity);
+	}
+}
@@ -0,0 +1,280 @@
+package io.provenance.executor;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs tasks with fair scheduling across keys, i.e. meters. Each key has its own queue and the workers take one task
+ * per key in turn, so a meter saving in bursts does not delay the others, and the tasks of one key run one after
+ * another in submission order. At most 'parallelism' tasks run at once, on platform threads (POOL) or on virtual
+ * threads (VIRTUAL). Virtual threads are created through reflection, so the library keeps running on Java 8 and falls
+ * back to platform threads before JDK 21. Idle platform threads exit after a minute, so a small gateway only keeps the
+ * threads it needs.
+ *
+ * A task may queue further tasks, i.e. from the completion callback of a save, but its worker does not wait for a free
+ * slot: execute() fails when the queue is full, since the worker it would wait for may be itself.
+ */
+
+public class FairExecutor implements AutoCloseable {
+
+	private static final Logger LOGGER = Logger.getLogger(FairExecutor.class.getName());
+	private static final Method NEW_VIRTUAL_EXECUTOR = virtualExecutorFactory();
+	private static final ThreadLocal<FairExecutor> WORKER = new ThreadLocal<FairExecutor>();
+
+	private final String name;
+	private final int parallelism;
+	private final ExecutorService workers;
+	private final Semaphore capacity;
+	private final int queueCapacity;
+	private final ConcurrentHashMap<String, Lane> lanes = new ConcurrentHashMap<String, Lane>();
+	private final ConcurrentLinkedQueue<Lane> ready = new ConcurrentLinkedQueue<Lane>();
+	private final AtomicInteger active = new AtomicInteger();
+	private volatile boolean closed;
+
+	/**
+	 * Creates a new fair executor.
+	 *
+	 * @param  name  Name of the executor, used for its threads.
+	 * @param  mode  POOL or VIRTUAL.
+	 * @param  parallelism  Maximum number of tasks running at once.
+	 * @param  queueCapacity  Maximum number of pending tasks, execute() blocks while it is reached.
+	 */
+
+	public FairExecutor(String name, ExecutionMode mode, int parallelism, int queueCapacity) {
+		if(mode == ExecutionMode.CALLER || parallelism <= 0 || queueCapacity <= 0)
+			throw new IllegalArgumentException("Invalid fair executor: mode should be POOL or VIRTUAL, parallelism and queueCapacity should be positive.");
+		this.name = name;
+		this.parallelism = parallelism;
+		this.queueCapacity = queueCapacity;
+		this.capacity = new Semaphore(queueCapacity);
+		ExecutorService virtual = mode == ExecutionMode.VIRTUAL ? newVirtualExecutor() : null;
+		if(mode == ExecutionMode.VIRTUAL && virtual == null)
+			LOGGER.info("Virtual threads require JDK 21 or later, executor " + name + " uses " + parallelism + " platform threads.");
+		this.workers = virtual != null ? virtual : newPlatformExecutor(name, parallelism);
+	}
+
+	private static ExecutorService newPlatformExecutor(String name, int parallelism) {
+		String threadName = "provenance-executor-" + name;
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+			Thread thread = new Thread(r, threadName);
+			thread.setDaemon(true);
+			return thread;
+		});
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	private static Method virtualExecutorFactory() {
+		try {
+			return java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException nsme) {
+			return null;
+		}
+	}
+
+	private static ExecutorService newVirtualExecutor() {
+		if(NEW_VIRTUAL_EXECUTOR == null)
+			return null;
+		try {
+			return (ExecutorService) NEW_VIRTUAL_EXECUTOR.invoke(null);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			LOGGER.log(Level.FINE, "Could not create a virtual thread executor.", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Returns whether virtual threads are available, i.e. the JVM is JDK 21 or later.
+	 */
+
+	public static boolean isVirtualAvailable() {
+		return NEW_VIRTUAL_EXECUTOR != null;
+	}
+
+	/**
+	 * Returns whether the calling thread is one of the executor's workers, i.e. it runs one of its tasks.
+	 */
+
+	public boolean isWorker() {
+		return WORKER.get() == this;
+	}
+
+	/**
+	 * Queues a task behind the pending tasks of its key. Blocks while 'queueCapacity' tasks are pending, unless it is
+	 * called by one of the executor's own workers.
+	 *
+	 * @param  key  Key the task is scheduled by, i.e. its meter, null for the shared key.
+	 * @param  task  Task to be run, exceptions it throws are logged.
+	 * @throws RejectedExecutionException if the executor is closed, or if it is full and called by one of its workers.
+	 */
+
+	public void execute(String key, Runnable task) {
+		if(closed)
+			throw new RejectedExecutionException("Executor " + name + " is closed.");
+		if(!isWorker())
+			capacity.acquireUninterruptibly();
+		else if(!capacity.tryAcquire())
+			throw new RejectedExecutionException("Executor " + name + " is full, its workers can not wait for a free slot.");
+		if(closed) {
+			// close() checks the pending tasks after setting 'closed', it either waits for this one or it is rejected here
+			capacity.release();
+			throw new RejectedExecutionException("Executor " + name + " is closed.");
+		}
+		boolean[] schedule = new boolean[1];
+		Lane lane = lanes.compute(key == null ? "" : key, (k, current) -> {
+			Lane queued = current != null ? current : new Lane(k);
+			queued.tasks.add(task);
+			if(!queued.scheduled) {
+				queued.scheduled = true;
+				schedule[0] = true;
+			}
+			return queued;
+		});
+		if(schedule[0]) {
+			ready.add(lane);
+			startWorker();
+		}
+	}
+
+	private void startWorker() {
+		while(true) {
+			int running = active.get();
+			if(running >= parallelism)
+				return;
+			if(active.compareAndSet(running, running + 1))
+				break;
+		}
+		try {
+			workers.execute(this::work);
+		} catch (RejectedExecutionException ree) {
+			active.decrementAndGet();
+			throw ree;
+		}
+	}
+
+	/**
+	 * Runs the head task of each ready key in turn until no key has tasks left. A key with more tasks goes back to the
+	 * end of the ready queue, which gives round robin scheduling across keys.
+	 */
+
+	private void work() {
+		WORKER.set(this);
+		try {
+			while(true) {
+				Lane lane = ready.poll();
+				if(lane == null) {
+					active.decrementAndGet();
+					// a key may have become ready after the poll while all workers were busy, take it over
+					if(ready.isEmpty() || !resume())
+						return;
+					continue;
+				}
+				run(lane);
+			}
+		} finally {
+			WORKER.remove();
+		}
+	}
+
+	private boolean resume() {
+		while(true) {
+			int running = active.get();
+			if(running >= parallelism)
+				return false;
+			if(active.compareAndSet(running, running + 1))
+				return true;
+		}
+	}
+
+	private void run(Lane lane) {
+		Runnable[] task = new Runnable[1];
+		lanes.computeIfPresent(lane.key, (k, current) -> {
+			task[0] = current.tasks.poll();
+			return current;
+		});
+		try {
+			task[0].run();
+		} catch (RuntimeException re) {
+			LOGGER.log(Level.WARNING, "Task of executor " + name + " failed.", re);
+		} finally {
+			capacity.release();
+		}
+		boolean[] more = new boolean[1];
+		lanes.compute(lane.key, (k, current) -> {
+			if(current.tasks.isEmpty())
+				return null;
+			more[0] = true;
+			return current;
+		});
+		if(more[0])
+			ready.add(lane);
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Returns the number of queued and running tasks.
+	 */
+
+	public int getPending() {
+		return queueCapacity - capacity.availablePermits();
+	}
+
+	/**
+	 * Stops accepting tasks, runs the pending ones and stops the workers.
+	 *
+	 * @throws IllegalStateException if it is called by one of the executor's workers, which would wait for itself.
+	 */
+
+	public void close() {
+		if(isWorker())
+			throw new IllegalStateException("Executor " + name + " can not be closed by one of its own tasks.");
+		closed = true;
+		boolean interrupted = false;
+		while(getPending() > 0) {
+			try {
+				Thread.sleep(1);
+			} catch (InterruptedException ie) {
+				interrupted = true;
+			}
+		}
+		workers.shutdown();
+		while(!workers.isTerminated()) {
+			try {
+				workers.awaitTermination(1, TimeUnit.SECONDS);
+			} catch (InterruptedException ie) {
+				interrupted = true;
+			}
+		}
+		if(interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Pending tasks of one key. Its fields are only accessed inside compute() of the lanes map, which locks the key.
+	 */
+
+	private static final class Lane {
+
+		private final String key;
+		private final ArrayDeque<Runnable> tasks = new ArrayDeque<Runnable>();
+		private boolean scheduled;
+
+		Lane(String key) {
+			this.key = key;
+		}
+	}
+}
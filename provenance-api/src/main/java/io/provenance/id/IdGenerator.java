@@ -0,0 +1,47 @@
+package io.provenance.id;
+
+/**
+ * Generates the IDs of new Datapoints. An ID is handed out as a primitive long that is unique on this node and
+ * only rendered as a String when it is needed. The String also names the node, so IDs of nodes with different names
+ * are distinct.
+ */
+
+public interface IdGenerator {
+	
+	/**
+	 * Returns the next ID of this node, IDs are strictly increasing.
+	 */
+	
+	public long next();
+	
+	/**
+	 * Returns bits identifying this node. They need not be unique across nodes, compare the ID Strings for that.
+	 */
+	
+	public long getNode();
+	
+	/**
+	 * Renders an ID returned by next() as the ID String stored in the sinks.
+	 */
+	
+	public String toString(long id);
+	
+	/**
+	 * Parses an ID String rendered by this generator.
+	 *
+	 * @return      The ID as returned by next(), or -1 if the String was not rendered by this generator.
+	 */
+	
+	public long parse(String id);
+	
+	/**
+	 * Returns a generator that renders and parses the IDs of the node that rendered 'id', i.e. to expand the ID bits
+	 * of an InputSet written on another node. Generators that can not do so return this generator if it parsed 'id'.
+	 *
+	 * @return      The generator, or null if the node of 'id' is unknown.
+	 */
+	
+	public default IdGenerator forId(String id) {
+		return parse(id) != -1 ? this : null;
+	}
+}
@@ -0,0 +1,128 @@
+package io.provenance.id;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Default IdGenerator. The long ID holds the creation time in seconds in its upper bits and a per second sequence
+ * number in its lower 24 bits, it is advanced with a single CAS so there is no lock and no collision on a node. When
+ * more than 2^24 IDs are requested within a second the sequence carries over into the following second.
+ *
+ * A new generator starts at the second after its creation, so a node restarted within the same second as its last ID
+ * does not hand out that second again. IDs are only repeated if the clock is set back, if the previous run was
+ * started within the same second as this one, or if it was still ahead of the clock because it carried its sequence
+ * over. forNode() shares one generator per node name within the JVM, generators created with the constructor repeat
+ * each other's IDs.
+ *
+ * The String form keeps the 20 character layout of the original IDs: 8 hex digits of seconds, 6 hex digits of
+ * sequence and the 6 character node name.
+ */
+
+public class SequenceIdGenerator implements IdGenerator {
+
+	private static final int SEQUENCE_BITS = 24;
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	private static final ConcurrentHashMap<String, SequenceIdGenerator> NODES = new ConcurrentHashMap<String, SequenceIdGenerator>();
+
+	private final AtomicLong last = new AtomicLong((System.currentTimeMillis() / 1000 + 1) << SEQUENCE_BITS);
+	private final char[] node;
+	private final long nodeBits;
+	private final ThreadLocal<char[]> buffers;
+
+	/**
+	 * @param  name  Node name, cut or zero padded to 6 characters.
+	 */
+
+	public SequenceIdGenerator(String name) {
+		node = pad(name).toCharArray();
+		long bits = 0;
+		for(char c : node)
+			bits = bits * 31 + c;
+		nodeBits = bits;
+		buffers = ThreadLocal.withInitial(() -> {
+			char[] buffer = new char[20];
+			System.arraycopy(node, 0, buffer, 14, 6);
+			return buffer;
+		});
+	}
+
+	/**
+	 * Returns the generator of a node name, the same instance for every name that renders as the same node.
+	 *
+	 * @param  name  Node name, cut or zero padded to 6 characters.
+	 */
+
+	public static SequenceIdGenerator forNode(String name) {
+		return NODES.computeIfAbsent(pad(name), SequenceIdGenerator::new);
+	}
+
+	private static String pad(String name) {
+		StringBuilder padded = new StringBuilder();
+		for(int i=name.length(); i<6; i++)
+			padded.append('0');
+		return padded.append(name).substring(0, 6);
+	}
+
+	public long next() {
+		while(true) {
+			long current = last.get();
+			long now = System.currentTimeMillis() / 1000;
+			long next = now > (current >>> SEQUENCE_BITS) ? now << SEQUENCE_BITS : current + 1;
+			if(last.compareAndSet(current, next))
+				return next;
+		}
+	}
+
+	/**
+	 * Returns a hash of the node name. Different names may hash to the same bits, only the ID String holds the whole
+	 * name.
+	 */
+
+	public long getNode() {
+		return nodeBits;
+	}
+
+	public String toString(long id) {
+		char[] buffer = buffers.get();
+		long seconds = id >>> SEQUENCE_BITS;
+		for(int i=7; i>=0; i--, seconds >>>= 4)
+			buffer[i] = HEX[(int) (seconds & 0xF)];
+		long sequence = id;
+		for(int i=13; i>=8; i--, sequence >>>= 4)
+			buffer[i] = HEX[(int) (sequence & 0xF)];
+		return new String(buffer);
+	}
+
+	/**
+	 * Returns a generator for the node name in the last 6 characters of 'id', the generators of other nodes are only
+	 * used to render and parse IDs.
+	 */
+	
+	@Override
+	public IdGenerator forId(String id) {
+		if(parse(id) != -1)
+			return this;
+		if(id == null || id.length() != 20)
+			return null;
+		for(int i=0; i<14; i++)
+			if(Character.digit(id.charAt(i), 16) < 0)
+				return null;
+		return forNode(id.substring(14));
+	}
+	
+	public long parse(String id) {
+		if(id == null || id.length() != 20)
+			return -1;
+		for(int i=0; i<6; i++)
+			if(id.charAt(14 + i) != node[i])
+				return -1;
+		long value = 0;
+		for(int i=0; i<14; i++) {
+			int digit = Character.digit(id.charAt(i), 16);
+			if(digit < 0)
+				return -1;
+			value = (value << 4) | digit;
+		}
+		return value;
+	}
+}
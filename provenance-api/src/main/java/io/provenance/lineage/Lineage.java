@@ -0,0 +1,71 @@
+package io.provenance.lineage;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.provenance.types.Datapoint;
+
+/**
+ * Datapoints reached by a lineage trace, ordered by their distance in hops from the traced datapoint. The traced
+ * datapoint itself has distance 0. Edges are not stored separately, they are the InputDatapoints of the datapoints.
+ */
+
+public class Lineage {
+
+	private final String root;
+	private final Map<String, Datapoint> datapoints = new LinkedHashMap<String, Datapoint>();
+	private final Map<String, Integer> distances = new HashMap<String, Integer>();
+
+	Lineage(String root) {
+		this.root = root;
+	}
+
+	void add(Datapoint dp, int distance) {
+		datapoints.put(dp.getId(), dp);
+		distances.put(dp.getId(), distance);
+	}
+
+	boolean contains(String id) {
+		return datapoints.containsKey(id);
+	}
+
+	/**
+	 * Returns the ID of the traced datapoint.
+	 */
+
+	public String getRoot() {
+		return root;
+	}
+
+	/**
+	 * Returns a datapoint of the lineage, null if the trace did not reach it.
+	 */
+
+	public Datapoint get(String id) {
+		return datapoints.get(id);
+	}
+
+	/**
+	 * Returns the distance in hops of a datapoint from the traced datapoint, -1 if the trace did not reach it.
+	 */
+
+	public int getDistance(String id) {
+		Integer distance = distances.get(id);
+		return distance != null ? distance : -1;
+	}
+
+	/**
+	 * Returns all datapoints of the lineage, nearest first.
+	 */
+
+	public Collection<Datapoint> getDatapoints() {
+		return Collections.unmodifiableCollection(datapoints.values());
+	}
+
+	public int size() {
+		return datapoints.size();
+	}
+}
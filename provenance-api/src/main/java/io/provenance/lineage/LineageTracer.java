@@ -0,0 +1,149 @@
+package io.provenance.lineage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import io.provenance.sink.Sink;
+import io.provenance.types.Datapoint;
+import io.provenance.types.InputDatapoint;
+
+/**
+ * Traces the InputDatapoint graph stored in a sink breadth first. Every hop is resolved with a single batched fetch
+ * of all IDs of the hop, so a trace takes one round-trip per hop instead of one per datapoint. Resolved datapoints are
+ * kept in an LRU cache of 'cacheSize' datapoints and shared by all traces.
+ */
+
+public class LineageTracer {
+
+	private final Sink sink;
+	private final NodeCache cache;
+
+	/**
+	 * Creates a new tracer.
+	 *
+	 * @param  sink  Sink the datapoints are read from.
+	 * @param  cacheSize  Maximum number of cached datapoints.
+	 */
+
+	public LineageTracer(Sink sink, int cacheSize) {
+		this.sink = sink;
+		this.cache = new NodeCache(cacheSize);
+	}
+
+	/**
+	 * Follows the input datapoints of a datapoint, i.e. the datapoints it was derived from.
+	 *
+	 * @param  id  ID of the traced datapoint.
+	 * @param  depth  Maximum number of hops, 0 only resolves the traced datapoint.
+	 * @return      The datapoints reached.
+	 */
+
+	public Lineage traceBackward(String id, int depth) {
+		checkDepth(depth);
+		Lineage lineage = new Lineage(id);
+		Set<String> seen = new HashSet<String>(Collections.singleton(id));
+		List<String> frontier = Collections.singletonList(id);
+		for(int hop=0; hop<=depth && !frontier.isEmpty(); hop++) {
+			Map<String, Datapoint> resolved = resolve(frontier);
+			List<String> next = new ArrayList<String>();
+			for(String fid : frontier) {
+				Datapoint dp = resolved.get(fid);
+				if(dp == null)
+					continue;
+				lineage.add(dp, hop);
+				if(hop < depth && dp.getInputSet() != null) {
+					dp.getInputSet().forEachId(input -> {
+						if(seen.add(input))
+							next.add(input);
+					});
+				} else if(hop < depth && dp.getInputDatapoints() != null) {
+					for(InputDatapoint idp : dp.getInputDatapoints())
+						if(seen.add(idp.getId()))
+							next.add(idp.getId());
+				}
+			}
+			frontier = next;
+		}
+		return lineage;
+	}
+
+	/**
+	 * Follows the datapoints derived from a datapoint. Requires a sink that indexes derived datapoints.
+	 *
+	 * @param  id  ID of the traced datapoint.
+	 * @param  depth  Maximum number of hops, 0 only resolves the traced datapoint.
+	 * @return      The datapoints reached.
+	 */
+
+	public Lineage traceForward(String id, int depth) {
+		checkDepth(depth);
+		Lineage lineage = new Lineage(id);
+		Datapoint root = resolve(Collections.singletonList(id)).get(id);
+		if(root != null)
+			lineage.add(root, 0);
+		Set<String> seen = new HashSet<String>(Collections.singleton(id));
+		List<String> frontier = Collections.singletonList(id);
+		for(int hop=1; hop<=depth && !frontier.isEmpty(); hop++) {
+			Map<String, List<String>> derived = join(sink.fetchDerivedAsync(frontier));
+			List<String> next = new ArrayList<String>();
+			for(String fid : frontier) {
+				List<String> derivedIds = derived.get(fid);
+				if(derivedIds != null)
+					for(String derivedId : derivedIds)
+						if(seen.add(derivedId))
+							next.add(derivedId);
+			}
+			Map<String, Datapoint> resolved = resolve(next);
+			for(String nid : next) {
+				Datapoint dp = resolved.get(nid);
+				if(dp != null)
+					lineage.add(dp, hop);
+			}
+			frontier = next;
+		}
+		return lineage;
+	}
+
+	/**
+	 * Returns the number of cached datapoints.
+	 */
+
+	public int getCacheSize() {
+		return cache.size();
+	}
+
+	private Map<String, Datapoint> resolve(Collection<String> ids) {
+		Map<String, Datapoint> found = new HashMap<String, Datapoint>(ids.size() * 4 / 3 + 1);
+		List<String> missing = new ArrayList<String>();
+		cache.getAll(ids, found, missing);
+		if(!missing.isEmpty()) {
+			Map<String, Datapoint> fetched = join(sink.fetchAsync(missing));
+			cache.putAll(fetched);
+			found.putAll(fetched);
+		}
+		return found;
+	}
+
+	private static void checkDepth(int depth) {
+		if(depth < 0)
+			throw new IllegalArgumentException("Depth should not be negative.");
+	}
+
+	private static <T> T join(CompletableFuture<T> future) {
+		try {
+			return future.join();
+		} catch (CompletionException ce) {
+			if(ce.getCause() instanceof RuntimeException)
+				throw (RuntimeException) ce.getCause();
+			throw ce;
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package io.provenance.lineage;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.provenance.types.Datapoint;
+
+/**
+ * Size bounded LRU cache of resolved datapoints. Stored datapoints never change, so a cached datapoint is never stale.
+ */
+
+final class NodeCache {
+
+	private final LinkedHashMap<String, Datapoint> datapoints;
+
+	NodeCache(int capacity) {
+		this.datapoints = new LinkedHashMap<String, Datapoint>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Datapoint> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Copies the cached datapoints of the given IDs into 'found' and the IDs that are not cached into 'missing'.
+	 */
+
+	synchronized void getAll(Collection<String> ids, Map<String, Datapoint> found, List<String> missing) {
+		for(String id : ids) {
+			Datapoint dp = datapoints.get(id);
+			if(dp != null)
+				found.put(id, dp);
+			else
+				missing.add(id);
+		}
+	}
+
+	synchronized void putAll(Map<String, Datapoint> resolved) {
+		datapoints.putAll(resolved);
+	}
+
+	synchronized int size() {
+		return datapoints.size();
+	}
+}
@@ -0,0 +1,65 @@
+package io.provenance.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Registry of the SinkMetrics of this JVM. Registered metrics are also exposed through JMX.
+ */
+
+public class Metrics {
+
+	private static final Logger LOGGER = Logger.getLogger(Metrics.class.getName());
+	private static final ConcurrentMap<String, SinkMetrics> registry = new ConcurrentHashMap<String, SinkMetrics>();
+
+	/**
+	 * Creates and registers the metrics of a sink. A suffix is appended to the name if it is already taken.
+	 *
+	 * @param  name  Name the metrics are tagged with, i.e. 'cassandra'.
+	 */
+
+	public static SinkMetrics register(String name) {
+		SinkMetrics metrics = new SinkMetrics(name);
+		for(int i=2; registry.putIfAbsent(metrics.getName(), metrics) != null; i++)
+			metrics = new SinkMetrics(name + "-" + i);
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, objectName(metrics));
+		} catch (JMException jme) {
+			LOGGER.log(Level.WARNING, "Could not register JMX bean of " + metrics.getName() + ".", jme);
+		}
+		return metrics;
+	}
+
+	public static void unregister(SinkMetrics metrics) {
+		if(registry.remove(metrics.getName(), metrics)) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName(metrics));
+			} catch (JMException jme) {
+				LOGGER.log(Level.FINE, "Could not unregister JMX bean of " + metrics.getName() + ".", jme);
+			}
+		}
+	}
+
+	/**
+	 * Returns a snapshot of every registered metrics.
+	 */
+
+	public static List<MetricsSnapshot> snapshot() {
+		List<MetricsSnapshot> snapshots = new ArrayList<MetricsSnapshot>();
+		for(SinkMetrics metrics : registry.values())
+			snapshots.add(metrics.snapshot());
+		return snapshots;
+	}
+
+	private static ObjectName objectName(SinkMetrics metrics) throws JMException {
+		return new ObjectName("io.provenance:type=SinkMetrics,name=" + ObjectName.quote(metrics.getName()));
+	}
+}
@@ -0,0 +1,137 @@
+package io.provenance.metrics;
+
+/**
+ * Values of a SinkMetrics at one point in time. Latencies are in nanoseconds.
+ */
+
+public class MetricsSnapshot {
+
+	private final String name;
+	private final long nanos;
+	private final long calls;
+	private final long records;
+	private final double recordsPerSecond;
+	private final long bytes;
+	private final long failures;
+	private final long retries;
+	private final long dropped;
+	private final long queueDepth;
+	private final long inFlight;
+	private final double latencyMean;
+	private final long latencyP50;
+	private final long latencyP99;
+	private final long latencyP999;
+	private final long latencyMax;
+
+	MetricsSnapshot(String name, long nanos, long calls, long records, double recordsPerSecond, long bytes, long failures, long retries, long dropped,
+			long queueDepth, long inFlight, double latencyMean, long latencyP50, long latencyP99, long latencyP999, long latencyMax) {
+		this.name = name;
+		this.nanos = nanos;
+		this.calls = calls;
+		this.records = records;
+		this.recordsPerSecond = recordsPerSecond;
+		this.bytes = bytes;
+		this.failures = failures;
+		this.retries = retries;
+		this.dropped = dropped;
+		this.queueDepth = queueDepth;
+		this.inFlight = inFlight;
+		this.latencyMean = latencyMean;
+		this.latencyP50 = latencyP50;
+		this.latencyP99 = latencyP99;
+		this.latencyP999 = latencyP999;
+		this.latencyMax = latencyMax;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getCalls() {
+		return calls;
+	}
+
+	public long getRecords() {
+		return records;
+	}
+
+	/**
+	 * Returns the records per second since the metrics were created.
+	 */
+
+	public double getRecordsPerSecond() {
+		return recordsPerSecond;
+	}
+
+	/**
+	 * Returns the records per second between a previous snapshot of the same metrics and this one.
+	 *
+	 * Example Usage:
+	 *				MetricsSnapshot previous = metrics.snapshot();
+	 *				...
+	 *				MetricsSnapshot current = metrics.snapshot();
+	 *				double rate = current.getRecordsPerSecond(previous);
+	 *
+	 * @param  previous  Earlier snapshot of the same metrics, kept by the caller.
+	 */
+
+	public double getRecordsPerSecond(MetricsSnapshot previous) {
+		double seconds = (nanos - previous.nanos) / 1e9;
+		return seconds > 0 ? (records - previous.records) / seconds : 0;
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	public long getFailures() {
+		return failures;
+	}
+
+	public long getRetries() {
+		return retries;
+	}
+
+	public long getDropped() {
+		return dropped;
+	}
+
+	public long getQueueDepth() {
+		return queueDepth;
+	}
+
+	public long getInFlight() {
+		return inFlight;
+	}
+
+	public double getLatencyMean() {
+		return latencyMean;
+	}
+
+	public long getLatencyP50() {
+		return latencyP50;
+	}
+
+	public long getLatencyP99() {
+		return latencyP99;
+	}
+
+	public long getLatencyP999() {
+		return latencyP999;
+	}
+
+	public long getLatencyMax() {
+		return latencyMax;
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuilder(name).append(": calls=").append(calls).append(", records=").append(records)
+				.append(", records/s=").append(Math.round(recordsPerSecond)).append(", bytes=").append(bytes)
+				.append(", failures=").append(failures).append(", retries=").append(retries).append(", dropped=").append(dropped)
+				.append(", queueDepth=").append(queueDepth).append(", inFlight=").append(inFlight)
+				.append(", latency(us) mean=").append(Math.round(latencyMean / 1000)).append(" p50=").append(latencyP50 / 1000)
+				.append(" p99=").append(latencyP99 / 1000).append(" p999=").append(latencyP999 / 1000)
+				.append(" max=").append(latencyMax / 1000).toString();
+	}
+}
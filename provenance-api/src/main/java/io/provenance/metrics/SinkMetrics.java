@@ -0,0 +1,168 @@
+package io.provenance.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters and latency histogram of one sink (or context). Recording never allocates and never locks, so it stays on
+ * in production.
+ *
+ * Example Usage:
+ *				long start = metrics.start();
+ *				...
+ *				metrics.success(start, datapoints.length);
+ */
+
+public class SinkMetrics implements SinkMetricsMXBean {
+
+	private static final LongSupplier ZERO = () -> 0;
+
+	private final String name;
+	private final LongAdder calls = new LongAdder();
+	private final LongAdder records = new LongAdder();
+	private final LongAdder bytes = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final LongAdder retries = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private volatile LongSupplier queueDepth = ZERO;
+	private volatile LongSupplier inFlight = ZERO;
+	private final long created = System.nanoTime();
+
+	SinkMetrics(String name) {
+		this.name = name;
+	}
+
+	public long start() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Records a successful call.
+	 *
+	 * @param  start  Value returned by start() when the call began.
+	 * @param  count  Number of records handled by the call.
+	 */
+
+	public void success(long start, int count) {
+		latency.record(System.nanoTime() - start);
+		calls.increment();
+		records.add(count);
+	}
+
+	/**
+	 * Records a failed call.
+	 *
+	 * @param  start  Value returned by start() when the call began.
+	 */
+
+	public void failure(long start) {
+		latency.record(System.nanoTime() - start);
+		calls.increment();
+		failures.increment();
+	}
+
+	/**
+	 * Counts a failure that is not tied to a call, i.e. a failed background flush.
+	 */
+
+	public void error() {
+		failures.increment();
+	}
+
+	public void bytesWritten(long count) {
+		bytes.add(count);
+	}
+
+	public void retry() {
+		retries.increment();
+	}
+
+	/**
+	 * Counts records that were deliberately not handed on, i.e. shed by a full queue.
+	 */
+
+	public void dropped(int count) {
+		dropped.add(count);
+	}
+
+	public void setQueueDepth(LongSupplier queueDepth) {
+		this.queueDepth = queueDepth;
+	}
+
+	public void setInFlight(LongSupplier inFlight) {
+		this.inFlight = inFlight;
+	}
+
+	/**
+	 * Returns the current values, the records per second are averaged since the metrics were created. Taking a
+	 * snapshot does not change any state, a consumer that wants the current rate keeps its previous snapshot and
+	 * passes it to MetricsSnapshot.getRecordsPerSecond(previous).
+	 */
+
+	public MetricsSnapshot snapshot() {
+		long now = System.nanoTime();
+		long recordCount = records.sum();
+		double seconds = (now - created) / 1e9;
+		double recordsPerSecond = seconds > 0 ? recordCount / seconds : 0;
+		return new MetricsSnapshot(name, now, calls.sum(), recordCount, recordsPerSecond, bytes.sum(), failures.sum(), retries.sum(), dropped.sum(),
+				getQueueDepth(), getInFlight(), latency.getMean(), latency.getPercentile(0.5), latency.getPercentile(0.99),
+				latency.getPercentile(0.999), latency.getMax());
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getCalls() {
+		return calls.sum();
+	}
+
+	public long getRecords() {
+		return records.sum();
+	}
+
+	public long getBytes() {
+		return bytes.sum();
+	}
+
+	public long getFailures() {
+		return failures.sum();
+	}
+
+	public long getRetries() {
+		return retries.sum();
+	}
+
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	public long getQueueDepth() {
+		return queueDepth.getAsLong();
+	}
+
+	public long getInFlight() {
+		return inFlight.getAsLong();
+	}
+
+	public double getLatencyMeanMicros() {
+		return latency.getMean() / 1000;
+	}
+
+	public double getLatencyP50Micros() {
+		return latency.getPercentile(0.5) / 1000.0;
+	}
+
+	public double getLatencyP99Micros() {
+		return latency.getPercentile(0.99) / 1000.0;
+	}
+
+	public double getLatencyP999Micros() {
+		return latency.getPercentile(0.999) / 1000.0;
+	}
+
+	public double getLatencyMaxMicros() {
+		return latency.getMax() / 1000.0;
+	}
+}
@@ -0,0 +1,22 @@
+package io.provenance.metrics;
+
+/**
+ * JMX view of a SinkMetrics, registered as io.provenance:type=SinkMetrics,name=&lt;sink&gt;.
+ */
+
+public interface SinkMetricsMXBean {
+	public String getName();
+	public long getCalls();
+	public long getRecords();
+	public long getBytes();
+	public long getFailures();
+	public long getRetries();
+	public long getDropped();
+	public long getQueueDepth();
+	public long getInFlight();
+	public double getLatencyMeanMicros();
+	public double getLatencyP50Micros();
+	public double getLatencyP99Micros();
+	public double getLatencyP999Micros();
+	public double getLatencyMaxMicros();
+}
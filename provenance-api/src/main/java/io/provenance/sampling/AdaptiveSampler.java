@@ -0,0 +1,88 @@
+package io.provenance.sampling;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+import io.provenance.sink.Sink;
+import io.provenance.types.Datapoint;
+
+/**
+ * Stores a share of the datapoints that follows the load of the node. Once per interval the sampler checks three
+ * signals: the sink's queue depth, the mean duration of the save() calls and the time spent in save() summed over all
+ * threads, as a share of the interval, i.e. 0.1 for a tenth of one core. If any of them is above its threshold the
+ * rate is halved, down to 'minRate', otherwise it is raised by a tenth, up to 1. Time spent in save() is wall clock
+ * time, so a sink blocking the callers counts against the budget just as serialization does.
+ */
+
+public class AdaptiveSampler implements Sampler {
+
+	private static final Logger LOGGER = Logger.getLogger(AdaptiveSampler.class.getName());
+	private static final double INCREASE = 0.1;
+
+	private final Sink sink;
+	private final long maxQueueDepth;
+	private final long maxLatencyNanos;
+	private final double cpuBudget;
+	private final double minRate;
+	private final long intervalNanos;
+	private final AtomicLong intervalStart = new AtomicLong(System.nanoTime());
+	private final LongAdder calls = new LongAdder();
+	private final LongAdder busyNanos = new LongAdder();
+	private volatile double rate = 1;
+
+	/**
+	 * Creates a new adaptive sampler.
+	 *
+	 * @param  sink  Sink whose queue depth is watched.
+	 * @param  maxQueueDepth  Queue depth above which the rate is lowered.
+	 * @param  maxLatencyMs  Mean save() duration in milliseconds above which the rate is lowered.
+	 * @param  cpuBudget  Share of one core that may be spent in save(), above it the rate is lowered.
+	 * @param  minRate  Lowest share of datapoints stored, in (0, 1].
+	 * @param  intervalMs  Time in milliseconds between two adjustments of the rate.
+	 */
+
+	public AdaptiveSampler(Sink sink, long maxQueueDepth, long maxLatencyMs, double cpuBudget, double minRate, long intervalMs) {
+		if(maxQueueDepth <= 0 || maxLatencyMs <= 0 || !(cpuBudget > 0) || !(minRate > 0 && minRate <= 1) || intervalMs <= 0)
+			throw new IllegalArgumentException("Invalid adaptive sampler: thresholds and intervalMs should be positive and minRate should be in (0, 1].");
+		this.sink = sink;
+		this.maxQueueDepth = maxQueueDepth;
+		this.maxLatencyNanos = TimeUnit.MILLISECONDS.toNanos(maxLatencyMs);
+		this.cpuBudget = cpuBudget;
+		this.minRate = minRate;
+		this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+	}
+
+	public boolean sample(Datapoint dp) {
+		long now = System.nanoTime();
+		long start = intervalStart.get();
+		if(now - start >= intervalNanos && intervalStart.compareAndSet(start, now))
+			adjust(now - start);
+		double current = rate;
+		return current >= 1 || ThreadLocalRandom.current().nextDouble() < current;
+	}
+
+	public void record(long nanos, int count) {
+		calls.increment();
+		busyNanos.add(nanos);
+	}
+
+	public double getRate() {
+		return rate;
+	}
+
+	private void adjust(long elapsedNanos) {
+		long callCount = calls.sumThenReset();
+		long busy = busyNanos.sumThenReset();
+		long queueDepth = sink.getQueueDepth();
+		boolean overloaded = queueDepth > maxQueueDepth
+				|| (callCount > 0 && busy / callCount > maxLatencyNanos)
+				|| (double) busy / elapsedNanos > cpuBudget;
+		double previous = rate;
+		rate = overloaded ? Math.max(minRate, previous / 2) : Math.min(1, previous + INCREASE);
+		if(rate != previous && (rate == minRate || previous == 1))
+			LOGGER.info("Sampling rate changed from " + previous + " to " + rate + " (queue depth " + queueDepth + ", " + callCount + " saves taking " + TimeUnit.NANOSECONDS.toMillis(busy) + " ms).");
+	}
+}
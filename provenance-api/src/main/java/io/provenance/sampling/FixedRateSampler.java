@@ -0,0 +1,34 @@
+package io.provenance.sampling;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import io.provenance.types.Datapoint;
+
+/**
+ * Stores every datapoint with the same probability 'rate', independent of its meter and of the load.
+ */
+
+public class FixedRateSampler implements Sampler {
+
+	private final double rate;
+
+	/**
+	 * Creates a new fixed rate sampler.
+	 *
+	 * @param  rate  Share of datapoints stored, in (0, 1].
+	 */
+
+	public FixedRateSampler(double rate) {
+		if(!(rate > 0 && rate <= 1))
+			throw new IllegalArgumentException("Invalid sampling rate " + rate + ", it should be in (0, 1].");
+		this.rate = rate;
+	}
+
+	public boolean sample(Datapoint dp) {
+		return rate >= 1 || ThreadLocalRandom.current().nextDouble() < rate;
+	}
+
+	public double getRate() {
+		return rate;
+	}
+}
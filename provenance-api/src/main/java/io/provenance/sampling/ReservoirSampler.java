@@ -0,0 +1,73 @@
+package io.provenance.sampling;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.provenance.types.Datapoint;
+
+/**
+ * Stores about 'size' datapoints per meter and interval, however fast a meter reports. The n-th datapoint of a meter
+ * in an interval is stored with probability min(1, size / n), i.e. the admission step of reservoir sampling. Since a
+ * stored datapoint can not be taken back, later datapoints do not replace earlier ones, so every datapoint of the
+ * interval has the same chance to be stored and a meter stores about size * (1 + ln(n / size)) of its n datapoints.
+ * Meters reporting fewer than 'size' datapoints per interval are stored completely.
+ */
+
+public class ReservoirSampler implements Sampler {
+
+	private static final String NO_METER = "";
+
+	private final int size;
+	private final long intervalNanos;
+	private final ConcurrentHashMap<String, AtomicLong> counts = new ConcurrentHashMap<String, AtomicLong>();
+	private final AtomicLong intervalStart = new AtomicLong(System.nanoTime());
+	private final LongAdder seen = new LongAdder();
+	private final LongAdder kept = new LongAdder();
+	private volatile double rate = 1;
+
+	/**
+	 * Creates a new reservoir sampler.
+	 *
+	 * @param  size  Number of datapoints per meter and interval that are always stored.
+	 * @param  intervalMs  Length of an interval in milliseconds.
+	 */
+
+	public ReservoirSampler(int size, long intervalMs) {
+		if(size <= 0 || intervalMs <= 0)
+			throw new IllegalArgumentException("Invalid reservoir: size and intervalMs should be positive.");
+		this.size = size;
+		this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+	}
+
+	public boolean sample(Datapoint dp) {
+		long now = System.nanoTime();
+		long start = intervalStart.get();
+		if(now - start >= intervalNanos && intervalStart.compareAndSet(start, now)) {
+			long total = seen.sumThenReset();
+			long stored = kept.sumThenReset();
+			rate = total == 0 ? 1 : (double) stored / total;
+			counts.clear();
+		}
+		String meterId = dp.getContext() != null ? dp.getContext().getMeterId() : null;
+		AtomicLong count = counts.get(meterId != null ? meterId : NO_METER);
+		if(count == null)
+			count = counts.computeIfAbsent(meterId != null ? meterId : NO_METER, k -> new AtomicLong());
+		long n = count.incrementAndGet();
+		seen.increment();
+		if(n > size && ThreadLocalRandom.current().nextLong(n) >= size)
+			return false;
+		kept.increment();
+		return true;
+	}
+
+	/**
+	 * Returns the share of datapoints stored during the last completed interval.
+	 */
+
+	public double getRate() {
+		return rate;
+	}
+}
@@ -0,0 +1,34 @@
+package io.provenance.sampling;
+
+import io.provenance.types.Datapoint;
+
+/**
+ * Decides which raw datapoints a ProvenanceContext stores when sampling is enabled ('sampling.policy'). Derived
+ * datapoints are never offered to a sampler, they are always stored. Implementations are called concurrently by every
+ * thread saving to the context and have to be thread-safe.
+ */
+
+public interface Sampler {
+
+	/**
+	 * Returns whether the datapoint is stored.
+	 */
+
+	public boolean sample(Datapoint dp);
+
+	/**
+	 * Reports the time a save() call of the context spent in its sink, i.e. for samplers adapting to load.
+	 *
+	 * @param  nanos  Duration of the call in nanoseconds.
+	 * @param  count  Number of datapoints stored by the call.
+	 */
+
+	public default void record(long nanos, int count) {
+	}
+
+	/**
+	 * Returns the share of raw datapoints currently stored, between 0 and 1.
+	 */
+
+	public double getRate();
+}
@@ -0,0 +1,226 @@
+package io.provenance.sampling;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.provenance.id.IdGenerator;
+import io.provenance.types.Context;
+import io.provenance.types.Datapoint;
+import io.provenance.types.InputSet;
+
+/**
+ * Applies a Sampler to the datapoints passed to save(). Derived datapoints, i.e. datapoints with inputs, are always
+ * stored, only raw datapoints are sampled.
+ *
+ * With 'summarize' the lineage of sampled out datapoints is kept in compact form: their IDs are collected per meter and,
+ * when the next raw datapoint of the meter is stored, saved with it as the InputSet (contribution "Sampled") of a
+ * separate summary datapoint carrying that datapoint's meter, metric and creation time. The stored raw datapoint
+ * itself is left as it is. A sink with a derived index then resolves a sampled out ID to the summary standing in for
+ * it, i.e. traceForward of a sampled out ID returns its summary. At most MAX_PENDING IDs are collected per meter,
+ * further ones are not linked. IDs of a meter that stores no datapoint within 'maxPendingAge' of the first of them are
+ * not kept waiting: the next apply() call after that returns their summary on its own, carrying the meter, metric and
+ * creation time of the last sampled out datapoint. Quiet and retired meters thereby hold no memory for longer.
+ */
+
+public class SamplingPolicy {
+
+	public static final String SAMPLED = "Sampled";
+	public static final int MAX_PENDING = 65536;
+	public static final long DEFAULT_MAX_PENDING_AGE_MS = 60000;
+
+	private static final String NO_METER = "";
+
+	private final Sampler sampler;
+	private final boolean summarize;
+	private final long maxPendingAge;
+	private final ConcurrentHashMap<String, Pending> pending = new ConcurrentHashMap<String, Pending>();
+	private final AtomicLong nextExpiry = new AtomicLong();
+
+	/**
+	 * Creates a new sampling policy, sampled out IDs wait at most DEFAULT_MAX_PENDING_AGE_MS for their summary.
+	 *
+	 * @param  sampler  Sampler deciding which raw datapoints are stored.
+	 * @param  summarize  Whether sampled out datapoints are summarized with the next stored datapoint of their meter.
+	 */
+
+	public SamplingPolicy(Sampler sampler, boolean summarize) {
+		this(sampler, summarize, DEFAULT_MAX_PENDING_AGE_MS);
+	}
+
+	/**
+	 * Creates a new sampling policy.
+	 *
+	 * @param  sampler  Sampler deciding which raw datapoints are stored.
+	 * @param  summarize  Whether sampled out datapoints are summarized with the next stored datapoint of their meter.
+	 * @param  maxPendingAgeMs  Time in milliseconds after which sampled out IDs are summarized on their own.
+	 */
+
+	public SamplingPolicy(Sampler sampler, boolean summarize, long maxPendingAgeMs) {
+		this.sampler = sampler;
+		this.summarize = summarize;
+		this.maxPendingAge = TimeUnit.MILLISECONDS.toNanos(maxPendingAgeMs);
+		this.nextExpiry.set(System.nanoTime() + maxPendingAge);
+	}
+
+	public Sampler getSampler() {
+		return sampler;
+	}
+
+	public boolean isSummarize() {
+		return summarize;
+	}
+
+	/**
+	 * Returns the datapoints to be stored, the given array itself if all of them are and no summary is due. Summary
+	 * datapoints follow the stored datapoints, which keep their order.
+	 *
+	 * @param  dps  Datapoints of a save() call.
+	 * @param  idGenerator  IdGenerator of the context, hands out the IDs of the summary datapoints.
+	 */
+
+	public Datapoint[] apply(Datapoint[] dps, IdGenerator idGenerator) {
+		Datapoint[] kept = null;
+		List<Datapoint> summaries = null;
+		int count = 0;
+		for(int i=0; i<dps.length; i++) {
+			Datapoint dp = dps[i];
+			boolean keep = dp == null || dp.hasInputs() || sampler.sample(dp);
+			if(keep) {
+				Datapoint summary = summarize && dp != null && !dp.hasInputs() ? summarize(dp, idGenerator) : null;
+				if(summary != null) {
+					if(summaries == null)
+						summaries = new ArrayList<Datapoint>();
+					summaries.add(summary);
+				}
+				if(kept != null)
+					kept[count] = dp;
+				count++;
+			} else {
+				if(kept == null) {
+					kept = new Datapoint[dps.length - 1];
+					System.arraycopy(dps, 0, kept, 0, count);
+				}
+				if(summarize)
+					collect(dp, idGenerator);
+			}
+		}
+		if(summarize && System.nanoTime() - nextExpiry.get() >= 0)
+			summaries = expire(summaries, idGenerator);
+		if(kept == null && summaries == null)
+			return dps;
+		Datapoint[] stored = Arrays.copyOf(kept != null ? kept : dps, count + (summaries == null ? 0 : summaries.size()));
+		for(int i=0; summaries != null && i<summaries.size(); i++)
+			stored[count + i] = summaries.get(i);
+		return stored;
+	}
+
+	/**
+	 * Returns the number of datapoints apply() sampled out, given its input and result.
+	 */
+
+	public static int dropped(Datapoint[] dps, Datapoint[] stored) {
+		// the stored datapoints of the input are a prefix of the result in input order, summaries are new objects
+		int matched = 0;
+		for(int i=0; i<dps.length && matched<stored.length; i++)
+			if(stored[matched] == dps[i])
+				matched++;
+		return dps.length - matched;
+	}
+
+	/**
+	 * Reports the duration of a save() call to the sampler.
+	 */
+
+	public void record(long nanos, int count) {
+		sampler.record(nanos, count);
+	}
+
+	/**
+	 * Returns the number of meters with sampled out IDs waiting for their summary.
+	 */
+
+	public int getPendingMeters() {
+		return pending.size();
+	}
+
+	private void collect(Datapoint dp, IdGenerator idGenerator) {
+		pending.compute(meter(dp), (meter, entry) -> {
+			if(entry == null)
+				entry = new Pending(InputSet.builder(SAMPLED, idGenerator), System.nanoTime());
+			if(entry.inputs.size() < MAX_PENDING)
+				entry.inputs.add(dp);
+			Context context = dp.getContext();
+			entry.metricId = context != null ? context.getMetricId() : null;
+			entry.timestamp = context != null && context.getTimestamp() != null ? context.getTimestamp().getTime() : -1;
+			return entry;
+		});
+	}
+
+	/**
+	 * Adds the summaries of the meters whose IDs waited longer than 'maxPendingAge' to 'summaries'. Runs at most once
+	 * per 'maxPendingAge', the thread that moves 'nextExpiry' on does the sweep.
+	 */
+
+	private List<Datapoint> expire(List<Datapoint> summaries, IdGenerator idGenerator) {
+		long now = System.nanoTime();
+		long expiry = nextExpiry.get();
+		if(now - expiry < 0 || !nextExpiry.compareAndSet(expiry, now + maxPendingAge))
+			return summaries;
+		for(Map.Entry<String, Pending> e : pending.entrySet()) {
+			Pending entry = e.getValue();
+			// remove(key, value) takes the lock collect() mutates the entry under, the entry is complete once removed
+			if(now - entry.created < maxPendingAge || !pending.remove(e.getKey(), entry))
+				continue;
+			String meterId = e.getKey().equals(NO_METER) ? null : e.getKey();
+			Context context = Context.builder().setMeterId(meterId).setMetricId(entry.metricId)
+					.setTimestamp(entry.timestamp < 0 ? null : new Date(entry.timestamp)).build();
+			if(summaries == null)
+				summaries = new ArrayList<Datapoint>();
+			summaries.add(new Datapoint(idGenerator, entry.inputs.build(), context));
+		}
+		return summaries;
+	}
+
+	/**
+	 * Returns the summary of the sampled out datapoints of the meter of a stored raw datapoint, null if there are none.
+	 * The context is copied, the raw datapoint may be recycled once it is stored.
+	 */
+
+	private Datapoint summarize(Datapoint dp, IdGenerator idGenerator) {
+		Pending entry = pending.isEmpty() ? null : pending.remove(meter(dp));
+		if(entry == null)
+			return null;
+		Context context = dp.getContext();
+		Context copy = context == null ? null : Context.builder().setMeterId(context.getMeterId()).setMetricId(context.getMetricId())
+				.setTimestamp(context.getTimestamp() == null ? null : new Date(context.getTimestamp().getTime())).build();
+		return new Datapoint(idGenerator, entry.inputs.build(), copy);
+	}
+
+	private static String meter(Datapoint dp) {
+		String meterId = dp.getContext() != null ? dp.getContext().getMeterId() : null;
+		return meterId != null ? meterId : NO_METER;
+	}
+
+	/**
+	 * Sampled out IDs of a meter, the time the first of them was collected and the context of the last.
+	 */
+
+	private static final class Pending {
+
+		private final InputSet.Builder inputs;
+		private final long created;
+		private String metricId;
+		private long timestamp;
+
+		private Pending(InputSet.Builder inputs, long created) {
+			this.inputs = inputs;
+			this.created = created;
+		}
+	}
+}
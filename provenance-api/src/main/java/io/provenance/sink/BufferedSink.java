@@ -0,0 +1,253 @@
+package io.provenance.sink;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import io.provenance.metrics.Metrics;
+import io.provenance.metrics.SinkMetrics;
+import io.provenance.types.Datapoint;
+
+/**
+ * Sink that buffers datapoints in front of another sink. Callers only enqueue, a single writer thread drains the queue
+ * and pushes the datapoints to the underlying sink in batches. A batch is flushed as soon as it holds 'batchSize'
+ * datapoints or its oldest datapoint has waited 'lingerMs' milliseconds, whichever comes first.
+ *
+ * A batch the underlying sink fails to store is retried up to FLUSH_ATTEMPTS times, waiting twice as long before each
+ * retry starting at FLUSH_BACKOFF_MS, while callers keep filling the queue. A batch that still fails is counted as
+ * dropped, put a SpoolSink below the buffer ('spool.enabled') to keep datapoints through longer outages.
+ */
+
+public class BufferedSink implements Sink {
+
+	private static final Logger LOGGER = Logger.getLogger(BufferedSink.class.getName());
+	public static final int FLUSH_ATTEMPTS = 5;
+	public static final long FLUSH_BACKOFF_MS = 100;
+
+	private Sink sink;
+	private int batchSize;
+	private long lingerNanos;
+	private int capacity;
+	private ConcurrentLinkedQueue<Datapoint> queue = new ConcurrentLinkedQueue<Datapoint>();
+	private AtomicInteger size = new AtomicInteger();
+	private volatile boolean closed;
+	private Thread writer;
+	private SinkMetrics metrics = Metrics.register("buffered");
+
+	/**
+	 * Creates a new buffered sink and starts its writer thread.
+	 *
+	 * @param  sink  Sink the batches are pushed to.
+	 * @param  batchSize  Number of datapoints that triggers a flush.
+	 * @param  lingerMs  Maximum time in milliseconds a datapoint waits before it is flushed.
+	 * @param  capacity  Maximum number of queued datapoints, callers block while the queue is full.
+	 */
+
+	public BufferedSink(Sink sink, int batchSize, long lingerMs, int capacity) {
+		this.sink = sink;
+		this.batchSize = batchSize;
+		this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMs);
+		this.capacity = capacity;
+		metrics.setQueueDepth(size::get);
+		writer = new Thread(this::drain, "provenance-buffered-sink");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	public void connect() {
+		sink.connect();
+	}
+
+	public void defineSchema() {
+		sink.defineSchema();
+	}
+
+	/**
+	 * Enqueues the datapoints. The returned IDs are those of the enqueued datapoints, they are pushed to the
+	 * underlying sink by the writer thread. If the sink is closed while they are enqueued, the ones already enqueued
+	 * are still flushed and the call fails for the rest.
+	 */
+
+	public String[] ingest(Datapoint... datapoints) {
+		if(closed)
+			throw new IllegalStateException("Sink is closed.");
+		long start = metrics.start();
+		String[] ids = new String[datapoints.length];
+		for(int i=0; i<datapoints.length; i++) {
+			int queued = reserve();
+			// the writer only exits once it saw the sink closed and no slot reserved, a slot reserved before close()
+			// is drained, one reserved after it is given back
+			if(closed) {
+				size.decrementAndGet();
+				metrics.failure(start);
+				throw new IllegalStateException("Sink was closed, " + (datapoints.length - i) + " of " + datapoints.length + " datapoints were not enqueued.");
+			}
+			queue.offer(datapoints[i]);
+			ids[i] = datapoints[i].getId();
+			if(queued == 1 || queued == batchSize)
+				LockSupport.unpark(writer);
+		}
+		metrics.success(start, datapoints.length);
+		return ids;
+	}
+
+	/**
+	 * Reserves a slot in the queue, waiting while it is full, and returns the number of queued datapoints including
+	 * the reserved one.
+	 */
+
+	private int reserve() {
+		while(true) {
+			int queued = size.get();
+			if(queued >= capacity) {
+				LockSupport.unpark(writer);
+				LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+			} else if(size.compareAndSet(queued, queued + 1))
+				return queued + 1;
+		}
+	}
+
+	@Override
+	public CompletableFuture<String[]> ingestAsync(Datapoint... datapoints) {
+		return CompletableFuture.completedFuture(ingest(datapoints));
+	}
+
+	/**
+	 * Buffered datapoints are written after ingest returned.
+	 */
+
+	@Override
+	public boolean retainsDatapoints() {
+		return true;
+	}
+
+	/**
+	 * Reads from the underlying sink. Datapoints still buffered are not flushed yet and therefore not found.
+	 */
+
+	@Override
+	public CompletableFuture<Map<String, Datapoint>> fetchAsync(Collection<String> ids) {
+		return sink.fetchAsync(ids);
+	}
+
+	@Override
+	public CompletableFuture<Map<String, List<String>>> fetchDerivedAsync(Collection<String> ids) {
+		return sink.fetchDerivedAsync(ids);
+	}
+
+	@Override
+	public Stream<Datapoint> query(String source, Date from, Date to) {
+		return sink.query(source, from, to);
+	}
+
+	/**
+	 * Returns the number of datapoints waiting to be flushed.
+	 */
+
+	@Override
+	public long getQueueDepth() {
+		return size.get();
+	}
+
+	@Override
+	public CompletableFuture<Void> ready() {
+		return sink.ready();
+	}
+
+	@Override
+	public boolean isHealthy() {
+		return sink.isHealthy();
+	}
+
+	/**
+	 * Stops accepting datapoints, flushes everything still queued and closes the underlying sink.
+	 */
+
+	public void close() {
+		closed = true;
+		LockSupport.unpark(writer);
+		boolean interrupted = false;
+		while(writer.isAlive()) {
+			try {
+				writer.join();
+			} catch (InterruptedException ie) {
+				interrupted = true;
+			}
+		}
+		Metrics.unregister(metrics);
+		sink.close();
+		if(interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	private void drain() {
+		long oldest = 0;
+		while(true) {
+			int queued = size.get();
+			if(queued == 0) {
+				// a slot may have been reserved between reading the size and seeing the sink closed
+				if(closed && size.get() == 0)
+					return;
+				if(closed)
+					continue;
+				oldest = 0;
+				LockSupport.park(this);
+				continue;
+			}
+			long now = System.nanoTime();
+			if(oldest == 0)
+				oldest = now;
+			long wait = oldest + lingerNanos - now;
+			if(queued < batchSize && wait > 0 && !closed) {
+				LockSupport.parkNanos(this, wait);
+				continue;
+			}
+			Datapoint[] batch = new Datapoint[Math.min(queued, batchSize)];
+			int count = 0;
+			Datapoint dp;
+			while(count < batch.length && (dp = queue.poll()) != null)
+				batch[count++] = dp;
+			if(count == 0) {
+				// slots are reserved before the datapoints are offered
+				Thread.yield();
+				continue;
+			}
+			size.addAndGet(-count);
+			oldest = 0;
+			flush(count == batch.length ? batch : Arrays.copyOf(batch, count));
+		}
+	}
+
+	private void flush(Datapoint[] batch) {
+		long backoff = TimeUnit.MILLISECONDS.toNanos(FLUSH_BACKOFF_MS);
+		for(int attempt=1; ; attempt++) {
+			try {
+				sink.ingest(batch);
+				return;
+			} catch (RuntimeException re) {
+				metrics.error();
+				if(attempt == FLUSH_ATTEMPTS) {
+					metrics.dropped(batch.length);
+					LOGGER.log(Level.SEVERE, "Dropped " + batch.length + " datapoints, flushing them failed " + attempt + " times.", re);
+					return;
+				}
+				LOGGER.log(Level.WARNING, "Failed to flush " + batch.length + " datapoints, retrying.", re);
+			}
+			metrics.retry();
+			long deadline = System.nanoTime() + backoff;
+			for(long wait = backoff; wait > 0; wait = deadline - System.nanoTime())
+				LockSupport.parkNanos(this, wait);
+			backoff *= 2;
+		}
+	}
+}
@@ -0,0 +1,237 @@
+package io.provenance.sink;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.Row;
+
+import io.provenance.types.Context;
+import io.provenance.types.Datapoint;
+import io.provenance.types.DatapointBatch;
+import io.provenance.types.InputDatapoint;
+import io.provenance.types.Location;
+import io.provenance.types.Metric;
+
+/**
+ * Columns of the cassandra provenance table. Each column knows its CQL name and type and how to bind its value from a
+ * Datapoint, the metric columns are looked up by Metric ordinal.
+ */
+
+enum CassandraColumn {
+	ID("id", "text") {
+		void bind(Datapoint dp, Context context, BoundStatement statement, int index) {
+			statement.setString(index, dp.getId());
+		}
+		void bind(DatapointBatch batch, int row, BoundStatement statement, int index) {
+			statement.setString(index, batch.getId(row));
+		}
+	},
+	IID("inputDPs", "map<text,text>") {
+		void bind(Datapoint dp, Context context, BoundStatement statement, int index) {
+			InputDatapoint[] inputs = dp.getInputDatapoints();
+			Map<String, String> inputDPs = new HashMap<String,String>(inputs.length * 4 / 3 + 1);
+			for(InputDatapoint idp : inputs)
+				inputDPs.put(idp.getId(), idp.getContrIbution());
+			statement.setMap(index, inputDPs);
+		}
+		void bind(DatapointBatch batch, int row, BoundStatement statement, int index) {
+			int count = batch.getInputCount(row);
+			Map<String, String> inputDPs = new HashMap<String,String>(count * 4 / 3 + 1);
+			for(int i=0; i<count; i++)
+				inputDPs.put(batch.getInputId(row, i), batch.getInputContribution(row, i));
+			statement.setMap(index, inputDPs);
+		}
+	},
+	ISET("inputSet", "blob") {
+		void bind(Datapoint dp, Context context, BoundStatement statement, int index) {
+			statement.setBytes(index, dp.getInputSet().toByteBuffer());
+		}
+		void bind(DatapointBatch batch, int row, BoundStatement statement, int index) {
+			statement.setToNull(index);
+		}
+	},
+	METER("meterId", "text") {
+		void bind(Datapoint dp, Context context, BoundStatement statement, int index) {
+			statement.setString(index, context.getMeterId());
+		}
+		void bind(DatapointBatch batch, int row, BoundStatement statement, int index) {
+			statement.setString(index, batch.getMeterId(row));
+		}
+		void read(Row row, int index, Context context) {
+			context.setMeterId(row.getString(index));
+		}
+	},
+	METRIC("metricId", "text") {
+		void bind(Datapoint dp, Context context, BoundStatement statement, int index) {
+			statement.setString(index, context.getMetricId());
+		}
+		void bind(DatapointBatch batch, int row, BoundStatement statement, int index) {
+			statement.setString(index, batch.getMetricId(row));
+		}
+		void read(Row row, int index, Context context) {
+			context.setMetricId(row.getString(index));
+		}
+	},
+	LOCATION("location", "text") {
+		void bind(Datapoint dp, Context context, BoundStatement statement, int index) {
+			statement.setString(index, context.getLoc() != null ? context.getLoc().getLable() : null);
+		}
+		void bind(DatapointBatch batch, int row, BoundStatement statement, int index) {
+			statement.setString(index, batch.getLocation(row));
+		}
+		void read(Row row, int index, Context context) {
+			if(!row.isNull(index))
+				context.setLoc(new Location(row.getString(index)));
+		}
+	},
+	LINE("line", "bigint") {
+		void bind(Datapoint dp, Context context, BoundStatement statement, int index) {
+			if(context.getLineNo() != null)
+				statement.setLong(index, context.getLineNo());
+			else
+				statement.setToNull(index);
+		}
+		void bind(DatapointBatch batch, int row, BoundStatement statement, int index) {
+			if(batch.hasLineNo(row))
+				statement.setLong(index, batch.getLineNo(row));
+			else
+				statement.setToNull(index);
+		}
+		void read(Row row, int index, Context context) {
+			context.setLineNo(row.isNull(index) ? null : row.getLong(index));
+		}
+	},
+	CLASS("class", "text") {
+		void bind(Datapoint dp, Context context, BoundStatement statement, int index) {
+			statement.setString(index, context.getClassName());
+		}
+		void bind(DatapointBatch batch, int row, BoundStatement statement, int index) {
+			statement.setString(index, batch.getClassName(row));
+		}
+		void read(Row row, int index, Context context) {
+			context.setClassName(row.getString(index));
+		}
+	},
+	APPLICATION("app", "text") {
+		void bind(Datapoint dp, Context context, BoundStatement statement, int index) {
+			statement.setString(index, context.getAppName());
+		}
+		void bind(DatapointBatch batch, int row, BoundStatement statement, int index) {
+			statement.setString(index, batch.getAppName(row));
+		}
+		void read(Row row, int index, Context context) {
+			context.setAppName(row.getString(index));
+		}
+	},
+	CREATE_TIME("ctime", "timestamp") {
+		void bind(Datapoint dp, Context context, BoundStatement statement, int index) {
+			statement.setTimestamp(index, context.getTimestamp());
+		}
+		void bind(DatapointBatch batch, int row, BoundStatement statement, int index) {
+			setTime(statement, index, batch.getTimestamp(row));
+		}
+		void read(Row row, int index, Context context) {
+			context.setTimestamp(row.getTimestamp(index));
+		}
+	},
+	SEND_TIME("stime", "timestamp") {
+		void bind(Datapoint dp, Context context, BoundStatement statement, int index) {
+			statement.setTimestamp(index, context.getSendTime());
+		}
+		void bind(DatapointBatch batch, int row, BoundStatement statement, int index) {
+			setTime(statement, index, batch.getSendTimestamp(row));
+		}
+		void read(Row row, int index, Context context) {
+			context.setSendTime(row.getTimestamp(index));
+		}
+	},
+	RECEIVE_TIME("rtime", "timestamp") {
+		void bind(Datapoint dp, Context context, BoundStatement statement, int index) {
+			statement.setTimestamp(index, context.getReceiveTime());
+		}
+		void bind(DatapointBatch batch, int row, BoundStatement statement, int index) {
+			setTime(statement, index, batch.getReceiveTimestamp(row));
+		}
+		void read(Row row, int index, Context context) {
+			context.setReceiveTime(row.getTimestamp(index));
+		}
+	},
+	LAT("latitude", "double") {
+		void bind(Datapoint dp, Context context, BoundStatement statement, int index) {
+			statement.setDouble(index, context.getLoc().getLatitude());
+		}
+		void bind(DatapointBatch batch, int row, BoundStatement statement, int index) {
+			statement.setDouble(index, batch.getLatitude(row));
+		}
+	},
+	LONG("longitude", "double") {
+		void bind(Datapoint dp, Context context, BoundStatement statement, int index) {
+			statement.setDouble(index, context.getLoc().getLongitude());
+		}
+		void bind(DatapointBatch batch, int row, BoundStatement statement, int index) {
+			statement.setDouble(index, batch.getLongitude(row));
+		}
+	};
+
+	private static final CassandraColumn[] BY_METRIC = new CassandraColumn[Metric.values().length];
+
+	static {
+		for(Metric metric : Metric.values())
+			BY_METRIC[metric.ordinal()] = valueOf(metric.name());
+	}
+
+	private final String name;
+	private final String type;
+
+	CassandraColumn(String name, String type) {
+		this.name = name;
+		this.type = type;
+	}
+
+	String getName() {
+		return name;
+	}
+
+	String getType() {
+		return type;
+	}
+
+	/**
+	 * Binds the column's value. Metric columns are only bound for a non null context, LAT and LONG only for a
+	 * location with coordinates.
+	 */
+
+	abstract void bind(Datapoint dp, Context context, BoundStatement statement, int index);
+
+	/**
+	 * Binds the column's value from a row of a batch. LAT and LONG are only bound for a row with coordinates.
+	 */
+
+	abstract void bind(DatapointBatch batch, int row, BoundStatement statement, int index);
+
+	/**
+	 * Reads the column's value back into a context. ID, IID, LAT and LONG are not context attributes of their own,
+	 * ColumnLayout reads them.
+	 */
+
+	void read(Row row, int index, Context context) {
+	}
+
+	private static void setTime(BoundStatement statement, int index, long time) {
+		if(time != DatapointBatch.NO_TIME)
+			statement.setTimestamp(index, new Date(time));
+		else
+			statement.setToNull(index);
+	}
+
+	static CassandraColumn of(Metric metric) {
+		return BY_METRIC[metric.ordinal()];
+	}
+
+	static boolean hasCoordinates(Context context) {
+		Location loc = context != null ? context.getLoc() : null;
+		return loc != null && loc.isCoordinatesSet();
+	}
+}
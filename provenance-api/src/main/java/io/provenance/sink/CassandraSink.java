@@ -1,175 +1,704 @@
 package io.provenance.sink;
 
-import java.util.HashMap;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32;
 
+import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.Cluster;
 import com.datastax.driver.core.Cluster.Builder;
+import com.datastax.driver.core.HostDistance;
+import com.datastax.driver.core.KeyspaceMetadata;
+import com.datastax.driver.core.PoolingOptions;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ProtocolOptions;
 import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
-import com.google.gson.Gson;
+import com.datastax.driver.core.SocketOptions;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.TableMetadata;
+import com.datastax.driver.core.exceptions.InvalidQueryException;
+import com.datastax.driver.core.policies.ConstantSpeculativeExecutionPolicy;
+import com.datastax.driver.core.policies.DCAwareRoundRobinPolicy;
+import com.datastax.driver.core.policies.LatencyAwarePolicy;
+import com.datastax.driver.core.policies.LoadBalancingPolicy;
+import com.datastax.driver.core.policies.TokenAwarePolicy;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 
 import io.provenance.config.CassandraConfig;
-import io.provenance.config.ProvenanceConfig;
+import io.provenance.exception.SinkUnavailableException;
+import io.provenance.metrics.Metrics;
+import io.provenance.metrics.SinkMetrics;
 import io.provenance.types.Datapoint;
+import io.provenance.types.DatapointBatch;
 import io.provenance.types.InputDatapoint;
+import io.provenance.types.InputSet;
+import io.provenance.types.Metric;
 
 public class CassandraSink implements Sink{
 
+	private static final Logger LOGGER = Logger.getLogger(CassandraSink.class.getName());
+	private static final int PAGE_SIZE = 1000;
+	private static final int DRAIN_BATCH_SIZE = 500;
+
+	/**
+	 * Version of the schema the sink creates, raise it when the schema changes in a way the DDL text does not show.
+	 */
+
+	public static final int SCHEMA_VERSION = 1;
+
+	/**
+	 * Schema fingerprints applied by this node, by keyspace and table, so further sinks on the same table skip the check.
+	 */
+
+	private static final ConcurrentMap<String, String> APPLIED_SCHEMAS = new ConcurrentHashMap<String, String>();
+
 	private CassandraConfig config;
 	private Cluster cluster;
     private Session session;
+    private ColumnLayout layout;
+    private Semaphore window;
+    private int windowSize;
+    private SinkMetrics metrics = Metrics.register("cassandra");
+    private CircuitBreaker breaker;
+    private Sink fallback;
+    private final CompletableFuture<Void> ready = new CompletableFuture<Void>();
+    private volatile StartupBuffer startupBuffer;
+    private volatile boolean closed;
+    private Thread startup;
+    private AtomicReferenceArray<PreparedStatement> insertStatements = new AtomicReferenceArray<PreparedStatement>(16);
+    private String selectQuery;
+    private String insertDerivedQuery;
+    private String selectDerivedQuery;
+    private String selectTimeRangeQuery;
+    private AtomicReference<PreparedStatement> selectStatement = new AtomicReference<PreparedStatement>();
+    private AtomicReference<PreparedStatement> insertDerivedStatement = new AtomicReference<PreparedStatement>();
+    private AtomicReference<PreparedStatement> selectDerivedStatement = new AtomicReference<PreparedStatement>();
+    private AtomicReference<PreparedStatement> selectTimeRangeStatement = new AtomicReference<PreparedStatement>();
 
-    public CassandraSink(CassandraConfig config) {
+    /**
+	 * Creates a new cassandra sink, connects to cassandra and creates the keyspace and table if needed. With
+	 * 'asyncStartup' both happen in the background, see ready().
+	 *
+	 * @param  config  Cassandra config.
+	 * @param  metrics  Context metrics stored with each Datapoint, in column order.
+	 */
+    
+    public CassandraSink(CassandraConfig config, Metric[] metrics) {
+		this(config, metrics, null);
+	}
+    
+    /**
+	 * Creates a new cassandra sink with a circuit breaker ('breakerFailureThreshold' in the config). While the breaker
+	 * is open saves go to the fallback sink, or fail fast with SinkUnavailableException if there is none.
+	 *
+	 * @param  config  Cassandra config.
+	 * @param  metrics  Context metrics stored with each Datapoint, in column order.
+	 * @param  fallback  Sink saves are diverted to while the breaker is open, may be null.
+	 */
+    
+    public CassandraSink(CassandraConfig config, Metric[] metrics, Sink fallback) {
 		this.config = config;
-		connect();
-		defineSchema();
+		this.fallback = fallback;
+		if(config.getBreakerFailureThreshold() > 0)
+			this.breaker = new CircuitBreaker("cassandra " + config.getIP(), config.getBreakerFailureThreshold(), config.getBreakerSlowCallMs(), config.getBreakerOpenMs());
+		this.layout = new ColumnLayout(metrics);
+		if(config.isTimeTable() && !layout.hasTimeTable())
+			throw new IllegalArgumentException("The time table needs the CREATE_TIME and the METER or APPLICATION metric.");
+		this.selectQuery = layout.selectQuery(config.getKeyspaceName(), config.getTableName());
+		this.insertDerivedQuery = ColumnLayout.insertDerivedQuery(config.getKeyspaceName(), config.getTableName());
+		this.selectDerivedQuery = ColumnLayout.selectDerivedQuery(config.getKeyspaceName(), config.getTableName());
+		if(config.isTimeTable())
+			this.selectTimeRangeQuery = layout.selectTimeRangeQuery(config.getKeyspaceName(), config.getTableName());
+		if(config.isAsyncStartup()) {
+			startupBuffer = new StartupBuffer(config.getStartupBufferBytes());
+			startup = new Thread(this::start, "provenance-cassandra-startup");
+			startup.setDaemon(true);
+			startup.start();
+		} else {
+			connect();
+			defineSchema();
+			ready.complete(null);
+		}
+	}
+	
+	/**
+	 * Connects and defines the schema in the background, retrying every 'startupRetryMs' until cassandra is reachable,
+	 * then writes the datapoints saved in the meantime and completes ready().
+	 */
+	
+	private void start() {
+		while(true) {
+			try {
+				connect();
+				defineSchema();
+				break;
+			} catch (RuntimeException re) {
+				if(cluster != null)
+					cluster.close();
+				if(closed)
+					return;
+				LOGGER.log(Level.WARNING, "Cassandra at " + config.getIP() + " is not available yet, retrying in " + config.getStartupRetryMs() + " ms.", re);
+			}
+			try {
+				Thread.sleep(config.getStartupRetryMs());
+			} catch (InterruptedException ie) {
+				return;
+			}
+			if(closed)
+				return;
+		}
+		List<Datapoint> early = startupBuffer.drain();
+		startupBuffer = null;
+		for(int from=0; from<early.size(); from+=DRAIN_BATCH_SIZE) {
+			Datapoint[] batch = early.subList(from, Math.min(early.size(), from + DRAIN_BATCH_SIZE)).toArray(new Datapoint[0]);
+			try {
+				ingest(batch);
+			} catch (RuntimeException re) {
+				metrics.error();
+				LOGGER.log(Level.WARNING, "Failed to write " + batch.length + " datapoints saved while the sink was starting.", re);
+			}
+		}
+		ready.complete(null);
 	}
 	
+	/**
+	 * Connects to the contact points in 'ip'. Requests are routed to the local datacenter, to a replica of their
+	 * partition if token aware routing is on and away from slow hosts if latency aware routing is on. All statements of
+	 * the sink are idempotent, so they may be sent speculatively to a second host and retried on the next one.
+	 */
+	
 	public void connect() {
-		Builder b = Cluster.builder().addContactPoint(config.getIP());
+		PoolingOptions poolingOptions = new PoolingOptions()
+				.setConnectionsPerHost(HostDistance.LOCAL, config.getCoreConnectionsPerHost(), config.getMaxConnectionsPerHost())
+				.setMaxRequestsPerConnection(HostDistance.LOCAL, config.getMaxRequestsPerConnection())
+				.setMaxRequestsPerConnection(HostDistance.REMOTE, config.getMaxRequestsPerConnection());
+		DCAwareRoundRobinPolicy.Builder dcAware = DCAwareRoundRobinPolicy.builder();
+		if(config.getLocalDc() != null)
+			dcAware.withLocalDc(config.getLocalDc());
+		LoadBalancingPolicy loadBalancing = dcAware.build();
+		if(config.isLatencyAware())
+			loadBalancing = LatencyAwarePolicy.builder(loadBalancing).withExclusionThreshold(config.getLatencyAwareExclusionThreshold()).build();
+		if(config.isTokenAware())
+			loadBalancing = new TokenAwarePolicy(loadBalancing);
+		String[] contactPoints = config.getIP().split(",");
+		for(int i=0; i<contactPoints.length; i++)
+			contactPoints[i] = contactPoints[i].trim();
+		Builder b = Cluster.builder().addContactPoints(contactPoints);
         b.withPort(config.getPort());
+        b.withPoolingOptions(poolingOptions);
+        b.withSocketOptions(new SocketOptions().setReadTimeoutMillis(config.getReadTimeoutMs()).setConnectTimeoutMillis(config.getConnectTimeoutMs()));
+        b.withLoadBalancingPolicy(loadBalancing);
+        if(config.getSpeculativeDelayMs() > 0)
+        	b.withSpeculativeExecutionPolicy(new ConstantSpeculativeExecutionPolicy(config.getSpeculativeDelayMs(), config.getSpeculativeMaxExecutions()));
+        if(config.getRetries() > 0)
+        	b.withRetryPolicy(new IdempotentRetryPolicy(config.getRetries(), metrics));
+        if(!config.getProtocolCompression().equals("none"))
+        	b.withCompression(ProtocolOptions.Compression.valueOf(config.getProtocolCompression().toUpperCase()));
         cluster = b.build();
         session = cluster.connect();
+        // one window for the whole sink, not per host: a slow host can hold all of it while the others are idle
+        windowSize = config.getMaxRequestsPerHost() * Math.max(1, cluster.getMetadata().getAllHosts().size());
+        window = new Semaphore(windowSize);
+        metrics.setInFlight(() -> windowSize - window.availablePermits());
 	}
 
+	/**
+	 * Creates the keyspace and tables. The DDL is skipped if the provenance_schema table records that the same
+	 * SCHEMA_VERSION and DDL were applied to the table before, i.e. by an earlier start of the node.
+	 */
+	
 	public void defineSchema() {
-		StringBuilder keyspaceQueryBuilder = new StringBuilder("CREATE KEYSPACE IF NOT EXISTS ")
+		String keyspaceQuery = new StringBuilder("CREATE KEYSPACE IF NOT EXISTS ")
 			      .append(config.getKeyspaceName()).append(" WITH replication = {")
 			      .append("'class':'").append(config.getReplicationStrategy())
 			      .append("','replication_factor':").append(config.getReplicationFactor())
-			      .append("};");
-			         
-	    String keyspaceQuery = keyspaceQueryBuilder.toString();
+			      .append("};").toString();
+		List<String> queries = new ArrayList<String>();
+		queries.add(layout.createTableQuery(config.getKeyspaceName(), config.getTableName()));
+		if(config.isDerivedIndex())
+			queries.add(ColumnLayout.createDerivedTableQuery(config.getKeyspaceName(), config.getTableName()));
+		if(config.isTimeTable())
+			queries.add(layout.createTimeTableQuery(config.getKeyspaceName(), config.getTableName()));
+		if(config.getTableCompression() != null)
+			queries.addAll(Arrays.asList(ColumnLayout.compressionQueries(config.getKeyspaceName(), config.getTableName(), config.isDerivedIndex(), config.isTimeTable(), config.getTableCompression(), config.getCompressionChunkKb())));
+		String[] alterQueries = ColumnLayout.addInputSetQueries(config.getKeyspaceName(), config.getTableName(), config.isTimeTable());
+		CRC32 crc = new CRC32();
+		crc.update(keyspaceQuery.getBytes(StandardCharsets.UTF_8));
+		for(String query : queries)
+			crc.update(query.getBytes(StandardCharsets.UTF_8));
+		for(String query : alterQueries)
+			crc.update(query.getBytes(StandardCharsets.UTF_8));
+		String fingerprint = Long.toHexString(crc.getValue());
+		String table = config.getKeyspaceName() + "." + config.getTableName();
+		if(fingerprint.equals(APPLIED_SCHEMAS.get(table)) || isSchemaApplied(fingerprint)) {
+			APPLIED_SCHEMAS.put(table, fingerprint);
+			return;
+		}
 	    session.execute(keyspaceQuery);
-	    StringBuilder tableQueryBuilder = new StringBuilder("CREATE TABLE IF NOT EXISTS ").append(config.getKeyspaceName()).append(".")
-	    		.append(config.getTableName()).append("(")
-	    		.append(getSinkFieldName("ID")).append(" ").append(getSinkType("ID")).append(" ").append("PRIMARY KEY").append(",")
-	    		.append(getSinkFieldName("IID")).append(" ").append(getSinkType("IID")).append(",");
-	    String[] metrics = ProvenanceConfig.getMetrics();
-	    boolean locationExist = false;
-	    for(int i=0; i<metrics.length; i++) {
-	    	tableQueryBuilder = tableQueryBuilder.append(getSinkFieldName(metrics[i])).append(" ").append(getSinkType(metrics[i]));
-	    	if(i != metrics.length-1)
-	    		tableQueryBuilder = tableQueryBuilder.append(",");
-	    	if(metrics[i].equals("LOCATION"))
-	    		locationExist = true;
-	    }
-	    if(locationExist)
-	    	tableQueryBuilder = tableQueryBuilder.append(",").append(getSinkFieldName("LAT")).append(" ").append(getSinkType("LAT"))
-	    			.append(",").append(getSinkFieldName("LONG")).append(" ").append(getSinkType("LONG"));
-	    tableQueryBuilder = tableQueryBuilder.append(");");
-	    String tableQuery = tableQueryBuilder.toString();
-	    session.execute(tableQuery);
-	}
-	
-
-	public String getSinkFieldName(String fieldName) {
-		switch(fieldName) {
-			case "ID"			: return "id";
-			case "IID"			: return "inputDPs";
-			case "LOCATION" 	: return "location";
-			case "LINE" 		: return "line";
-			case "CLASS" 		: return "class";
-			case "APPLICATION" 	: return "app";
-			case "CREATE_TIME" 	: return "ctime";
-			case "SEND_TIME" 	: return "stime";
-			case "RECEIVE_TIME" : return "rtime";
-			case "LAT" 			: return "latitude";
-			case "LONG" 		: return "longitude";
-			case "METER" 		: return "meterId";
-			case "METRIC" 		: return "metricId";
-			default 			: return null;
-		}
-	}
-	
-	public String getSinkType(String fieldName) {
-		switch(fieldName) {
-			case "ID"			: return "text";
-			case "IID"			: return "map<text,text>";
-			case "LOCATION" 	: return "text";
-			case "LINE" 		: return "bigint";
-			case "CLASS" 		: return "text";
-			case "APPLICATION" 	: return "text";
-			case "CREATE_TIME" 	: return "timestamp";
-			case "SEND_TIME" 	: return "timestamp";
-			case "RECEIVE_TIME" : return "timestamp";
-			case "LAT" 			: return "double";
-			case "LONG" 		: return "double";
-			case "METER" 		: return "text";
-			case "METRIC" 		: return "text";
-			default 			: return null;
+	    for(String query : queries)
+	    	session.execute(query);
+	    String[] alterTables = ColumnLayout.inputSetTables(config.getTableName(), config.isTimeTable());
+	    for(int i=0; i<alterQueries.length; i++)
+	    	if(!hasColumn(alterTables[i], CassandraColumn.ISET.getName()))
+	    		session.execute(alterQueries[i]);
+	    session.execute(ColumnLayout.createSchemaTableQuery(config.getKeyspaceName()));
+	    session.execute(session.prepare(ColumnLayout.insertSchemaQuery(config.getKeyspaceName())).bind(config.getTableName(), SCHEMA_VERSION, fingerprint));
+	    APPLIED_SCHEMAS.put(table, fingerprint);
+	}
+	
+	/**
+	 * Returns whether the cluster metadata lists the column, i.e. it was added to a table created before it existed.
+	 */
+	
+	private boolean hasColumn(String table, String column) {
+		KeyspaceMetadata keyspace = cluster.getMetadata().getKeyspace(config.getKeyspaceName());
+		TableMetadata metadata = keyspace == null ? null : keyspace.getTable(table);
+		return metadata != null && metadata.getColumn(column) != null;
+	}
+	
+	/**
+	 * Returns whether the schema table records the current version and DDL fingerprint for the table. A missing
+	 * keyspace or schema table counts as not applied.
+	 */
+	
+	private boolean isSchemaApplied(String fingerprint) {
+		try {
+			Row row = session.execute(ColumnLayout.selectSchemaQuery(config.getKeyspaceName()), config.getTableName()).one();
+			return row != null && row.getInt("version") == SCHEMA_VERSION && fingerprint.equals(row.getString("fingerprint"));
+		} catch (InvalidQueryException iqe) {
+			return false;
 		}
 	}
 
 	public String[] ingest(Datapoint...datapoints) {
+		return join(ingestAsync(datapoints));
+	}
+	
+	/**
+	 * Pipelines one insert per datapoint, plus one insert into the derived index per input datapoint and one into the
+	 * time table if it is enabled. When the in-flight window is full the calling thread blocks until an earlier insert
+	 * completes. The window is shared by all hosts, 'max.requests.per.host' times the number of hosts known when the
+	 * sink connected.
+	 *
+	 * A datapoint that can not be bound fails the returned future, the inserts already sent for the others still
+	 * complete, the future fails once they have.
+	 */
+	
+	@Override
+	public CompletableFuture<String[]> ingestAsync(Datapoint...datapoints) {
+		StartupBuffer early = startupBuffer;
+		if(early != null && early.offer(datapoints)) {
+			String[] ids = new String[datapoints.length];
+			for(int i=0; i<datapoints.length; i++)
+				ids[i] = datapoints[i].getId();
+			return CompletableFuture.completedFuture(ids);
+		}
+		if(breaker != null && !breaker.allow()) {
+			if(fallback != null)
+				return fallback.ingestAsync(datapoints);
+			CompletableFuture<String[]> rejected = new CompletableFuture<String[]>();
+			rejected.completeExceptionally(rejected());
+			return rejected;
+		}
+		long start = metrics.start();
 		String[] ids = new String[datapoints.length];
-		for(int i=0; i<datapoints.length; i++) {
-			ids[i] = datapoints[i].getId();
-			StringBuilder insertQueryBuilder = new StringBuilder("INSERT INTO ")
-					.append(config.getKeyspaceName()).append(".").append(config.getTableName()).append("(").append(getSinkFieldName("ID"))
-				      .append(",");
-			if(datapoints[i].getInputDatapoints() !=null)
-				insertQueryBuilder = insertQueryBuilder.append(getSinkFieldName("IID")).append(",");
-			String[] metrics = ProvenanceConfig.getMetrics();
-			boolean locationExist = false;
-			for(int j=0; j<metrics.length; j++) {
-		    	insertQueryBuilder = insertQueryBuilder.append(getSinkFieldName(metrics[j]));
-		    	if(j != metrics.length -1)
-		    		insertQueryBuilder = insertQueryBuilder.append(",");
-		    	if(metrics[j].equals("LOCATION"))
-		    		locationExist = true;
-		    }
-			if(locationExist && datapoints[i].getContext().getLoc() != null && datapoints[i].getContext().getLoc().isCoordinatesSet())
-				insertQueryBuilder = insertQueryBuilder.append(",").append(getSinkFieldName("LAT"))
-    				.append(",").append(getSinkFieldName("LONG"));
-			insertQueryBuilder = insertQueryBuilder.append(")");
-		    insertQueryBuilder = insertQueryBuilder.append("VALUES (").append(getValues(datapoints[i]));
-		    if(locationExist && datapoints[i].getContext().getLoc() != null && datapoints[i].getContext().getLoc().isCoordinatesSet())
-				insertQueryBuilder = insertQueryBuilder.append(",").append(datapoints[i].getContext().getLoc().getLatitude())
-		    		.append(",").append(datapoints[i].getContext().getLoc().getLongitude());
-		    insertQueryBuilder = insertQueryBuilder.append(");");
-		    String query = insertQueryBuilder.toString();
-		    session.execute(query);
-		}
-		return ids;
-	}
-	
-	private String getValues(Datapoint dp) {
-		StringBuilder insertQueryValuesBuilder = new StringBuilder().append("'" + dp.getId()+ "'").append(",");
-		if(dp.getInputDatapoints() != null) {
-			Map<String, String> inputDPs = new HashMap<String,String>();
-			for(InputDatapoint idp : dp.getInputDatapoints())
-				inputDPs.put(idp.getId(), idp.getContrIbution());
-			insertQueryValuesBuilder = insertQueryValuesBuilder.append(new Gson().toJson(inputDPs).replaceAll("\"", "'")).append(",");
-		}
-		String[] metrics = ProvenanceConfig.getMetrics();
-	    for(int i=0; i<metrics.length; i++) {
-	    	switch(metrics[i]) {
-		    	case "LOCATION" 	: insertQueryValuesBuilder = dp.getContext().getLoc() !=null ? insertQueryValuesBuilder.append("'" + dp.getContext().getLoc().getLable() + "'") : insertQueryValuesBuilder.append("null"); break;
-				case "LINE" 		: insertQueryValuesBuilder = insertQueryValuesBuilder.append(dp.getContext().getLineNo()); break;
-				case "CLASS" 		: insertQueryValuesBuilder = dp.getContext().getClassName() != null ? insertQueryValuesBuilder.append("'" + dp.getContext().getClassName()+ "'") : insertQueryValuesBuilder.append("null"); break;
-				case "APPLICATION" 	: insertQueryValuesBuilder = dp.getContext().getAppName() != null ? insertQueryValuesBuilder.append("'" + dp.getContext().getAppName()+ "'") : insertQueryValuesBuilder.append("null"); break;
-				case "CREATE_TIME" 	: insertQueryValuesBuilder = dp.getContext().getTimestamp() != null ? insertQueryValuesBuilder.append(dp.getContext().getTimestamp().getTime()) : insertQueryValuesBuilder.append("null"); break;
-				case "SEND_TIME" 	: insertQueryValuesBuilder = dp.getContext().getSendTime() != null ? insertQueryValuesBuilder.append(dp.getContext().getSendTime().getTime()) : insertQueryValuesBuilder.append("null"); break;
-				case "RECEIVE_TIME" : insertQueryValuesBuilder = dp.getContext().getReceiveTime() != null ? insertQueryValuesBuilder.append(dp.getContext().getReceiveTime().getTime()) : insertQueryValuesBuilder.append("null"); break;
-				case "METER" 		: insertQueryValuesBuilder = dp.getContext().getMeterId() != null ? insertQueryValuesBuilder.append("'" + dp.getContext().getMeterId()+ "'") : insertQueryValuesBuilder.append("null"); break;
-				case "METRIC" 	 	: insertQueryValuesBuilder = dp.getContext().getMetricId() != null ? insertQueryValuesBuilder.append("'" + dp.getContext().getMetricId()+ "'") : insertQueryValuesBuilder.append("null"); break;
-				default 			: insertQueryValuesBuilder = insertQueryValuesBuilder.append(String.valueOf(null));
-	    	}
-	    	if(i != metrics.length-1)
-	    		insertQueryValuesBuilder = insertQueryValuesBuilder.append(",");
-	    }
-	    return insertQueryValuesBuilder.toString();
+		List<CompletableFuture<ResultSet>> writes = new ArrayList<CompletableFuture<ResultSet>>(datapoints.length);
+		try {
+			for(int i=0; i<datapoints.length; i++) {
+				ids[i] = datapoints[i].getId();
+				writes.add(executeAsync(bind(datapoints[i], 0)));
+				if(config.isTimeTable() && layout.sourceOf(datapoints[i]) != null)
+					writes.add(executeAsync(bind(datapoints[i], ColumnLayout.TIME)));
+				if(datapoints[i].hasInputs() && config.isDerivedIndex()) {
+					PreparedStatement insertDerived = getStatement(insertDerivedStatement, insertDerivedQuery);
+					String id = ids[i];
+					InputSet inputSet = datapoints[i].getInputSet();
+					if(inputSet != null)
+						inputSet.forEachId(input -> writes.add(executeAsync(insertDerived.bind(input, id, inputSet.getContrIbution()))));
+					else
+						for(InputDatapoint idp : datapoints[i].getInputDatapoints())
+							writes.add(executeAsync(insertDerived.bind(idp.getId(), id, idp.getContrIbution())));
+				}
+			}
+		} catch (RuntimeException re) {
+			CompletableFuture<ResultSet> failed = new CompletableFuture<ResultSet>();
+			failed.completeExceptionally(re);
+			writes.add(failed);
+		}
+		return complete(start, ids, writes);
+	}
+	
+	/**
+	 * Binds the rows straight from the batch's columns, without materializing Datapoints, and pipelines the inserts
+	 * like ingestAsync.
+	 */
+	
+	@Override
+	public String[] ingest(DatapointBatch batch) {
+		if(startupBuffer != null)
+			return ingest(batch.toDatapoints());
+		if(breaker != null && !breaker.allow()) {
+			if(fallback != null)
+				return fallback.ingest(batch);
+			throw rejected();
+		}
+		long start = metrics.start();
+		String[] ids = new String[batch.size()];
+		List<CompletableFuture<ResultSet>> writes = new ArrayList<CompletableFuture<ResultSet>>(batch.size());
+		try {
+			for(int row=0; row<batch.size(); row++) {
+				writes.add(executeAsync(bind(batch, row, 0, ids)));
+				if(config.isTimeTable() && layout.sourceOf(batch, row) != null)
+					writes.add(executeAsync(bind(batch, row, ColumnLayout.TIME, ids)));
+				int inputs = batch.getInputCount(row);
+				if(inputs > 0 && config.isDerivedIndex()) {
+					PreparedStatement insertDerived = getStatement(insertDerivedStatement, insertDerivedQuery);
+					for(int i=0; i<inputs; i++)
+						writes.add(executeAsync(insertDerived.bind(batch.getInputId(row, i), ids[row], batch.getInputContribution(row, i))));
+				}
+			}
+		} catch (RuntimeException re) {
+			metrics.failure(start);
+			if(breaker != null)
+				breaker.record(false, System.nanoTime() - start);
+			throw re;
+		}
+		return join(complete(start, ids, writes));
+	}
+	
+	private CompletableFuture<String[]> complete(long start, String[] ids, List<CompletableFuture<ResultSet>> writes) {
+		CompletableFuture<String[]> result = CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[writes.size()])).thenApply(done -> ids);
+		result.whenComplete((done, t) -> {
+			if(t == null)
+				metrics.success(start, ids.length);
+			else
+				metrics.failure(start);
+			if(breaker != null)
+				breaker.record(t == null, System.nanoTime() - start);
+		});
+		return result;
+	}
+	
+	/**
+	 * Counts a save rejected by the open circuit breaker and returns the exception it fails with.
+	 */
+	
+	private SinkUnavailableException rejected() {
+		metrics.failure(metrics.start());
+		return new SinkUnavailableException("Circuit breaker of cassandra " + config.getIP() + " is open. (Saves fail fast until a probe save succeeds, set a 'fallback' sink to divert them.)");
+	}
+	
+	private static <T> T join(CompletableFuture<T> future) {
+		try {
+			return future.join();
+		} catch (CompletionException ce) {
+			if(ce.getCause() instanceof RuntimeException)
+				throw (RuntimeException) ce.getCause();
+			throw ce;
+		}
+	}
+	
+	/**
+	 * Issues one single partition read per ID, all of them in flight at once. The reads share the in-flight window
+	 * with the inserts.
+	 */
+	
+	@Override
+	public CompletableFuture<Map<String, Datapoint>> fetchAsync(Collection<String> ids) {
+		if(!ready.isDone())
+			return ready.thenCompose(done -> fetchAsync(ids));
+		Map<String, Datapoint> datapoints = new ConcurrentHashMap<String, Datapoint>(ids.size() * 4 / 3 + 1);
+		CompletableFuture<?>[] reads = new CompletableFuture<?>[ids.size()];
+		PreparedStatement select = getStatement(selectStatement, selectQuery);
+		int i = 0;
+		for(String id : ids)
+			reads[i++] = executeAsync(select.bind(id)).thenAccept(rs -> {
+				Row row = rs.one();
+				if(row != null)
+					datapoints.put(id, layout.read(row));
+			});
+		return CompletableFuture.allOf(reads).thenApply(done -> datapoints);
+	}
+	
+	/**
+	 * Reads the time table bucket by bucket, each bucket is a single partition read. Pages of PAGE_SIZE rows are
+	 * fetched on the consuming thread, the next page is requested in the background once a quarter of the current
+	 * one is left.
+	 */
+	
+	@Override
+	public Stream<Datapoint> query(String source, Date from, Date to) {
+		if(!config.isTimeTable())
+			return Sink.super.query(source, from, to);
+		join(ready);
+		PreparedStatement select = getStatement(selectTimeRangeStatement, selectTimeRangeQuery);
+		long firstBucket = Math.floorDiv(from.getTime(), config.getTimeBucketMs());
+		long lastBucket = to.after(from) ? Math.floorDiv(to.getTime() - 1, config.getTimeBucketMs()) : firstBucket - 1;
+		Iterator<Datapoint> datapoints = new Iterator<Datapoint>() {
+			private long bucket = firstBucket;
+			private ResultSet rs;
+
+			public boolean hasNext() {
+				while(rs == null || rs.isExhausted()) {
+					if(bucket > lastBucket)
+						return false;
+					rs = session.execute(select.bind(source, bucket++, from, to).setFetchSize(PAGE_SIZE));
+				}
+				if(rs.getAvailableWithoutFetching() == PAGE_SIZE / 4 && !rs.isFullyFetched())
+					rs.fetchMoreResults();
+				return true;
+			}
+
+			public Datapoint next() {
+				if(!hasNext())
+					throw new NoSuchElementException();
+				return layout.read(rs.one());
+			}
+		};
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(datapoints, Spliterator.ORDERED | Spliterator.NONNULL), false);
+	}
+	
+	/**
+	 * Reads the derived index, one single partition read per input ID with all of them in flight at once.
+	 */
+	
+	@Override
+	public CompletableFuture<Map<String, List<String>>> fetchDerivedAsync(Collection<String> ids) {
+		if(!config.isDerivedIndex())
+			return Sink.super.fetchDerivedAsync(ids);
+		if(!ready.isDone())
+			return ready.thenCompose(done -> fetchDerivedAsync(ids));
+		Map<String, List<String>> derived = new ConcurrentHashMap<String, List<String>>(ids.size() * 4 / 3 + 1);
+		CompletableFuture<?>[] reads = new CompletableFuture<?>[ids.size()];
+		PreparedStatement select = getStatement(selectDerivedStatement, selectDerivedQuery);
+		int i = 0;
+		for(String id : ids) {
+			List<String> derivedIds = new ArrayList<String>();
+			reads[i++] = executeAsync(select.bind(id))
+					.thenCompose(rs -> readAll(rs, derivedIds))
+					.thenAccept(done -> {
+						if(!derivedIds.isEmpty())
+							derived.put(id, derivedIds);
+					});
+		}
+		return CompletableFuture.allOf(reads).thenApply(done -> derived);
+	}
+	
+	/**
+	 * Collects the first column of all rows of a result set. Further pages are fetched asynchronously, iterating past
+	 * the fetched rows would block a driver thread.
+	 */
+	
+	private static CompletableFuture<Void> readAll(ResultSet rs, List<String> values) {
+		for(int available = rs.getAvailableWithoutFetching(); available > 0; available--)
+			values.add(rs.one().getString(0));
+		if(rs.isFullyFetched())
+			return CompletableFuture.completedFuture(null);
+		CompletableFuture<ResultSet> next = new CompletableFuture<ResultSet>();
+		Futures.addCallback(rs.fetchMoreResults(), new FutureCallback<ResultSet>() {
+			public void onSuccess(ResultSet more) {
+				next.complete(more);
+			}
+			public void onFailure(Throwable t) {
+				next.completeExceptionally(t);
+			}
+		});
+		return next.thenCompose(more -> readAll(more, values));
+	}
+	
+	private CompletableFuture<ResultSet> executeAsync(Statement statement) {
+		CompletableFuture<ResultSet> future = new CompletableFuture<ResultSet>();
+		window.acquireUninterruptibly();
+		ResultSetFuture resultSetFuture;
+		statement.setIdempotent(true);
+		try {
+			resultSetFuture = session.executeAsync(statement);
+		} catch (RuntimeException re) {
+			window.release();
+			future.completeExceptionally(re);
+			return future;
+		}
+		Futures.addCallback(resultSetFuture, new FutureCallback<ResultSet>() {
+			public void onSuccess(ResultSet rs) {
+				window.release();
+				future.complete(rs);
+			}
+			public void onFailure(Throwable t) {
+				window.release();
+				future.completeExceptionally(t);
+			}
+		});
+		return future;
+	}
+	
+	/**
+	 * Binds the datapoint to the prepared insert matching its column layout.
+	 * 
+	 * @param  dp  Datapoint to be bound.
+	 * @param  table  0 for the provenance table, ColumnLayout.TIME for the time table.
+	 * @return      Bound insert statement for the datapoint.
+	 */
+	
+	private BoundStatement bind(Datapoint dp, int table) {
+		int insertLayout = layout.layoutOf(dp) | table;
+		BoundStatement statement = getInsertStatement(insertLayout).bind();
+		int index = layout.bind(dp, insertLayout, statement);
+		if(table == ColumnLayout.TIME)
+			statement.setLong(index, Math.floorDiv(dp.getContext().getTimestamp().getTime(), config.getTimeBucketMs()));
+		return statement;
+	}
+	
+	/**
+	 * Binds a batch row to the prepared insert matching its column layout. The row's ID is rendered once and kept in
+	 * 'ids'.
+	 */
+	
+	private BoundStatement bind(DatapointBatch batch, int row, int table, String[] ids) {
+		int insertLayout = layout.layoutOf(batch, row) | table;
+		BoundStatement statement = getInsertStatement(insertLayout).bind();
+		if(ids[row] == null)
+			ids[row] = batch.getId(row);
+		int index = layout.bind(ids[row], batch, row, insertLayout, statement);
+		if(table == ColumnLayout.TIME)
+			statement.setLong(index, Math.floorDiv(batch.getTimestamp(row), config.getTimeBucketMs()));
+		return statement;
+	}
+	
+	/**
+	 * Returns the prepared insert for a column layout, preparing it on first use. There are four layouts per table,
+	 * depending on whether the datapoint carries input datapoints and whether its location has coordinates.
+	 */
+	
+	private PreparedStatement getInsertStatement(int insertLayout) {
+		PreparedStatement statement = insertStatements.get(insertLayout);
+		if(statement == null) {
+			statement = session.prepare(layout.insertQuery(config.getKeyspaceName(), config.getTableName(), insertLayout));
+			if(!insertStatements.compareAndSet(insertLayout, null, statement))
+				statement = insertStatements.get(insertLayout);
+		}
+		return statement;
 	}
 	
+	/**
+	 * Returns a prepared statement, preparing the query on first use.
+	 */
+	
+	private PreparedStatement getStatement(AtomicReference<PreparedStatement> prepared, String query) {
+		PreparedStatement statement = prepared.get();
+		if(statement == null) {
+			statement = session.prepare(query);
+			if(!prepared.compareAndSet(null, statement))
+				statement = prepared.get();
+		}
+		return statement;
+	}
+	
+	/**
+	 * Returns the number of requests in flight.
+	 */
+	
+	@Override
+	public long getQueueDepth() {
+		StartupBuffer early = startupBuffer;
+		if(early != null)
+			return early.size();
+		return window == null ? 0 : windowSize - window.availablePermits();
+	}
+	
+	/**
+	 * Completed once the session is connected, the schema is in place and the datapoints saved while starting are
+	 * written. Until then saves are buffered (up to 'startupBufferBytes') and reads wait for it.
+	 */
+	
+	@Override
+	public CompletableFuture<Void> ready() {
+		return ready;
+	}
+	
+	/**
+	 * Returns true once the sink is ready, unless its circuit breaker is open.
+	 */
+	
+	@Override
+	public boolean isHealthy() {
+		return ready.isDone() && !ready.isCompletedExceptionally() && (breaker == null || breaker.getState() != CircuitBreaker.State.OPEN);
+	}
+	
+	/**
+	 * Datapoints diverted to a fallback sink may be kept by it.
+	 */
+	
+	@Override
+	public boolean retainsDatapoints() {
+		return fallback != null && fallback.retainsDatapoints();
+	}
+	
+	/**
+	 * Returns the circuit breaker guarding the saves, null if it is disabled.
+	 */
+	
+	public CircuitBreaker getCircuitBreaker() {
+		return breaker;
+	}
+	
+	/**
+	 * Closes the session. A sink that is still starting stops trying to connect, the datapoints it has buffered are
+	 * discarded.
+	 */
+	
 	public void close() {
-		session.close();
-		cluster.close();
+		Metrics.unregister(metrics);
+		closed = true;
+		if(!ready.isDone()) {
+			startup.interrupt();
+			try {
+				startup.join();
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+			StartupBuffer early = startupBuffer;
+			if(early != null && early.size() > 0)
+				LOGGER.warning("Discarded " + early.size() + " datapoints saved while the sink was starting, cassandra at " + config.getIP() + " was not reachable.");
+			ready.completeExceptionally(new SinkUnavailableException("The sink was closed before it was ready."));
+		}
+		if(session != null)
+			session.close();
+		if(cluster != null)
+			cluster.close();
+		if(fallback != null)
+			fallback.close();
 	}
 
+	/**
+	 * Returns the session, waiting for the sink to be ready.
+	 */
+	
 	public Session getSession() {
+		join(ready);
 		return session;
 	}
 }
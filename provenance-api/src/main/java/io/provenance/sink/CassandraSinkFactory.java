@@ -0,0 +1,136 @@
+package io.provenance.sink;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.provenance.config.CassandraConfig;
+import io.provenance.config.SinkConfig;
+import io.provenance.exception.ConfigParseException;
+import io.provenance.types.Metric;
+
+/**
+ * Creates CassandraSinks, configured by the 'ip', 'port', 'keyspace.name', 'table.name', 'replication.strategy',
+ * 'replication.factor', 'max.requests.per.host', 'derived.index', 'time.table' and 'time.bucket.ms' parameters, the
+ * driver parameters 'core.connections.per.host', 'max.connections.per.host', 'max.requests.per.connection',
+ * 'local.dc', 'token.aware', 'latency.aware', 'latency.aware.exclusion.threshold', 'speculative.delay.ms',
+ * 'speculative.max.executions', 'read.timeout.ms', 'connect.timeout.ms' and 'retries', and the circuit breaker
+ * parameters 'breaker.failure.threshold', 'breaker.slow.call.ms', 'breaker.open.ms' and 'fallback', naming the sink
+ * saves are diverted to while the breaker is open, the startup parameters 'startup.async', 'startup.buffer.bytes'
+ * and 'startup.retry.ms', and the compression parameters 'table.compression', 'table.compression.chunk.kb' and
+ * 'protocol.compression'.
+ */
+
+public class CassandraSinkFactory implements SinkFactory {
+
+	private static final Map<String, String> TABLE_COMPRESSORS = new HashMap<String, String>();
+
+	static {
+		TABLE_COMPRESSORS.put("none", "none");
+		TABLE_COMPRESSORS.put("lz4", "LZ4Compressor");
+		TABLE_COMPRESSORS.put("snappy", "SnappyCompressor");
+		TABLE_COMPRESSORS.put("deflate", "DeflateCompressor");
+		TABLE_COMPRESSORS.put("zstd", "ZstdCompressor");
+	}
+
+	public String getType() {
+		return "cassandra";
+	}
+
+	public Sink create(SinkConfig config) throws ConfigParseException {
+		String prefix = config.getName() + ".";
+		int port = Integer.parseInt(config.getProperty("port", "9042"));
+		CassandraConfig cassandraConfig = new CassandraConfig(config.getProperty("ip", "127.0.0.1"), port);
+		if(config.containsKey("keyspace.name"))
+			cassandraConfig.setKeyspaceName(config.getProperty("keyspace.name", null));
+		if(config.containsKey("table.name"))
+			cassandraConfig.setTableName(config.getProperty("table.name", null));
+		if(config.containsKey("replication.strategy"))
+			cassandraConfig.setReplicationStrategy(config.getProperty("replication.strategy", null));
+		if(config.containsKey("replication.factor"))
+			cassandraConfig.setReplicationFactor(Integer.parseInt(config.getProperty("replication.factor", null)));
+		if(config.containsKey("max.requests.per.host"))
+			cassandraConfig.setMaxRequestsPerHost(Integer.parseInt(config.getProperty("max.requests.per.host", null)));
+		if(config.containsKey("derived.index"))
+			cassandraConfig.setDerivedIndex(Boolean.parseBoolean(config.getProperty("derived.index", null)));
+		if(config.containsKey("time.table"))
+			cassandraConfig.setTimeTable(Boolean.parseBoolean(config.getProperty("time.table", null)));
+		if(config.containsKey("time.bucket.ms"))
+			cassandraConfig.setTimeBucketMs(Long.parseLong(config.getProperty("time.bucket.ms", null)));
+		cassandraConfig.setMaxRequestsPerConnection(Integer.parseInt(config.getProperty("max.requests.per.connection", String.valueOf(cassandraConfig.getMaxRequestsPerHost()))));
+		if(config.containsKey("core.connections.per.host"))
+			cassandraConfig.setCoreConnectionsPerHost(Integer.parseInt(config.getProperty("core.connections.per.host", null)));
+		if(config.containsKey("max.connections.per.host"))
+			cassandraConfig.setMaxConnectionsPerHost(Integer.parseInt(config.getProperty("max.connections.per.host", null)));
+		if(cassandraConfig.getCoreConnectionsPerHost() <= 0 || cassandraConfig.getMaxConnectionsPerHost() < cassandraConfig.getCoreConnectionsPerHost() || cassandraConfig.getMaxRequestsPerConnection() <= 0)
+			throw new ConfigParseException("Invalid pooling config. ('" + prefix + "core.connections.per.host' and '" + prefix + "max.requests.per.connection' should be positive, '" + prefix + "max.connections.per.host' should not be smaller than '" + prefix + "core.connections.per.host'.)");
+		if(config.containsKey("local.dc"))
+			cassandraConfig.setLocalDc(config.getProperty("local.dc", null).trim());
+		if(config.containsKey("token.aware"))
+			cassandraConfig.setTokenAware(Boolean.parseBoolean(config.getProperty("token.aware", null)));
+		if(config.containsKey("latency.aware"))
+			cassandraConfig.setLatencyAware(Boolean.parseBoolean(config.getProperty("latency.aware", null)));
+		if(config.containsKey("latency.aware.exclusion.threshold"))
+			cassandraConfig.setLatencyAwareExclusionThreshold(Double.parseDouble(config.getProperty("latency.aware.exclusion.threshold", null)));
+		if(config.containsKey("speculative.delay.ms"))
+			cassandraConfig.setSpeculativeDelayMs(Long.parseLong(config.getProperty("speculative.delay.ms", null)));
+		if(config.containsKey("speculative.max.executions"))
+			cassandraConfig.setSpeculativeMaxExecutions(Integer.parseInt(config.getProperty("speculative.max.executions", null)));
+		if(config.containsKey("read.timeout.ms"))
+			cassandraConfig.setReadTimeoutMs(Integer.parseInt(config.getProperty("read.timeout.ms", null)));
+		if(config.containsKey("connect.timeout.ms"))
+			cassandraConfig.setConnectTimeoutMs(Integer.parseInt(config.getProperty("connect.timeout.ms", null)));
+		if(config.containsKey("retries"))
+			cassandraConfig.setRetries(Integer.parseInt(config.getProperty("retries", null)));
+		if(cassandraConfig.getLatencyAwareExclusionThreshold() < 1 || cassandraConfig.getSpeculativeDelayMs() < 0 || cassandraConfig.getSpeculativeMaxExecutions() <= 0
+				|| cassandraConfig.getReadTimeoutMs() <= 0 || cassandraConfig.getConnectTimeoutMs() <= 0 || cassandraConfig.getRetries() < 0)
+			throw new ConfigParseException("Invalid routing config. ('" + prefix + "latency.aware.exclusion.threshold' should be at least 1, '" + prefix + "speculative.max.executions' and the timeouts should be positive, '" + prefix + "speculative.delay.ms' and '" + prefix + "retries' should not be negative.)");
+		if(config.containsKey("breaker.failure.threshold"))
+			cassandraConfig.setBreakerFailureThreshold(Integer.parseInt(config.getProperty("breaker.failure.threshold", null)));
+		if(config.containsKey("breaker.slow.call.ms"))
+			cassandraConfig.setBreakerSlowCallMs(Long.parseLong(config.getProperty("breaker.slow.call.ms", null)));
+		if(config.containsKey("breaker.open.ms"))
+			cassandraConfig.setBreakerOpenMs(Long.parseLong(config.getProperty("breaker.open.ms", null)));
+		if(cassandraConfig.getBreakerFailureThreshold() < 0 || cassandraConfig.getBreakerSlowCallMs() < 0 || cassandraConfig.getBreakerOpenMs() <= 0)
+			throw new ConfigParseException("Invalid circuit breaker config. ('" + prefix + "breaker.failure.threshold' and '" + prefix + "breaker.slow.call.ms' should not be negative, '" + prefix + "breaker.open.ms' should be positive.)");
+		if(config.containsKey("startup.async"))
+			cassandraConfig.setAsyncStartup(Boolean.parseBoolean(config.getProperty("startup.async", null)));
+		if(config.containsKey("startup.buffer.bytes"))
+			cassandraConfig.setStartupBufferBytes(Integer.parseInt(config.getProperty("startup.buffer.bytes", null)));
+		if(config.containsKey("startup.retry.ms"))
+			cassandraConfig.setStartupRetryMs(Long.parseLong(config.getProperty("startup.retry.ms", null)));
+		if(cassandraConfig.getStartupBufferBytes() <= 0 || cassandraConfig.getStartupRetryMs() <= 0)
+			throw new ConfigParseException("Invalid startup config. ('" + prefix + "startup.buffer.bytes' and '" + prefix + "startup.retry.ms' should be positive.)");
+		if(config.containsKey("table.compression")) {
+			String compression = config.getProperty("table.compression", null).trim();
+			String compressor = TABLE_COMPRESSORS.get(compression);
+			if(compressor == null)
+				throw new ConfigParseException("Invalid compression config. ('" + prefix + "table.compression' should be 'none', 'lz4', 'snappy', 'deflate' or 'zstd'.)");
+			cassandraConfig.setTableCompression(compressor);
+		}
+		if(config.containsKey("table.compression.chunk.kb"))
+			cassandraConfig.setCompressionChunkKb(Integer.parseInt(config.getProperty("table.compression.chunk.kb", null)));
+		if(config.containsKey("protocol.compression"))
+			cassandraConfig.setProtocolCompression(config.getProperty("protocol.compression", null).trim());
+		int chunkKb = cassandraConfig.getCompressionChunkKb();
+		if(chunkKb <= 0 || (chunkKb & (chunkKb - 1)) != 0 || !Arrays.asList("none", "lz4", "snappy").contains(cassandraConfig.getProtocolCompression()))
+			throw new ConfigParseException("Invalid compression config. ('" + prefix + "table.compression.chunk.kb' should be a power of 2, '" + prefix + "protocol.compression' should be 'none', 'lz4' or 'snappy'.)");
+		if(config.containsKey("fallback") && cassandraConfig.getBreakerFailureThreshold() == 0)
+			throw new ConfigParseException("Invalid circuit breaker config. ('" + prefix + "fallback' needs a positive '" + prefix + "breaker.failure.threshold'.)");
+		Metric[] metrics = config.getMetrics();
+		if(cassandraConfig.isTimeTable()) {
+			List<Metric> metricList = Arrays.asList(metrics);
+			if(!metricList.contains(Metric.CREATE_TIME) || !(metricList.contains(Metric.METER) || metricList.contains(Metric.APPLICATION)) || cassandraConfig.getTimeBucketMs() <= 0)
+				throw new ConfigParseException("Invalid time table config. ('" + prefix + "time.table' needs the 'ctime' and the 'meterid' or 'app' metric, '" + prefix + "time.bucket.ms' should be positive.)");
+		}
+		Sink fallback = config.containsKey("fallback") ? config.createSink(config.getProperty("fallback", null)) : null;
+		try {
+			return new CassandraSink(cassandraConfig, metrics, fallback);
+		} catch (RuntimeException re) {
+			if(fallback != null)
+				fallback.close();
+			throw re;
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package io.provenance.sink;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+/**
+ * Stops calls to a degraded backend. The breaker opens after 'failureThreshold' consecutive failed calls, calls slower
+ * than 'slowCallMs' count as failed. While it is open allow() returns false, so callers fail fast or divert instead of
+ * waiting for timeouts. After 'openMs' a single probe call is allowed (half open): if it succeeds the breaker closes,
+ * otherwise it opens again.
+ */
+
+public class CircuitBreaker {
+
+	private static final Logger LOGGER = Logger.getLogger(CircuitBreaker.class.getName());
+
+	public enum State { CLOSED, OPEN, HALF_OPEN }
+
+	private final String name;
+	private final int failureThreshold;
+	private final long slowCallNanos;
+	private final long openNanos;
+	private final AtomicReference<State> state = new AtomicReference<State>(State.CLOSED);
+	private final AtomicInteger failures = new AtomicInteger();
+	private volatile long openedAt;
+
+	/**
+	 * Creates a new closed circuit breaker.
+	 *
+	 * @param  name  Name of the guarded backend, used in log messages.
+	 * @param  failureThreshold  Number of consecutive failed calls that opens the breaker.
+	 * @param  slowCallMs  Duration in milliseconds above which a successful call counts as failed, 0 to only count errors.
+	 * @param  openMs  Time in milliseconds the breaker stays open before a probe call is allowed.
+	 */
+
+	public CircuitBreaker(String name, int failureThreshold, long slowCallMs, long openMs) {
+		if(failureThreshold <= 0 || slowCallMs < 0 || openMs <= 0)
+			throw new IllegalArgumentException("Invalid circuit breaker: failureThreshold and openMs should be positive and slowCallMs should not be negative.");
+		this.name = name;
+		this.failureThreshold = failureThreshold;
+		this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMs);
+		this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMs);
+	}
+
+	/**
+	 * Returns whether a call may go to the backend. Once the open time is over, exactly one caller gets true as the
+	 * probe and the others keep getting false until its result is recorded.
+	 */
+
+	public boolean allow() {
+		State current = state.get();
+		if(current == State.CLOSED)
+			return true;
+		return current == State.OPEN && System.nanoTime() - openedAt >= openNanos && state.compareAndSet(State.OPEN, State.HALF_OPEN);
+	}
+
+	/**
+	 * Records the outcome of a call that allow() let through.
+	 *
+	 * @param  success  Whether the call succeeded.
+	 * @param  nanos  Duration of the call in nanoseconds.
+	 */
+
+	public void record(boolean success, long nanos) {
+		boolean failed = !success || (slowCallNanos > 0 && nanos > slowCallNanos);
+		State current = state.get();
+		if(!failed) {
+			failures.set(0);
+			if(current == State.HALF_OPEN && state.compareAndSet(State.HALF_OPEN, State.CLOSED))
+				LOGGER.info("Circuit breaker of " + name + " closed.");
+		} else if(current == State.HALF_OPEN) {
+			open(State.HALF_OPEN);
+		} else if(current == State.CLOSED && failures.incrementAndGet() >= failureThreshold) {
+			open(State.CLOSED);
+		}
+	}
+
+	public State getState() {
+		return state.get();
+	}
+
+	private void open(State from) {
+		openedAt = System.nanoTime();
+		if(state.compareAndSet(from, State.OPEN)) {
+			failures.set(0);
+			LOGGER.warning("Circuit breaker of " + name + " opened, calls are rejected for " + TimeUnit.NANOSECONDS.toMillis(openNanos) + " ms.");
+		}
+	}
+}
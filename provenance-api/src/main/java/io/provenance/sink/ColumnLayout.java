@@ -0,0 +1,369 @@
+package io.provenance.sink;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.Row;
+
+import io.provenance.types.Context;
+import io.provenance.types.Datapoint;
+import io.provenance.types.DatapointBatch;
+import io.provenance.types.InputDatapoint;
+import io.provenance.types.InputSet;
+import io.provenance.types.Location;
+import io.provenance.types.Metric;
+
+/**
+ * Column layout of the cassandra provenance table, compiled once from the configured metrics. Binding a datapoint is
+ * a straight loop over the precomputed columns, there is no per datapoint lookup of metric names.
+ *
+ * The same columns are stored in the optional '<table>_by_time' table, which is partitioned by meter (or application
+ * if no meter is configured) and time bucket and clustered by creation time.
+ */
+
+final class ColumnLayout {
+
+	private static final String DERIVED_SUFFIX = "_derived";
+	private static final String TIME_SUFFIX = "_by_time";
+	private static final String SCHEMA_TABLE = "provenance_schema";
+	private static final String BUCKET = "bucket";
+
+	/**
+	 * Layout bit of an insert into the '<table>_by_time' table.
+	 */
+
+	static final int TIME = 4;
+
+	/**
+	 * Layout bit of a datapoint with compact inputs, they are bound to the 'inputSet' blob instead of the map.
+	 */
+
+	static final int COMPACT = 8;
+
+	private final EnumSet<Metric> metrics;
+	private final CassandraColumn[] columns;
+	private final boolean location;
+	private final CassandraColumn source;
+
+	ColumnLayout(Metric[] metrics) {
+		this.metrics = EnumSet.noneOf(Metric.class);
+		this.columns = new CassandraColumn[metrics.length];
+		for(int i=0; i<metrics.length; i++) {
+			this.metrics.add(metrics[i]);
+			columns[i] = CassandraColumn.of(metrics[i]);
+		}
+		this.location = this.metrics.contains(Metric.LOCATION);
+		if(this.metrics.contains(Metric.CREATE_TIME) && this.metrics.contains(Metric.METER))
+			this.source = CassandraColumn.METER;
+		else if(this.metrics.contains(Metric.CREATE_TIME) && this.metrics.contains(Metric.APPLICATION))
+			this.source = CassandraColumn.APPLICATION;
+		else
+			this.source = null;
+	}
+
+	/**
+	 * Returns true if the '<table>_by_time' table can be used, it needs the CREATE_TIME and the METER or APPLICATION
+	 * metric.
+	 */
+
+	boolean hasTimeTable() {
+		return source != null;
+	}
+
+	/**
+	 * Returns the partition value of a datapoint in the '<table>_by_time' table, null if it has no meter (application)
+	 * or creation time and therefore is not stored there.
+	 */
+
+	String sourceOf(Datapoint dp) {
+		Context context = dp.getContext();
+		if(context == null || context.getTimestamp() == null)
+			return null;
+		return source == CassandraColumn.METER ? context.getMeterId() : context.getAppName();
+	}
+
+	/**
+	 * Returns the partition value of a batch row in the '<table>_by_time' table, null if the row is not stored there.
+	 */
+
+	String sourceOf(DatapointBatch batch, int row) {
+		if(batch.getTimestamp(row) == DatapointBatch.NO_TIME)
+			return null;
+		return source == CassandraColumn.METER ? batch.getMeterId(row) : batch.getAppName(row);
+	}
+
+	/**
+	 * Returns the layout index of a datapoint's insert: bit 0 is set if it carries enumerated input datapoints, bit 1 if
+	 * its location has coordinates and bit 3 (COMPACT) if its inputs are an InputSet.
+	 */
+
+	int layoutOf(Datapoint dp) {
+		int inputs = dp.getInputSet() != null ? COMPACT : dp.getInputDatapoints() != null ? 1 : 0;
+		return inputs | (location && CassandraColumn.hasCoordinates(dp.getContext()) ? 2 : 0);
+	}
+
+	int layoutOf(DatapointBatch batch, int row) {
+		return (batch.getInputCount(row) > 0 ? 1 : 0) | (location && batch.hasCoordinates(row) ? 2 : 0);
+	}
+
+	String createTableQuery(String keyspace, String table) {
+		return new StringBuilder("CREATE TABLE IF NOT EXISTS ").append(keyspace).append(".").append(table).append("(")
+				.append(columnDefinitions()).append(",PRIMARY KEY (").append(CassandraColumn.ID.getName()).append("));").toString();
+	}
+
+	/**
+	 * Returns the query creating the '<table>_by_time' table. A partition holds the datapoints of one meter in one
+	 * time bucket of 'bucketMs' milliseconds, ordered by creation time.
+	 */
+
+	String createTimeTableQuery(String keyspace, String table) {
+		String ctime = CassandraColumn.CREATE_TIME.getName();
+		return new StringBuilder("CREATE TABLE IF NOT EXISTS ").append(keyspace).append(".").append(table).append(TIME_SUFFIX).append("(")
+				.append(columnDefinitions()).append(",").append(BUCKET).append(" bigint")
+				.append(",PRIMARY KEY ((").append(source.getName()).append(",").append(BUCKET).append("),").append(ctime).append(",")
+				.append(CassandraColumn.ID.getName()).append(")) WITH CLUSTERING ORDER BY (").append(ctime).append(" ASC,")
+				.append(CassandraColumn.ID.getName()).append(" ASC);").toString();
+	}
+
+	/**
+	 * Returns the insert of a layout, into the '<table>_by_time' table if the TIME bit is set. The bucket is
+	 * bound last.
+	 */
+
+	String insertQuery(String keyspace, String table, int layout) {
+		StringBuilder names = new StringBuilder(CassandraColumn.ID.getName());
+		StringBuilder markers = new StringBuilder("?");
+		if((layout & 1) != 0) {
+			names.append(",").append(CassandraColumn.IID.getName());
+			markers.append(",?");
+		}
+		if((layout & COMPACT) != 0) {
+			names.append(",").append(CassandraColumn.ISET.getName());
+			markers.append(",?");
+		}
+		for(CassandraColumn column : columns) {
+			names.append(",").append(column.getName());
+			markers.append(",?");
+		}
+		if((layout & 2) != 0) {
+			names.append(",").append(CassandraColumn.LAT.getName()).append(",").append(CassandraColumn.LONG.getName());
+			markers.append(",?,?");
+		}
+		if((layout & TIME) != 0) {
+			names.append(",").append(BUCKET);
+			markers.append(",?");
+		}
+		return new StringBuilder("INSERT INTO ").append(keyspace).append(".").append(table).append((layout & TIME) != 0 ? TIME_SUFFIX : "")
+				.append("(").append(names).append(") VALUES (").append(markers).append(");").toString();
+	}
+
+	/**
+	 * Binds a datapoint to an insert prepared from insertQuery(..., layoutOf(dp)).
+	 *
+	 * @return      Index of the next bind marker.
+	 */
+
+	int bind(Datapoint dp, int layout, BoundStatement statement) {
+		Context context = dp.getContext();
+		int index = 0;
+		CassandraColumn.ID.bind(dp, context, statement, index++);
+		if((layout & 1) != 0)
+			CassandraColumn.IID.bind(dp, context, statement, index++);
+		if((layout & COMPACT) != 0)
+			CassandraColumn.ISET.bind(dp, context, statement, index++);
+		if(context == null) {
+			for(int i=0; i<columns.length; i++)
+				statement.setToNull(index++);
+			return index;
+		}
+		for(CassandraColumn column : columns)
+			column.bind(dp, context, statement, index++);
+		if((layout & 2) != 0) {
+			CassandraColumn.LAT.bind(dp, context, statement, index++);
+			CassandraColumn.LONG.bind(dp, context, statement, index++);
+		}
+		return index;
+	}
+
+	/**
+	 * Binds a batch row to an insert prepared from insertQuery(..., layoutOf(batch, row)). The row's ID is passed in
+	 * already rendered, since the sink needs it for the derived index as well.
+	 *
+	 * @return      Index of the next bind marker.
+	 */
+
+	int bind(String id, DatapointBatch batch, int row, int layout, BoundStatement statement) {
+		int index = 0;
+		statement.setString(index++, id);
+		if((layout & 1) != 0)
+			CassandraColumn.IID.bind(batch, row, statement, index++);
+		for(CassandraColumn column : columns)
+			column.bind(batch, row, statement, index++);
+		if((layout & 2) != 0) {
+			CassandraColumn.LAT.bind(batch, row, statement, index++);
+			CassandraColumn.LONG.bind(batch, row, statement, index++);
+		}
+		return index;
+	}
+
+	/**
+	 * Returns the query selecting a single datapoint by ID, its columns are in the order read(Row) expects.
+	 */
+
+	String selectQuery(String keyspace, String table) {
+		return new StringBuilder("SELECT ").append(columnNames()).append(" FROM ").append(keyspace).append(".").append(table)
+				.append(" WHERE ").append(CassandraColumn.ID.getName()).append("=?;").toString();
+	}
+
+	/**
+	 * Returns the query selecting the datapoints of one meter (application) and bucket created in [from, to), its
+	 * columns are in the order read(Row) expects.
+	 */
+
+	String selectTimeRangeQuery(String keyspace, String table) {
+		String ctime = CassandraColumn.CREATE_TIME.getName();
+		return new StringBuilder("SELECT ").append(columnNames()).append(" FROM ").append(keyspace).append(".").append(table).append(TIME_SUFFIX)
+				.append(" WHERE ").append(source.getName()).append("=? AND ").append(BUCKET).append("=? AND ")
+				.append(ctime).append(">=? AND ").append(ctime).append("<?;").toString();
+	}
+
+	/**
+	 * Restores a datapoint from a row selected by selectQuery. A datapoint whose context columns are all null is
+	 * restored without context, one without input datapoints without inputs. Compact inputs are only decoded to their
+	 * ID bits, the InputDatapoints are created when they are asked for.
+	 */
+
+	Datapoint read(Row row) {
+		int index = 0;
+		String id = row.getString(index++);
+		Map<String, String> inputDPs = row.getMap(index++, String.class, String.class);
+		InputSet inputSet = row.isNull(index) ? null : InputSet.decode(row.getBytes(index));
+		index++;
+		InputDatapoint[] inputs = null;
+		if(!inputDPs.isEmpty()) {
+			inputs = new InputDatapoint[inputDPs.size()];
+			int i = 0;
+			for(Map.Entry<String, String> input : inputDPs.entrySet())
+				inputs[i++] = new InputDatapoint(input.getKey(), input.getValue());
+		}
+		Context context = null;
+		for(int i=index; i<index + columns.length; i++)
+			if(!row.isNull(i)) {
+				context = new Context();
+				break;
+			}
+		if(context != null) {
+			for(CassandraColumn column : columns)
+				column.read(row, index++, context);
+			if(location && !row.isNull(index)) {
+				Location loc = context.getLoc();
+				context.setLoc(new Location(loc != null ? loc.getLable() : null, row.getDouble(index), row.getDouble(index + 1)));
+			}
+		}
+		return inputSet != null ? new Datapoint(id, inputSet, context) : new Datapoint(id, inputs, context);
+	}
+
+	private StringBuilder columnDefinitions() {
+		StringBuilder definitions = new StringBuilder(CassandraColumn.ID.getName()).append(" ").append(CassandraColumn.ID.getType())
+				.append(",").append(CassandraColumn.IID.getName()).append(" ").append(CassandraColumn.IID.getType())
+				.append(",").append(CassandraColumn.ISET.getName()).append(" ").append(CassandraColumn.ISET.getType());
+		for(CassandraColumn column : columns)
+			definitions.append(",").append(column.getName()).append(" ").append(column.getType());
+		if(location)
+			definitions.append(",").append(CassandraColumn.LAT.getName()).append(" ").append(CassandraColumn.LAT.getType())
+					.append(",").append(CassandraColumn.LONG.getName()).append(" ").append(CassandraColumn.LONG.getType());
+		return definitions;
+	}
+
+	private StringBuilder columnNames() {
+		StringBuilder names = new StringBuilder(CassandraColumn.ID.getName()).append(",").append(CassandraColumn.IID.getName())
+				.append(",").append(CassandraColumn.ISET.getName());
+		for(CassandraColumn column : columns)
+			names.append(",").append(column.getName());
+		if(location)
+			names.append(",").append(CassandraColumn.LAT.getName()).append(",").append(CassandraColumn.LONG.getName());
+		return names;
+	}
+
+	/**
+	 * Returns the queries setting the compression options of the table and, with 'derivedIndex' and 'timeTable', of
+	 * the '<table>_derived' and '<table>_by_time' tables.
+	 *
+	 * @param  compressor  Compressor class, 'none' to disable compression.
+	 * @param  chunkKb  Size in KB of the compressed chunks.
+	 */
+
+	static String[] compressionQueries(String keyspace, String table, boolean derivedIndex, boolean timeTable, String compressor, int chunkKb) {
+		String options = compressor.equals("none") ? "{'enabled':'false'}"
+				: "{'class':'" + compressor + "','chunk_length_in_kb':" + chunkKb + "}";
+		List<String> queries = new ArrayList<String>();
+		queries.add("ALTER TABLE " + keyspace + "." + table + " WITH compression = " + options + ";");
+		if(derivedIndex)
+			queries.add("ALTER TABLE " + keyspace + "." + table + DERIVED_SUFFIX + " WITH compression = " + options + ";");
+		if(timeTable)
+			queries.add("ALTER TABLE " + keyspace + "." + table + TIME_SUFFIX + " WITH compression = " + options + ";");
+		return queries.toArray(new String[queries.size()]);
+	}
+
+	/**
+	 * Returns the queries adding the 'inputSet' column to tables created before it existed, for the main table and, with
+	 * 'timeTable', the '<table>_by_time' table, in the order of inputSetTables.
+	 */
+
+	static String[] addInputSetQueries(String keyspace, String table, boolean timeTable) {
+		String add = " ADD " + CassandraColumn.ISET.getName() + " " + CassandraColumn.ISET.getType() + ";";
+		String main = "ALTER TABLE " + keyspace + "." + table + add;
+		return timeTable ? new String[] {main, "ALTER TABLE " + keyspace + "." + table + TIME_SUFFIX + add} : new String[] {main};
+	}
+
+	/**
+	 * Returns the names of the tables addInputSetQueries alters.
+	 */
+
+	static String[] inputSetTables(String table, boolean timeTable) {
+		return timeTable ? new String[] {table, table + TIME_SUFFIX} : new String[] {table};
+	}
+
+	/**
+	 * Returns the query creating the reverse lineage index. It is partitioned by input ID, so the datapoints derived
+	 * from one input are a single partition read while the writes spread over the whole ring.
+	 */
+
+	static String createDerivedTableQuery(String keyspace, String table) {
+		return new StringBuilder("CREATE TABLE IF NOT EXISTS ").append(keyspace).append(".").append(table).append(DERIVED_SUFFIX)
+				.append("(inputId text,derivedId text,contribution text,PRIMARY KEY (inputId, derivedId));").toString();
+	}
+
+	static String insertDerivedQuery(String keyspace, String table) {
+		return new StringBuilder("INSERT INTO ").append(keyspace).append(".").append(table).append(DERIVED_SUFFIX)
+				.append("(inputId,derivedId,contribution) VALUES (?,?,?);").toString();
+	}
+
+	static String selectDerivedQuery(String keyspace, String table) {
+		return new StringBuilder("SELECT derivedId FROM ").append(keyspace).append(".").append(table).append(DERIVED_SUFFIX)
+				.append(" WHERE inputId=?;").toString();
+	}
+
+	/**
+	 * Returns the query creating the table that records, per provenance table, the schema version and the fingerprint
+	 * of the DDL last applied to it, so a restarted node can skip the schema statements.
+	 */
+
+	static String createSchemaTableQuery(String keyspace) {
+		return new StringBuilder("CREATE TABLE IF NOT EXISTS ").append(keyspace).append(".").append(SCHEMA_TABLE)
+				.append("(tableName text PRIMARY KEY,version int,fingerprint text,applied timestamp);").toString();
+	}
+
+	static String selectSchemaQuery(String keyspace) {
+		return new StringBuilder("SELECT version,fingerprint FROM ").append(keyspace).append(".").append(SCHEMA_TABLE)
+				.append(" WHERE tableName=?;").toString();
+	}
+
+	static String insertSchemaQuery(String keyspace) {
+		return new StringBuilder("INSERT INTO ").append(keyspace).append(".").append(SCHEMA_TABLE)
+				.append("(tableName,version,fingerprint,applied) VALUES (?,?,?,toTimestamp(now()));").toString();
+	}
+}
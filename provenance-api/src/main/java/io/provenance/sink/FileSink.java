@@ -0,0 +1,336 @@
+package io.provenance.sink;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32;
+
+import io.provenance.codec.BlockCompressor;
+import io.provenance.codec.DatapointCodec;
+import io.provenance.metrics.Metrics;
+import io.provenance.metrics.SinkMetrics;
+import io.provenance.types.Datapoint;
+import io.provenance.types.DatapointBatch;
+
+/**
+ * Sink that appends datapoints to a local file. The file starts with the version of the DatapointCodec and holds
+ * blocks of [length][crc32][records], the records of a block are encoded by a codec cleared at the start of the block.
+ * Each ingest call is encoded straight into a direct buffer and written with as few FileChannel writes as the buffer
+ * size allows, there is no copy on the heap.
+ *
+ * With compression each block is compressed by a BlockCompressor and stored as [length][crc32][raw length][compressed
+ * records], the highest bit of its length marks it as compressed. Blocks that do not get smaller are stored as they
+ * are. A file holding compressed blocks starts with its own magic number, so older readers reject it instead of
+ * cutting it off at the first compressed block.
+ *
+ * A torn block at the end of the file, left by a crash, is cut off when the file is opened again. A file written by an
+ * older codec version is appended to as well, its header is raised to the current version. The file is read back
+ * with read(File).
+ */
+
+public class FileSink implements Sink {
+
+	private static final int MAGIC = 0x50524631;
+	private static final int COMPRESSED_MAGIC = 0x50524632;
+	private static final int COMPRESSED = 1 << 31;
+	private static final int FILE_HEADER = 8;
+	private static final int BLOCK_HEADER = 8;
+
+	private File file;
+	private FileChannel channel;
+	private ByteBuffer buffer;
+	private boolean sync;
+	private long committed;
+	private DatapointCodec codec = new DatapointCodec();
+	private CRC32 crc = new CRC32();
+	private BlockCompressor compressor;
+	private byte[] compressed;
+	private SinkMetrics metrics = Metrics.register("file");
+
+	/**
+	 * Opens the file for appending, creating it if needed.
+	 *
+	 * @param  file  File the datapoints are appended to.
+	 * @param  bufferBytes  Size of the write buffer in bytes, a single datapoint has to fit into it.
+	 * @param  sync  Whether every ingest call forces its writes to the storage device.
+	 */
+
+	public FileSink(File file, int bufferBytes, boolean sync) throws IOException {
+		this(file, bufferBytes, sync, false);
+	}
+
+	/**
+	 * Opens the file for appending, creating it if needed.
+	 *
+	 * @param  file  File the datapoints are appended to.
+	 * @param  bufferBytes  Size of the write buffer in bytes, a single datapoint has to fit into it.
+	 * @param  sync  Whether every ingest call forces its writes to the storage device.
+	 * @param  compress  Whether blocks are compressed, the records are then encoded on the heap instead of in a direct buffer.
+	 */
+
+	public FileSink(File file, int bufferBytes, boolean sync, boolean compress) throws IOException {
+		this.file = file;
+		this.sync = sync;
+		if(compress) {
+			this.buffer = ByteBuffer.allocate(bufferBytes);
+			this.compressor = new BlockCompressor();
+			this.compressed = new byte[BLOCK_HEADER + 4 + BlockCompressor.maxCompressedLength(bufferBytes)];
+		} else
+			this.buffer = ByteBuffer.allocateDirect(bufferBytes);
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			if(channel.size() == 0) {
+				ByteBuffer header = ByteBuffer.allocate(FILE_HEADER).putInt(compress ? COMPRESSED_MAGIC : MAGIC).putInt(DatapointCodec.VERSION);
+				header.flip();
+				while(header.hasRemaining())
+					channel.write(header);
+			} else {
+				checkHeader(channel, file);
+				channel.truncate(validEnd(channel));
+				ByteBuffer header = ByteBuffer.allocate(FILE_HEADER).putInt(0, compress ? COMPRESSED_MAGIC : readFully(channel, 0, 4).getInt(0)).putInt(4, DatapointCodec.VERSION);
+				while(header.hasRemaining())
+					channel.write(header, header.position());
+			}
+			committed = channel.size();
+			channel.position(committed);
+		} catch (IOException ioe) {
+			channel.close();
+			throw ioe;
+		}
+	}
+
+	public void connect() {
+	}
+
+	public void defineSchema() {
+	}
+
+	public String[] ingest(Datapoint... datapoints) {
+		return write(datapoints.length, i -> datapoints[i]);
+	}
+	
+	/**
+	 * Encodes the batch row by row, so only one row at a time is materialized as a Datapoint.
+	 */
+	
+	@Override
+	public String[] ingest(DatapointBatch batch) {
+		return write(batch.size(), batch::toDatapoint);
+	}
+
+	private synchronized String[] write(int count, IntFunction<Datapoint> datapoints) {
+		long start = metrics.start();
+		String[] ids = new String[count];
+		try {
+			startBlock();
+			for(int i=0; i<count; i++) {
+				Datapoint datapoint = datapoints.apply(i);
+				int position = buffer.position();
+				try {
+					codec.encode(datapoint, buffer);
+				} catch (BufferOverflowException boe) {
+					buffer.position(position);
+					if(position == BLOCK_HEADER)
+						throw new IOException("Datapoint " + datapoint.getId() + " does not fit into the write buffer.");
+					writeBlock();
+					startBlock();
+					i--;
+					continue;
+				}
+				ids[i] = datapoint.getId();
+			}
+			writeBlock();
+			if(sync)
+				channel.force(false);
+		} catch (IOException ioe) {
+			metrics.failure(start);
+			rollback(ioe);
+			throw new UncheckedIOException(ioe);
+		}
+		metrics.success(start, count);
+		return ids;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public synchronized void close() {
+		Metrics.unregister(metrics);
+		try {
+			channel.force(true);
+			channel.close();
+		} catch (IOException ioe) {
+			throw new UncheckedIOException(ioe);
+		}
+	}
+
+	/**
+	 * Reads the datapoints of a file written by a FileSink, in the order they were written. The stream reads the file
+	 * block by block and should be closed once consumed.
+	 *
+	 * @param  file  File to be read.
+	 * @return      A lazily read stream of the datapoints.
+	 */
+
+	public static Stream<Datapoint> read(File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			checkHeader(channel, file);
+		} catch (IOException ioe) {
+			channel.close();
+			throw ioe;
+		}
+		long end = validEnd(channel);
+		Iterator<Datapoint> datapoints = new Iterator<Datapoint>() {
+			private long position = FILE_HEADER;
+			private DatapointCodec codec = new DatapointCodec();
+			private ByteBuffer block = ByteBuffer.allocate(0);
+
+			public boolean hasNext() {
+				while(!block.hasRemaining()) {
+					if(position >= end)
+						return false;
+					try {
+						ByteBuffer header = readFully(channel, position, BLOCK_HEADER);
+						int length = header.getInt(0) & ~COMPRESSED;
+						block = readFully(channel, position + BLOCK_HEADER, length);
+						position += BLOCK_HEADER + length;
+						if((header.getInt(0) & COMPRESSED) != 0) {
+							byte[] records = new byte[block.getInt(0)];
+							BlockCompressor.decompress(block.array(), 4, length - 4, records, 0, records.length);
+							block = ByteBuffer.wrap(records);
+						}
+					} catch (IOException ioe) {
+						throw new UncheckedIOException(ioe);
+					}
+					codec.clear();
+				}
+				return true;
+			}
+
+			public Datapoint next() {
+				if(!hasNext())
+					throw new NoSuchElementException();
+				return codec.decode(block);
+			}
+		};
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(datapoints, Spliterator.ORDERED | Spliterator.NONNULL), false)
+				.onClose(() -> {
+					try {
+						channel.close();
+					} catch (IOException ioe) {
+						throw new UncheckedIOException(ioe);
+					}
+				});
+	}
+
+	private void startBlock() {
+		buffer.clear();
+		buffer.position(BLOCK_HEADER);
+		codec.clear();
+	}
+
+	private void writeBlock() throws IOException {
+		if(buffer.position() == BLOCK_HEADER)
+			return;
+		buffer.flip();
+		int length = buffer.limit() - BLOCK_HEADER;
+		if(compressor != null && writeCompressed(length))
+			return;
+		ByteBuffer payload = buffer.duplicate();
+		payload.position(BLOCK_HEADER);
+		crc.reset();
+		crc.update(payload);
+		buffer.putInt(0, length);
+		buffer.putInt(4, (int) crc.getValue());
+		while(buffer.hasRemaining())
+			channel.write(buffer);
+		committed += BLOCK_HEADER + length;
+		metrics.bytesWritten(BLOCK_HEADER + length);
+	}
+
+	/**
+	 * Writes the block compressed, unless that does not make it smaller.
+	 */
+
+	private boolean writeCompressed(int length) throws IOException {
+		int stored = 4 + compressor.compress(buffer.array(), BLOCK_HEADER, length, compressed, BLOCK_HEADER + 4);
+		if(stored >= length)
+			return false;
+		ByteBuffer block = ByteBuffer.wrap(compressed, 0, BLOCK_HEADER + stored);
+		block.putInt(BLOCK_HEADER, length);
+		crc.reset();
+		crc.update(compressed, BLOCK_HEADER, stored);
+		block.putInt(0, stored | COMPRESSED);
+		block.putInt(4, (int) crc.getValue());
+		while(block.hasRemaining())
+			channel.write(block);
+		committed += BLOCK_HEADER + stored;
+		metrics.bytesWritten(BLOCK_HEADER + stored);
+		return true;
+	}
+
+	/**
+	 * Cuts off a partially written block, so the blocks appended later are not lost behind it.
+	 */
+
+	private void rollback(IOException cause) {
+		try {
+			channel.truncate(committed);
+			channel.position(committed);
+		} catch (IOException ioe) {
+			cause.addSuppressed(ioe);
+		}
+	}
+
+	private static void checkHeader(FileChannel channel, File file) throws IOException {
+		ByteBuffer header = channel.size() >= FILE_HEADER ? readFully(channel, 0, FILE_HEADER) : null;
+		if(header == null || (header.getInt(0) != MAGIC && header.getInt(0) != COMPRESSED_MAGIC))
+			throw new IOException(file + " is not a provenance file.");
+		if(header.getInt(4) < DatapointCodec.MIN_VERSION || header.getInt(4) > DatapointCodec.VERSION)
+			throw new IOException(file + " was written with codec version " + header.getInt(4) + ", expected " + DatapointCodec.MIN_VERSION + " to " + DatapointCodec.VERSION + ".");
+	}
+
+	/**
+	 * Returns the end of the last complete block whose checksum matches.
+	 */
+
+	private static long validEnd(FileChannel channel) throws IOException {
+		long size = channel.size();
+		long position = FILE_HEADER;
+		CRC32 crc = new CRC32();
+		while(position + BLOCK_HEADER <= size) {
+			ByteBuffer header = readFully(channel, position, BLOCK_HEADER);
+			int length = header.getInt(0) & ~COMPRESSED;
+			if(length <= 0 || position + BLOCK_HEADER + length > size)
+				break;
+			crc.reset();
+			crc.update(readFully(channel, position + BLOCK_HEADER, length));
+			if((int) crc.getValue() != header.getInt(4))
+				break;
+			position += BLOCK_HEADER + length;
+		}
+		return position;
+	}
+
+	private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while(buffer.hasRemaining())
+			if(channel.read(buffer, position + buffer.position()) < 0)
+				throw new IOException("Unexpected end of file.");
+		buffer.flip();
+		return buffer;
+	}
+}
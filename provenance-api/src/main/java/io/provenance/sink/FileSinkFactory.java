@@ -0,0 +1,30 @@
+package io.provenance.sink;
+
+import java.io.File;
+import java.io.IOException;
+
+import io.provenance.config.SinkConfig;
+import io.provenance.exception.ConfigParseException;
+
+/**
+ * Creates FileSinks, configured by the 'path', 'buffer.bytes', 'sync' and 'compress' parameters.
+ */
+
+public class FileSinkFactory implements SinkFactory {
+
+	public String getType() {
+		return "file";
+	}
+
+	public Sink create(SinkConfig config) throws ConfigParseException {
+		File file = new File(config.getProperty("path", "provenance.dat"));
+		int bufferBytes = Integer.parseInt(config.getProperty("buffer.bytes", "1048576"));
+		boolean sync = Boolean.parseBoolean(config.getProperty("sync", "false"));
+		boolean compress = Boolean.parseBoolean(config.getProperty("compress", "false"));
+		try {
+			return new FileSink(file, bufferBytes, sync, compress);
+		} catch (IOException ioe) {
+			throw new ConfigParseException("Problem opening sink file. (Make sure '" + config.getName() + ".path' points to a writable provenance file.)");
+		}
+	}
+}
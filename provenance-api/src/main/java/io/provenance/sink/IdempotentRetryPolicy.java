@@ -0,0 +1,56 @@
+package io.provenance.sink;
+
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.WriteType;
+import com.datastax.driver.core.exceptions.DriverException;
+import com.datastax.driver.core.policies.RetryPolicy;
+
+import io.provenance.metrics.SinkMetrics;
+
+/**
+ * Retries timed out, unavailable and failed requests on the next host, up to 'maxRetries' times per request. Every
+ * statement of the Cassandra sink writes or reads fixed values by primary key, so unlike the driver's default policy
+ * write timeouts are retried as well. Retries are counted in the sink's metrics.
+ */
+
+final class IdempotentRetryPolicy implements RetryPolicy {
+
+	private final int maxRetries;
+	private final SinkMetrics metrics;
+
+	IdempotentRetryPolicy(int maxRetries, SinkMetrics metrics) {
+		this.maxRetries = maxRetries;
+		this.metrics = metrics;
+	}
+
+	public RetryDecision onReadTimeout(Statement statement, ConsistencyLevel cl, int requiredResponses, int receivedResponses, boolean dataRetrieved, int nbRetry) {
+		return retry(cl, nbRetry);
+	}
+
+	public RetryDecision onWriteTimeout(Statement statement, ConsistencyLevel cl, WriteType writeType, int requiredAcks, int receivedAcks, int nbRetry) {
+		return retry(cl, nbRetry);
+	}
+
+	public RetryDecision onUnavailable(Statement statement, ConsistencyLevel cl, int requiredReplica, int aliveReplica, int nbRetry) {
+		return retry(cl, nbRetry);
+	}
+
+	public RetryDecision onRequestError(Statement statement, ConsistencyLevel cl, DriverException e, int nbRetry) {
+		return retry(cl, nbRetry);
+	}
+
+	private RetryDecision retry(ConsistencyLevel cl, int nbRetry) {
+		if(nbRetry >= maxRetries)
+			return RetryDecision.rethrow();
+		metrics.retry();
+		return RetryDecision.tryNextHost(cl);
+	}
+
+	public void init(Cluster cluster) {
+	}
+
+	public void close() {
+	}
+}
@@ -0,0 +1,297 @@
+package io.provenance.sink;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+import java.util.stream.Stream;
+
+import io.provenance.metrics.Metrics;
+import io.provenance.metrics.SinkMetrics;
+import io.provenance.types.Context;
+import io.provenance.types.Datapoint;
+import io.provenance.types.InputDatapoint;
+import io.provenance.types.InputSet;
+import io.provenance.types.Location;
+
+/**
+ * Sink that keeps the last 'capacity' datapoints in memory, i.e. for load tests or nodes without a storage backend.
+ * The datapoints are stored column by column in a ring of preallocated arrays, times, line numbers and coordinates as
+ * primitives. Once the ring is full every new datapoint evicts the oldest one.
+ *
+ * Slots are claimed with a single atomic increment and guarded by striped StampedLocks, so writers only contend when
+ * they hit the same stripe and readers mostly get away with an optimistic read.
+ */
+
+public class InMemorySink implements Sink {
+
+	private static final int STRIPES = 64;
+	private static final long NULL_TIME = Long.MIN_VALUE;
+	private static final int HAS_CONTEXT = 1;
+	private static final int HAS_LINE = 1 << 1;
+	private static final int HAS_LOCATION = 1 << 2;
+	private static final int HAS_COORDINATES = 1 << 3;
+
+	private final int capacity;
+	private final AtomicLong sequence = new AtomicLong();
+	private final StampedLock[] locks = new StampedLock[STRIPES];
+	private final ConcurrentHashMap<String, Long> index;
+	private final SinkMetrics metrics = Metrics.register("memory");
+
+	private final long[] sequences;
+	private final String[] ids;
+	private final Object[] inputs;
+	private final byte[] flags;
+	private final String[] meterIds;
+	private final String[] metricIds;
+	private final String[] locations;
+	private final double[] latitudes;
+	private final double[] longitudes;
+	private final long[] lines;
+	private final String[] classNames;
+	private final String[] appNames;
+	private final long[] createTimes;
+	private final long[] sendTimes;
+	private final long[] receiveTimes;
+
+	/**
+	 * Creates a new in-memory sink.
+	 *
+	 * @param  capacity  Maximum number of datapoints kept.
+	 */
+
+	public InMemorySink(int capacity) {
+		this.capacity = capacity;
+		for(int i=0; i<STRIPES; i++)
+			locks[i] = new StampedLock();
+		index = new ConcurrentHashMap<String, Long>(capacity * 4 / 3 + 1);
+		sequences = new long[capacity];
+		Arrays.fill(sequences, -1);
+		ids = new String[capacity];
+		inputs = new Object[capacity];
+		flags = new byte[capacity];
+		meterIds = new String[capacity];
+		metricIds = new String[capacity];
+		locations = new String[capacity];
+		latitudes = new double[capacity];
+		longitudes = new double[capacity];
+		lines = new long[capacity];
+		classNames = new String[capacity];
+		appNames = new String[capacity];
+		createTimes = new long[capacity];
+		sendTimes = new long[capacity];
+		receiveTimes = new long[capacity];
+	}
+
+	public void connect() {
+	}
+
+	public void defineSchema() {
+	}
+
+	public String[] ingest(Datapoint... datapoints) {
+		long start = metrics.start();
+		String[] ids = new String[datapoints.length];
+		for(int i=0; i<datapoints.length; i++) {
+			ids[i] = datapoints[i].getId();
+			store(ids[i], datapoints[i]);
+		}
+		metrics.success(start, datapoints.length);
+		return ids;
+	}
+
+	/**
+	 * The input data points of a stored datapoint are kept as they are.
+	 */
+
+	@Override
+	public boolean retainsDatapoints() {
+		return true;
+	}
+
+	@Override
+	public CompletableFuture<Map<String, Datapoint>> fetchAsync(Collection<String> ids) {
+		Map<String, Datapoint> datapoints = new HashMap<String, Datapoint>(ids.size() * 4 / 3 + 1);
+		for(String id : ids) {
+			Long seq = index.get(id);
+			if(seq == null)
+				continue;
+			Datapoint dp = read((int) (seq % capacity), seq);
+			if(dp != null)
+				datapoints.put(id, dp);
+		}
+		return CompletableFuture.completedFuture(datapoints);
+	}
+
+	/**
+	 * Scans the whole ring, there is no index of derived datapoints.
+	 */
+
+	@Override
+	public CompletableFuture<Map<String, List<String>>> fetchDerivedAsync(Collection<String> ids) {
+		Set<String> inputIds = new HashSet<String>(ids);
+		Map<String, List<String>> derived = new HashMap<String, List<String>>();
+		for(int slot=0; slot<capacity; slot++) {
+			Datapoint dp = read(slot, -1);
+			if(dp == null || !dp.hasInputs())
+				continue;
+			if(dp.getInputSet() != null) {
+				for(String inputId : inputIds)
+					if(dp.getInputSet().contains(inputId))
+						derived.computeIfAbsent(inputId, id -> new ArrayList<String>()).add(dp.getId());
+				continue;
+			}
+			for(InputDatapoint idp : dp.getInputDatapoints())
+				if(inputIds.contains(idp.getId()))
+					derived.computeIfAbsent(idp.getId(), id -> new ArrayList<String>()).add(dp.getId());
+		}
+		return CompletableFuture.completedFuture(derived);
+	}
+
+	/**
+	 * Scans the whole ring. A datapoint matches by meter ID, or by application name if it has no meter ID.
+	 */
+
+	@Override
+	public Stream<Datapoint> query(String source, Date from, Date to) {
+		List<Datapoint> datapoints = new ArrayList<Datapoint>();
+		for(int slot=0; slot<capacity; slot++) {
+			Datapoint dp = read(slot, -1);
+			Context context = dp != null ? dp.getContext() : null;
+			if(context == null || context.getTimestamp() == null)
+				continue;
+			String dpSource = context.getMeterId() != null ? context.getMeterId() : context.getAppName();
+			if(source.equals(dpSource) && !context.getTimestamp().before(from) && context.getTimestamp().before(to))
+				datapoints.add(dp);
+		}
+		datapoints.sort(Comparator.comparing(dp -> dp.getContext().getTimestamp()));
+		return datapoints.stream();
+	}
+
+	/**
+	 * Returns the number of datapoints kept.
+	 */
+
+	public int size() {
+		return (int) Math.min(sequence.get(), capacity);
+	}
+
+	public void close() {
+		Metrics.unregister(metrics);
+	}
+
+	private void store(String id, Datapoint dp) {
+		long seq = sequence.getAndIncrement();
+		int slot = (int) (seq % capacity);
+		String evicted;
+		long evictedSeq;
+		StampedLock lock = locks[slot & (STRIPES - 1)];
+		long stamp = lock.writeLock();
+		try {
+			if(sequences[slot] > seq)
+				return;
+			evicted = ids[slot];
+			evictedSeq = sequences[slot];
+			sequences[slot] = seq;
+			ids[slot] = id;
+			inputs[slot] = dp.getInputSet() != null ? dp.getInputSet() : dp.getInputDatapoints();
+			Context context = dp.getContext();
+			if(context == null) {
+				flags[slot] = 0;
+				meterIds[slot] = metricIds[slot] = locations[slot] = classNames[slot] = appNames[slot] = null;
+			} else {
+				int flag = HAS_CONTEXT;
+				meterIds[slot] = context.getMeterId();
+				metricIds[slot] = context.getMetricId();
+				Location loc = context.getLoc();
+				locations[slot] = loc != null ? loc.getLable() : null;
+				if(loc != null) {
+					flag |= HAS_LOCATION;
+					if(loc.isCoordinatesSet()) {
+						flag |= HAS_COORDINATES;
+						latitudes[slot] = loc.getLatitude();
+						longitudes[slot] = loc.getLongitude();
+					}
+				}
+				if(context.getLineNo() != null) {
+					flag |= HAS_LINE;
+					lines[slot] = context.getLineNo();
+				}
+				classNames[slot] = context.getClassName();
+				appNames[slot] = context.getAppName();
+				createTimes[slot] = timeOf(context.getTimestamp());
+				sendTimes[slot] = timeOf(context.getSendTime());
+				receiveTimes[slot] = timeOf(context.getReceiveTime());
+				flags[slot] = (byte) flag;
+			}
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+		if(evicted != null)
+			index.remove(evicted, evictedSeq);
+		index.put(id, seq);
+	}
+
+	/**
+	 * Restores the datapoint of a slot, null if the slot is empty or, with seq != -1, no longer holds that sequence.
+	 */
+
+	private Datapoint read(int slot, long seq) {
+		StampedLock lock = locks[slot & (STRIPES - 1)];
+		long stamp = lock.tryOptimisticRead();
+		Datapoint dp = materialize(slot, seq);
+		if(!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			try {
+				dp = materialize(slot, seq);
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+		return dp;
+	}
+
+	private Datapoint materialize(int slot, long seq) {
+		if(sequences[slot] < 0 || (seq != -1 && sequences[slot] != seq))
+			return null;
+		int flag = flags[slot];
+		Context context = null;
+		if((flag & HAS_CONTEXT) != 0) {
+			context = new Context();
+			context.setMeterId(meterIds[slot]);
+			context.setMetricId(metricIds[slot]);
+			if((flag & HAS_COORDINATES) != 0)
+				context.setLoc(new Location(locations[slot], latitudes[slot], longitudes[slot]));
+			else if((flag & HAS_LOCATION) != 0)
+				context.setLoc(new Location(locations[slot]));
+			context.setLineNo((flag & HAS_LINE) != 0 ? lines[slot] : null);
+			context.setClassName(classNames[slot]);
+			context.setAppName(appNames[slot]);
+			context.setTimestamp(dateOf(createTimes[slot]));
+			context.setSendTime(dateOf(sendTimes[slot]));
+			context.setReceiveTime(dateOf(receiveTimes[slot]));
+		}
+		Object input = inputs[slot];
+		if(input instanceof InputSet)
+			return new Datapoint(ids[slot], (InputSet) input, context);
+		return new Datapoint(ids[slot], (InputDatapoint[]) input, context);
+	}
+
+	private static long timeOf(Date date) {
+		return date != null ? date.getTime() : NULL_TIME;
+	}
+
+	private static Date dateOf(long time) {
+		return time != NULL_TIME ? new Date(time) : null;
+	}
+}
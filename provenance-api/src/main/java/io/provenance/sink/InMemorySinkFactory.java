@@ -0,0 +1,22 @@
+package io.provenance.sink;
+
+import io.provenance.config.SinkConfig;
+import io.provenance.exception.ConfigParseException;
+
+/**
+ * Creates InMemorySinks, configured by the 'capacity' parameter.
+ */
+
+public class InMemorySinkFactory implements SinkFactory {
+
+	public String getType() {
+		return "memory";
+	}
+
+	public Sink create(SinkConfig config) throws ConfigParseException {
+		int capacity = Integer.parseInt(config.getProperty("capacity", "100000"));
+		if(capacity <= 0)
+			throw new ConfigParseException("Invalid memory sink config. ('" + config.getName() + ".capacity' should be positive.)");
+		return new InMemorySink(capacity);
+	}
+}
@@ -1,12 +1,122 @@
 package io.provenance.sink;
 
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
 import io.provenance.types.Datapoint;
+import io.provenance.types.DatapointBatch;
 
 public interface Sink {
 	public void connect();
 	public void defineSchema();
 	public String[] ingest(Datapoint...datapoints);
-	public String getSinkFieldName(String fieldName);
-	public String getSinkType(String fieldName);
+	
+	/**
+	 * Pushes the rows of a columnar batch. The batch is only read during the call, so the caller may clear and
+	 * refill it afterwards. Sinks that can not read the columns directly materialize the rows as Datapoints.
+	 *
+	 * @param  batch  Rows to be pushed.
+	 * @return      An array of the IDs of the pushed rows, in row order.
+	 */
+	
+	public default String[] ingest(DatapointBatch batch) {
+		return ingest(batch.toDatapoints());
+	}
+	
+	/**
+	 * Pushes the datapoints without blocking on the storage round-trips. Sinks without a native
+	 * asynchronous path fall back to {@link #ingest(Datapoint...)} on the calling thread.
+	 *
+	 * @param  datapoints  Datapoints to be pushed.
+	 * @return      A future completed with the IDs of the pushed datapoints once all of them are stored.
+	 */
+	
+	public default CompletableFuture<String[]> ingestAsync(Datapoint...datapoints) {
+		CompletableFuture<String[]> future = new CompletableFuture<String[]>();
+		try {
+			future.complete(ingest(datapoints));
+		} catch (RuntimeException re) {
+			future.completeExceptionally(re);
+		}
+		return future;
+	}
+	
+	/**
+	 * Returns whether the sink keeps references to the ingested Datapoint objects after ingest returns, i.e. to write
+	 * them later or to serve reads from them. Datapoints pushed to such a sink are never recycled.
+	 */
+	
+	public default boolean retainsDatapoints() {
+		return false;
+	}
+	
+	/**
+	 * Returns the number of datapoints or requests the sink has accepted but not yet stored, i.e. the load signal of
+	 * adaptive sampling. Sinks that store datapoints before ingest returns report 0.
+	 */
+	
+	public default long getQueueDepth() {
+		return 0;
+	}
+	
+	/**
+	 * Returns a future completed once the sink is connected and its schema is in place. Sinks that start
+	 * synchronously return a completed future.
+	 */
+	
+	public default CompletableFuture<Void> ready() {
+		return CompletableFuture.completedFuture(null);
+	}
+	
+	/**
+	 * Returns whether the sink is ready and currently accepts writes, i.e. for a health check endpoint.
+	 */
+	
+	public default boolean isHealthy() {
+		return true;
+	}
+	
+	/**
+	 * Reads stored datapoints back. All IDs are fetched concurrently, sinks that can not be read back throw
+	 * UnsupportedOperationException.
+	 *
+	 * @param  ids  IDs of the datapoints to be fetched.
+	 * @return      A future completed with the fetched datapoints by ID, IDs that are not stored are missing from the map.
+	 */
+	
+	public default CompletableFuture<Map<String, Datapoint>> fetchAsync(Collection<String> ids) {
+		throw new UnsupportedOperationException(getClass().getSimpleName() + " can not read datapoints back.");
+	}
+	
+	/**
+	 * Reads the IDs of the stored datapoints that list the given datapoints as their inputs. Sinks without an index
+	 * of derived datapoints throw UnsupportedOperationException.
+	 *
+	 * @param  ids  IDs of the input datapoints.
+	 * @return      A future completed with the IDs of the derived datapoints by input ID.
+	 */
+	
+	public default CompletableFuture<Map<String, List<String>>> fetchDerivedAsync(Collection<String> ids) {
+		throw new UnsupportedOperationException(getClass().getSimpleName() + " can not read derived datapoints.");
+	}
+	
+	/**
+	 * Reads the datapoints of a meter created in [from, to), ordered by creation time. Results are read page by page
+	 * as the stream is consumed. Sinks without a time ordered layout throw UnsupportedOperationException.
+	 *
+	 * @param  source  Meter ID, or application name if METER is not a configured metric.
+	 * @param  from  Start of the creation time range, inclusive.
+	 * @param  to  End of the creation time range, exclusive.
+	 * @return      A lazily paged stream of the datapoints.
+	 */
+	
+	public default Stream<Datapoint> query(String source, Date from, Date to) {
+		throw new UnsupportedOperationException(getClass().getSimpleName() + " can not query datapoints by time.");
+	}
+	
 	public void close();
 }
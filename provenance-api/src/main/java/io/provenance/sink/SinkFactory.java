@@ -0,0 +1,27 @@
+package io.provenance.sink;
+
+import io.provenance.config.SinkConfig;
+import io.provenance.exception.ConfigParseException;
+
+/**
+ * Creates sinks of one type. Factories are discovered with ServiceLoader, a jar adds a sink type by listing its
+ * factory in META-INF/services/io.provenance.sink.SinkFactory.
+ */
+
+public interface SinkFactory {
+
+	/**
+	 * Returns the sink type, as used in the 'sink' and '&lt;name&gt;.type' config parameters.
+	 */
+
+	public String getType();
+
+	/**
+	 * Creates a sink.
+	 *
+	 * @param  config  Config parameters of the sink, namespaced by the sink's name.
+	 * @return      The new sink, connected and ready for ingest.
+	 */
+
+	public Sink create(SinkConfig config) throws ConfigParseException;
+}
@@ -0,0 +1,187 @@
+package io.provenance.sink;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import io.provenance.metrics.Metrics;
+import io.provenance.metrics.SinkMetrics;
+import io.provenance.spool.Spool;
+import io.provenance.types.Datapoint;
+
+/**
+ * Sink that writes datapoints to a local Spool first and replays them to another sink from a background thread.
+ * Ingest only depends on the local disk, while the other sink is unreachable the datapoints stay in the spool and
+ * the replay is retried every 'retryMs' milliseconds.
+ */
+
+public class SpoolSink implements Sink {
+
+	private static final Logger LOGGER = Logger.getLogger(SpoolSink.class.getName());
+
+	private Sink sink;
+	private Spool spool;
+	private int batchSize;
+	private long retryNanos;
+	private volatile boolean closed;
+	private Thread replayer;
+	private SinkMetrics metrics = Metrics.register("spool");
+
+	/**
+	 * Creates a new spool sink and starts replaying the spool.
+	 *
+	 * @param  sink  Sink the spooled datapoints are replayed to.
+	 * @param  spool  Spool the datapoints are written to.
+	 * @param  batchSize  Maximum number of datapoints replayed at once.
+	 * @param  retryMs  Time in milliseconds to wait before a failed replay is retried.
+	 */
+
+	public SpoolSink(Sink sink, Spool spool, int batchSize, long retryMs) {
+		this.sink = sink;
+		this.spool = spool;
+		this.batchSize = batchSize;
+		this.retryNanos = TimeUnit.MILLISECONDS.toNanos(retryMs);
+		replayer = new Thread(this::replay, "provenance-spool-replayer");
+		replayer.setDaemon(true);
+		replayer.start();
+	}
+
+	public void connect() {
+		sink.connect();
+	}
+
+	public void defineSchema() {
+		sink.defineSchema();
+	}
+
+	/**
+	 * Appends the datapoints to the spool. The returned IDs are those of the spooled datapoints.
+	 */
+
+	public String[] ingest(Datapoint... datapoints) {
+		long start = metrics.start();
+		String[] ids = new String[datapoints.length];
+		try {
+			metrics.bytesWritten(spool.append(datapoints));
+			for(int i=0; i<datapoints.length; i++)
+				ids[i] = datapoints[i].getId();
+		} catch (IOException ioe) {
+			metrics.failure(start);
+			throw new UncheckedIOException(ioe);
+		}
+		metrics.success(start, datapoints.length);
+		LockSupport.unpark(replayer);
+		return ids;
+	}
+
+	/**
+	 * Returns the datapoints waiting in the spool plus the queue of the underlying sink. Datapoints left in the spool
+	 * by a previous run are not counted.
+	 */
+
+	@Override
+	public long getQueueDepth() {
+		return spool.getPending() + sink.getQueueDepth();
+	}
+
+	@Override
+	public CompletableFuture<Void> ready() {
+		return sink.ready();
+	}
+
+	@Override
+	public boolean isHealthy() {
+		return sink.isHealthy();
+	}
+
+	/**
+	 * Reads from the underlying sink. Datapoints still waiting in the spool are not found.
+	 */
+
+	@Override
+	public CompletableFuture<Map<String, Datapoint>> fetchAsync(Collection<String> ids) {
+		return sink.fetchAsync(ids);
+	}
+
+	@Override
+	public CompletableFuture<Map<String, List<String>>> fetchDerivedAsync(Collection<String> ids) {
+		return sink.fetchDerivedAsync(ids);
+	}
+
+	@Override
+	public Stream<Datapoint> query(String source, Date from, Date to) {
+		return sink.query(source, from, to);
+	}
+
+	/**
+	 * Replays whatever the other sink accepts and closes both. Datapoints that could not be replayed stay in the
+	 * spool and are replayed after the next start. A spool still used by another sink is left open, that sink
+	 * replays it.
+	 */
+
+	public void close() {
+		closed = true;
+		LockSupport.unpark(replayer);
+		boolean interrupted = false;
+		while(replayer.isAlive()) {
+			try {
+				replayer.join();
+			} catch (InterruptedException ie) {
+				interrupted = true;
+			}
+		}
+		Metrics.unregister(metrics);
+		sink.close();
+		try {
+			spool.close();
+		} catch (IOException ioe) {
+			throw new UncheckedIOException(ioe);
+		} finally {
+			if(interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	private void replay() {
+		while(true) {
+			// a spool shared with the sink of a reloaded configuration is left to that sink's replayer
+			if(closed && spool.isShared())
+				return;
+			try {
+				boolean moved;
+				spool.getReplayLock().lock();
+				try {
+					List<Datapoint> datapoints = spool.read(batchSize);
+					if(!datapoints.isEmpty())
+						sink.ingest(datapoints.toArray(new Datapoint[datapoints.size()]));
+					long corrupt = spool.getCorrupt();
+					moved = spool.acknowledge();
+					if(spool.getCorrupt() > corrupt)
+						metrics.dropped((int) (spool.getCorrupt() - corrupt));
+				} finally {
+					spool.getReplayLock().unlock();
+				}
+				if(moved)
+					continue;
+				if(closed)
+					return;
+				LockSupport.parkNanos(this, retryNanos);
+			} catch (IOException | RuntimeException e) {
+				metrics.retry();
+				LOGGER.log(Level.WARNING, "Failed to replay spooled datapoints, retrying in " + TimeUnit.NANOSECONDS.toMillis(retryNanos) + " ms.", e);
+				if(closed)
+					return;
+				LockSupport.parkNanos(this, retryNanos);
+			}
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package io.provenance.sink;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.provenance.codec.DatapointCodec;
+import io.provenance.exception.SinkUnavailableException;
+import io.provenance.types.Datapoint;
+
+/**
+ * Holds the datapoints saved while a sink is still starting. They are encoded with the DatapointCodec, so the caller
+ * keeps ownership of its Datapoint objects, i.e. they may be recycled as soon as save() returns. Once the sink is up,
+ * drain() hands out the datapoints and every later offer() is refused, so the sink writes directly.
+ */
+
+final class StartupBuffer {
+
+	private final int maxBytes;
+	private final DatapointCodec codec = new DatapointCodec();
+	private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+	private int count;
+	private boolean drained;
+
+	StartupBuffer(int maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Buffers the datapoints, all of them or none.
+	 *
+	 * @return      false if the buffer has been drained already and the datapoints should be written directly.
+	 * @throws SinkUnavailableException if the datapoints do not fit into the buffer.
+	 */
+
+	synchronized boolean offer(Datapoint[] datapoints) {
+		if(drained)
+			return false;
+		int position = buffer.position();
+		codec.mark();
+		for(int i=0; i<datapoints.length; i++) {
+			int recordStart = buffer.position();
+			while(true) {
+				try {
+					codec.encode(datapoints[i], buffer);
+					break;
+				} catch (BufferOverflowException boe) {
+					if(buffer.capacity() >= maxBytes) {
+						buffer.position(position);
+						codec.rewind();
+						throw new SinkUnavailableException("The sink is still starting and its startup buffer is full. (Raise 'cassandra.startup.buffer.bytes' or wait for ready().)");
+					}
+					ByteBuffer grown = ByteBuffer.allocate((int) Math.min(maxBytes, buffer.capacity() * 2L));
+					buffer.position(recordStart).flip();
+					grown.put(buffer);
+					buffer = grown;
+				}
+			}
+		}
+		count += datapoints.length;
+		return true;
+	}
+
+	/**
+	 * Returns the buffered datapoints in save order and refuses all later offers.
+	 */
+
+	synchronized List<Datapoint> drain() {
+		drained = true;
+		List<Datapoint> datapoints = new ArrayList<Datapoint>(count);
+		buffer.flip();
+		DatapointCodec reader = new DatapointCodec();
+		while(buffer.hasRemaining())
+			datapoints.add(reader.decode(buffer));
+		buffer = null;
+		count = 0;
+		return datapoints;
+	}
+
+	synchronized int size() {
+		return count;
+	}
+}
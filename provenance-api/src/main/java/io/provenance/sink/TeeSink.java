@@ -0,0 +1,202 @@
+package io.provenance.sink;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import io.provenance.metrics.Metrics;
+import io.provenance.metrics.SinkMetrics;
+import io.provenance.types.Datapoint;
+import io.provenance.types.DatapointBatch;
+
+/**
+ * Sink that writes to a primary sink and any number of secondary sinks. The primary sink is written on the calling
+ * thread and decides the outcome of a save, reads go to the primary sink only. A save reaches the secondary sinks
+ * only once the primary sink stored it, so they never hold datapoints the primary sink rejected. Every secondary sink
+ * has its own writer thread and a queue of at most 'queueCapacity' pending saves. When that queue is full the save is
+ * dropped for that secondary and counted, so a slow or failing secondary never stalls the primary ingest path.
+ */
+
+public class TeeSink implements Sink {
+
+	private static final Logger LOGGER = Logger.getLogger(TeeSink.class.getName());
+
+	private Sink primary;
+	private Sink[] secondaries;
+	private String[] names;
+	private ThreadPoolExecutor[] writers;
+	private SinkMetrics[] metrics;
+
+	/**
+	 * Creates a new tee sink and starts a writer thread per secondary sink.
+	 *
+	 * @param  primary  Sink written on the calling thread.
+	 * @param  secondaries  Sinks written in the background.
+	 * @param  names  Names of the secondary sinks, used for their metrics and writer threads.
+	 * @param  queueCapacity  Maximum number of pending saves per secondary sink.
+	 */
+
+	public TeeSink(Sink primary, Sink[] secondaries, String[] names, int queueCapacity) {
+		this.primary = primary;
+		this.secondaries = secondaries.clone();
+		this.names = names.clone();
+		this.writers = new ThreadPoolExecutor[secondaries.length];
+		this.metrics = new SinkMetrics[secondaries.length];
+		for(int i=0; i<secondaries.length; i++) {
+			String threadName = "provenance-tee-" + names[i];
+			writers[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueCapacity), r -> {
+				Thread thread = new Thread(r, threadName);
+				thread.setDaemon(true);
+				return thread;
+			});
+			ThreadPoolExecutor writer = writers[i];
+			metrics[i] = Metrics.register("tee-" + names[i]);
+			metrics[i].setQueueDepth(() -> writer.getQueue().size());
+		}
+	}
+
+	public void connect() {
+		primary.connect();
+	}
+
+	public void defineSchema() {
+		primary.defineSchema();
+	}
+
+	public String[] ingest(Datapoint... datapoints) {
+		String[] ids = primary.ingest(datapoints);
+		if(secondaries.length > 0)
+			fanOut(datapoints.clone());
+		return ids;
+	}
+
+	/**
+	 * Writes the batch's columns to the primary sink. The secondary sinks get materialized Datapoints, since the
+	 * caller may reuse the batch before they are written.
+	 */
+	
+	@Override
+	public String[] ingest(DatapointBatch batch) {
+		Datapoint[] datapoints = secondaries.length > 0 ? batch.toDatapoints() : null;
+		String[] ids = primary.ingest(batch);
+		fanOut(datapoints);
+		return ids;
+	}
+	
+	@Override
+	public CompletableFuture<String[]> ingestAsync(Datapoint... datapoints) {
+		if(secondaries.length == 0)
+			return primary.ingestAsync(datapoints);
+		Datapoint[] batch = datapoints.clone();
+		return primary.ingestAsync(datapoints).thenApply(ids -> {
+			fanOut(batch);
+			return ids;
+		});
+	}
+
+	/**
+	 * The secondary sinks are written after ingest returned.
+	 */
+	
+	@Override
+	public boolean retainsDatapoints() {
+		return secondaries.length > 0 || primary.retainsDatapoints();
+	}
+	
+	/**
+	 * Returns the queue depth of the primary sink, saves queued for secondaries do not slow down the callers.
+	 */
+	
+	@Override
+	public long getQueueDepth() {
+		return primary.getQueueDepth();
+	}
+	
+	@Override
+	public CompletableFuture<Void> ready() {
+		return primary.ready();
+	}
+	
+	@Override
+	public boolean isHealthy() {
+		return primary.isHealthy();
+	}
+	
+	@Override
+	public CompletableFuture<Map<String, Datapoint>> fetchAsync(Collection<String> ids) {
+		return primary.fetchAsync(ids);
+	}
+
+	@Override
+	public CompletableFuture<Map<String, List<String>>> fetchDerivedAsync(Collection<String> ids) {
+		return primary.fetchDerivedAsync(ids);
+	}
+
+	@Override
+	public Stream<Datapoint> query(String source, Date from, Date to) {
+		return primary.query(source, from, to);
+	}
+
+	/**
+	 * Writes the saves still queued for the secondary sinks and closes all sinks.
+	 */
+
+	public void close() {
+		boolean interrupted = false;
+		for(ThreadPoolExecutor writer : writers)
+			writer.shutdown();
+		for(ThreadPoolExecutor writer : writers) {
+			while(!writer.isTerminated()) {
+				try {
+					writer.awaitTermination(1, TimeUnit.SECONDS);
+				} catch (InterruptedException ie) {
+					interrupted = true;
+				}
+			}
+		}
+		for(int i=0; i<secondaries.length; i++) {
+			Metrics.unregister(metrics[i]);
+			try {
+				secondaries[i].close();
+			} catch (RuntimeException re) {
+				LOGGER.log(Level.WARNING, "Failed to close secondary sink " + names[i] + ".", re);
+			}
+		}
+		primary.close();
+		if(interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	private void fanOut(Datapoint[] batch) {
+		if(secondaries.length == 0)
+			return;
+		for(int i=0; i<secondaries.length; i++) {
+			Sink secondary = secondaries[i];
+			String name = names[i];
+			SinkMetrics secondaryMetrics = metrics[i];
+			try {
+				writers[i].execute(() -> {
+					long start = secondaryMetrics.start();
+					try {
+						secondary.ingest(batch);
+						secondaryMetrics.success(start, batch.length);
+					} catch (RuntimeException re) {
+						secondaryMetrics.failure(start);
+						LOGGER.log(Level.WARNING, "Failed to write " + batch.length + " datapoints to secondary sink " + name + ".", re);
+					}
+				});
+			} catch (RejectedExecutionException ree) {
+				secondaryMetrics.dropped(batch.length);
+			}
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package io.provenance.sink;
+
+import io.provenance.config.SinkConfig;
+import io.provenance.exception.ConfigParseException;
+
+/**
+ * Creates TeeSinks, configured by the 'primary' and 'secondaries' parameters naming the sinks written to and the
+ * 'queue.capacity' parameter.
+ */
+
+public class TeeSinkFactory implements SinkFactory {
+
+	public String getType() {
+		return "tee";
+	}
+
+	public Sink create(SinkConfig config) throws ConfigParseException {
+		String prefix = config.getName() + ".";
+		if(!config.containsKey("primary") || !config.containsKey("secondaries"))
+			throw new ConfigParseException("Invalid tee sink config. ('" + prefix + "primary' and '" + prefix + "secondaries' are required.)");
+		int queueCapacity = Integer.parseInt(config.getProperty("queue.capacity", "1000"));
+		if(queueCapacity <= 0)
+			throw new ConfigParseException("Invalid tee sink config. ('" + prefix + "queue.capacity' should be positive.)");
+		String[] names = config.getProperty("secondaries", null).split(",");
+		for(int i=0; i<names.length; i++)
+			names[i] = names[i].trim();
+		Sink primary = config.createSink(config.getProperty("primary", null));
+		Sink[] secondaries = new Sink[names.length];
+		try {
+			for(int i=0; i<names.length; i++)
+				secondaries[i] = config.createSink(names[i]);
+		} catch (ConfigParseException | RuntimeException e) {
+			primary.close();
+			for(Sink secondary : secondaries)
+				if(secondary != null)
+					secondary.close();
+			throw e;
+		}
+		return new TeeSink(primary, secondaries, names, queueCapacity);
+	}
+}
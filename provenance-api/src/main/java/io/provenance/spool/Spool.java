@@ -0,0 +1,558 @@
+package io.provenance.spool;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import io.provenance.codec.BlockCompressor;
+import io.provenance.codec.DatapointCodec;
+import io.provenance.types.Datapoint;
+
+/**
+ * Append-only, memory-mapped spool of Datapoints on local disk. The spool is split into fixed size segment files,
+ * each one starting with the version of the DatapointCodec its records are encoded with. Every record is stored as
+ * [length][crc32][payload] and a full segment is sealed with an end marker before the next
+ * one is started. Records are appended by any number of threads and read back by a single replaying thread, a
+ * segment file is deleted once all of its records have been acknowledged.
+ *
+ * With compression append(Datapoint[]) stores the datapoints of a call as frames of up to FRAME_BYTES encoded bytes,
+ * each one compressed by a BlockCompressor into a single record [length][crc32][raw length][compressed records], the
+ * highest bit of its length marks it as compressed. Frames are replayed as a whole, so a read may return up to a
+ * frame more than requested.
+ *
+ * Segments left over from a previous run are replayed first. Records of a segment that was not fully acknowledged
+ * are replayed again, so the sink behind the spool should treat writes of the same Datapoint as idempotent.
+ *
+ * The tail is only moved past a record once it is written completely, so a checksum mismatch before the tail is
+ * damage and not a record still being written. The records of a segment depend on the ones before them, so the
+ * damaged record and the rest of its segment are skipped and counted by getCorrupt(). If it is the active segment, it
+ * is sealed and appends continue in a new one.
+ *
+ * A spool holds a file lock on LOCK_FILE in its directory while it is open, so no two spools ever write to or replay
+ * the same segment files. Within a node, open() shares one spool per directory, i.e. between the sinks of a context
+ * before and after a configuration reload. Replaying threads take getReplayLock() around a read and its
+ * acknowledgement.
+ */
+
+public class Spool implements Closeable {
+
+	private static final int MAGIC = 0x50525631;
+	private static final int SEGMENT_HEADER = 8;
+	private static final int RECORD_HEADER = 8;
+	private static final int END_OF_SEGMENT = -1;
+	private static final int COMPRESSED = 1 << 31;
+	public static final int FRAME_BYTES = 65536;
+	private static final String SUFFIX = ".spool";
+	public static final String LOCK_FILE = "spool.lock";
+
+	private static final Logger LOGGER = Logger.getLogger(Spool.class.getName());
+	private static final HashMap<File, Spool> OPEN = new HashMap<File, Spool>();
+
+	private File dir;
+	private boolean compress;
+	private FileChannel lockChannel;
+	private FileLock lock;
+	private File shared;
+	private int references = 1;
+	private final ReentrantLock replayLock = new ReentrantLock();
+	private int segmentBytes;
+	private ConcurrentSkipListMap<Long, File> segments = new ConcurrentSkipListMap<Long, File>();
+	private long firstSeq;
+	private final AtomicLong pending = new AtomicLong();
+	private final AtomicLong corrupt = new AtomicLong();
+
+	private DatapointCodec writeCodec = new DatapointCodec();
+	private CRC32 writeCrc = new CRC32();
+	private Segment active;
+	private int writePosition;
+	private volatile long tail;
+	private BlockCompressor compressor;
+	private ByteBuffer frame;
+	private byte[] packed;
+	private int maxFrameBytes;
+
+	private DatapointCodec readCodec = new DatapointCodec();
+	private CRC32 readCrc = new CRC32();
+	private Segment reading;
+	private int readPosition;
+	private int pendingPosition;
+	private int pendingCount;
+	private int pendingCorrupt;
+	private boolean pendingEnd;
+	private boolean acknowledged = true;
+	private byte[] readPacked = new byte[0];
+
+	/**
+	 * Opens the spool in the given directory, creating the directory if needed.
+	 *
+	 * @param  dir  Directory holding the segment files.
+	 * @param  segmentBytes  Size of a segment file in bytes.
+	 */
+
+	public Spool(File dir, int segmentBytes) throws IOException {
+		this(dir, segmentBytes, false);
+	}
+
+	/**
+	 * Opens the spool in the given directory, creating the directory if needed.
+	 *
+	 * @param  dir  Directory holding the segment files.
+	 * @param  segmentBytes  Size of a segment file in bytes.
+	 * @param  compress  Whether append(Datapoint[]) compresses the datapoints of a call.
+	 */
+
+	public Spool(File dir, int segmentBytes, boolean compress) throws IOException {
+		this.dir = dir;
+		this.segmentBytes = segmentBytes;
+		this.compress = compress;
+		if(compress) {
+			this.maxFrameBytes = segmentBytes - SEGMENT_HEADER - RECORD_HEADER - 4;
+			this.compressor = new BlockCompressor();
+			this.frame = ByteBuffer.allocate(Math.min(FRAME_BYTES, maxFrameBytes));
+			this.packed = new byte[4 + BlockCompressor.maxCompressedLength(frame.capacity())];
+		}
+		if(!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Could not create spool directory " + dir);
+		lock(new File(dir, LOCK_FILE));
+		File[] files = dir.listFiles((d, name) -> name.matches("\\d+\\" + SUFFIX));
+		long next = 0;
+		if(files != null)
+			for(File file : files) {
+				long seq = Long.parseLong(file.getName().substring(0, file.getName().length() - SUFFIX.length()));
+				segments.put(seq, file);
+				next = Math.max(next, seq + 1);
+			}
+		firstSeq = next;
+		try {
+			startSegment(next);
+		} catch (IOException ioe) {
+			unlock();
+			throw ioe;
+		}
+	}
+
+	/**
+	 * Returns the node's spool of the given directory, opening it if no other sink uses it. Every call has to be
+	 * matched by a close(), the spool is closed with the last one. A spool that is already open keeps its segment size
+	 * and compression until it is closed.
+	 *
+	 * @param  dir  Directory holding the segment files.
+	 * @param  segmentBytes  Size of a segment file in bytes.
+	 * @param  compress  Whether append(Datapoint[]) compresses the datapoints of a call.
+	 */
+
+	public static Spool open(File dir, int segmentBytes, boolean compress) throws IOException {
+		File key = dir.getCanonicalFile();
+		synchronized (OPEN) {
+			Spool spool = OPEN.get(key);
+			if(spool != null) {
+				if(spool.segmentBytes != segmentBytes || spool.compress != compress)
+					LOGGER.warning("Spool " + dir + " is in use, its segment size and compression change once it is closed.");
+				spool.references++;
+				return spool;
+			}
+			spool = new Spool(dir, segmentBytes, compress);
+			spool.shared = key;
+			OPEN.put(key, spool);
+			return spool;
+		}
+	}
+
+	/**
+	 * Returns whether another sink uses the spool as well, see open().
+	 */
+
+	public boolean isShared() {
+		synchronized (OPEN) {
+			return references > 1;
+		}
+	}
+
+	/**
+	 * Returns the lock a replaying thread holds from read() until acknowledge().
+	 */
+
+	public ReentrantLock getReplayLock() {
+		return replayLock;
+	}
+
+	private void lock(File file) throws IOException {
+		lockChannel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		try {
+			lock = lockChannel.tryLock();
+		} catch (OverlappingFileLockException ofle) {
+			lock = null;
+		}
+		if(lock == null) {
+			lockChannel.close();
+			throw new IOException("Spool directory " + dir + " is in use by another spool.");
+		}
+	}
+
+	private void unlock() throws IOException {
+		// closing the channel releases the lock
+		lockChannel.close();
+	}
+
+	/**
+	 * Appends a datapoint to the active segment, starting a new segment if the record does not fit.
+	 *
+	 * @param  dp  Datapoint to be appended.
+	 * @return      Number of bytes appended.
+	 */
+
+	public synchronized int append(Datapoint dp) throws IOException {
+		if(active == null)
+			throw new IOException("Spool is closed.");
+		while(true) {
+			MappedByteBuffer buffer = active.buffer;
+			try {
+				if(writePosition + RECORD_HEADER > buffer.limit())
+					throw new BufferOverflowException();
+				buffer.position(writePosition + RECORD_HEADER);
+				writeCodec.encode(dp, buffer);
+			} catch (BufferOverflowException boe) {
+				if(writePosition == SEGMENT_HEADER)
+					throw new IOException("Datapoint " + dp.getId() + " does not fit into a spool segment.");
+				sealSegment();
+				startSegment(active.seq + 1);
+				continue;
+			}
+			int length = buffer.position() - writePosition - RECORD_HEADER;
+			ByteBuffer payload = buffer.duplicate();
+			payload.limit(buffer.position()).position(writePosition + RECORD_HEADER);
+			writeCrc.reset();
+			writeCrc.update(payload);
+			buffer.putInt(writePosition + 4, (int) writeCrc.getValue());
+			buffer.putInt(writePosition, length);
+			writePosition += RECORD_HEADER + length;
+			tail = (active.seq << 32) | writePosition;
+			pending.incrementAndGet();
+			return RECORD_HEADER + length;
+		}
+	}
+
+	/**
+	 * Appends datapoints, as compressed frames if the spool compresses and one record per datapoint otherwise.
+	 *
+	 * @param  dps  Datapoints to be appended.
+	 * @return      Number of bytes appended.
+	 */
+
+	public synchronized int append(Datapoint[] dps) throws IOException {
+		int bytes = 0;
+		if(compressor == null) {
+			for(Datapoint dp : dps)
+				bytes += append(dp);
+			return bytes;
+		}
+		if(active == null)
+			throw new IOException("Spool is closed.");
+		int i = 0;
+		while(i < dps.length) {
+			int end = encodeFrame(dps, i);
+			int raw = frame.position();
+			int stored = 4 + compressor.compress(frame.array(), 0, raw, packed, 4);
+			boolean compressed = stored < raw;
+			int length = compressed ? stored : raw;
+			MappedByteBuffer buffer = active.buffer;
+			if(writePosition + RECORD_HEADER + length > buffer.limit()) {
+				if(writePosition == SEGMENT_HEADER)
+					throw new IOException("Datapoint " + dps[i].getId() + " does not fit into a spool segment.");
+				sealSegment();
+				startSegment(active.seq + 1);
+				continue;
+			}
+			buffer.position(writePosition + RECORD_HEADER);
+			if(compressed) {
+				ByteBuffer.wrap(packed).putInt(0, raw);
+				buffer.put(packed, 0, stored);
+			} else
+				buffer.put(frame.array(), 0, raw);
+			writeCrc.reset();
+			writeCrc.update(compressed ? packed : frame.array(), 0, length);
+			buffer.putInt(writePosition + 4, (int) writeCrc.getValue());
+			buffer.putInt(writePosition, compressed ? length | COMPRESSED : length);
+			writePosition += RECORD_HEADER + length;
+			tail = (active.seq << 32) | writePosition;
+			pending.addAndGet(end - i);
+			bytes += RECORD_HEADER + length;
+			i = end;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Encodes datapoints from 'start' on into the frame buffer until it is full, growing it for a datapoint that does
+	 * not fit on its own.
+	 *
+	 * @return      Index of the first datapoint not in the frame.
+	 */
+
+	private int encodeFrame(Datapoint[] dps, int start) throws IOException {
+		frame.clear();
+		int end = start;
+		while(end < dps.length) {
+			int position = frame.position();
+			writeCodec.mark();
+			try {
+				writeCodec.encode(dps[end], frame);
+				end++;
+			} catch (BufferOverflowException boe) {
+				frame.position(position);
+				writeCodec.rewind();
+				if(end > start)
+					break;
+				if(frame.capacity() >= maxFrameBytes)
+					throw new IOException("Datapoint " + dps[end].getId() + " does not fit into a spool segment.");
+				frame = ByteBuffer.allocate((int) Math.min(maxFrameBytes, frame.capacity() * 2L));
+				packed = new byte[4 + BlockCompressor.maxCompressedLength(frame.capacity())];
+			}
+		}
+		return end;
+	}
+
+	/**
+	 * Reads up to 'max' records following the last acknowledged one. Must only be called from the replaying thread.
+	 *
+	 * @param  max  Maximum number of records to read.
+	 * @return      The records read, empty if there is nothing to replay at the moment.
+	 */
+
+	public List<Datapoint> read(int max) throws IOException {
+		List<Datapoint> datapoints = new ArrayList<Datapoint>();
+		if(reading == null) {
+			Long seq = segments.firstKey();
+			reading = new Segment(seq, segments.get(seq), false);
+			boolean readable = reading.buffer.capacity() >= SEGMENT_HEADER && reading.buffer.getInt(0) == MAGIC
+					&& reading.buffer.getInt(4) >= DatapointCodec.MIN_VERSION && reading.buffer.getInt(4) <= DatapointCodec.VERSION;
+			readPosition = readable ? SEGMENT_HEADER : reading.buffer.capacity();
+			readCodec.clear();
+			acknowledged = true;
+		}
+		if(acknowledged)
+			readCodec.mark();
+		else
+			readCodec.rewind();
+		acknowledged = false;
+		long tail = this.tail;
+		boolean sealed = (tail >>> 32) != reading.seq;
+		int limit = sealed ? reading.buffer.capacity() : (int) tail;
+		int position = readPosition;
+		pendingEnd = false;
+		pendingCorrupt = 0;
+		int corruptDatapoints = 0;
+		while(datapoints.size() < max) {
+			int word = position + RECORD_HEADER <= limit ? reading.buffer.getInt(position) : END_OF_SEGMENT;
+			int length = word == END_OF_SEGMENT ? END_OF_SEGMENT : word & ~COMPRESSED;
+			if(length <= 0 || position + RECORD_HEADER + length > limit) {
+				pendingEnd = sealed;
+				break;
+			}
+			ByteBuffer payload = reading.buffer.duplicate();
+			payload.limit(position + RECORD_HEADER + length).position(position + RECORD_HEADER);
+			readCrc.reset();
+			readCrc.update(payload.duplicate());
+			if((int) readCrc.getValue() != reading.buffer.getInt(position + 4)) {
+				// the codec's dictionary and time deltas run through the segment, so the records after a damaged one
+				// can not be decoded either and the rest of the segment is skipped, new records go to the next one
+				if(!sealed)
+					rollOver(reading.seq);
+				int end = reading.buffer.capacity();
+				while(position + RECORD_HEADER <= end && (word = reading.buffer.getInt(position)) != END_OF_SEGMENT) {
+					length = word & ~COMPRESSED;
+					if(length <= 0 || position + RECORD_HEADER + length > end)
+						break;
+					pendingCorrupt++;
+					if((word & COMPRESSED) == 0)
+						corruptDatapoints++;
+					position += RECORD_HEADER + length;
+				}
+				pendingEnd = true;
+				break;
+			}
+			if((word & COMPRESSED) != 0)
+				payload = decompress(payload, length);
+			while(payload.hasRemaining())
+				datapoints.add(readCodec.decode(payload));
+			position += RECORD_HEADER + length;
+		}
+		pendingPosition = position;
+		pendingCount = datapoints.size() + corruptDatapoints;
+		return datapoints;
+	}
+
+	private ByteBuffer decompress(ByteBuffer payload, int length) throws IOException {
+		if(readPacked.length < length)
+			readPacked = new byte[length];
+		payload.get(readPacked, 0, length);
+		byte[] records = new byte[ByteBuffer.wrap(readPacked).getInt(0)];
+		try {
+			BlockCompressor.decompress(readPacked, 4, length - 4, records, 0, records.length);
+		} catch (IllegalArgumentException iae) {
+			throw new IOException("Corrupt frame in spool segment " + reading.file + ".", iae);
+		}
+		return ByteBuffer.wrap(records);
+	}
+
+	/**
+	 * Acknowledges the records returned by the last read. A sealed segment is deleted once all of its records
+	 * are acknowledged.
+	 *
+	 * @return      true if the replay position moved.
+	 */
+
+	public boolean acknowledge() throws IOException {
+		if(reading == null)
+			return false;
+		acknowledged = true;
+		if(reading.seq >= firstSeq)
+			pending.addAndGet(-pendingCount);
+		pendingCount = 0;
+		if(pendingCorrupt > 0) {
+			LOGGER.warning("Skipped " + pendingCorrupt + " records from a corrupt record on in spool segment " + reading.file + ".");
+			corrupt.addAndGet(pendingCorrupt);
+			pendingCorrupt = 0;
+		}
+		if(pendingEnd) {
+			reading.close();
+			segments.remove(reading.seq);
+			if(!reading.file.delete())
+				throw new IOException("Could not delete spool segment " + reading.file);
+			reading = null;
+			pendingEnd = false;
+			return true;
+		}
+		boolean moved = pendingPosition != readPosition;
+		readPosition = pendingPosition;
+		return moved;
+	}
+
+	/**
+	 * Returns the number of datapoints appended since the spool was opened that have not been acknowledged yet.
+	 * Segments left over from a previous run are not counted. The datapoints of a corrupt compressed frame can not be
+	 * told apart, they stay counted.
+	 */
+
+	public long getPending() {
+		return pending.get();
+	}
+
+	/**
+	 * Returns the number of records skipped and acknowledged so far because they, or a record before them in their
+	 * segment, were corrupt. A compressed frame is one record.
+	 */
+
+	public long getCorrupt() {
+		return corrupt.get();
+	}
+
+	/**
+	 * Returns true if every appended record has been acknowledged.
+	 */
+
+	public boolean isDrained() {
+		long tail = this.tail;
+		return reading != null && reading.seq == (tail >>> 32) && readPosition == (int) tail;
+	}
+
+	/**
+	 * Closes the spool unless another sink still uses it, see open().
+	 */
+
+	public void close() throws IOException {
+		synchronized (OPEN) {
+			if(--references > 0)
+				return;
+			if(shared != null)
+				OPEN.remove(shared);
+		}
+		try {
+			closeSegments();
+		} finally {
+			unlock();
+		}
+	}
+
+	private synchronized void closeSegments() throws IOException {
+		boolean drained = writePosition == SEGMENT_HEADER || isDrained();
+		if(reading != null)
+			reading.close();
+		if(active != null) {
+			active.buffer.force();
+			active.close();
+			if(drained && active.file.delete())
+				segments.remove(active.seq);
+			active = null;
+		}
+	}
+
+	/**
+	 * Seals the active segment and starts the next one, if segment 'seq' is still the active one.
+	 */
+
+	private synchronized void rollOver(long seq) throws IOException {
+		if(active != null && active.seq == seq) {
+			sealSegment();
+			startSegment(seq + 1);
+		}
+	}
+
+	private void sealSegment() throws IOException {
+		MappedByteBuffer buffer = active.buffer;
+		buffer.limit(buffer.capacity());
+		buffer.putInt(writePosition, END_OF_SEGMENT);
+		buffer.force();
+		active.close();
+	}
+
+	private void startSegment(long seq) throws IOException {
+		File file = new File(dir, String.format("%020d", seq) + SUFFIX);
+		active = new Segment(seq, file, true);
+		active.buffer.putInt(0, MAGIC);
+		active.buffer.putInt(4, DatapointCodec.VERSION);
+		writeCodec.clear();
+		active.buffer.limit(segmentBytes - 4);
+		writePosition = SEGMENT_HEADER;
+		segments.put(seq, file);
+		tail = (seq << 32) | writePosition;
+	}
+
+	private class Segment {
+		private long seq;
+		private File file;
+		private FileChannel channel;
+		private MappedByteBuffer buffer;
+
+		private Segment(long seq, File file, boolean write) throws IOException {
+			this.seq = seq;
+			this.file = file;
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			channel = raf.getChannel();
+			if(write)
+				buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+			else
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), segmentBytes));
+		}
+
+		private void close() throws IOException {
+			channel.close();
+		}
+	}
+}
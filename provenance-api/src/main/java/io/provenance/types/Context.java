@@ -12,11 +12,62 @@ public class Context {
 	private Date receiveTime;
 	private String meterId;
 	private String metricId;
+	private Location spareLoc;
+	private Date spareTimestamp;
+	private Date spareSendTime;
+	private Date spareReceiveTime;
 
 	public static ContextBuilder builder() {
 		return new ContextBuilder();
 	}
 	
+	/**
+	 * Clears all values so the instance can be reused, see Recycler. A Location or Date the context created itself,
+	 * through the ContextBuilder setters taking a label or epoch milliseconds, is kept aside and reused by the next
+	 * call of the same setter. Instances passed in by the caller are only dropped, since they may be shared.
+	 */
+	
+	public void reset() {
+		loc = null;
+		lineNo = null;
+		appName = null;
+		className = null;
+		timestamp = null;
+		sendTime = null;
+		receiveTime = null;
+		meterId = null;
+		metricId = null;
+	}
+	
+	void setLoc(String lable, boolean coordinatesSet, double latitude, double longitude) {
+		if(spareLoc == null)
+			spareLoc = new Location(lable);
+		spareLoc.set(lable, coordinatesSet, latitude, longitude);
+		loc = spareLoc;
+	}
+	
+	void setTimestamp(long time) {
+		spareTimestamp = reuse(spareTimestamp, time);
+		timestamp = spareTimestamp;
+	}
+	
+	void setSendTime(long time) {
+		spareSendTime = reuse(spareSendTime, time);
+		sendTime = spareSendTime;
+	}
+	
+	void setReceiveTime(long time) {
+		spareReceiveTime = reuse(spareReceiveTime, time);
+		receiveTime = spareReceiveTime;
+	}
+	
+	private static Date reuse(Date spare, long time) {
+		if(spare == null)
+			return new Date(time);
+		spare.setTime(time);
+		return spare;
+	}
+	
 	public Location getLoc() {
 		return loc;
 	}
@@ -14,11 +14,36 @@ public class ContextBuilder {
 		return context;
 	}
 	
+	/**
+	 * Starts a new Context, so one builder can be reused for any number of records. The new Context is taken from the
+	 * thread's Recycler pool if it holds one.
+	 */
+	
+	public ContextBuilder reset() {
+		context = Recycler.context();
+		return this;
+	}
+	
 	public ContextBuilder setLocation(Location loc) {
 		context.setLoc(loc);
 		return this;
 	}
 	
+	/**
+	 * Sets a location by its label, the label is interned and the Location instance is reused once the context is
+	 * recycled.
+	 */
+	
+	public ContextBuilder setLocation(String label) {
+		context.setLoc(Recycler.intern(label), false, 0, 0);
+		return this;
+	}
+	
+	public ContextBuilder setLocation(String label, double latitude, double longitude) {
+		context.setLoc(Recycler.intern(label), true, latitude, longitude);
+		return this;
+	}
+	
 	public ContextBuilder setTimestamp(Date date) {
 		context.setTimestamp(date);
 		return this;
@@ -34,6 +59,25 @@ public class ContextBuilder {
 		return this;
 	}
 	
+	/**
+	 * Sets the creation time in milliseconds since the epoch, the Date instance is reused once the context is recycled.
+	 */
+	
+	public ContextBuilder setTimestamp(long time) {
+		context.setTimestamp(time);
+		return this;
+	}
+	
+	public ContextBuilder setSendTimestamp(long time) {
+		context.setSendTime(time);
+		return this;
+	}
+	
+	public ContextBuilder setReceiveTimestamp(long time) {
+		context.setReceiveTime(time);
+		return this;
+	}
+	
 	public ContextBuilder setLineNo(Long lineNo) {
 		context.setLineNo(lineNo);;
 		return this;
@@ -1,16 +1,19 @@
 package io.provenance.types;
 
 import io.provenance.config.ProvenanceConfig;
+import io.provenance.id.IdGenerator;
 
 public class Datapoint {
 	private String id;
+	private long idBits;
+	private IdGenerator idGenerator;
 	private InputDatapoint[] inputDatapoints;
-	private static long counter;
+	private InputSet inputSet;
 	private Context context;
 	
 	public Datapoint() {
-		counter = (long) (Math.random()*1000);
-		id = generateID();
+		idGenerator = ProvenanceConfig.getIdGenerator();
+		idBits = idGenerator.next();
 	}
 	
 	public Datapoint(Context context) {
@@ -29,6 +32,101 @@ public class Datapoint {
 		this.context = context;
 	}
 	
+	/**
+	 * Creates a derived Datapoint whose inputs are held in compact form, see InputSet.
+	 *
+	 * @param  inputSet  Input data points of the new Datapoint.
+	 * @param  context  Context of the new Datapoint, may be null.
+	 */
+	
+	public Datapoint(InputSet inputSet, Context context) {
+		this();
+		this.inputSet = inputSet;
+		this.context = context;
+	}
+	
+	/**
+	 * Creates a Datapoint whose ID is handed out by 'idGenerator' instead of the default context's IdGenerator, i.e.
+	 * the one of the ProvenanceContext it is saved to.
+	 *
+	 * @param  idGenerator  IdGenerator handing out and rendering the ID.
+	 * @param  inputDatapoints  Input data points of the new Datapoint, may be null.
+	 * @param  context  Context of the new Datapoint, may be null.
+	 */
+	
+	public Datapoint(IdGenerator idGenerator, InputDatapoint[] inputDatapoints, Context context) {
+		this.idGenerator = idGenerator;
+		this.idBits = idGenerator.next();
+		this.inputDatapoints = inputDatapoints;
+		this.context = context;
+	}
+	
+	/**
+	 * Creates a derived Datapoint with compact inputs whose ID is handed out by 'idGenerator'.
+	 */
+	
+	public Datapoint(IdGenerator idGenerator, InputSet inputSet, Context context) {
+		this.idGenerator = idGenerator;
+		this.idBits = idGenerator.next();
+		this.inputSet = inputSet;
+		this.context = context;
+	}
+	
+	/**
+	 * Restores a Datapoint that already has an ID, i.e. one read back from a spool or a sink.
+	 *
+	 * @param  id  ID of the stored Datapoint.
+	 * @param  inputDatapoints  Input data points of the stored Datapoint, may be null.
+	 * @param  context  Context of the stored Datapoint, may be null.
+	 */
+	
+	public Datapoint(String id, InputDatapoint[] inputDatapoints, Context context) {
+		this.id = id;
+		this.idBits = -1;
+		this.inputDatapoints = inputDatapoints;
+		this.context = context;
+	}
+	
+	/**
+	 * Restores a Datapoint with compact inputs that already has an ID.
+	 */
+	
+	public Datapoint(String id, InputSet inputSet, Context context) {
+		this.id = id;
+		this.idBits = -1;
+		this.inputSet = inputSet;
+		this.context = context;
+	}
+	
+	Datapoint(String id, long idBits, InputDatapoint[] inputDatapoints, Context context) {
+		this.id = id;
+		this.idBits = idBits;
+		this.inputDatapoints = inputDatapoints;
+		this.context = context;
+	}
+	
+	/**
+	 * Gives a pooled instance a new ID and new contents, see Recycler.
+	 */
+	
+	void reuse(IdGenerator idGenerator, InputDatapoint[] inputDatapoints, Context context) {
+		this.id = null;
+		this.idGenerator = idGenerator;
+		this.idBits = idGenerator.next();
+		this.inputDatapoints = inputDatapoints;
+		this.inputSet = null;
+		this.context = context;
+	}
+	
+	void reset() {
+		id = null;
+		idBits = -1;
+		idGenerator = null;
+		inputDatapoints = null;
+		inputSet = null;
+		context = null;
+	}
+	
 	public Context getContext() {
 		return context;
 	}
@@ -37,31 +135,67 @@ public class Datapoint {
 		this.context = context;
 	}
 	
+	/**
+	 * Returns the input data points, compact inputs are expanded on the first call.
+	 */
+	
 	public InputDatapoint[] getInputDatapoints() {
+		if(inputDatapoints == null && inputSet != null)
+			inputDatapoints = inputSet.toInputDatapoints();
 		return inputDatapoints;
 	}
 
 	public void setInputDatapoints(InputDatapoint[] inputDatapoints) {
 		this.inputDatapoints = inputDatapoints;
+		this.inputSet = null;
+	}
+	
+	/**
+	 * Returns the compact inputs, null if the inputs are enumerated or there are none.
+	 */
+	
+	public InputSet getInputSet() {
+		return inputSet;
+	}
+	
+	public void setInputSet(InputSet inputSet) {
+		this.inputSet = inputSet;
+		this.inputDatapoints = null;
+	}
+	
+	/**
+	 * Returns whether the Datapoint has inputs in either form, without expanding compact ones.
+	 */
+	
+	public boolean hasInputs() {
+		return inputDatapoints != null || inputSet != null;
 	}
 
 	public String getId() {
+		if(id == null)
+			id = idGenerator.toString(idBits);
 		return id;
 	}
 	
-	private String generateID() {
-		StringBuilder id = new StringBuilder()
-				.append(format(Long.toHexString(System.currentTimeMillis() / 1000), 8))
-				.append(format(Long.toHexString(counter++), 6))
-				.append(format(ProvenanceConfig.getName(), 6));
-		return id.toString();
-	}
+	/**
+	 * Returns the ID as handed out by the Datapoint's IdGenerator, without rendering it as a String.
+	 * The bits are only unique among the IDs of the same IdGenerator.
+	 *
+	 * @return      The ID bits, or -1 for a Datapoint restored from a stored ID.
+	 */
 	
-	private String format(String str, int len) {
-		if(str.length() >= len)
-			return str.substring(0, len);
-		else
-			return String.format("%" + len + "s", str).replaceAll(" ", "0");
+	public long getIdBits() {
+		return idBits;
 	}
 	
+	/**
+	 * Returns the ID bits if the ID was handed out by 'idGenerator', i.e. to keep the inputs of a context's aggregates
+	 * as bits only when that context can render them.
+	 *
+	 * @return      The ID bits, or -1 if 'idGenerator' did not hand out the ID.
+	 */
+	
+	public long getIdBits(IdGenerator idGenerator) {
+		return idGenerator == this.idGenerator ? idBits : -1;
+	}
 }
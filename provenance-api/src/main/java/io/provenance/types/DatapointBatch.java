@@ -0,0 +1,380 @@
+package io.provenance.types;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+
+import io.provenance.config.ProvenanceConfig;
+import io.provenance.id.IdGenerator;
+
+/**
+ * Batch of Datapoints stored column by column in primitive parallel arrays, for bulk ingest without a Datapoint,
+ * Context, Location, Date or InputDatapoint object per reading. Labels (meter, metric, location, class, application
+ * and contribution) are interned into a per batch string table and stored as int codes.
+ *
+ * Rows are appended with addRow() and filled through the chained setters, which always apply to the last row.
+ * Once the arrays have grown to the batch's working size, neither adding rows nor clear() allocates.
+ *
+ * Example Usage:
+ *				DatapointBatch batch = new DatapointBatch(1024);
+ *				for(Reading r : readings)
+ *					batch.addRow().setMeterId(r.meter).setMetricId("kWh").setTimestamp(r.time);
+ *				pc.save(batch);
+ *				batch.clear();
+ *
+ * A batch is not thread-safe, sinks only read it during the ingest call it is passed to.
+ */
+
+public class DatapointBatch {
+
+	/**
+	 * Value of an unset time column.
+	 */
+
+	public static final long NO_TIME = Long.MIN_VALUE;
+
+	private static final int NO_LABEL = -1;
+	private static final int MAX_LABELS = 4096;
+	private static final byte HAS_LINE = 1;
+	private static final byte HAS_COORDINATES = 1 << 1;
+
+	private final IdGenerator idGenerator;
+	private int size;
+	private long[] idBits;
+	private byte[] flags;
+	private int[] meterIds;
+	private int[] metricIds;
+	private int[] locations;
+	private double[] latitudes;
+	private double[] longitudes;
+	private long[] lines;
+	private int[] classNames;
+	private int[] appNames;
+	private long[] createTimes;
+	private long[] sendTimes;
+	private long[] receiveTimes;
+	private int[] inputEnds;
+
+	private int inputCount;
+	private String[] inputIds;
+	private int[] contributions;
+
+	private String[] labels = new String[16];
+	private int labelCount;
+	private HashMap<String, Integer> labelCodes = new HashMap<String, Integer>();
+
+	/**
+	 * Creates a new batch using the node's IdGenerator.
+	 *
+	 * @param  capacity  Initial number of rows, the batch grows beyond it if needed.
+	 */
+
+	public DatapointBatch(int capacity) {
+		this(capacity, ProvenanceConfig.getIdGenerator());
+	}
+
+	/**
+	 * Creates a new batch.
+	 *
+	 * @param  capacity  Initial number of rows, the batch grows beyond it if needed.
+	 * @param  idGenerator  Generator of the row IDs.
+	 */
+
+	public DatapointBatch(int capacity, IdGenerator idGenerator) {
+		this.idGenerator = idGenerator;
+		capacity = Math.max(1, capacity);
+		idBits = new long[capacity];
+		flags = new byte[capacity];
+		meterIds = new int[capacity];
+		metricIds = new int[capacity];
+		locations = new int[capacity];
+		latitudes = new double[capacity];
+		longitudes = new double[capacity];
+		lines = new long[capacity];
+		classNames = new int[capacity];
+		appNames = new int[capacity];
+		createTimes = new long[capacity];
+		sendTimes = new long[capacity];
+		receiveTimes = new long[capacity];
+		inputEnds = new int[capacity];
+		inputIds = new String[capacity];
+		contributions = new int[capacity];
+	}
+
+	/**
+	 * Appends a row with a new ID and no context values or inputs.
+	 */
+
+	public DatapointBatch addRow() {
+		if(size == idBits.length)
+			grow();
+		int row = size++;
+		idBits[row] = idGenerator.next();
+		flags[row] = 0;
+		meterIds[row] = metricIds[row] = locations[row] = classNames[row] = appNames[row] = NO_LABEL;
+		createTimes[row] = sendTimes[row] = receiveTimes[row] = NO_TIME;
+		inputEnds[row] = inputCount;
+		return this;
+	}
+
+	/**
+	 * Appends a row with the most common context values.
+	 *
+	 * @param  meterId  Meter ID.
+	 * @param  metricId  Metric ID.
+	 * @param  timestamp  Creation time in milliseconds since the epoch.
+	 */
+
+	public DatapointBatch addRow(String meterId, String metricId, long timestamp) {
+		return addRow().setMeterId(meterId).setMetricId(metricId).setTimestamp(timestamp);
+	}
+
+	public DatapointBatch setMeterId(String meterId) {
+		meterIds[size - 1] = intern(meterId);
+		return this;
+	}
+
+	public DatapointBatch setMetricId(String metricId) {
+		metricIds[size - 1] = intern(metricId);
+		return this;
+	}
+
+	public DatapointBatch setLocation(String label) {
+		locations[size - 1] = intern(label);
+		return this;
+	}
+
+	public DatapointBatch setLocation(String label, double latitude, double longitude) {
+		int row = size - 1;
+		locations[row] = intern(label);
+		latitudes[row] = latitude;
+		longitudes[row] = longitude;
+		flags[row] |= HAS_COORDINATES;
+		return this;
+	}
+
+	public DatapointBatch setLineNo(long lineNo) {
+		lines[size - 1] = lineNo;
+		flags[size - 1] |= HAS_LINE;
+		return this;
+	}
+
+	public DatapointBatch setClassName(String className) {
+		classNames[size - 1] = intern(className);
+		return this;
+	}
+
+	public DatapointBatch setAppName(String appName) {
+		appNames[size - 1] = intern(appName);
+		return this;
+	}
+
+	public DatapointBatch setTimestamp(long time) {
+		createTimes[size - 1] = time;
+		return this;
+	}
+
+	public DatapointBatch setSendTimestamp(long time) {
+		sendTimes[size - 1] = time;
+		return this;
+	}
+
+	public DatapointBatch setReceiveTimestamp(long time) {
+		receiveTimes[size - 1] = time;
+		return this;
+	}
+
+	/**
+	 * Adds an input datapoint to the last row.
+	 *
+	 * @param  id  ID of the input Datapoint.
+	 * @param  contrIbution  Type of contribution of the input, i.e. ("Avg", "Min").
+	 */
+
+	public DatapointBatch addInput(String id, String contrIbution) {
+		if(inputCount == inputIds.length) {
+			inputIds = Arrays.copyOf(inputIds, inputCount * 2);
+			contributions = Arrays.copyOf(contributions, inputCount * 2);
+		}
+		inputIds[inputCount] = id;
+		contributions[inputCount] = intern(contrIbution);
+		inputEnds[size - 1] = ++inputCount;
+		return this;
+	}
+
+	/**
+	 * Removes all rows, keeping the arrays for reuse. The string table is kept as well unless it holds more than
+	 * MAX_LABELS labels.
+	 */
+
+	public void clear() {
+		Arrays.fill(inputIds, 0, inputCount, null);
+		size = 0;
+		inputCount = 0;
+		if(labelCount > MAX_LABELS) {
+			Arrays.fill(labels, 0, labelCount, null);
+			labelCount = 0;
+			labelCodes.clear();
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public long getIdBits(int row) {
+		return idBits[row];
+	}
+
+	public String getId(int row) {
+		return idGenerator.toString(idBits[row]);
+	}
+
+	public String getMeterId(int row) {
+		return label(meterIds[row]);
+	}
+
+	public String getMetricId(int row) {
+		return label(metricIds[row]);
+	}
+
+	public String getLocation(int row) {
+		return label(locations[row]);
+	}
+
+	public boolean hasCoordinates(int row) {
+		return (flags[row] & HAS_COORDINATES) != 0;
+	}
+
+	public double getLatitude(int row) {
+		return latitudes[row];
+	}
+
+	public double getLongitude(int row) {
+		return longitudes[row];
+	}
+
+	public boolean hasLineNo(int row) {
+		return (flags[row] & HAS_LINE) != 0;
+	}
+
+	public long getLineNo(int row) {
+		return lines[row];
+	}
+
+	public String getClassName(int row) {
+		return label(classNames[row]);
+	}
+
+	public String getAppName(int row) {
+		return label(appNames[row]);
+	}
+
+	/**
+	 * Returns the creation time in milliseconds since the epoch, NO_TIME if it is not set.
+	 */
+
+	public long getTimestamp(int row) {
+		return createTimes[row];
+	}
+
+	public long getSendTimestamp(int row) {
+		return sendTimes[row];
+	}
+
+	public long getReceiveTimestamp(int row) {
+		return receiveTimes[row];
+	}
+
+	public int getInputCount(int row) {
+		return inputEnds[row] - inputStart(row);
+	}
+
+	public String getInputId(int row, int input) {
+		return inputIds[inputStart(row) + input];
+	}
+
+	public String getInputContribution(int row, int input) {
+		return label(contributions[inputStart(row) + input]);
+	}
+
+	/**
+	 * Materializes a row as a Datapoint, i.e. for sinks that do not read batches directly.
+	 */
+
+	public Datapoint toDatapoint(int row) {
+		InputDatapoint[] inputs = null;
+		int count = getInputCount(row);
+		if(count > 0) {
+			inputs = new InputDatapoint[count];
+			for(int i=0; i<count; i++)
+				inputs[i] = new InputDatapoint(getInputId(row, i), getInputContribution(row, i));
+		}
+		Context context = new Context();
+		context.setMeterId(getMeterId(row));
+		context.setMetricId(getMetricId(row));
+		if(hasCoordinates(row))
+			context.setLoc(new Location(getLocation(row), latitudes[row], longitudes[row]));
+		else if(locations[row] != NO_LABEL)
+			context.setLoc(new Location(getLocation(row)));
+		if(hasLineNo(row))
+			context.setLineNo(lines[row]);
+		context.setClassName(getClassName(row));
+		context.setAppName(getAppName(row));
+		context.setTimestamp(date(createTimes[row]));
+		context.setSendTime(date(sendTimes[row]));
+		context.setReceiveTime(date(receiveTimes[row]));
+		return new Datapoint(getId(row), idBits[row], inputs, context);
+	}
+
+	public Datapoint[] toDatapoints() {
+		Datapoint[] datapoints = new Datapoint[size];
+		for(int row=0; row<size; row++)
+			datapoints[row] = toDatapoint(row);
+		return datapoints;
+	}
+
+	private int inputStart(int row) {
+		return row == 0 ? 0 : inputEnds[row - 1];
+	}
+
+	private int intern(String label) {
+		if(label == null)
+			return NO_LABEL;
+		Integer code = labelCodes.get(label);
+		if(code == null) {
+			if(labelCount == labels.length)
+				labels = Arrays.copyOf(labels, labelCount * 2);
+			labels[labelCount] = label;
+			code = labelCount++;
+			labelCodes.put(label, code);
+		}
+		return code;
+	}
+
+	private String label(int code) {
+		return code == NO_LABEL ? null : labels[code];
+	}
+
+	private static Date date(long time) {
+		return time != NO_TIME ? new Date(time) : null;
+	}
+
+	private void grow() {
+		int capacity = idBits.length * 2;
+		idBits = Arrays.copyOf(idBits, capacity);
+		flags = Arrays.copyOf(flags, capacity);
+		meterIds = Arrays.copyOf(meterIds, capacity);
+		metricIds = Arrays.copyOf(metricIds, capacity);
+		locations = Arrays.copyOf(locations, capacity);
+		latitudes = Arrays.copyOf(latitudes, capacity);
+		longitudes = Arrays.copyOf(longitudes, capacity);
+		lines = Arrays.copyOf(lines, capacity);
+		classNames = Arrays.copyOf(classNames, capacity);
+		appNames = Arrays.copyOf(appNames, capacity);
+		createTimes = Arrays.copyOf(createTimes, capacity);
+		sendTimes = Arrays.copyOf(sendTimes, capacity);
+		receiveTimes = Arrays.copyOf(receiveTimes, capacity);
+		inputEnds = Arrays.copyOf(inputEnds, capacity);
+	}
+}
@@ -0,0 +1,466 @@
+package io.provenance.types;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import io.provenance.config.ProvenanceConfig;
+import io.provenance.id.IdGenerator;
+
+/**
+ * Compact set of the input datapoints of a derived Datapoint that all share one contribution tag, i.e. the readings
+ * of an aggregate. IDs rendered by an IdGenerator are held as their sorted ID bits, other IDs are kept as they are.
+ *
+ * The binary form splits the ID bits into containers of 2^16 consecutive values, like a roaring bitmap, and writes
+ * each container as a sorted array of deltas, as runs of consecutive values or as a bitmap, whichever is smallest.
+ * Readings of one meter taken in sequence cost a few bytes per run, interleaved readings of several meters about one
+ * bit per ID in between. The ID strings and InputDatapoint objects are only created when they are asked for.
+ *
+ * Example Usage:
+ *				ProvenanceContext pc = ProvenanceContext.getOrCreate();
+ *				pc.save(new Datapoint(pc.getInputSet(readingIds, "Avg"), context));
+ */
+
+public final class InputSet {
+
+	private static final int FORMAT = 1;
+	private static final int ARRAY = 0;
+	private static final int RUNS = 1;
+	private static final int BITMAP = 2;
+	private static final String[] NO_IDS = new String[0];
+
+	private final String contrIbution;
+	private final long[] bits;
+	private final String[] others;
+	private final String sample;
+	private IdGenerator renderer;
+
+	private InputSet(String contrIbution, long[] bits, String[] others, IdGenerator renderer, String sample) {
+		this.contrIbution = contrIbution;
+		this.bits = bits;
+		this.others = others;
+		this.renderer = renderer;
+		this.sample = sample;
+	}
+
+	/**
+	 * Creates a set of input IDs, IDs rendered by the default context's IdGenerator are stored as their ID bits.
+	 *
+	 * @param  ids  IDs of the input Datapoints.
+	 * @param  contrIbution  Type of contribution of all inputs, i.e. ("Avg", "Min").
+	 */
+
+	public static InputSet of(String[] ids, String contrIbution) {
+		return of(ids, contrIbution, ProvenanceConfig.getIdGenerator());
+	}
+
+	/**
+	 * Creates a set of input IDs, IDs rendered by 'idGenerator' are stored as their ID bits.
+	 */
+
+	public static InputSet of(String[] ids, String contrIbution, IdGenerator idGenerator) {
+		Builder builder = builder(contrIbution, idGenerator);
+		for(String id : ids)
+			builder.add(id);
+		return builder.build();
+	}
+
+	public static Builder builder(String contrIbution) {
+		return builder(contrIbution, ProvenanceConfig.getIdGenerator());
+	}
+
+	/**
+	 * Returns a builder for the inputs of a derived Datapoint, whose ID bits are parsed and rendered by 'idGenerator'.
+	 */
+
+	public static Builder builder(String contrIbution, IdGenerator idGenerator) {
+		return new Builder(contrIbution, idGenerator);
+	}
+
+	public String getContrIbution() {
+		return contrIbution;
+	}
+
+	public int size() {
+		return bits.length + others.length;
+	}
+
+	public boolean contains(String id) {
+		IdGenerator generator = bits.length > 0 ? renderer() : null;
+		long value = generator != null ? generator.parse(id) : -1;
+		if(value != -1 && Arrays.binarySearch(bits, value) >= 0)
+			return true;
+		for(String other : others)
+			if(other.equals(id))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Calls 'action' with every input ID, without creating InputDatapoint objects.
+	 */
+
+	public void forEachId(Consumer<String> action) {
+		if(bits.length > 0) {
+			IdGenerator generator = checkedRenderer();
+			for(long value : bits)
+				action.accept(generator.toString(value));
+		}
+		for(String other : others)
+			action.accept(other);
+	}
+
+	public String[] getIds() {
+		String[] ids = new String[size()];
+		int[] i = new int[1];
+		forEachId(id -> ids[i[0]++] = id);
+		return ids;
+	}
+
+	/**
+	 * Expands the set into the enumerated form, one InputDatapoint per input.
+	 */
+
+	public InputDatapoint[] toInputDatapoints() {
+		InputDatapoint[] inputs = new InputDatapoint[size()];
+		int[] i = new int[1];
+		forEachId(id -> inputs[i[0]++] = new InputDatapoint(id, contrIbution));
+		return inputs;
+	}
+
+	/**
+	 * Writes the binary form at the buffer's position.
+	 *
+	 * @throws BufferOverflowException if it does not fit into the remaining buffer.
+	 */
+
+	public void encode(ByteBuffer buffer) {
+		putVarInt(buffer, FORMAT);
+		putString(buffer, contrIbution);
+		putVarInt(buffer, others.length);
+		for(String other : others)
+			putString(buffer, other);
+		putVarInt(buffer, bits.length);
+		if(bits.length == 0)
+			return;
+		putString(buffer, sample != null ? sample : renderer.toString(bits[0]));
+		long previousHigh = 0;
+		for(int start=0; start<bits.length; ) {
+			long high = bits[start] >>> 16;
+			int end = start + 1;
+			while(end < bits.length && bits[end] >>> 16 == high)
+				end++;
+			putVarLong(buffer, high - previousHigh);
+			putContainer(buffer, start, end);
+			previousHigh = high;
+			start = end;
+		}
+	}
+
+	/**
+	 * Returns the binary form in a heap buffer, positioned to be read, i.e. for a blob column.
+	 */
+
+	public ByteBuffer toByteBuffer() {
+		ByteBuffer buffer = ByteBuffer.allocate(64 + 3 * bits.length + 32 * others.length);
+		while(true) {
+			try {
+				encode(buffer);
+				buffer.flip();
+				return buffer;
+			} catch (BufferOverflowException boe) {
+				buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+			}
+		}
+	}
+
+	/**
+	 * Reads a set from the buffer's position. Only the ID bits are decoded, the ID strings are rendered on demand by the
+	 * IdGenerator of the node that wrote the set.
+	 *
+	 * @throws BufferUnderflowException if the buffer does not hold a complete set.
+	 */
+
+	public static InputSet decode(ByteBuffer buffer) {
+		int format = getVarInt(buffer);
+		if(format != FORMAT)
+			throw new IllegalStateException("Unknown input set format " + format + ".");
+		String contrIbution = Recycler.intern(getString(buffer));
+		int otherCount = getVarInt(buffer);
+		String[] others = otherCount == 0 ? NO_IDS : new String[otherCount];
+		for(int i=0; i<otherCount; i++)
+			others[i] = getString(buffer);
+		int count = getVarInt(buffer);
+		if(count == 0)
+			return new InputSet(contrIbution, new long[0], others, null, null);
+		String sample = getString(buffer);
+		long[] bits = new long[count];
+		long high = 0;
+		for(int n=0; n<count; ) {
+			high += getVarLong(buffer);
+			n = getContainer(buffer, high << 16, bits, n);
+		}
+		return new InputSet(contrIbution, bits, others, null, sample);
+	}
+
+	private IdGenerator renderer() {
+		if(renderer == null) {
+			IdGenerator local = ProvenanceConfig.getDefault() != null ? ProvenanceConfig.getIdGenerator() : null;
+			renderer = local != null ? local.forId(sample) : null;
+		}
+		return renderer;
+	}
+
+	private IdGenerator checkedRenderer() {
+		IdGenerator generator = renderer();
+		if(generator == null)
+			throw new IllegalStateException("No IdGenerator can render the IDs of the node that wrote " + sample + ".");
+		return generator;
+	}
+
+	/*
+	 * A container is written as its type followed by its values' low 16 bits: ARRAY as the count and the deltas of the
+	 * values, RUNS as the count of runs and per run the gap to the previous run and its length minus one, BITMAP as
+	 * the first value, the number of bytes and one bit per value from the first one on.
+	 */
+
+	private void putContainer(ByteBuffer buffer, int start, int end) {
+		int count = end - start;
+		int first = low(start);
+		int last = low(end - 1);
+		int arrayBytes = varIntSize(count);
+		int runs = 0;
+		int runBytes = 0;
+		int runFirst = 0;
+		int runEnd = -1;
+		for(int i=start; i<end; i++) {
+			int value = low(i);
+			arrayBytes += varIntSize(value - runEnd - 1);
+			if(runs == 0 || value != runEnd + 1) {
+				if(runs > 0)
+					runBytes += varIntSize(runEnd - runFirst);
+				runBytes += varIntSize(value - runEnd - 1);
+				runFirst = value;
+				runs++;
+			}
+			runEnd = value;
+		}
+		runBytes += varIntSize(runEnd - runFirst) + varIntSize(runs);
+		int bitmapBytes = (last - first) / 8 + 1;
+		int bitmapSize = varIntSize(first) + varIntSize(bitmapBytes) + bitmapBytes;
+		if(bitmapSize < arrayBytes && bitmapSize < runBytes) {
+			buffer.put((byte) BITMAP);
+			putVarInt(buffer, first);
+			putVarInt(buffer, bitmapBytes);
+			if(buffer.remaining() < bitmapBytes)
+				throw new BufferOverflowException();
+			int base = buffer.position();
+			for(int i=0; i<bitmapBytes; i++)
+				buffer.put(base + i, (byte) 0);
+			for(int i=start; i<end; i++) {
+				int offset = low(i) - first;
+				buffer.put(base + (offset >>> 3), (byte) (buffer.get(base + (offset >>> 3)) | (1 << (offset & 7))));
+			}
+			buffer.position(base + bitmapBytes);
+		} else if(runBytes < arrayBytes) {
+			buffer.put((byte) RUNS);
+			putVarInt(buffer, runs);
+			runEnd = -1;
+			for(int i=start; i<end; ) {
+				runFirst = low(i);
+				int j = i + 1;
+				while(j < end && low(j) == low(j - 1) + 1)
+					j++;
+				putVarInt(buffer, runFirst - runEnd - 1);
+				putVarInt(buffer, low(j - 1) - runFirst);
+				runEnd = low(j - 1);
+				i = j;
+			}
+		} else {
+			buffer.put((byte) ARRAY);
+			putVarInt(buffer, count);
+			int previous = -1;
+			for(int i=start; i<end; i++) {
+				putVarInt(buffer, low(i) - previous - 1);
+				previous = low(i);
+			}
+		}
+	}
+
+	private static int getContainer(ByteBuffer buffer, long base, long[] bits, int n) {
+		int type = buffer.get();
+		if(type == BITMAP) {
+			int first = getVarInt(buffer);
+			int bytes = getVarInt(buffer);
+			for(int i=0; i<bytes; i++) {
+				int b = buffer.get() & 0xFF;
+				for(int bit = 0; b != 0; bit++, b >>>= 1)
+					if((b & 1) != 0)
+						bits[n++] = base + first + i * 8 + bit;
+			}
+		} else if(type == RUNS) {
+			int runs = getVarInt(buffer);
+			int runEnd = -1;
+			for(int r=0; r<runs; r++) {
+				int runFirst = runEnd + 1 + getVarInt(buffer);
+				runEnd = runFirst + getVarInt(buffer);
+				for(int value = runFirst; value <= runEnd; value++)
+					bits[n++] = base + value;
+			}
+		} else if(type == ARRAY) {
+			int count = getVarInt(buffer);
+			int previous = -1;
+			for(int i=0; i<count; i++) {
+				previous += 1 + getVarInt(buffer);
+				bits[n++] = base + previous;
+			}
+		} else {
+			throw new IllegalStateException("Unknown input set container " + type + ".");
+		}
+		return n;
+	}
+
+	private int low(int i) {
+		return (int) (bits[i] & 0xFFFF);
+	}
+
+	private static int varIntSize(int value) {
+		int size = 1;
+		while((value & ~0x7F) != 0) {
+			value >>>= 7;
+			size++;
+		}
+		return size;
+	}
+
+	private static void putString(ByteBuffer buffer, String str) {
+		if(str == null) {
+			putVarInt(buffer, 0);
+			return;
+		}
+		byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+		putVarInt(buffer, bytes.length + 1);
+		buffer.put(bytes);
+	}
+
+	private static String getString(ByteBuffer buffer) {
+		int length = getVarInt(buffer) - 1;
+		if(length < 0)
+			return null;
+		if(length > buffer.remaining())
+			throw new BufferUnderflowException();
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void putVarInt(ByteBuffer buffer, int value) {
+		while((value & ~0x7F) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	private static int getVarInt(ByteBuffer buffer) {
+		int value = 0;
+		for(int shift = 0; shift < 32; shift += 7) {
+			byte b = buffer.get();
+			value |= (b & 0x7F) << shift;
+			if(b >= 0)
+				return value;
+		}
+		throw new IllegalStateException("Malformed varint.");
+	}
+
+	private static void putVarLong(ByteBuffer buffer, long value) {
+		value = (value << 1) ^ (value >> 63);
+		while((value & ~0x7FL) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	private static long getVarLong(ByteBuffer buffer) {
+		long value = 0;
+		for(int shift = 0; shift < 64; shift += 7) {
+			byte b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			if(b >= 0)
+				return (value >>> 1) ^ -(value & 1);
+		}
+		throw new IllegalStateException("Malformed varint.");
+	}
+
+	/**
+	 * Collects the inputs of an InputSet, i.e. while a window of readings is open.
+	 */
+
+	public static final class Builder {
+
+		private final String contrIbution;
+		private final IdGenerator generator;
+		private long[] bits = new long[16];
+		private int count;
+		private String[] others = NO_IDS;
+		private int otherCount;
+
+		private Builder(String contrIbution, IdGenerator generator) {
+			this.contrIbution = Recycler.intern(contrIbution);
+			this.generator = generator;
+		}
+
+		/**
+		 * Adds an input by the ID bits the builder's IdGenerator handed out for it.
+		 */
+
+		public Builder add(long idBits) {
+			if(count == bits.length)
+				bits = Arrays.copyOf(bits, count * 2);
+			bits[count++] = idBits;
+			return this;
+		}
+
+		public Builder add(String id) {
+			long value = generator.parse(id);
+			if(value != -1)
+				return add(value);
+			if(otherCount == others.length)
+				others = Arrays.copyOf(others, Math.max(4, otherCount * 2));
+			others[otherCount++] = id;
+			return this;
+		}
+
+		/**
+		 * Adds the input of a Datapoint, by its ID bits if the builder's IdGenerator handed them out.
+		 */
+
+		public Builder add(Datapoint dp) {
+			long idBits = dp.getIdBits(generator);
+			return idBits != -1 ? add(idBits) : add(dp.getId());
+		}
+
+		/**
+		 * Returns the number of inputs added so far, duplicates included.
+		 */
+
+		public int size() {
+			return count + otherCount;
+		}
+
+		public InputSet build() {
+			long[] sorted = Arrays.copyOf(bits, count);
+			Arrays.sort(sorted);
+			int unique = 0;
+			for(int i=0; i<sorted.length; i++)
+				if(i == 0 || sorted[i] != sorted[unique - 1])
+					sorted[unique++] = sorted[i];
+			String[] distinct = otherCount == 0 ? NO_IDS : Arrays.stream(others, 0, otherCount).distinct().toArray(String[]::new);
+			return new InputSet(contrIbution, unique == sorted.length ? sorted : Arrays.copyOf(sorted, unique), distinct, generator, null);
+		}
+	}
+}
@@ -17,6 +17,17 @@ public class Location {
 		this.coordinatesSet = true;
 	}
 	
+	/**
+	 * Overwrites all values of a Location reused by Context.
+	 */
+	
+	void set(String lable, boolean coordinatesSet, double latitude, double longitude) {
+		this.lable = lable;
+		this.coordinatesSet = coordinatesSet;
+		this.latitude = latitude;
+		this.longitude = longitude;
+	}
+	
 	public void setLotLong(double latitude, double longitude) {
 		this.latitude = latitude;
 		this.longitude = longitude;
@@ -0,0 +1,189 @@
+package io.provenance.types;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.provenance.config.ProvenanceConfig;
+import io.provenance.id.IdGenerator;
+
+/**
+ * Thread-local pools of Context, Datapoint and InputDatapoint instances for the opt-in recycling mode
+ * ('recycle.enabled'). Instances are taken from the calling thread's pools, and a ProvenanceContext in recycling
+ * mode resets them and puts them back once the sink has acknowledged save(). On a steady-state ingest path the same
+ * instances are then reused record after record instead of being allocated. When a pool is empty a new instance is
+ * created, every pool keeps at most MAX_POOLED instances per thread.
+ *
+ * Example Usage:
+ *				ContextBuilder builder = Context.builder();
+ *				for(Reading r : readings) {
+ *					Context context = builder.reset().setMeterId(r.meter).setTimestamp(r.time).build();
+ *					pc.save(Recycler.datapoint(pc.getInputDatapoints(r.inputIds, "Avg"), context));
+ *				}
+ *
+ * In recycling mode a saved datapoint belongs to the ProvenanceContext afterwards. It must not be used or saved again,
+ * and its Context and InputDatapoints must not be shared with other datapoints.
+ */
+
+public final class Recycler {
+
+	public static final int MAX_POOLED = 1024;
+
+	private static final int MAX_INPUTS = 16;
+	private static final int MAX_LABELS = 4096;
+	private static final ConcurrentHashMap<String, String> LABELS = new ConcurrentHashMap<String, String>();
+	private static final ThreadLocal<Recycler> POOLS = ThreadLocal.withInitial(Recycler::new);
+
+	private final Pool<Context> contexts = new Pool<Context>();
+	private final Pool<Datapoint> datapoints = new Pool<Datapoint>();
+	private final Pool<InputDatapoint> inputs = new Pool<InputDatapoint>();
+	@SuppressWarnings("unchecked")
+	private final Pool<InputDatapoint[]>[] inputArrays = (Pool<InputDatapoint[]>[]) new Pool<?>[MAX_INPUTS + 1];
+
+	private Recycler() {
+	}
+
+	/**
+	 * Returns an empty Context.
+	 */
+
+	public static Context context() {
+		Context context = POOLS.get().contexts.poll();
+		return context != null ? context : new Context();
+	}
+
+	/**
+	 * Returns a Datapoint with a new ID from the default context's IdGenerator.
+	 *
+	 * @param  inputDatapoints  Input data points of the Datapoint, may be null.
+	 * @param  context  Context of the Datapoint, may be null.
+	 */
+
+	public static Datapoint datapoint(InputDatapoint[] inputDatapoints, Context context) {
+		return datapoint(ProvenanceConfig.getIdGenerator(), inputDatapoints, context);
+	}
+
+	/**
+	 * Returns a Datapoint with a new ID.
+	 *
+	 * @param  idGenerator  IdGenerator handing out the ID, i.e. the one of the ProvenanceContext it is saved to.
+	 * @param  inputDatapoints  Input data points of the Datapoint, may be null.
+	 * @param  context  Context of the Datapoint, may be null.
+	 */
+
+	public static Datapoint datapoint(IdGenerator idGenerator, InputDatapoint[] inputDatapoints, Context context) {
+		Datapoint dp = POOLS.get().datapoints.poll();
+		if(dp == null)
+			return new Datapoint(idGenerator, inputDatapoints, context);
+		dp.reuse(idGenerator, inputDatapoints, context);
+		return dp;
+	}
+
+	/**
+	 * Returns the input data points of a derived Datapoint, all with the same contribution tag.
+	 *
+	 * @param  ids  IDs of the input Datapoints.
+	 * @param  contrIbution  Type of contribution of the inputs, i.e. ("Avg", "Min").
+	 */
+
+	public static InputDatapoint[] inputs(String[] ids, String contrIbution) {
+		Recycler recycler = POOLS.get();
+		InputDatapoint[] inputDatapoints = ids.length <= MAX_INPUTS ? recycler.inputArrays(ids.length).poll() : null;
+		if(inputDatapoints == null)
+			inputDatapoints = new InputDatapoint[ids.length];
+		contrIbution = intern(contrIbution);
+		for(int i=0; i<ids.length; i++) {
+			InputDatapoint input = recycler.inputs.poll();
+			if(input == null) {
+				input = new InputDatapoint(ids[i], contrIbution);
+			} else {
+				input.setId(ids[i]);
+				input.setContrIbution(contrIbution);
+			}
+			inputDatapoints[i] = input;
+		}
+		return inputDatapoints;
+	}
+
+	/**
+	 * Resets the datapoints, their contexts and input data points and puts them into the calling thread's pools.
+	 */
+
+	public static void release(Datapoint... dps) {
+		Recycler recycler = POOLS.get();
+		for(Datapoint dp : dps) {
+			if(dp == null)
+				continue;
+			Context context = dp.getContext();
+			if(context != null) {
+				context.reset();
+				recycler.contexts.offer(context);
+			}
+			InputDatapoint[] inputDatapoints = dp.getInputSet() == null ? dp.getInputDatapoints() : null;
+			if(inputDatapoints != null) {
+				for(int i=0; i<inputDatapoints.length; i++) {
+					InputDatapoint input = inputDatapoints[i];
+					if(input != null) {
+						input.setId(null);
+						input.setContrIbution(null);
+						recycler.inputs.offer(input);
+						inputDatapoints[i] = null;
+					}
+				}
+				if(inputDatapoints.length <= MAX_INPUTS)
+					recycler.inputArrays(inputDatapoints.length).offer(inputDatapoints);
+			}
+			dp.reset();
+			recycler.datapoints.offer(dp);
+		}
+	}
+
+	/**
+	 * Returns the node wide instance of a label, i.e. a contribution tag or a location label, so equal labels held by
+	 * buffered or cached datapoints share one String. At most MAX_LABELS distinct labels are kept, later ones are
+	 * returned as they are.
+	 */
+
+	public static String intern(String label) {
+		if(label == null)
+			return null;
+		String interned = LABELS.get(label);
+		if(interned != null)
+			return interned;
+		if(LABELS.size() >= MAX_LABELS)
+			return label;
+		interned = LABELS.putIfAbsent(label, label);
+		return interned != null ? interned : label;
+	}
+
+	private Pool<InputDatapoint[]> inputArrays(int length) {
+		Pool<InputDatapoint[]> pool = inputArrays[length];
+		if(pool == null)
+			pool = inputArrays[length] = new Pool<InputDatapoint[]>();
+		return pool;
+	}
+
+	private static final class Pool<T> {
+
+		private Object[] instances = new Object[16];
+		private int size;
+
+		@SuppressWarnings("unchecked")
+		T poll() {
+			if(size == 0)
+				return null;
+			T instance = (T) instances[--size];
+			instances[size] = null;
+			return instance;
+		}
+
+		void offer(T instance) {
+			if(size == instances.length) {
+				if(size == MAX_POOLED)
+					return;
+				Object[] grown = new Object[Math.min(size * 2, MAX_POOLED)];
+				System.arraycopy(instances, 0, grown, 0, size);
+				instances = grown;
+			}
+			instances[size++] = instance;
+		}
+	}
+}
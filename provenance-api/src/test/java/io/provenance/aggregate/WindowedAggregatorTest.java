@@ -0,0 +1,91 @@
+package io.provenance.aggregate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.provenance.ProvenanceContext;
+import io.provenance.config.ContextConfig;
+import io.provenance.id.IdGenerator;
+import io.provenance.id.SequenceIdGenerator;
+import io.provenance.sink.InMemorySink;
+import io.provenance.types.Context;
+import io.provenance.types.Datapoint;
+import io.provenance.types.InputDatapoint;
+import io.provenance.types.Metric;
+
+/**
+ * Inputs of the derived datapoints, for readings of the aggregator's own context and of other ones.
+ */
+
+public class WindowedAggregatorTest {
+
+	private final InMemorySink sink = new InMemorySink(1000);
+	private final List<WindowResult> results = new ArrayList<WindowResult>();
+	private ProvenanceContext pc;
+	private WindowedAggregator aggregator;
+
+	@Before
+	public void setUp() {
+		pc = ProvenanceContext.create(new ContextConfig("aggtst", SequenceIdGenerator.forNode("aggtst"), Metric.values(), sink));
+		aggregator = new WindowedAggregator(pc, 1000, 1000, 0, results::add);
+	}
+
+	@After
+	public void tearDown() {
+		pc.close();
+	}
+
+	@Test
+	public void readingsOfTheContext() {
+		assertInputs(pc.getConfig().getIdGenerator());
+	}
+
+	@Test
+	public void readingsOfAnotherContext() {
+		assertInputs(SequenceIdGenerator.forNode("aggoth"));
+	}
+
+	@Test
+	public void restoredReadings() {
+		assertInputs(null);
+	}
+
+	/**
+	 * Aggregates readings with IDs of 'idGenerator', or with stored IDs for null, and checks that every derived
+	 * datapoint names the readings' own IDs.
+	 */
+
+	private void assertInputs(IdGenerator idGenerator) {
+		IdGenerator other = SequenceIdGenerator.forNode("aggstr");
+		List<String> ids = new ArrayList<String>();
+		double[] values = {3, 1, 4, 1.5, 9, 2.6};
+		for(int i=0; i<values.length; i++) {
+			Context context = Context.builder().setMeterId("meter").setMetricId("kWh").setTimestamp(new Date(100 + i)).build();
+			Datapoint dp = idGenerator != null
+					? new Datapoint(idGenerator, (InputDatapoint[]) null, context)
+					: new Datapoint(other.toString(other.next()), (InputDatapoint[]) null, context);
+			ids.add(dp.getId());
+			aggregator.add(dp, values[i]);
+		}
+		aggregator.flush();
+		assertEquals(1, results.size());
+		WindowResult result = results.get(0);
+		Map<String, Datapoint> saved = sink.fetchAsync(Arrays.asList(result.getAvgId(), result.getMinId(), result.getMaxId())).join();
+		Datapoint avg = saved.get(result.getAvgId());
+		assertNotNull(avg);
+		assertEquals(new HashSet<String>(ids), new HashSet<String>(Arrays.asList(avg.getInputSet().getIds())));
+		assertEquals(ids.get(1), saved.get(result.getMinId()).getInputDatapoints()[0].getId());
+		assertEquals(ids.get(4), saved.get(result.getMaxId()).getInputDatapoints()[0].getId());
+	}
+}
@@ -0,0 +1,194 @@
+package io.provenance.codec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Round trips through BlockCompressor and decompress() of corrupt blocks.
+ */
+
+public class BlockCompressorTest {
+
+	private final BlockCompressor compressor = new BlockCompressor();
+	private final Random random = new Random(42);
+
+	@Test
+	public void emptyBlock() {
+		byte[] compressed = roundTrip(new byte[0]);
+		assertEquals(1, compressed.length);
+	}
+
+	@Test
+	public void shortBlocks() {
+		// blocks shorter than the last literals and the match limit are stored as literals only
+		for(int length=1; length<=20; length++)
+			roundTrip(Arrays.copyOf("abcdabcdabcdabcdabcd".getBytes(), length));
+	}
+
+	@Test
+	public void incompressibleBlock() {
+		byte[] block = randomBytes(100000);
+		byte[] compressed = roundTrip(block);
+		assertTrue(compressed.length <= BlockCompressor.maxCompressedLength(block.length));
+	}
+
+	@Test
+	public void overlappingMatches() {
+		// runs of one byte and of a short pattern are matches with an offset smaller than their length
+		byte[] block = new byte[70000];
+		Arrays.fill(block, 0, 30000, (byte) 'x');
+		for(int i=30000; i<block.length; i++)
+			block[i] = (byte) "abc".charAt(i % 3);
+		byte[] compressed = roundTrip(block);
+		assertTrue(compressed.length < 1000);
+	}
+
+	@Test
+	public void repetitionsWithinTheMaximumOffset() {
+		byte[] chunk = randomBytes(4096);
+		byte[] compressed = roundTrip(repeated(chunk, 60000));
+		assertTrue(compressed.length < chunk.length + 1000);
+	}
+
+	@Test
+	public void repetitionsBeyondTheMaximumOffset() {
+		// the second copy of 'chunk' is more than 64 KB behind the first and can only be stored as literals
+		byte[] chunk = randomBytes(4096);
+		byte[] compressed = roundTrip(repeated(chunk, 70000));
+		assertTrue(compressed.length > chunk.length * 2);
+	}
+
+	@Test
+	public void blocksAtAnOffset() {
+		byte[] block = new byte[5000];
+		for(int i=0; i<block.length; i++)
+			block[i] = (byte) (i % 100 < 50 ? i % 7 : random.nextInt());
+		byte[] src = new byte[block.length + 20];
+		System.arraycopy(block, 0, src, 13, block.length);
+		byte[] compressed = new byte[BlockCompressor.maxCompressedLength(block.length) + 30];
+		int length = compressor.compress(src, 13, block.length, compressed, 17);
+		byte[] dst = new byte[block.length + 40];
+		BlockCompressor.decompress(compressed, 17, length, dst, 11, block.length);
+		assertArrayEquals(block, Arrays.copyOfRange(dst, 11, 11 + block.length));
+	}
+
+	@Test
+	public void reusedCompressor() {
+		byte[] first = randomText(20000);
+		byte[] second = randomText(20000);
+		roundTrip(first);
+		roundTrip(second);
+		roundTrip(first);
+	}
+
+	@Test
+	public void truncatedBlocks() {
+		byte[] block = randomText(20000);
+		byte[] compressed = compress(block);
+		for(int length=0; length<compressed.length; length++)
+			assertCorrupt(Arrays.copyOf(compressed, length), block.length);
+	}
+
+	@Test
+	public void truncatedLengths() {
+		// a literal length of 15 and more continues in the next bytes, as does a match length of 19 and more
+		assertCorrupt(new byte[] {(byte) 0xF0}, 20);
+		assertCorrupt(new byte[] {(byte) 0xF0, (byte) 255, (byte) 255}, 600);
+		assertCorrupt(new byte[] {0x1F, 'a', 1, 0}, 30);
+		assertCorrupt(new byte[] {0x1F, 'a', 1, 0, (byte) 255}, 300);
+	}
+
+	@Test
+	public void lengthsBeyondTheBlock() {
+		// the byte after the block would complete the match length, it must not be read
+		byte[] src = {0x1F, 'a', 1, 0, 0};
+		try {
+			BlockCompressor.decompress(src, 0, 4, new byte[20], 0, 20);
+			fail("Match length was read beyond the block.");
+		} catch (IllegalArgumentException iae) {
+			assertEquals("Corrupt compressed block, truncated match length.", iae.getMessage());
+		}
+	}
+
+	@Test
+	public void invalidMatches() {
+		assertCorrupt(new byte[] {0x10, 'a', 0, 0}, 5);
+		assertCorrupt(new byte[] {0x10, 'a', 2, 0}, 5);
+		assertCorrupt(new byte[] {0x1F, 'a', 1, 0, 100}, 20);
+	}
+
+	@Test
+	public void wrongBlockLength() {
+		byte[] block = randomText(1000);
+		byte[] compressed = compress(block);
+		assertCorrupt(compressed, block.length - 1);
+		assertCorrupt(compressed, block.length + 1);
+	}
+
+	@Test
+	public void randomGarbage() {
+		for(int i=0; i<1000; i++) {
+			byte[] garbage = randomBytes(1 + random.nextInt(64));
+			byte[] dst = new byte[256];
+			try {
+				BlockCompressor.decompress(garbage, 0, garbage.length, dst, 0, dst.length);
+			} catch (IllegalArgumentException iae) {
+				// expected for almost all inputs, any other exception is a bug
+			}
+		}
+	}
+
+	private byte[] roundTrip(byte[] block) {
+		byte[] compressed = compress(block);
+		byte[] decompressed = new byte[block.length];
+		BlockCompressor.decompress(compressed, 0, compressed.length, decompressed, 0, block.length);
+		assertArrayEquals(block, decompressed);
+		return compressed;
+	}
+
+	private byte[] compress(byte[] block) {
+		byte[] compressed = new byte[BlockCompressor.maxCompressedLength(block.length)];
+		return Arrays.copyOf(compressed, compressor.compress(block, 0, block.length, compressed, 0));
+	}
+
+	private static void assertCorrupt(byte[] compressed, int length) {
+		try {
+			BlockCompressor.decompress(compressed, 0, compressed.length, new byte[length], 0, length);
+			fail("Corrupt block of " + compressed.length + " bytes was decompressed.");
+		} catch (IllegalArgumentException iae) {
+			assertTrue(iae.getMessage().startsWith("Corrupt compressed block"));
+		}
+	}
+
+	/**
+	 * Returns 'chunk', 'gap' zero bytes and 'chunk' again.
+	 */
+
+	private static byte[] repeated(byte[] chunk, int gap) {
+		byte[] block = new byte[chunk.length * 2 + gap];
+		System.arraycopy(chunk, 0, block, 0, chunk.length);
+		System.arraycopy(chunk, 0, block, chunk.length + gap, chunk.length);
+		return block;
+	}
+
+	private byte[] randomBytes(int length) {
+		byte[] bytes = new byte[length];
+		random.nextBytes(bytes);
+		return bytes;
+	}
+
+	private byte[] randomText(int length) {
+		String[] words = {"meter-", "kWh", "avg", "2026-10-18T", "location", "\u0001\u0000"};
+		StringBuilder text = new StringBuilder();
+		while(text.length() < length)
+			text.append(words[random.nextInt(words.length)]).append(random.nextInt(100));
+		return Arrays.copyOf(text.toString().getBytes(), length);
+	}
+}
@@ -0,0 +1,248 @@
+package io.provenance.codec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import io.provenance.config.ContextConfig;
+import io.provenance.config.ProvenanceConfig;
+import io.provenance.id.IdGenerator;
+import io.provenance.id.SequenceIdGenerator;
+import io.provenance.sink.InMemorySink;
+import io.provenance.types.Context;
+import io.provenance.types.Datapoint;
+import io.provenance.types.InputDatapoint;
+import io.provenance.types.InputSet;
+import io.provenance.types.Location;
+import io.provenance.types.Metric;
+
+/**
+ * Round trips through DatapointCodec, of version 2 records (enumerated inputs) and version 3 records (input sets).
+ */
+
+public class DatapointCodecTest {
+
+	private final IdGenerator ids = SequenceIdGenerator.forNode("codec-test");
+
+	@BeforeClass
+	public static void configure() {
+		// decoded input sets render their IDs with the generator the default context finds for the writing node
+		ProvenanceConfig.setDefaultIfAbsent(new ContextConfig("codec-test", SequenceIdGenerator.forNode("codec-test"), Metric.values(), new InMemorySink(16)));
+	}
+
+	@Test
+	public void contexts() {
+		long now = System.currentTimeMillis();
+		List<Datapoint> dps = new ArrayList<Datapoint>();
+		dps.add(new Datapoint(ids, (InputDatapoint[]) null, null));
+		dps.add(new Datapoint(ids, (InputDatapoint[]) null, new Context()));
+		dps.add(new Datapoint(ids, (InputDatapoint[]) null, Context.builder().setMeterId("meter-1").setMetricId("kWh")
+				.setLocation(new Location("site-1", 52.52, -13.405)).setLineNo(-42L).setClassName("Reader").setAppName("codec")
+				.setTimestamp(now).setSendTimestamp(now + 5).setReceiveTimestamp(now + 9).build()));
+		// creation times running backwards and send times before the creation time are negative deltas
+		dps.add(new Datapoint(ids, (InputDatapoint[]) null, Context.builder().setMeterId("meter-1").setLocation("site-2")
+				.setTimestamp(now - 60000).setSendTimestamp(now - 60001).build()));
+		dps.add(new Datapoint(ids, (InputDatapoint[]) null, Context.builder().setSendTimestamp(now).setMetricId("\u00e9\u20ac\u0000").build()));
+		dps.add(new Datapoint("external-id", (InputDatapoint[]) null, Context.builder().setTimestamp(0).build()));
+		assertRoundTrip(dps);
+	}
+
+	@Test
+	public void enumeratedInputs() {
+		// the records of version 2 streams, which hold no input sets
+		List<Datapoint> dps = new ArrayList<Datapoint>();
+		dps.add(new Datapoint(ids, new InputDatapoint[0], null));
+		dps.add(new Datapoint(ids, new InputDatapoint[] {new InputDatapoint(ids.toString(ids.next()), "Avg"),
+				new InputDatapoint("external-id", null), new InputDatapoint(null, "Avg")}, Context.builder().setMeterId("meter-2").build()));
+		assertRoundTrip(dps);
+	}
+
+	@Test
+	public void inputSets() {
+		InputSet.Builder inputs = InputSet.builder("Avg", ids);
+		for(int i=0; i<1000; i++)
+			inputs.add(ids.next() + (i % 3 == 0 ? 70000 : 0));
+		inputs.add("external-id");
+		List<Datapoint> dps = new ArrayList<Datapoint>();
+		dps.add(new Datapoint(ids, inputs.build(), Context.builder().setMeterId("meter-3").setTimestamp(1000L).build()));
+		dps.add(new Datapoint(ids, InputSet.builder("Min", ids).build(), null));
+		dps.add(new Datapoint(ids, new InputDatapoint[] {new InputDatapoint("external-id", "Max")}, null));
+		assertRoundTrip(dps);
+	}
+
+	@Test
+	public void labelsBeyondTheDictionary() {
+		// labels past the dictionary's 4096 entries are written as literals
+		List<Datapoint> dps = new ArrayList<Datapoint>();
+		for(int i=0; i<5000; i++)
+			dps.add(new Datapoint(ids, (InputDatapoint[]) null, Context.builder().setMeterId("meter-" + i).setMetricId("kWh").setTimestamp(i * 1000L).build()));
+		dps.add(dps.get(4500));
+		dps.add(dps.get(10));
+		assertRoundTrip(dps);
+	}
+
+	@Test
+	public void recordsThatDoNotFit() {
+		DatapointCodec encoder = new DatapointCodec();
+		Datapoint first = new Datapoint(ids, (InputDatapoint[]) null, Context.builder().setMeterId("meter-1").setTimestamp(5000L).build());
+		Datapoint second = new Datapoint(ids, (InputDatapoint[]) null, Context.builder().setMeterId("meter-2").setMetricId("kWh").setTimestamp(7000L).build());
+		ByteBuffer buffer = ByteBuffer.allocate(4096);
+		encoder.encode(first, buffer);
+		// a failed encode leaves the codec as it was, the record is encoded again into the next buffer
+		for(int space=0; space<20; space++) {
+			ByteBuffer small = ByteBuffer.allocate(space);
+			try {
+				encoder.encode(second, small);
+				fail("Record was encoded into " + space + " bytes.");
+			} catch (BufferOverflowException boe) {
+				// expected
+			}
+		}
+		encoder.encode(second, buffer);
+		buffer.flip();
+		DatapointCodec decoder = new DatapointCodec();
+		assertDatapoint(first, decoder.decode(buffer));
+		assertDatapoint(second, decoder.decode(buffer));
+		assertFalse(buffer.hasRemaining());
+	}
+
+	@Test
+	public void markAndRewind() {
+		List<Datapoint> dps = new ArrayList<Datapoint>();
+		for(int i=0; i<10; i++)
+			dps.add(new Datapoint(ids, (InputDatapoint[]) null, Context.builder().setMeterId("meter-" + i).setTimestamp(i * 1000L).build()));
+		ByteBuffer buffer = encode(new DatapointCodec(), dps);
+		DatapointCodec decoder = new DatapointCodec();
+		for(int i=0; i<5; i++)
+			decoder.decode(buffer);
+		// the records after the mark define new labels and move the time base, after rewind() they decode again
+		decoder.mark();
+		int position = buffer.position();
+		for(int i=5; i<10; i++)
+			decoder.decode(buffer);
+		decoder.rewind();
+		buffer.position(position);
+		for(int i=5; i<10; i++)
+			assertDatapoint(dps.get(i), decoder.decode(buffer));
+	}
+
+	@Test
+	public void truncatedRecords() {
+		List<Datapoint> dps = new ArrayList<Datapoint>();
+		dps.add(new Datapoint(ids, new InputDatapoint[] {new InputDatapoint("external-id", "Avg")}, Context.builder().setMeterId("meter-1")
+				.setLocation(new Location("site-1", 52.52, 13.405)).setTimestamp(1000L).build()));
+		ByteBuffer buffer = encode(new DatapointCodec(), dps);
+		for(int length=0; length<buffer.limit(); length++) {
+			ByteBuffer truncated = buffer.duplicate();
+			truncated.limit(length);
+			try {
+				new DatapointCodec().decode(truncated);
+				fail("Record truncated to " + length + " bytes was decoded.");
+			} catch (BufferUnderflowException bue) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void unknownDictionaryEntries() {
+		DatapointCodec encoder = new DatapointCodec();
+		Datapoint dp = new Datapoint(ids, (InputDatapoint[]) null, Context.builder().setMeterId("meter-1").build());
+		encoder.encode(dp, ByteBuffer.allocate(256));
+		ByteBuffer buffer = ByteBuffer.allocate(256);
+		encoder.encode(dp, buffer);
+		buffer.flip();
+		// the second record refers to the label the first one defined
+		try {
+			new DatapointCodec().decode(buffer);
+			fail("Record was decoded without its dictionary.");
+		} catch (IllegalStateException ise) {
+			assertTrue(ise.getMessage().startsWith("Unknown dictionary entry"));
+		}
+	}
+
+	private void assertRoundTrip(List<Datapoint> dps) {
+		DatapointCodec encoder = new DatapointCodec();
+		DatapointCodec decoder = new DatapointCodec();
+		// the second stream starts from cleared codecs and must not depend on the first one
+		for(int stream=0; stream<2; stream++) {
+			encoder.clear();
+			decoder.clear();
+			ByteBuffer buffer = encode(encoder, dps);
+			for(Datapoint dp : dps)
+				assertDatapoint(dp, decoder.decode(buffer));
+			assertFalse(buffer.hasRemaining());
+		}
+	}
+
+	private static ByteBuffer encode(DatapointCodec encoder, List<Datapoint> dps) {
+		ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+		for(Datapoint dp : dps)
+			encoder.encode(dp, buffer);
+		buffer.flip();
+		return buffer;
+	}
+
+	private static void assertDatapoint(Datapoint expected, Datapoint actual) {
+		assertEquals(expected.getId(), actual.getId());
+		if(expected.getInputSet() != null) {
+			assertNotNull(actual.getInputSet());
+			assertEquals(expected.getInputSet().getContrIbution(), actual.getInputSet().getContrIbution());
+			assertArrayEquals(expected.getInputSet().getIds(), actual.getInputSet().getIds());
+		} else if(expected.getInputDatapoints() != null) {
+			assertNull(actual.getInputSet());
+			InputDatapoint[] inputs = actual.getInputDatapoints();
+			assertEquals(expected.getInputDatapoints().length, inputs.length);
+			for(int i=0; i<inputs.length; i++) {
+				assertEquals(expected.getInputDatapoints()[i].getId(), inputs[i].getId());
+				assertEquals(expected.getInputDatapoints()[i].getContrIbution(), inputs[i].getContrIbution());
+			}
+		} else {
+			assertNull(actual.getInputDatapoints());
+			assertNull(actual.getInputSet());
+		}
+		Context context = expected.getContext();
+		if(context == null) {
+			assertNull(actual.getContext());
+			return;
+		}
+		Context decoded = actual.getContext();
+		assertEquals(context.getMeterId(), decoded.getMeterId());
+		assertEquals(context.getMetricId(), decoded.getMetricId());
+		assertEquals(context.getLineNo(), decoded.getLineNo());
+		assertEquals(context.getClassName(), decoded.getClassName());
+		assertEquals(context.getAppName(), decoded.getAppName());
+		assertEquals(time(context.getTimestamp()), time(decoded.getTimestamp()));
+		assertEquals(time(context.getSendTime()), time(decoded.getSendTime()));
+		assertEquals(time(context.getReceiveTime()), time(decoded.getReceiveTime()));
+		Location loc = context.getLoc();
+		if(loc == null) {
+			assertNull(decoded.getLoc());
+			return;
+		}
+		assertEquals(loc.getLable(), decoded.getLoc().getLable());
+		assertEquals(loc.isCoordinatesSet(), decoded.getLoc().isCoordinatesSet());
+		if(loc.isCoordinatesSet()) {
+			assertEquals(loc.getLatitude(), decoded.getLoc().getLatitude(), 0);
+			assertEquals(loc.getLongitude(), decoded.getLoc().getLongitude(), 0);
+		}
+	}
+
+	private static Long time(Date date) {
+		return date != null ? date.getTime() : null;
+	}
+}
@@ -0,0 +1,103 @@
+package io.provenance.config;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.provenance.ProvenanceContext;
+import io.provenance.exception.ConfigParseException;
+import io.provenance.spool.Spool;
+import io.provenance.types.Context;
+import io.provenance.types.Datapoint;
+import io.provenance.types.InputDatapoint;
+
+/**
+ * Invalid configurations must not leave a sink open, and configurations of one node share its IdGenerator.
+ */
+
+public class ProvenanceConfigTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void invalidConfigsReleaseTheSpool() throws IOException {
+		File dir = folder.newFolder();
+		String[][] invalid = {
+				{"sampling.policy", "sometimes"},
+				{"sampling.policy", "fixed", "sampling.rate", "2"},
+				{"buffer.enabled", "true", "buffer.batch.size", "0"},
+				{"lineage.cache.size", "-1"},
+				{"buffer.linger.ms", "soon"}};
+		for(String[] keys : invalid) {
+			Properties prop = spooled(dir);
+			for(int i=0; i<keys.length; i+=2)
+				prop.setProperty(keys[i], keys[i + 1]);
+			try {
+				ProvenanceConfig.load(prop);
+				fail("Invalid config " + String.join(", ", keys) + " was loaded.");
+			} catch (ConfigParseException cpe) {
+				// the spool is free again, or it was never opened
+				new Spool(dir, 4096).close();
+			}
+		}
+	}
+
+	@Test
+	public void loadedConfigHoldsTheSpoolUntilClosed() throws ConfigParseException, IOException {
+		File dir = folder.newFolder();
+		ContextConfig config = ProvenanceConfig.load(spooled(dir));
+		try {
+			new Spool(dir, 4096).close();
+			fail("Spool directory " + dir + " was opened twice.");
+		} catch (IOException ioe) {
+			// locked by the config's sink
+		}
+		config.getSink().close();
+		new Spool(dir, 4096).close();
+	}
+
+	@Test
+	public void contextsOfOneNodeHandOutDistinctIds() throws ConfigParseException {
+		ProvenanceContext first = ProvenanceContext.create(ProvenanceConfig.load(unspooled()));
+		ProvenanceContext second = ProvenanceContext.create(ProvenanceConfig.load(unspooled()));
+		try {
+			assertSame(first.getConfig().getIdGenerator(), second.getConfig().getIdGenerator());
+			Set<String> ids = new HashSet<String>();
+			Context context = Context.builder().setMeterId("meter").setMetricId("kWh").build();
+			for(int i=0; i<1000; i++) {
+				ProvenanceContext pc = i % 2 == 0 ? first : second;
+				assertTrue(ids.add(new Datapoint(pc.getConfig().getIdGenerator(), (InputDatapoint[]) null, context).getId()));
+			}
+		} finally {
+			first.close();
+			second.close();
+		}
+	}
+
+	private Properties spooled(File dir) throws IOException {
+		Properties prop = unspooled();
+		prop.setProperty("spool.enabled", "true");
+		prop.setProperty("spool.dir", dir.getPath());
+		prop.setProperty("spool.segment.bytes", "65536");
+		return prop;
+	}
+
+	private static Properties unspooled() {
+		Properties prop = new Properties();
+		prop.setProperty("name", "cfgtst");
+		prop.setProperty("sink", "memory");
+		prop.setProperty("metrics", "meterid,metricid,ctime");
+		return prop;
+	}
+}
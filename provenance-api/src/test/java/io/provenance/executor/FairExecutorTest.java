@@ -0,0 +1,120 @@
+package io.provenance.executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Ordering per key, closing, and tasks that queue further tasks.
+ */
+
+public class FairExecutorTest {
+
+	@Test
+	public void tasksOfAKeyRunInOrder() throws InterruptedException {
+		FairExecutor executor = new FairExecutor("order", ExecutionMode.POOL, 4, 64);
+		Map<String, List<Integer>> runs = new HashMap<String, List<Integer>>();
+		for(int key=0; key<8; key++)
+			runs.put("meter-" + key, Collections.synchronizedList(new ArrayList<Integer>()));
+		for(int i=0; i<2000; i++) {
+			String key = "meter-" + (i % 8);
+			int index = i;
+			executor.execute(key, () -> runs.get(key).add(index));
+		}
+		executor.close();
+		for(int key=0; key<8; key++) {
+			List<Integer> run = runs.get("meter-" + key);
+			assertEquals(250, run.size());
+			for(int i=0; i<run.size(); i++)
+				assertEquals(key + i * 8, (int) run.get(i));
+		}
+	}
+
+	@Test
+	public void closeRunsPendingTasksAndRejectsNewOnes() {
+		FairExecutor executor = new FairExecutor("close", ExecutionMode.POOL, 2, 16);
+		int[] done = new int[1];
+		for(int i=0; i<10; i++)
+			executor.execute(null, () -> {
+				synchronized (done) {
+					done[0]++;
+				}
+			});
+		executor.close();
+		assertEquals(10, done[0]);
+		assertEquals(0, executor.getPending());
+		try {
+			executor.execute("meter", () -> {});
+			fail("Closed executor accepted a task.");
+		} catch (RejectedExecutionException ree) {
+			// expected
+		}
+	}
+
+	@Test
+	public void workersDoNotWaitForAFreeSlot() throws InterruptedException {
+		// the only slot is taken by the running task, a task it queues would wait for itself
+		FairExecutor executor = new FairExecutor("nested", ExecutionMode.POOL, 1, 1);
+		CountDownLatch ran = new CountDownLatch(1);
+		AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		executor.execute("meter", () -> {
+			assertTrue(executor.isWorker());
+			try {
+				executor.execute("meter", () -> {});
+			} catch (RejectedExecutionException ree) {
+				failure.set(ree);
+			}
+			ran.countDown();
+		});
+		assertTrue(ran.await(10, TimeUnit.SECONDS));
+		assertTrue(failure.get() instanceof RejectedExecutionException);
+		assertFalse(executor.isWorker());
+		executor.close();
+	}
+
+	@Test
+	public void workersQueueTasksWhileThereIsRoom() throws InterruptedException {
+		FairExecutor executor = new FairExecutor("chain", ExecutionMode.POOL, 1, 4);
+		CountDownLatch ran = new CountDownLatch(3);
+		executor.execute("meter", () -> {
+			ran.countDown();
+			executor.execute("meter", () -> {
+				ran.countDown();
+				executor.execute("meter", ran::countDown);
+			});
+		});
+		assertTrue(ran.await(10, TimeUnit.SECONDS));
+		executor.close();
+	}
+
+	@Test
+	public void workersCanNotCloseTheirExecutor() throws InterruptedException {
+		FairExecutor executor = new FairExecutor("self", ExecutionMode.POOL, 1, 1);
+		CountDownLatch ran = new CountDownLatch(1);
+		AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		executor.execute(null, () -> {
+			try {
+				executor.close();
+			} catch (IllegalStateException ise) {
+				failure.set(ise);
+			}
+			ran.countDown();
+		});
+		assertTrue(ran.await(10, TimeUnit.SECONDS));
+		assertTrue(failure.get() instanceof IllegalStateException);
+		executor.close();
+	}
+}
@@ -0,0 +1,54 @@
+package io.provenance.id;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Ordering and rendering of SequenceIdGenerator IDs.
+ */
+
+public class SequenceIdGeneratorTest {
+
+	@Test
+	public void startsAfterTheSecondOfCreation() {
+		long created = System.currentTimeMillis() / 1000;
+		SequenceIdGenerator ids = new SequenceIdGenerator("seq");
+		assertTrue((ids.next() >>> 24) > created);
+	}
+
+	@Test
+	public void restartsDoNotRepeatIds() throws InterruptedException {
+		// a restart happens once the clock has reached the second of the last ID handed out
+		long last = new SequenceIdGenerator("seq").next();
+		while(System.currentTimeMillis() / 1000 < last >>> 24)
+			Thread.sleep(50);
+		assertTrue(new SequenceIdGenerator("seq").next() > last);
+	}
+
+	@Test
+	public void idsIncreaseAndRoundTrip() {
+		SequenceIdGenerator ids = new SequenceIdGenerator("seq");
+		long previous = -1;
+		for(int i=0; i<10000; i++) {
+			long id = ids.next();
+			assertTrue(id > previous);
+			String rendered = ids.toString(id);
+			assertEquals(20, rendered.length());
+			assertTrue(rendered.endsWith("000seq"));
+			assertEquals(id, ids.parse(rendered));
+			previous = id;
+		}
+	}
+
+	@Test
+	public void otherNodesAreParsedByTheirOwnGenerator() {
+		SequenceIdGenerator ids = new SequenceIdGenerator("seq");
+		String other = new SequenceIdGenerator("other").toString(new SequenceIdGenerator("other").next());
+		assertEquals(-1, ids.parse(other));
+		IdGenerator forOther = ids.forId(other);
+		assertTrue(forOther.parse(other) != -1);
+		assertEquals(other, forOther.toString(forOther.parse(other)));
+	}
+}
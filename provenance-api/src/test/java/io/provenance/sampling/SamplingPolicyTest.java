@@ -0,0 +1,93 @@
+package io.provenance.sampling;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import io.provenance.id.IdGenerator;
+import io.provenance.id.SequenceIdGenerator;
+import io.provenance.types.Context;
+import io.provenance.types.Datapoint;
+import io.provenance.types.InputDatapoint;
+
+/**
+ * Summaries of sampled out datapoints, with the next stored datapoint of their meter and on their own once they waited
+ * too long.
+ */
+
+public class SamplingPolicyTest {
+
+	private final IdGenerator ids = new SequenceIdGenerator("sampling-test");
+
+	@Test
+	public void summaryFollowsTheNextStoredDatapoint() {
+		QuietSampler sampler = new QuietSampler();
+		SamplingPolicy policy = new SamplingPolicy(sampler, true);
+		Datapoint quiet = datapoint("quiet", 1000);
+		Datapoint[] dps = {datapoint("loud", 2000), quiet};
+		Datapoint[] stored = policy.apply(dps, ids);
+		assertArrayEquals(new Datapoint[] {dps[0]}, stored);
+		assertEquals(1, policy.getPendingMeters());
+		sampler.storeQuiet = true;
+		Datapoint next = datapoint("quiet", 3000);
+		stored = policy.apply(new Datapoint[] {next}, ids);
+		assertEquals(2, stored.length);
+		assertSame(next, stored[0]);
+		assertSummary(stored[1], quiet, 3000);
+		assertEquals(0, policy.getPendingMeters());
+	}
+
+	@Test
+	public void quietMetersAreSummarizedOnTheirOwn() throws InterruptedException {
+		SamplingPolicy policy = new SamplingPolicy(new QuietSampler(), true, 20);
+		Datapoint first = datapoint("quiet", 1000);
+		Datapoint last = datapoint("quiet", 1500);
+		assertEquals(0, policy.apply(new Datapoint[] {first, last}, ids).length);
+		assertEquals(1, policy.getPendingMeters());
+		Thread.sleep(50);
+		// the meter stores nothing, the next call of any meter returns its summary
+		Datapoint loud = datapoint("loud", 2000);
+		Datapoint[] stored = policy.apply(new Datapoint[] {loud}, ids);
+		assertEquals(2, stored.length);
+		assertSame(loud, stored[0]);
+		assertSummary(stored[1], first, 1500);
+		assertTrue(stored[1].getInputSet().contains(last.getId()));
+		assertEquals(0, policy.getPendingMeters());
+		Datapoint[] next = {datapoint("loud", 2500)};
+		assertSame(next, policy.apply(next, ids));
+	}
+
+	private static void assertSummary(Datapoint summary, Datapoint sampledOut, long timestamp) {
+		assertEquals(SamplingPolicy.SAMPLED, summary.getInputSet().getContrIbution());
+		assertTrue(summary.getInputSet().contains(sampledOut.getId()));
+		assertEquals(sampledOut.getContext().getMeterId(), summary.getContext().getMeterId());
+		assertEquals("kWh", summary.getContext().getMetricId());
+		assertEquals(timestamp, summary.getContext().getTimestamp().getTime());
+	}
+
+	private Datapoint datapoint(String meterId, long timestamp) {
+		return new Datapoint(ids, (InputDatapoint[]) null, Context.builder().setMeterId(meterId).setMetricId("kWh").setTimestamp(timestamp).build());
+	}
+
+	/**
+	 * Samples out every datapoint of the meter "quiet" unless 'storeQuiet' is set.
+	 */
+
+	private static final class QuietSampler implements Sampler {
+
+		private volatile boolean storeQuiet;
+
+		@Override
+		public boolean sample(Datapoint dp) {
+			return storeQuiet || !dp.getContext().getMeterId().equals("quiet");
+		}
+
+		@Override
+		public double getRate() {
+			return 1;
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package io.provenance.sink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import io.provenance.id.SequenceIdGenerator;
+import io.provenance.types.Datapoint;
+import io.provenance.types.InputDatapoint;
+
+/**
+ * Every datapoint BufferedSink accepted reaches the underlying sink, also when it is closed during ingest.
+ */
+
+public class BufferedSinkTest {
+
+	private final Datapoint datapoint = new Datapoint(SequenceIdGenerator.forNode("buftst"), (InputDatapoint[]) null, null);
+
+	@Test
+	public void closeFlushesEveryAcceptedDatapoint() throws InterruptedException {
+		for(int round=0; round<50; round++) {
+			CountingSink counting = new CountingSink();
+			BufferedSink buffered = new BufferedSink(counting, 16, 1, 64);
+			AtomicLong accepted = new AtomicLong();
+			Thread[] ingesters = new Thread[4];
+			for(int t=0; t<ingesters.length; t++) {
+				ingesters[t] = new Thread(() -> {
+					try {
+						while(true) {
+							buffered.ingest(datapoint);
+							accepted.incrementAndGet();
+						}
+					} catch (IllegalStateException ise) {
+						// closed
+					}
+				});
+				ingesters[t].start();
+			}
+			Thread.sleep(round % 5);
+			buffered.close();
+			for(Thread ingester : ingesters)
+				ingester.join();
+			assertEquals(accepted.get(), counting.ingested.get());
+			assertEquals(0, buffered.getQueueDepth());
+		}
+	}
+
+	@Test
+	public void closedSinkRejectsDatapoints() {
+		BufferedSink buffered = new BufferedSink(new CountingSink(), 16, 1, 64);
+		buffered.close();
+		try {
+			buffered.ingest(datapoint);
+			fail("Closed sink accepted a datapoint.");
+		} catch (IllegalStateException ise) {
+			// expected
+		}
+	}
+
+	private static final class CountingSink implements Sink {
+
+		private final AtomicLong ingested = new AtomicLong();
+
+		public void connect() {
+		}
+
+		public void defineSchema() {
+		}
+
+		public String[] ingest(Datapoint... datapoints) {
+			ingested.addAndGet(datapoints.length);
+			return new String[datapoints.length];
+		}
+
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,279 @@
+package io.provenance.spool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.provenance.codec.DatapointCodec;
+import io.provenance.id.IdGenerator;
+import io.provenance.id.SequenceIdGenerator;
+import io.provenance.types.Context;
+import io.provenance.types.Datapoint;
+import io.provenance.types.InputDatapoint;
+
+/**
+ * Sharing and locking of spool directories, and the replay of their segments.
+ */
+
+public class SpoolTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final IdGenerator ids = new SequenceIdGenerator("spool-test");
+
+	@Test
+	public void openSharesOneSpoolPerDirectory() throws IOException {
+		File dir = folder.newFolder();
+		Spool first = Spool.open(dir, 4096, false);
+		Spool second = Spool.open(new File(dir, "."), 4096, false);
+		assertSame(first, second);
+		assertTrue(first.isShared());
+		assertLocked(dir);
+		first.close();
+		assertFalse(second.isShared());
+		assertLocked(dir);
+		second.close();
+		new Spool(dir, 4096).close();
+	}
+
+	@Test
+	public void sharedSpoolReplaysEveryRecordOnce() throws IOException {
+		File dir = folder.newFolder();
+		Spool first = Spool.open(dir, 4096, false);
+		Spool second = Spool.open(dir, 4096, false);
+		List<String> appended = new ArrayList<String>();
+		for(int i=0; i<1000; i++) {
+			Datapoint dp = datapoint(i);
+			(i % 2 == 0 ? first : second).append(dp);
+			appended.add(dp.getId());
+		}
+		assertTrue(dir.list((d, name) -> name.endsWith(".spool")).length > 1);
+		List<String> replayed = new ArrayList<String>();
+		for(int round=0; ; round++) {
+			Spool replaying = round % 2 == 0 ? first : second;
+			replaying.getReplayLock().lock();
+			try {
+				for(Datapoint dp : replaying.read(64))
+					replayed.add(dp.getId());
+				if(!replaying.acknowledge() && replaying.isDrained())
+					break;
+			} finally {
+				replaying.getReplayLock().unlock();
+			}
+		}
+		assertEquals(appended, replayed);
+		assertEquals(appended.size(), new HashSet<String>(replayed).size());
+		first.close();
+		second.close();
+	}
+
+	@Test
+	public void pendingCountsUnacknowledgedDatapoints() throws IOException {
+		for(boolean compress : new boolean[] {false, true}) {
+			File dir = folder.newFolder();
+			Spool spool = new Spool(dir, 4096, compress);
+			Datapoint[] dps = new Datapoint[300];
+			for(int i=0; i<dps.length; i++)
+				dps[i] = datapoint(i);
+			spool.append(dps);
+			assertEquals(300, spool.getPending());
+			int replayed = 0;
+			while(replayed < dps.length) {
+				int read = spool.read(40).size();
+				// reading alone does not count, the records are read again if they are not acknowledged
+				assertEquals(dps.length - replayed, spool.getPending());
+				spool.acknowledge();
+				replayed += read;
+				assertEquals(dps.length - replayed, spool.getPending());
+			}
+			assertTrue(spool.isDrained());
+			assertEquals(0, spool.getPending());
+			spool.append(datapoint(0));
+			spool.close();
+			// the segment left over is replayed by the next spool, but its records were not appended by it
+			Spool reopened = new Spool(dir, 4096, compress);
+			int leftOver = 0;
+			do {
+				leftOver += reopened.read(40).size();
+				reopened.acknowledge();
+				assertEquals(0, reopened.getPending());
+			} while(!reopened.isDrained());
+			assertTrue(leftOver > 0);
+			reopened.close();
+		}
+	}
+
+	@Test
+	public void corruptRecordsAreSkipped() throws IOException {
+		File dir = folder.newFolder();
+		Spool spool = new Spool(dir, 65536);
+		List<String> appended = new ArrayList<String>();
+		int corruptAt = 0;
+		for(int i=0, position=8; i<10; i++) {
+			Datapoint dp = datapoint(i);
+			if(i == 3)
+				corruptAt = position + 8;
+			else
+				appended.add(dp.getId());
+			position += spool.append(dp);
+		}
+		// damage the payload of the fourth record in the active segment, behind the tail
+		File segment = dir.listFiles((d, name) -> name.endsWith(".spool"))[0];
+		try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+			file.seek(corruptAt);
+			int b = file.read();
+			file.seek(corruptAt);
+			file.write(b ^ 0xFF);
+		}
+		// the records after it depend on it and are skipped as well, new ones go to the next segment
+		Datapoint late = datapoint(10);
+		List<String> replayed = new ArrayList<String>();
+		for(Datapoint dp : spool.read(100))
+			replayed.add(dp.getId());
+		spool.append(late);
+		assertEquals(0, spool.getCorrupt());
+		assertTrue(spool.acknowledge());
+		assertEquals(appended.subList(0, 3), replayed);
+		assertEquals(7, spool.getCorrupt());
+		assertEquals(1, spool.getPending());
+		assertEquals(late.getId(), spool.read(100).get(0).getId());
+		spool.acknowledge();
+		assertEquals(0, spool.getPending());
+		assertTrue(spool.isDrained());
+		spool.close();
+	}
+
+	@Test
+	public void segmentsRollOverAndReplayInOrder() throws IOException {
+		for(boolean compress : new boolean[] {false, true}) {
+			File dir = folder.newFolder();
+			Spool spool = new Spool(dir, 4096, compress);
+			List<String> appended = new ArrayList<String>();
+			for(int i=0; i<2000; i+=50) {
+				Datapoint[] dps = new Datapoint[50];
+				for(int j=0; j<dps.length; j++) {
+					dps[j] = datapoint(i + j);
+					appended.add(dps[j].getId());
+				}
+				spool.append(dps);
+			}
+			int segments = dir.list((d, name) -> name.endsWith(".spool")).length;
+			assertTrue(segments > 2);
+			spool.close();
+			// the next spool replays the segments left over in order and deletes each one once it is acknowledged
+			Spool reopened = new Spool(dir, 4096, compress);
+			List<String> replayed = new ArrayList<String>();
+			do {
+				for(Datapoint dp : reopened.read(64))
+					replayed.add(dp.getId());
+				reopened.acknowledge();
+			} while(!reopened.isDrained());
+			assertEquals(appended, replayed);
+			assertEquals(1, dir.list((d, name) -> name.endsWith(".spool")).length);
+			reopened.close();
+			assertEquals(0, dir.list((d, name) -> name.endsWith(".spool")).length);
+		}
+	}
+
+	@Test
+	public void replayAfterCrash() throws IOException {
+		File dir = folder.newFolder();
+		File crashed = folder.newFolder();
+		Spool spool = new Spool(dir, 4096);
+		List<String> appended = new ArrayList<String>();
+		for(int i=0; i<300; i++) {
+			Datapoint dp = datapoint(i);
+			spool.append(dp);
+			appended.add(dp.getId());
+		}
+		// a crash leaves the segments as they are: the active one is not sealed and its last record may be torn, the
+		// length of a record is written after its payload and checksum
+		File[] files = dir.listFiles((d, name) -> name.endsWith(".spool"));
+		Arrays.sort(files);
+		for(File file : files)
+			Files.copy(file.toPath(), new File(crashed, file.getName()).toPath());
+		try (RandomAccessFile file = new RandomAccessFile(new File(crashed, files[files.length - 1].getName()), "rw")) {
+			int last = 8;
+			for(int position=8, length; (length = readInt(file, position)) > 0; position += 8 + length)
+				last = position;
+			file.seek(last);
+			file.writeInt(0);
+		}
+		spool.close();
+		Spool recovered = new Spool(crashed, 4096);
+		List<String> replayed = new ArrayList<String>();
+		do {
+			for(Datapoint dp : recovered.read(64))
+				replayed.add(dp.getId());
+			recovered.acknowledge();
+		} while(!recovered.isDrained());
+		assertEquals(appended.subList(0, appended.size() - 1), replayed);
+		assertEquals(0, recovered.getCorrupt());
+		recovered.close();
+	}
+
+	@Test
+	public void segmentsOfOtherCodecVersions() throws IOException {
+		// version 2 segments hold the same records without input sets, others can not be decoded and are dropped
+		int[] versions = {DatapointCodec.MIN_VERSION - 1, DatapointCodec.MIN_VERSION, DatapointCodec.VERSION, DatapointCodec.VERSION + 1};
+		for(int version : versions) {
+			File dir = folder.newFolder();
+			Spool spool = new Spool(dir, 4096);
+			List<String> appended = new ArrayList<String>();
+			for(int i=0; i<5; i++) {
+				Datapoint dp = datapoint(i);
+				spool.append(dp);
+				appended.add(dp.getId());
+			}
+			spool.close();
+			File segment = dir.listFiles((d, name) -> name.endsWith(".spool"))[0];
+			try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+				file.seek(4);
+				file.writeInt(version);
+			}
+			Spool reopened = new Spool(dir, 4096);
+			List<String> replayed = new ArrayList<String>();
+			for(Datapoint dp : reopened.read(100))
+				replayed.add(dp.getId());
+			assertTrue(reopened.acknowledge());
+			boolean readable = version >= DatapointCodec.MIN_VERSION && version <= DatapointCodec.VERSION;
+			assertEquals(readable ? appended : new ArrayList<String>(), replayed);
+			assertFalse(segment.exists());
+			reopened.close();
+		}
+	}
+
+	private Datapoint datapoint(int i) {
+		return new Datapoint(ids, (InputDatapoint[]) null, Context.builder().setMeterId("meter-" + (i % 7)).setMetricId("kWh").build());
+	}
+
+	private static int readInt(RandomAccessFile file, long position) throws IOException {
+		file.seek(position);
+		return file.readInt();
+	}
+
+	private static void assertLocked(File dir) {
+		try {
+			new Spool(dir, 4096).close();
+			fail("Spool directory " + dir + " was opened twice.");
+		} catch (IOException ioe) {
+			assertTrue(ioe.getMessage().contains("in use"));
+		}
+	}
+}
@@ -0,0 +1,200 @@
+package io.provenance.types;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import io.provenance.config.ContextConfig;
+import io.provenance.config.ProvenanceConfig;
+import io.provenance.id.IdGenerator;
+import io.provenance.id.SequenceIdGenerator;
+import io.provenance.sink.InMemorySink;
+
+/**
+ * Round trips of the binary form of InputSet, for each container type and across container boundaries.
+ */
+
+public class InputSetTest {
+
+	private final IdGenerator ids = SequenceIdGenerator.forNode("inputs-test");
+	private final Random random = new Random(42);
+
+	@BeforeClass
+	public static void configure() {
+		// decoded sets render their IDs with the generator the default context finds for the writing node
+		ProvenanceConfig.setDefaultIfAbsent(new ContextConfig("inputs-test", SequenceIdGenerator.forNode("inputs-test"), Metric.values(), new InMemorySink(16)));
+	}
+
+	@Test
+	public void emptySet() {
+		InputSet set = roundTrip(InputSet.builder("Avg", ids).build());
+		assertEquals(0, set.size());
+		assertFalse(set.contains(ids.toString(ids.next())));
+	}
+
+	@Test
+	public void consecutiveIdsAreRuns() {
+		long base = ids.next();
+		InputSet.Builder builder = InputSet.builder("Avg", ids);
+		for(int i=0; i<10000; i++)
+			builder.add(base + i);
+		InputSet set = builder.build();
+		assertTrue(set.toByteBuffer().remaining() < 100);
+		roundTrip(set);
+	}
+
+	@Test
+	public void interleavedIdsAreBitmaps() {
+		// every third ID, i.e. one of three meters read in turn
+		long base = ids.next();
+		InputSet.Builder builder = InputSet.builder("Avg", ids);
+		for(int i=0; i<30000; i+=3)
+			builder.add(base + i);
+		InputSet set = builder.build();
+		assertTrue(set.toByteBuffer().remaining() < 30000 / 8 + 100);
+		roundTrip(set);
+	}
+
+	@Test
+	public void sparseIdsAreArrays() {
+		long base = ids.next();
+		InputSet.Builder builder = InputSet.builder("Avg", ids);
+		for(int i=0; i<100; i++)
+			builder.add(base + i * 500);
+		InputSet set = builder.build();
+		assertTrue(set.toByteBuffer().remaining() < 100 * 2 + 100);
+		roundTrip(set);
+	}
+
+	@Test
+	public void idsAcrossContainers() {
+		// containers hold 2^16 values, the sets span several of them with gaps of any size in between
+		long base = ids.next() & ~0xFFFFL;
+		long[] offsets = {0, 1, 0xFFFE, 0xFFFF, 0x10000, 0x10001, 0x2FFFF, 0x30000, 1L << 24, (1L << 24) + 5, (1L << 32) + 7};
+		InputSet.Builder builder = InputSet.builder("Avg", ids);
+		for(long offset : offsets)
+			builder.add(base + offset);
+		roundTrip(builder.build());
+		TreeSet<Long> values = new TreeSet<Long>();
+		builder = InputSet.builder("Avg", ids);
+		for(int i=0; i<5000; i++) {
+			long value = base + random.nextInt(1 << 20);
+			values.add(value);
+			builder.add(value);
+		}
+		InputSet set = roundTrip(builder.build());
+		assertEquals(values.size(), set.size());
+	}
+
+	@Test
+	public void duplicatesAndOrder() {
+		long base = ids.next();
+		InputSet set = InputSet.builder("Avg", ids).add(base + 5).add(base).add(base + 5).add(base + 2).add("external-id").add("external-id").build();
+		assertEquals(4, set.size());
+		assertArrayEquals(new String[] {ids.toString(base), ids.toString(base + 2), ids.toString(base + 5), "external-id"}, set.getIds());
+		roundTrip(set);
+	}
+
+	@Test
+	public void idsOfOtherGenerators() {
+		// IDs the builder's generator can not parse are kept as strings, next to the ID bits
+		IdGenerator other = SequenceIdGenerator.forNode("inputs-other");
+		String[] strings = {other.toString(other.next()), "external-id", "\u00e9\u20ac"};
+		InputSet set = roundTrip(InputSet.of(strings, "Max", ids));
+		assertEquals(3, set.size());
+		assertTrue(set.contains("external-id"));
+		long base = ids.next();
+		InputSet.Builder builder = InputSet.builder("Max", ids);
+		for(String string : strings)
+			builder.add(string);
+		for(int i=0; i<10; i++)
+			builder.add(ids.toString(base + i));
+		set = roundTrip(builder.build());
+		assertEquals(13, set.size());
+		assertTrue(set.contains(ids.toString(base + 3)));
+		assertTrue(set.contains(strings[0]));
+	}
+
+	@Test
+	public void inputDatapoints() {
+		long base = ids.next();
+		InputSet set = InputSet.builder("Avg", ids).add(base).add("external-id").build();
+		InputDatapoint[] inputs = roundTrip(set).toInputDatapoints();
+		assertEquals(2, inputs.length);
+		assertEquals(ids.toString(base), inputs[0].getId());
+		assertEquals("external-id", inputs[1].getId());
+		assertEquals("Avg", inputs[0].getContrIbution());
+		assertEquals("Avg", inputs[1].getContrIbution());
+	}
+
+	@Test
+	public void largeSetsGrowTheBuffer() {
+		InputSet.Builder builder = InputSet.builder("Avg", ids);
+		char[] chars = new char[200];
+		Arrays.fill(chars, 'x');
+		for(int i=0; i<100; i++)
+			builder.add(new String(chars) + i);
+		InputSet set = builder.build();
+		ByteBuffer buffer = set.toByteBuffer();
+		assertTrue(buffer.remaining() > 100 * 200);
+		assertEquals(100, InputSet.decode(buffer).size());
+	}
+
+	@Test
+	public void setsThatDoNotFit() {
+		long base = ids.next();
+		InputSet.Builder builder = InputSet.builder("Avg", ids);
+		for(int i=0; i<1000; i+=3)
+			builder.add(base + i);
+		InputSet set = builder.build();
+		int length = set.toByteBuffer().remaining();
+		for(int space=0; space<length; space++) {
+			try {
+				set.encode(ByteBuffer.allocate(space));
+				fail("Set of " + length + " bytes was encoded into " + space + " bytes.");
+			} catch (BufferOverflowException boe) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void unknownFormat() {
+		ByteBuffer buffer = InputSet.builder("Avg", ids).add(ids.next()).build().toByteBuffer();
+		buffer.put(0, (byte) 2);
+		try {
+			InputSet.decode(buffer);
+			fail("Set of an unknown format was decoded.");
+		} catch (IllegalStateException ise) {
+			assertEquals("Unknown input set format 2.", ise.getMessage());
+		}
+	}
+
+	/**
+	 * Encodes and decodes the set, checks that the decoded set holds the same inputs and returns it.
+	 */
+
+	private static InputSet roundTrip(InputSet set) {
+		ByteBuffer buffer = set.toByteBuffer();
+		InputSet decoded = InputSet.decode(buffer);
+		assertFalse(buffer.hasRemaining());
+		assertEquals(set.getContrIbution(), decoded.getContrIbution());
+		assertEquals(set.size(), decoded.size());
+		String[] expected = set.getIds();
+		assertArrayEquals(expected, decoded.getIds());
+		for(String id : expected)
+			assertTrue(decoded.contains(id));
+		return decoded;
+	}
+}
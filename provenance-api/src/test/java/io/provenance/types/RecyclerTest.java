@@ -0,0 +1,136 @@
+package io.provenance.types;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import io.provenance.id.IdGenerator;
+import io.provenance.id.SequenceIdGenerator;
+
+/**
+ * Reuse of pooled datapoints, contexts and input datapoints. Every test runs on a thread of its own, the pools are
+ * thread-local and other tests leave instances in the pools of the test thread.
+ */
+
+public class RecyclerTest {
+
+	private final IdGenerator ids = SequenceIdGenerator.forNode("recycler-test");
+
+	@Test
+	public void releasedInstancesAreReused() throws Throwable {
+		inNewThread(() -> {
+			Context context = Context.builder().reset().setMeterId("meter-1").setLocation("site-1").setTimestamp(1000L).build();
+			InputDatapoint[] inputs = Recycler.inputs(new String[] {"a", "b"}, "Avg");
+			Datapoint dp = Recycler.datapoint(ids, inputs, context);
+			String id = dp.getId();
+			InputDatapoint first = inputs[0];
+			Recycler.release(dp);
+			assertNull(dp.getContext());
+			assertNull(dp.getInputDatapoints());
+			assertNull(inputs[0]);
+			Context reused = Context.builder().reset().setMetricId("kWh").build();
+			assertSame(context, reused);
+			assertNull(reused.getMeterId());
+			assertNull(reused.getLoc());
+			assertNull(reused.getTimestamp());
+			InputDatapoint[] reusedInputs = Recycler.inputs(new String[] {"c", "d"}, "Max");
+			assertSame(inputs, reusedInputs);
+			assertTrue(reusedInputs[0] == first || reusedInputs[1] == first);
+			assertEquals("c", reusedInputs[0].getId());
+			assertEquals("Max", reusedInputs[1].getContrIbution());
+			Datapoint next = Recycler.datapoint(ids, reusedInputs, reused);
+			assertSame(dp, next);
+			assertNotEquals(id, next.getId());
+			assertSame(reused, next.getContext());
+		});
+	}
+
+	@Test
+	public void inputArraysArePooledByLength() throws Throwable {
+		inNewThread(() -> {
+			InputDatapoint[] two = Recycler.inputs(new String[] {"a", "b"}, "Avg");
+			String[] many = new String[17];
+			for(int i=0; i<many.length; i++)
+				many[i] = "id-" + i;
+			InputDatapoint[] large = Recycler.inputs(many, "Avg");
+			Recycler.release(new Datapoint(ids, two, null), new Datapoint(ids, large, null));
+			assertNotSame(two, Recycler.inputs(new String[] {"a", "b", "c"}, "Avg"));
+			assertSame(two, Recycler.inputs(new String[] {"a", "b"}, "Avg"));
+			// arrays longer than 16 inputs are not pooled, their input datapoints are
+			assertNotSame(large, Recycler.inputs(many, "Avg"));
+		});
+	}
+
+	@Test
+	public void poolsAreBounded() throws Throwable {
+		inNewThread(() -> {
+			List<Datapoint> released = new ArrayList<Datapoint>();
+			for(int i=0; i<Recycler.MAX_POOLED + 10; i++)
+				released.add(new Datapoint(ids, (InputDatapoint[]) null, null));
+			Recycler.release(released.toArray(new Datapoint[0]));
+			Set<Datapoint> pooled = Collections.newSetFromMap(new IdentityHashMap<Datapoint, Boolean>());
+			pooled.addAll(released);
+			int reused = 0;
+			for(int i=0; i<Recycler.MAX_POOLED + 10; i++)
+				if(pooled.contains(Recycler.datapoint(ids, null, null)))
+					reused++;
+			assertEquals(Recycler.MAX_POOLED, reused);
+		});
+	}
+
+	@Test
+	public void poolsArePerThread() throws Throwable {
+		AtomicReference<Datapoint> released = new AtomicReference<Datapoint>();
+		inNewThread(() -> {
+			Datapoint dp = new Datapoint(ids, (InputDatapoint[]) null, null);
+			Recycler.release(dp);
+			released.set(dp);
+		});
+		inNewThread(() -> assertNotSame(released.get(), Recycler.datapoint(ids, null, null)));
+	}
+
+	@Test
+	public void inputSetsAreNotPooled() throws Throwable {
+		inNewThread(() -> {
+			InputSet set = InputSet.builder("Avg", ids).add(ids.next()).build();
+			Datapoint dp = new Datapoint(ids, set, null);
+			Recycler.release(dp);
+			assertNull(dp.getInputSet());
+			assertEquals(1, set.size());
+		});
+	}
+
+	@Test
+	public void labelsAreInterned() {
+		String label = new String("recycler-label");
+		assertSame(Recycler.intern(label), Recycler.intern(new String("recycler-label")));
+		assertNull(Recycler.intern(null));
+	}
+
+	private static void inNewThread(Runnable test) throws Throwable {
+		AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread thread = new Thread(() -> {
+			try {
+				test.run();
+			} catch (Throwable t) {
+				failure.set(t);
+			}
+		});
+		thread.start();
+		thread.join();
+		if(failure.get() != null)
+			throw failure.get();
+	}
+}
@@ -0,0 +1,63 @@
+package io.provenance.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import io.provenance.codec.DatapointCodec;
+import io.provenance.types.Datapoint;
+import io.provenance.types.InputDatapoint;
+
+/**
+ * Serialization of a Datapoint with inputs and a full Context, the record format used by the spool.
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+	private DatapointCodec codec = new DatapointCodec();
+	private ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+	private ByteBuffer encoded = ByteBuffer.allocateDirect(4096);
+	private Datapoint dp;
+
+	@Setup
+	public void setup(ContextState state) {
+		InputDatapoint[] inputs = state.pc.getInputDatapoints(state.inputIds, "avg");
+		dp = new Datapoint(inputs, ContextState.context(System.currentTimeMillis()));
+		codec.clear();
+		codec.encode(dp, encoded);
+		encoded.flip();
+	}
+
+	@Benchmark
+	@Threads(1)
+	public int encode() {
+		buffer.clear();
+		codec.encode(dp, buffer);
+		return buffer.position();
+	}
+
+	@Benchmark
+	@Threads(1)
+	public Datapoint decode() {
+		codec.clear();
+		encoded.rewind();
+		return codec.decode(encoded);
+	}
+}
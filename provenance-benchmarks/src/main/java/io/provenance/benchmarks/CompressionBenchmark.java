@@ -0,0 +1,112 @@
+package io.provenance.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.provenance.codec.BlockCompressor;
+import io.provenance.codec.DatapointCodec;
+import io.provenance.types.Context;
+import io.provenance.types.Datapoint;
+import io.provenance.types.InputDatapoint;
+
+/**
+ * CPU cost of block compression against the bytes it saves, for a block of BLOCK datapoints of 20 meters read once a
+ * second, every fifth one derived from two readings, as written by the file sink and the compressing spool. Scores
+ * are per datapoint. The 'rawBytes' and 'storedBytes' counters of encodeAndCompress are the encoded and the
+ * compressed bytes per second, their quotient is the compression ratio.
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompressionBenchmark {
+
+	public static final int BLOCK = 500;
+
+	private DatapointCodec codec = new DatapointCodec();
+	private BlockCompressor compressor = new BlockCompressor();
+	private Datapoint[] block = new Datapoint[BLOCK];
+	private ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+	private byte[] compressed = new byte[BlockCompressor.maxCompressedLength(1 << 20)];
+	private byte[] decompressed = new byte[1 << 20];
+	private int encodedLength;
+	private int compressedLength;
+
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Bytes {
+		public long rawBytes;
+		public long storedBytes;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			rawBytes = 0;
+			storedBytes = 0;
+		}
+	}
+
+	@Setup
+	public void setup(ContextState state) {
+		long now = System.currentTimeMillis();
+		for(int i=0; i<BLOCK; i++) {
+			InputDatapoint[] inputs = i % 5 == 0 ? state.pc.getInputDatapoints(new String[] {state.inputIds[i % 16], state.inputIds[(i + 1) % 16]}, "avg") : null;
+			Context context = ContextState.context(now + i * 1000L);
+			context.setMeterId("meter-" + (i % 20));
+			block[i] = inputs != null ? new Datapoint(inputs, context) : new Datapoint(context);
+		}
+		encodedLength = encodeBlock();
+		compressedLength = compressor.compress(buffer.array(), 0, encodedLength, compressed, 0);
+	}
+
+	private int encodeBlock() {
+		buffer.clear();
+		codec.clear();
+		for(Datapoint dp : block)
+			codec.encode(dp, buffer);
+		return buffer.position();
+	}
+
+	@Benchmark
+	@Threads(1)
+	@OperationsPerInvocation(BLOCK)
+	public int encode() {
+		return encodeBlock();
+	}
+
+	@Benchmark
+	@Threads(1)
+	@OperationsPerInvocation(BLOCK)
+	public int encodeAndCompress(Bytes bytes) {
+		int length = encodeBlock();
+		int stored = compressor.compress(buffer.array(), 0, length, compressed, 0);
+		bytes.rawBytes += length;
+		bytes.storedBytes += stored;
+		return stored;
+	}
+
+	@Benchmark
+	@Threads(1)
+	@OperationsPerInvocation(BLOCK)
+	public byte[] decompress() {
+		BlockCompressor.decompress(compressed, 0, compressedLength, decompressed, 0, encodedLength);
+		return decompressed;
+	}
+}
@@ -0,0 +1,52 @@
+package io.provenance.benchmarks;
+
+import java.util.Date;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import io.provenance.ProvenanceContext;
+import io.provenance.config.ContextConfig;
+import io.provenance.id.SequenceIdGenerator;
+import io.provenance.types.Context;
+import io.provenance.types.Datapoint;
+import io.provenance.types.Location;
+import io.provenance.types.Metric;
+
+/**
+ * ProvenanceContext with all metrics configured, writing to a NullSink.
+ */
+
+@State(Scope.Benchmark)
+public class ContextState {
+
+	public static final String NODE = "bf74ff";
+
+	public ProvenanceContext pc;
+	public NullSink sink;
+	public String[] inputIds;
+
+	@Setup
+	public void setup() {
+		sink = new NullSink();
+		pc = ProvenanceContext.create(new ContextConfig(NODE, SequenceIdGenerator.forNode(NODE), Metric.values(), sink));
+		inputIds = new String[16];
+		for(int i=0; i<inputIds.length; i++)
+			inputIds[i] = new Datapoint().getId();
+	}
+
+	public static Context context(long now) {
+		return Context.builder()
+				.setAppName("benchmark")
+				.setClassName("ContextState.java")
+				.setLineNo(42L)
+				.setLocation(new Location("Berlin", 52.52, 13.40))
+				.setMeterId("meter-1")
+				.setMetricId("kwh")
+				.setTimestamp(new Date(now))
+				.setSendTimestamp(new Date(now + 5))
+				.setReceiveTimestamp(new Date(now + 9))
+				.build();
+	}
+}
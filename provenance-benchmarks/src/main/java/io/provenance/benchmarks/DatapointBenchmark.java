@@ -0,0 +1,44 @@
+package io.provenance.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.provenance.types.Datapoint;
+
+/**
+ * Datapoint construction and ID rendering.
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DatapointBenchmark {
+
+	@Benchmark
+	@Threads(1)
+	public Datapoint create(ContextState state) {
+		return new Datapoint();
+	}
+
+	@Benchmark
+	@Threads(1)
+	public String createWithId(ContextState state) {
+		return new Datapoint().getId();
+	}
+
+	@Benchmark
+	@Threads(4)
+	public String createWithIdContended(ContextState state) {
+		return new Datapoint().getId();
+	}
+}
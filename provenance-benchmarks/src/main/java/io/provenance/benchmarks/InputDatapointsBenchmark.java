@@ -0,0 +1,32 @@
+package io.provenance.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.provenance.types.InputDatapoint;
+
+/**
+ * ProvenanceContext.getInputDatapoints for an aggregate of 16 inputs.
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InputDatapointsBenchmark {
+
+	@Benchmark
+	@Threads(1)
+	public InputDatapoint[] getInputDatapoints(ContextState state) {
+		return state.pc.getInputDatapoints(state.inputIds, "avg");
+	}
+}
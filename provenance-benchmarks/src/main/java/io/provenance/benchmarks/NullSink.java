@@ -0,0 +1,37 @@
+package io.provenance.benchmarks;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import io.provenance.sink.Sink;
+import io.provenance.types.Datapoint;
+
+/**
+ * In-memory stand-in for a real sink, it only counts the datapoints it receives so that the benchmarks measure the
+ * API and not the storage.
+ */
+
+public class NullSink implements Sink {
+
+	private final LongAdder ingested = new LongAdder();
+
+	public void connect() {
+	}
+
+	public void defineSchema() {
+	}
+
+	public String[] ingest(Datapoint... datapoints) {
+		String[] ids = new String[datapoints.length];
+		for(int i=0; i<datapoints.length; i++)
+			ids[i] = datapoints[i].getId();
+		ingested.add(datapoints.length);
+		return ids;
+	}
+
+	public long getIngested() {
+		return ingested.sum();
+	}
+
+	public void close() {
+	}
+}
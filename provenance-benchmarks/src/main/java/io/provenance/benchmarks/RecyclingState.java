@@ -0,0 +1,50 @@
+package io.provenance.benchmarks;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import io.provenance.ProvenanceContext;
+import io.provenance.config.ContextConfig;
+import io.provenance.id.SequenceIdGenerator;
+import io.provenance.types.Context;
+import io.provenance.types.ContextBuilder;
+import io.provenance.types.Metric;
+
+/**
+ * ProvenanceContext in recycling mode with all metrics configured, writing to a NullSink, and a ContextBuilder per
+ * benchmark thread.
+ */
+
+@State(Scope.Benchmark)
+public class RecyclingState {
+
+	public ProvenanceContext pc;
+	public String[] inputIds;
+
+	@Setup
+	public void setup(ContextState state) {
+		pc = ProvenanceContext.create(ContextConfig.builder(ContextState.NODE, SequenceIdGenerator.forNode(ContextState.NODE), Metric.values(), new NullSink()).setRecycling(true).build());
+		inputIds = state.inputIds;
+	}
+
+	@State(Scope.Thread)
+	public static class Builder {
+
+		public ContextBuilder builder = Context.builder();
+
+		public Context context(long now) {
+			return builder.reset()
+					.setAppName("benchmark")
+					.setClassName("ContextState.java")
+					.setLineNo(42L)
+					.setLocation("Berlin", 52.52, 13.40)
+					.setMeterId("meter-1")
+					.setMetricId("kwh")
+					.setTimestamp(now)
+					.setSendTimestamp(now + 5)
+					.setReceiveTimestamp(now + 9)
+					.build();
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package io.provenance.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.provenance.types.Datapoint;
+import io.provenance.types.Recycler;
+
+/**
+ * End-to-end ProvenanceContext.save of a reading with a full Context, against the NullSink, with and without
+ * recycling.
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SaveBenchmark {
+
+	@Benchmark
+	@Threads(1)
+	public String[] save(ContextState state) {
+		return state.pc.save(new Datapoint(ContextState.context(System.currentTimeMillis())));
+	}
+
+	@Benchmark
+	@Threads(4)
+	public String[] saveContended(ContextState state) {
+		return state.pc.save(new Datapoint(ContextState.context(System.currentTimeMillis())));
+	}
+
+	@Benchmark
+	@Threads(1)
+	public String[] saveDerived(ContextState state) {
+		return state.pc.save(new Datapoint(state.pc.getInputDatapoints(state.inputIds, "avg"), ContextState.context(System.currentTimeMillis())));
+	}
+
+	@Benchmark
+	@Threads(1)
+	public String[] saveRecycled(RecyclingState state, RecyclingState.Builder builder) {
+		return state.pc.save(Recycler.datapoint(null, builder.context(System.currentTimeMillis())));
+	}
+
+	@Benchmark
+	@Threads(1)
+	public String[] saveDerivedRecycled(RecyclingState state, RecyclingState.Builder builder) {
+		return state.pc.save(Recycler.datapoint(state.pc.getInputDatapoints(state.inputIds, "avg"), builder.context(System.currentTimeMillis())));
+	}
+}
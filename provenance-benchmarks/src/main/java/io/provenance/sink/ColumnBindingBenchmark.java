@@ -0,0 +1,235 @@
+package io.provenance.sink;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.PreparedId;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ProtocolVersion;
+
+import io.provenance.id.IdGenerator;
+import io.provenance.id.SequenceIdGenerator;
+import io.provenance.types.Context;
+import io.provenance.types.Datapoint;
+import io.provenance.types.InputDatapoint;
+import io.provenance.types.Location;
+import io.provenance.types.Metric;
+
+/**
+ * Binding datapoints to the Cassandra insert: ColumnLayout's loop over the precomputed columns against the per
+ * datapoint switch over metric names it replaced, which is kept here as 'bySwitch'. The statement is a stub that only
+ * stores the bound values, so the scores are the cost of the binding code without the driver's serialization. Scores
+ * are per datapoint, for all metrics and for the meter, metric and creation time only. The benchmark lives in the
+ * sink package since ColumnLayout is package private.
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ColumnBindingBenchmark {
+
+	public static final int BLOCK = 500;
+
+	@Param({"all", "meterid,metricid,ctime"})
+	public String metrics;
+
+	private ColumnLayout layout;
+	private String[] metricNames;
+	private boolean locationExist;
+	private Datapoint[] block = new Datapoint[BLOCK];
+	private StubStatement statement;
+
+	@Setup
+	public void setup() throws ReflectiveOperationException {
+		Metric[] configured;
+		if(metrics.equals("all")) {
+			configured = Metric.values();
+		} else {
+			String[] names = metrics.split(",");
+			configured = new Metric[names.length];
+			for(int i=0; i<names.length; i++)
+				configured[i] = Metric.fromValue(names[i]);
+		}
+		layout = new ColumnLayout(configured);
+		metricNames = new String[configured.length];
+		for(int i=0; i<configured.length; i++) {
+			metricNames[i] = configured[i].name();
+			if(configured[i] == Metric.LOCATION)
+				locationExist = true;
+		}
+		IdGenerator ids = SequenceIdGenerator.forNode("bench");
+		long now = System.currentTimeMillis();
+		for(int i=0; i<BLOCK; i++) {
+			InputDatapoint[] inputs = i % 5 == 0 ? new InputDatapoint[] {new InputDatapoint(ids.toString(ids.next()), "avg"), new InputDatapoint(ids.toString(ids.next()), "avg")} : null;
+			Context context = Context.builder().setMeterId("meter-" + (i % 20)).setMetricId("kWh").setAppName("bench")
+					.setLocation(i % 2 == 0 ? new Location("site-" + (i % 3), 52.5 + i % 7, 13.4) : new Location("site-" + (i % 3)))
+					.setLineNo((long) i).setClassName("Reader").setTimestamp(now + i * 50).setSendTimestamp(now + i * 50 + 5)
+					.setReceiveTimestamp(now + i * 50 + 9).build();
+			block[i] = new Datapoint(ids, inputs, context);
+		}
+		statement = new StubStatement(stubPrepared());
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BLOCK)
+	public StubStatement byLayout() {
+		for(Datapoint dp : block)
+			layout.bind(dp, layout.layoutOf(dp), statement);
+		return statement;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BLOCK)
+	public StubStatement bySwitch() {
+		for(Datapoint dp : block)
+			bindBySwitch(dp, statement);
+		return statement;
+	}
+
+	/**
+	 * The binding of CassandraSink before ColumnLayout, metrics are matched by name for every datapoint.
+	 */
+
+	private void bindBySwitch(Datapoint dp, BoundStatement statement) {
+		Context context = dp.getContext();
+		Location loc = context != null ? context.getLoc() : null;
+		boolean inputs = dp.getInputDatapoints() != null;
+		boolean coordinates = locationExist && loc != null && loc.isCoordinatesSet();
+		int index = 0;
+		statement.setString(index++, dp.getId());
+		if(inputs) {
+			Map<String, String> inputDPs = new HashMap<String,String>();
+			for(InputDatapoint idp : dp.getInputDatapoints())
+				inputDPs.put(idp.getId(), idp.getContrIbution());
+			statement.setMap(index++, inputDPs);
+		}
+		for(int i=0; i<metricNames.length; i++, index++) {
+			if(context == null) {
+				statement.setToNull(index);
+				continue;
+			}
+			switch(metricNames[i]) {
+				case "LOCATION" 	: statement.setString(index, loc != null ? loc.getLable() : null); break;
+				case "LINE" 		: if(context.getLineNo() != null) statement.setLong(index, context.getLineNo()); else statement.setToNull(index); break;
+				case "CLASS" 		: statement.setString(index, context.getClassName()); break;
+				case "APPLICATION" 	: statement.setString(index, context.getAppName()); break;
+				case "CREATE_TIME" 	: statement.setTimestamp(index, context.getTimestamp()); break;
+				case "SEND_TIME" 	: statement.setTimestamp(index, context.getSendTime()); break;
+				case "RECEIVE_TIME" : statement.setTimestamp(index, context.getReceiveTime()); break;
+				case "METER" 		: statement.setString(index, context.getMeterId()); break;
+				case "METRIC" 	 	: statement.setString(index, context.getMetricId()); break;
+				default 			: statement.setToNull(index);
+			}
+		}
+		if(coordinates) {
+			statement.setDouble(index++, loc.getLatitude());
+			statement.setDouble(index++, loc.getLongitude());
+		}
+	}
+
+	/**
+	 * Returns a prepared statement without variables, BoundStatement only asks it for its settings. The driver has no
+	 * public way to create the empty variable definitions and the prepared ID.
+	 */
+
+	private static PreparedStatement stubPrepared() throws ReflectiveOperationException {
+		Field empty = ColumnDefinitions.class.getDeclaredField("EMPTY");
+		empty.setAccessible(true);
+		ColumnDefinitions variables = (ColumnDefinitions) empty.get(null);
+		// PreparedId(MD5Digest id, ColumnDefinitions metadata, ColumnDefinitions resultSetMetadata, int[] routingKeyIndexes, ProtocolVersion)
+		Constructor<?> constructor = PreparedId.class.getDeclaredConstructors()[0];
+		constructor.setAccessible(true);
+		PreparedId id = (PreparedId) constructor.newInstance(null, variables, variables, null, ProtocolVersion.NEWEST_SUPPORTED);
+		return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[] {PreparedStatement.class}, (proxy, method, args) -> {
+			switch(method.getName()) {
+				case "getVariables"		: return variables;
+				case "getPreparedId"	: return id;
+				case "getCodecRegistry"	: return CodecRegistry.DEFAULT_INSTANCE;
+				case "isTracing"		: return false;
+				default					: return null;
+			}
+		});
+	}
+
+	/**
+	 * Bound statement that keeps the values as they are bound instead of serializing them.
+	 */
+
+	public static final class StubStatement extends BoundStatement {
+
+		private final Object[] values = new Object[32];
+		private final long[] longs = new long[32];
+		private final double[] doubles = new double[32];
+
+		StubStatement(PreparedStatement prepared) {
+			super(prepared);
+		}
+
+		@Override
+		public BoundStatement setString(int i, String v) {
+			values[i] = v;
+			return this;
+		}
+
+		@Override
+		public BoundStatement setLong(int i, long v) {
+			longs[i] = v;
+			return this;
+		}
+
+		@Override
+		public BoundStatement setDouble(int i, double v) {
+			doubles[i] = v;
+			return this;
+		}
+
+		@Override
+		public BoundStatement setTimestamp(int i, Date v) {
+			values[i] = v;
+			return this;
+		}
+
+		@Override
+		public BoundStatement setBytes(int i, ByteBuffer v) {
+			values[i] = v;
+			return this;
+		}
+
+		@Override
+		public <K, V> BoundStatement setMap(int i, Map<K, V> v) {
+			values[i] = v;
+			return this;
+		}
+
+		@Override
+		public BoundStatement setToNull(int i) {
+			values[i] = null;
+			return this;
+		}
+	}
+}